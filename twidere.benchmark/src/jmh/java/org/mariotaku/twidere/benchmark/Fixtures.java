@@ -0,0 +1,131 @@
+/*
+ *         Twidere - Twitter client for Android
+ *
+ * Copyright 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mariotaku.twidere.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads recorded API responses from classpath, fixtures are shared with instrumentation tests
+ * (twidere/src/androidTest/res/raw) or stored in this module.
+ */
+final class Fixtures {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Fixtures() {
+    }
+
+    static byte[] read(String name) throws IOException {
+        final InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) throw new IOException("Fixture " + name + " not found");
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[8192];
+            for (int len; (len = in.read(buf)) != -1; ) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static String readString(String name) throws IOException {
+        return new String(read(name), UTF_8);
+    }
+
+    /**
+     * @return Non-empty lines of a recorded stream
+     */
+    static List<String> lines(String name) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        for (String line : readString(name).split("\r?\n")) {
+            if (!line.isEmpty()) lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Builds a stream body like the server sends, messages separated by keep-alive lines
+     */
+    static byte[] stream(List<String> lines, int repeat) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < repeat; i++) {
+            for (String line : lines) {
+                sb.append(line).append("\r\n\r\n");
+            }
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Builds a JSON array of {@code size} items by cycling through {@code items}, each item is a
+     * JSON object or a JSON array of objects
+     */
+    static String array(int size, String... items) {
+        final List<String> objects = new ArrayList<>();
+        for (String item : items) {
+            final String trimmed = item.trim();
+            if (trimmed.startsWith("[")) {
+                objects.addAll(splitArray(trimmed));
+            } else {
+                objects.add(trimmed);
+            }
+        }
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(objects.get(i % objects.size()));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Splits top-level objects of a JSON array, string contents are skipped
+     */
+    private static List<String> splitArray(String array) {
+        final List<String> objects = new ArrayList<>();
+        int depth = 0, start = -1;
+        boolean inString = false;
+        for (int i = 1, j = array.length() - 1; i < j; i++) {
+            final char c = array.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                if (depth++ == 0) start = i;
+            } else if (c == '}') {
+                if (--depth == 0) objects.add(array.substring(start, i + 1));
+            }
+        }
+        return objects;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *         Twidere - Twitter client for Android
+ *
+ * Copyright 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mariotaku.twidere.benchmark;
+
+import org.mariotaku.twidere.util.JsonSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a timeline page of {@link #PAGE_SIZE} statuses from recorded responses of each platform
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimelineParseBenchmark {
+
+    static final int PAGE_SIZE = 50;
+
+    @Param({"twitter", "mastodon", "fanfou"})
+    public String platform;
+
+    private byte[] page;
+    private Class<?> cls;
+
+    @Setup
+    public void setup() throws IOException {
+        switch (platform) {
+            case "twitter": {
+                page = Fixtures.array(PAGE_SIZE, Fixtures.readString("status_8754050.json"),
+                        Fixtures.readString("status_9171447.json")).getBytes(Fixtures.UTF_8);
+                cls = org.mariotaku.microblog.library.twitter.model.Status.class;
+                break;
+            }
+            case "mastodon": {
+                page = Fixtures.array(PAGE_SIZE, Fixtures.readString("mastodon_home_timeline.json"))
+                        .getBytes(Fixtures.UTF_8);
+                cls = org.mariotaku.microblog.library.mastodon.model.Status.class;
+                break;
+            }
+            case "fanfou": {
+                page = Fixtures.array(PAGE_SIZE, Fixtures.readString("fanfou_home_timeline.json"))
+                        .getBytes(Fixtures.UTF_8);
+                cls = org.mariotaku.microblog.library.twitter.model.Status.class;
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException(platform);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<?> parsePage() throws IOException {
+        return JsonSerializer.parseList(new ByteArrayInputStream(page), cls);
+    }
+}
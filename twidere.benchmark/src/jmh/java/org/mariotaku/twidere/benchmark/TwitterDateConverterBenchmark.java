@@ -0,0 +1,54 @@
+/*
+ *         Twidere - Twitter client for Android
+ *
+ * Copyright 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mariotaku.twidere.benchmark;
+
+import org.mariotaku.microblog.library.twitter.util.TwitterDateConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code created_at} is parsed for every status and user in a response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TwitterDateConverterBenchmark {
+
+    private static final String[] DATES = {
+            "Mon Apr 10 09:02:11 +0000 2017",
+            "Sun Jan 01 08:52:45 +0100 2017",
+            "Sat Jun 10 04:54:33 +0000 2017",
+    };
+
+    private final TwitterDateConverter converter = new TwitterDateConverter();
+    private int index;
+
+    @Benchmark
+    public Date parse() {
+        index = (index + 1) % DATES.length;
+        return converter.getFromString(DATES[index]);
+    }
+}
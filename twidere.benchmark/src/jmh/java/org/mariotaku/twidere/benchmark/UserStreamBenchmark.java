@@ -0,0 +1,140 @@
+/*
+ *         Twidere - Twitter client for Android
+ *
+ * Copyright 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mariotaku.twidere.benchmark;
+
+import android.support.annotation.NonNull;
+
+import org.mariotaku.microblog.library.MicroBlogException;
+import org.mariotaku.microblog.library.twitter.callback.SimpleUserStreamCallback;
+import org.mariotaku.microblog.library.twitter.model.Status;
+import org.mariotaku.microblog.library.twitter.model.TwitterStreamObject;
+import org.mariotaku.microblog.library.util.CRLFLineReader;
+import org.mariotaku.restfu.http.ContentType;
+import org.mariotaku.restfu.http.HttpRequest;
+import org.mariotaku.restfu.http.HttpResponse;
+import org.mariotaku.restfu.http.MultiValueMap;
+import org.mariotaku.restfu.http.mime.Body;
+import org.mariotaku.restfu.http.mime.SimpleBody;
+import org.mariotaku.twidere.util.JsonSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a recorded user stream to {@code UserStreamCallback}, and decodes it the way the callback
+ * did before reading lines into a reused byte buffer, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserStreamBenchmark {
+
+    private byte[] stream;
+
+    @Setup
+    public void setup() throws IOException {
+        stream = Fixtures.stream(Fixtures.lines("twitter_user_stream.txt"), 20);
+    }
+
+    @Benchmark
+    public void byteLines(Blackhole bh) throws IOException, MicroBlogException {
+        new ConsumingCallback(bh).result(new FixtureResponse(stream));
+    }
+
+    @Benchmark
+    public void stringLines(Blackhole bh) throws IOException {
+        final CRLFLineReader reader = new CRLFLineReader(new InputStreamReader(
+                new ByteArrayInputStream(stream), Fixtures.UTF_8));
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (line.isEmpty()) continue;
+            final TwitterStreamObject object = JsonSerializer.parse(line, TwitterStreamObject.class);
+            if (TwitterStreamObject.Type.STATUS.equals(object.determine())) {
+                bh.consume(JsonSerializer.parse(line, Status.class));
+            } else {
+                bh.consume(object);
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Handles nothing, parsed objects are only passed to {@link Blackhole}
+     */
+    private static class ConsumingCallback extends SimpleUserStreamCallback {
+        private final Blackhole bh;
+
+        ConsumingCallback(final Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        protected boolean onStatus(@NonNull final Status status) {
+            bh.consume(status);
+            return true;
+        }
+
+        @Override
+        protected void onUnhandledEvent(@NonNull final TwitterStreamObject obj, @NonNull final String json) {
+            bh.consume(obj);
+        }
+    }
+
+    private static class FixtureResponse extends HttpResponse {
+        private final byte[] data;
+
+        FixtureResponse(final byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public HttpRequest getRequest() {
+            return null;
+        }
+
+        @Override
+        public int getStatus() {
+            return 200;
+        }
+
+        @Override
+        public MultiValueMap<String> getHeaders() {
+            return new MultiValueMap<>();
+        }
+
+        @Override
+        public Body getBody() {
+            return new SimpleBody(ContentType.parse("application/json"), null, data.length,
+                    new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -27,6 +27,6 @@ import org.mariotaku.restfu.annotation.method.GET;
  */
 
 public interface MastodonStreaming {
-    @GET("/v1/streaming/public")
+    @GET("/v1/streaming/user")
     void getUserStream(MastodonUserStreamCallback callback) throws MicroBlogException;
 }
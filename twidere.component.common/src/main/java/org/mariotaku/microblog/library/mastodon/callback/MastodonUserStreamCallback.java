@@ -23,12 +23,12 @@ import android.text.TextUtils;
 
 import org.mariotaku.microblog.library.MicroBlogException;
 import org.mariotaku.microblog.library.mastodon.model.Notification;
-import org.mariotaku.microblog.library.twitter.model.Status;
-import org.mariotaku.microblog.library.util.CRLFLineReader;
+import org.mariotaku.microblog.library.mastodon.model.Status;
 import org.mariotaku.restfu.callback.RawCallback;
 import org.mariotaku.restfu.http.HttpResponse;
 import org.mariotaku.twidere.util.JsonSerializer;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
@@ -50,7 +50,8 @@ public abstract class MastodonUserStreamCallback implements RawCallback<MicroBlo
             onException(cause);
             return;
         }
-        final CRLFLineReader reader = new CRLFLineReader(new InputStreamReader(response.getBody().stream(), "UTF-8"));
+        // Server-sent events may end lines with LF only
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody().stream(), "UTF-8"));
         try {
             String event = null;
             for (String line; (line = reader.readLine()) != null && !disconnected; ) {
@@ -68,7 +69,7 @@ public abstract class MastodonUserStreamCallback implements RawCallback<MicroBlo
                 }
                 String name = line.substring(0, valueIndex);
                 valueIndex++;
-                while (line.charAt(valueIndex) == ' ') {
+                while (valueIndex < line.length() && line.charAt(valueIndex) == ' ') {
                     valueIndex++;
                 }
                 String value = line.substring(valueIndex);
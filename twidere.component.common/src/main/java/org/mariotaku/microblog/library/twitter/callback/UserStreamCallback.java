@@ -19,27 +19,21 @@
 package org.mariotaku.microblog.library.twitter.callback;
 
 import android.support.annotation.NonNull;
-import android.text.TextUtils;
 
 import org.mariotaku.microblog.library.MicroBlogException;
 import org.mariotaku.microblog.library.twitter.model.DeletionEvent;
 import org.mariotaku.microblog.library.twitter.model.DirectMessage;
 import org.mariotaku.microblog.library.twitter.model.Status;
-import org.mariotaku.microblog.library.twitter.model.StatusTargetObjectEvent;
-import org.mariotaku.microblog.library.twitter.model.StreamEvent;
 import org.mariotaku.microblog.library.twitter.model.TwitterStreamObject;
 import org.mariotaku.microblog.library.twitter.model.TwitterStreamObject.Type;
 import org.mariotaku.microblog.library.twitter.model.User;
 import org.mariotaku.microblog.library.twitter.model.UserList;
-import org.mariotaku.microblog.library.twitter.model.UserListTargetObjectEvent;
 import org.mariotaku.microblog.library.twitter.model.Warning;
-import org.mariotaku.microblog.library.util.CRLFLineReader;
+import org.mariotaku.microblog.library.util.CRLFByteLineReader;
 import org.mariotaku.restfu.callback.RawCallback;
 import org.mariotaku.restfu.http.HttpResponse;
-import org.mariotaku.twidere.util.JsonSerializer;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Date;
 
 /**
@@ -60,9 +54,9 @@ public abstract class UserStreamCallback implements RawCallback<MicroBlogExcepti
             onException(cause);
             return;
         }
-        final CRLFLineReader reader = new CRLFLineReader(new InputStreamReader(response.getBody().stream(), "UTF-8"));
+        final CRLFByteLineReader reader = new CRLFByteLineReader(response.getBody().stream());
         try {
-            for (String line; (line = reader.readLine()) != null && !disconnected; ) {
+            for (int length; (length = reader.readLine()) >= 0 && !disconnected; ) {
                 if (Thread.currentThread().isInterrupted()) {
                     break;
                 }
@@ -70,10 +64,12 @@ public abstract class UserStreamCallback implements RawCallback<MicroBlogExcepti
                     onConnected();
                     connected = true;
                 }
-                if (TextUtils.isEmpty(line)) continue;
-                final TwitterStreamObject object = JsonSerializer.parse(line, TwitterStreamObject.class);
-                if (!handleEvent(object, line)) {
-                    onUnhandledEvent(object, line);
+                if (length == 0) continue;
+                final byte[] data = reader.getBuffer();
+                // Parsed once, fields are routed to target models while reading
+                final TwitterStreamObject object = TwitterStreamObject.parse(data, length);
+                if (!handleEvent(object.determine(), object)) {
+                    onUnhandledEvent(object, new String(data, 0, length, "UTF-8"));
                 }
             }
         } catch (IOException e) {
@@ -92,13 +88,14 @@ public abstract class UserStreamCallback implements RawCallback<MicroBlogExcepti
         disconnected = true;
     }
 
-    private boolean handleEvent(final TwitterStreamObject object, final String json) throws IOException {
-        switch (object.determine()) {
+    private boolean handleEvent(@TwitterStreamObject.Type final String type,
+            final TwitterStreamObject object) throws IOException {
+        switch (type) {
             case Type.FRIENDS: {
                 return onFriendList(object.getFriends());
             }
             case Type.STATUS: {
-                return onStatus(JsonSerializer.parse(json, Status.class));
+                return onStatus(object.getStatus());
             }
             case Type.DIRECT_MESSAGE: {
                 return onDirectMessage(object.getDirectMessage());
@@ -123,83 +120,66 @@ public abstract class UserStreamCallback implements RawCallback<MicroBlogExcepti
                 return onScrubGeo(scrubGeo.getUserId(), scrubGeo.getUpToStatusId());
             }
             case Type.FAVORITE: {
-                StatusTargetObjectEvent event = JsonSerializer.parse(json, StatusTargetObjectEvent.class);
-                return onFavorite(event.getCreatedAt(), event.getSource(), event.getTarget(),
-                        event.getTargetObject());
+                return onFavorite(object.getCreatedAt(), object.getSource(), object.getTarget(),
+                        targetStatus(object));
             }
             case Type.UNFAVORITE: {
-                StatusTargetObjectEvent event = JsonSerializer.parse(json, StatusTargetObjectEvent.class);
-                return onUnfavorite(event.getSource(), event.getTarget(), event.getTargetObject());
+                return onUnfavorite(object.getSource(), object.getTarget(), targetStatus(object));
             }
             case Type.QUOTED_TWEET: {
-                StatusTargetObjectEvent event = JsonSerializer.parse(json, StatusTargetObjectEvent.class);
-                return onQuotedTweet(event.getCreatedAt(), event.getSource(), event.getTarget(),
-                        event.getTargetObject());
+                return onQuotedTweet(object.getCreatedAt(), object.getSource(), object.getTarget(),
+                        targetStatus(object));
             }
             case Type.RETWEETED_RETWEET: {
-                StatusTargetObjectEvent event = JsonSerializer.parse(json, StatusTargetObjectEvent.class);
-                return onRetweetedRetweet(event.getCreatedAt(), event.getSource(), event.getTarget(),
-                        event.getTargetObject());
+                return onRetweetedRetweet(object.getCreatedAt(), object.getSource(),
+                        object.getTarget(), targetStatus(object));
             }
             case Type.FAVORITED_RETWEET: {
-                StatusTargetObjectEvent event = JsonSerializer.parse(json, StatusTargetObjectEvent.class);
-                return onFavoritedRetweet(event.getCreatedAt(), event.getSource(), event.getTarget(),
-                        event.getTargetObject());
+                return onFavoritedRetweet(object.getCreatedAt(), object.getSource(),
+                        object.getTarget(), targetStatus(object));
             }
             case Type.FOLLOW: {
-                StreamEvent event = JsonSerializer.parse(json, StreamEvent.class);
-                return onFollow(event.getCreatedAt(), event.getSource(), event.getTarget());
+                return onFollow(object.getCreatedAt(), object.getSource(), object.getTarget());
             }
             case Type.UNFOLLOW: {
-                StreamEvent event = JsonSerializer.parse(json, StreamEvent.class);
-                return onUnfollow(event.getCreatedAt(), event.getSource(), event.getTarget());
+                return onUnfollow(object.getCreatedAt(), object.getSource(), object.getTarget());
             }
             case Type.USER_LIST_MEMBER_ADDED: {
-                UserListTargetObjectEvent event = JsonSerializer.parse(json, UserListTargetObjectEvent.class);
-                return onUserListMemberAddition(event.getCreatedAt(), event.getSource(),
-                        event.getTarget(), event.getTargetObject());
+                return onUserListMemberAddition(object.getCreatedAt(), object.getSource(),
+                        object.getTarget(), targetUserList(object));
             }
             case Type.USER_LIST_MEMBER_DELETED: {
-                UserListTargetObjectEvent event = JsonSerializer.parse(json, UserListTargetObjectEvent.class);
-                return onUserListMemberDeletion(event.getCreatedAt(), event.getSource(),
-                        event.getTarget(), event.getTargetObject());
+                return onUserListMemberDeletion(object.getCreatedAt(), object.getSource(),
+                        object.getTarget(), targetUserList(object));
             }
             case Type.USER_LIST_SUBSCRIBED: {
-                UserListTargetObjectEvent event = JsonSerializer.parse(json, UserListTargetObjectEvent.class);
-                return onUserListSubscription(event.getCreatedAt(), event.getSource(),
-                        event.getTarget(), event.getTargetObject());
+                return onUserListSubscription(object.getCreatedAt(), object.getSource(),
+                        object.getTarget(), targetUserList(object));
             }
             case Type.USER_LIST_UNSUBSCRIBED: {
-                UserListTargetObjectEvent event = JsonSerializer.parse(json, UserListTargetObjectEvent.class);
-                return onUserListUnsubscription(event.getCreatedAt(), event.getSource(),
-                        event.getTarget(), event.getTargetObject());
+                return onUserListUnsubscription(object.getCreatedAt(), object.getSource(),
+                        object.getTarget(), targetUserList(object));
             }
             case Type.USER_LIST_CREATED: {
-                UserListTargetObjectEvent event = JsonSerializer.parse(json, UserListTargetObjectEvent.class);
-                return onUserListCreation(event.getCreatedAt(), event.getSource(),
-                        event.getTargetObject());
+                return onUserListCreation(object.getCreatedAt(), object.getSource(),
+                        targetUserList(object));
             }
             case Type.USER_LIST_UPDATED: {
-                UserListTargetObjectEvent event = JsonSerializer.parse(json, UserListTargetObjectEvent.class);
-                return onUserListUpdate(event.getCreatedAt(), event.getSource(),
-                        event.getTargetObject());
+                return onUserListUpdate(object.getCreatedAt(), object.getSource(),
+                        targetUserList(object));
             }
             case Type.USER_LIST_DESTROYED: {
-                UserListTargetObjectEvent event = JsonSerializer.parse(json, UserListTargetObjectEvent.class);
-                return onUserListDeletion(event.getCreatedAt(), event.getSource(),
-                        event.getTargetObject());
+                return onUserListDeletion(object.getCreatedAt(), object.getSource(),
+                        targetUserList(object));
             }
             case Type.USER_UPDATE: {
-                StreamEvent event = JsonSerializer.parse(json, StreamEvent.class);
-                return onUserProfileUpdate(event.getCreatedAt(), event.getSource());
+                return onUserProfileUpdate(object.getCreatedAt(), object.getSource());
             }
             case Type.BLOCK: {
-                StreamEvent event = JsonSerializer.parse(json, StreamEvent.class);
-                return onBlock(event.getCreatedAt(), event.getSource(), event.getTarget());
+                return onBlock(object.getCreatedAt(), object.getSource(), object.getTarget());
             }
             case Type.UNBLOCK: {
-                StreamEvent event = JsonSerializer.parse(json, StreamEvent.class);
-                return onUnblock(event.getCreatedAt(), event.getSource(), event.getTarget());
+                return onUnblock(object.getCreatedAt(), object.getSource(), object.getTarget());
             }
             case Type.DISCONNECTION:
                 TwitterStreamObject.Disconnect disconnect = object.getDisconnect();
@@ -208,6 +188,20 @@ public abstract class UserStreamCallback implements RawCallback<MicroBlogExcepti
         return false;
     }
 
+    @NonNull
+    private static Status targetStatus(final TwitterStreamObject object) throws IOException {
+        final Object target = object.getTargetObject();
+        if (!(target instanceof Status)) throw new IOException("Unable to parse target status");
+        return (Status) target;
+    }
+
+    @NonNull
+    private static UserList targetUserList(final TwitterStreamObject object) throws IOException {
+        final Object target = object.getTargetObject();
+        if (!(target instanceof UserList)) throw new IOException("Unable to parse target list");
+        return (UserList) target;
+    }
+
     protected abstract boolean onConnected();
 
     protected abstract boolean onDisconnectNotice(int code, String reason);
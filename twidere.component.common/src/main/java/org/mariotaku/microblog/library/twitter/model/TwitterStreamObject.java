@@ -18,13 +18,23 @@
 
 package org.mariotaku.microblog.library.twitter.model;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.StringDef;
 
+import com.bluelinelabs.logansquare.JsonMapper;
+import com.bluelinelabs.logansquare.LoganSquare;
 import com.bluelinelabs.logansquare.annotation.JsonField;
 import com.bluelinelabs.logansquare.annotation.JsonObject;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
+import org.mariotaku.commons.logansquare.LoganSquareMapperFinder;
+
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Date;
 
 /**
  * Created by mariotaku on 16/2/26.
@@ -53,6 +63,12 @@ public class TwitterStreamObject {
     @JsonField(name = {"friends", "friends_str"})
     String[] friends;
 
+    // Filled by parse(byte[], int)
+    Status status;
+    User source;
+    User target;
+    Object targetObject;
+
     @Type
     public String determine() {
         // This code originally lived in AbstractStreamImplementation.
@@ -75,42 +91,160 @@ public class TwitterStreamObject {
         } else if (disconnect != null) {
             return Type.DISCONNECTION;
         } else if (event != null) {
-            switch (event) {
-                case "favorite":
-                    return Type.FAVORITE;
-                case "unfavorite":
-                    return Type.UNFAVORITE;
-                case "follow":
-                    return Type.FOLLOW;
-                case "unfollow":
-                    return Type.UNFOLLOW;
-                case "list_member_added":
-                    return Type.USER_LIST_MEMBER_ADDED;
-                case "list_member_removed":
-                    return Type.USER_LIST_MEMBER_DELETED;
-                case "list_user_subscribed":
-                    return Type.USER_LIST_SUBSCRIBED;
-                case "list_user_unsubscribed":
-                    return Type.USER_LIST_UNSUBSCRIBED;
-                case "list_created":
-                    return Type.USER_LIST_CREATED;
-                case "list_updated":
-                    return Type.USER_LIST_UPDATED;
-                case "list_destroyed":
-                    return Type.USER_LIST_DESTROYED;
-                case "user_update":
-                    return Type.USER_UPDATE;
-                case "block":
-                    return Type.BLOCK;
-                case "unblock":
-                    return Type.UNBLOCK;
-                case "quoted_tweet":
-                    return Type.QUOTED_TWEET;
-                case "favorited_retweet":
-                    return Type.FAVORITED_RETWEET;
-                case "retweeted_retweet":
-                    return Type.RETWEETED_RETWEET;
+            return determineEvent(event);
+        }
+        return Type.UNKNOWN;
+    }
+
+    /**
+     * Parses a stream line in a single pass. Each top-level field is routed to the object it
+     * belongs to: wrapper fields like {@code delete} to this object, {@code source},
+     * {@code target} and {@code target_object} of events to their models, and everything else
+     * to {@link #getStatus()}, so no line is parsed again after its type is known.
+     */
+    @NonNull
+    public static TwitterStreamObject parse(@NonNull final byte[] data, final int length)
+            throws IOException {
+        final TwitterStreamObject object = new TwitterStreamObject();
+        final JsonParser parser = LoganSquare.JSON_FACTORY.createParser(data, 0, length);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return object;
+            final JsonMapper<TwitterStreamObject> objectMapper = LoganSquareMapperFinder.mapperFor(
+                    TwitterStreamObject.class);
+            final JsonMapper<Status> statusMapper = LoganSquareMapperFinder.mapperFor(Status.class);
+            final Status status = new Status();
+            int targetObjectStart = -1, targetObjectEnd = -1;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                switch (fieldName) {
+                    case "sender":
+                    case "event":
+                    case "direct_message":
+                    case "delete":
+                    case "disconnect":
+                    case "limit":
+                    case "warning":
+                    case "scrub_geo":
+                    case "friends":
+                    case "friends_str": {
+                        objectMapper.parseField(object, fieldName, parser);
+                        break;
+                    }
+                    case "source": {
+                        // Client name of statuses, user of events
+                        if (token == JsonToken.START_OBJECT) {
+                            object.source = LoganSquareMapperFinder.mapperFor(User.class).parse(parser);
+                        } else {
+                            statusMapper.parseField(status, fieldName, parser);
+                        }
+                        break;
+                    }
+                    case "target": {
+                        object.target = LoganSquareMapperFinder.mapperFor(User.class).parse(parser);
+                        break;
+                    }
+                    case "target_object": {
+                        if (object.event != null) {
+                            object.targetObject = parseTargetObject(object.event, parser);
+                        } else {
+                            // Type of target object is unknown until event seen, keep its range
+                            targetObjectStart = (int) parser.getTokenLocation().getByteOffset();
+                            parser.skipChildren();
+                            targetObjectEnd = (int) parser.getCurrentLocation().getByteOffset();
+                        }
+                        break;
+                    }
+                    default: {
+                        statusMapper.parseField(status, fieldName, parser);
+                        break;
+                    }
+                }
+                parser.skipChildren();
+            }
+            object.text = status.text;
+            if (targetObjectStart >= 0 && object.event != null) {
+                final JsonParser targetParser = LoganSquare.JSON_FACTORY.createParser(data,
+                        targetObjectStart, targetObjectEnd - targetObjectStart);
+                try {
+                    targetParser.nextToken();
+                    object.targetObject = parseTargetObject(object.event, targetParser);
+                } finally {
+                    targetParser.close();
+                }
+            }
+            if (Type.STATUS.equals(object.determine())) {
+                status.afterStatusParsed();
             }
+            object.status = status;
+        } finally {
+            parser.close();
+        }
+        return object;
+    }
+
+    @Nullable
+    private static Object parseTargetObject(@NonNull final String event,
+            @NonNull final JsonParser parser) throws IOException {
+        switch (determineEvent(event)) {
+            case Type.FAVORITE:
+            case Type.UNFAVORITE:
+            case Type.QUOTED_TWEET:
+            case Type.RETWEETED_RETWEET:
+            case Type.FAVORITED_RETWEET: {
+                return LoganSquareMapperFinder.mapperFor(Status.class).parse(parser);
+            }
+            case Type.USER_LIST_MEMBER_ADDED:
+            case Type.USER_LIST_MEMBER_DELETED:
+            case Type.USER_LIST_SUBSCRIBED:
+            case Type.USER_LIST_UNSUBSCRIBED:
+            case Type.USER_LIST_CREATED:
+            case Type.USER_LIST_UPDATED:
+            case Type.USER_LIST_DESTROYED: {
+                return LoganSquareMapperFinder.mapperFor(UserList.class).parse(parser);
+            }
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    @Type
+    private static String determineEvent(@NonNull final String event) {
+        switch (event) {
+            case "favorite":
+                return Type.FAVORITE;
+            case "unfavorite":
+                return Type.UNFAVORITE;
+            case "follow":
+                return Type.FOLLOW;
+            case "unfollow":
+                return Type.UNFOLLOW;
+            case "list_member_added":
+                return Type.USER_LIST_MEMBER_ADDED;
+            case "list_member_removed":
+                return Type.USER_LIST_MEMBER_DELETED;
+            case "list_user_subscribed":
+                return Type.USER_LIST_SUBSCRIBED;
+            case "list_user_unsubscribed":
+                return Type.USER_LIST_UNSUBSCRIBED;
+            case "list_created":
+                return Type.USER_LIST_CREATED;
+            case "list_updated":
+                return Type.USER_LIST_UPDATED;
+            case "list_destroyed":
+                return Type.USER_LIST_DESTROYED;
+            case "user_update":
+                return Type.USER_UPDATE;
+            case "block":
+                return Type.BLOCK;
+            case "unblock":
+                return Type.UNBLOCK;
+            case "quoted_tweet":
+                return Type.QUOTED_TWEET;
+            case "favorited_retweet":
+                return Type.FAVORITED_RETWEET;
+            case "retweeted_retweet":
+                return Type.RETWEETED_RETWEET;
         }
         return Type.UNKNOWN;
     }
@@ -143,6 +277,36 @@ public class TwitterStreamObject {
         return warning;
     }
 
+    public String getEvent() {
+        return event;
+    }
+
+    /**
+     * Status of status lines, also holds {@code created_at} of event lines
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    public Date getCreatedAt() {
+        return status != null ? status.getCreatedAt() : null;
+    }
+
+    public User getSource() {
+        return source;
+    }
+
+    public User getTarget() {
+        return target;
+    }
+
+    /**
+     * @return {@link Status} or {@link UserList} depending on event type
+     */
+    public Object getTargetObject() {
+        return targetObject;
+    }
+
     @Retention(RetentionPolicy.SOURCE)
     @StringDef({Type.STATUS, Type.DIRECT_MESSAGE, Type.DELETE, Type.LIMIT,
             Type.STALL_WARNING, Type.SCRUB_GEO, Type.FRIENDS, Type.FAVORITE, Type.UNFAVORITE,
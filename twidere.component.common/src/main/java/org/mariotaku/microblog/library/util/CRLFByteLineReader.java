@@ -0,0 +1,90 @@
+/*
+ *         Twidere - Twitter client for Android
+ *
+ * Copyright 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mariotaku.microblog.library.util;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Byte based counterpart of {@link CRLFLineReader}. Lines are read into a reused buffer
+ * instead of allocating a {@code String} per line, CR and LF bytes never appear inside a
+ * multi-byte UTF-8 sequence so splitting on bytes is safe.
+ */
+public final class CRLFByteLineReader implements Closeable {
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final InputStream in;
+    private final byte[] readBuffer = new byte[8192];
+    private int readPosition, readLimit;
+
+    private byte[] lineBuffer = new byte[8192];
+
+    public CRLFByteLineReader(@NonNull InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read a line terminated by CRLF into {@link #getBuffer()}.
+     *
+     * @return Length of line without CRLF, or -1 if reached end of stream
+     */
+    public int readLine() throws IOException {
+        int length = 0;
+        boolean prevWasCR = false;
+        while (true) {
+            if (readPosition >= readLimit) {
+                readLimit = in.read(readBuffer, 0, readBuffer.length);
+                readPosition = 0;
+                if (readLimit <= 0) {
+                    readLimit = 0;
+                    return length == 0 ? -1 : length;
+                }
+            }
+            final byte b = readBuffer[readPosition++];
+            if (prevWasCR && b == LF) {
+                return length - 1;
+            }
+            prevWasCR = b == CR;
+            if (length == lineBuffer.length) {
+                final byte[] newBuffer = new byte[lineBuffer.length * 2];
+                System.arraycopy(lineBuffer, 0, newBuffer, 0, length);
+                lineBuffer = newBuffer;
+            }
+            lineBuffer[length++] = b;
+        }
+    }
+
+    /**
+     * @return Buffer holding last line read, only valid until next {@link #readLine()} call
+     */
+    @NonNull
+    public byte[] getBuffer() {
+        return lineBuffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -62,6 +62,9 @@ public interface TwidereConstants extends SharedPreferenceConstants, IntentConst
     String KEYBOARD_SHORTCUTS_PREFERENCES_NAME = "keyboard_shortcuts_preferences";
     String ETAG_CACHE_PREFERENCES_NAME = "etag_cache";
     String ETAG_MASTODON_APPS_PREFERENCES_NAME = "mastodon_apps";
+    String UPLOAD_SESSIONS_PREFERENCES_NAME = "upload_sessions";
+    String ADAPTIVE_REFRESH_PREFERENCES_NAME = "adaptive_refresh";
+    String DATABASE_PRUNER_PREFERENCES_NAME = "database_pruner";
     String ACCOUNT_PREFERENCES_NAME_PREFIX = "account_preferences_";
 
     String TWITTER_CONSUMER_KEY = "0WEJk1x6AlgtjGRhyABXw";
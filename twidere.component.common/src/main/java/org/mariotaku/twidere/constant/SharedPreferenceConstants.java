@@ -143,6 +143,10 @@ public interface SharedPreferenceConstants {
     @ExportablePreference(STRING)
     String KEY_REFRESH_INTERVAL = "refresh_interval";
     @ExportablePreference(BOOLEAN)
+    String KEY_ADAPTIVE_REFRESH = "adaptive_refresh";
+    @ExportablePreference(STRING)
+    String KEY_MAX_REFRESH_INTERVAL = "max_refresh_interval";
+    @ExportablePreference(BOOLEAN)
     String KEY_AUTO_REFRESH_HOME_TIMELINE = "auto_refresh_home_timeline";
     @ExportablePreference(BOOLEAN)
     String KEY_AUTO_REFRESH_MENTIONS = "auto_refresh_mentions";
@@ -286,6 +290,8 @@ public interface SharedPreferenceConstants {
     String KEY_NAVBAR_STYLE = "navbar_style";
     @ExportablePreference(STRING)
     String KEY_OVERRIDE_LANGUAGE = "override_language";
+    @ExportablePreference(BOOLEAN)
+    String KEY_PERFORMANCE_MONITOR = "performance_monitor";
 
     // Internal preferences
 
@@ -18,15 +18,19 @@
 
 package org.mariotaku.twidere.model;
 
+import android.content.ContentValues;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.Nullable;
 
 import com.bluelinelabs.logansquare.annotation.JsonField;
 import com.bluelinelabs.logansquare.annotation.JsonObject;
+import com.bluelinelabs.logansquare.annotation.OnPreJsonSerialize;
 import com.hannesdorfmann.parcelableplease.annotation.ParcelablePlease;
 
 import org.mariotaku.commons.objectcursor.LoganSquareCursorFieldConverter;
+import org.mariotaku.library.objectcursor.annotation.AfterCursorObjectCreated;
+import org.mariotaku.library.objectcursor.annotation.BeforeWriteContentValues;
 import org.mariotaku.library.objectcursor.annotation.CursorField;
 import org.mariotaku.library.objectcursor.annotation.CursorObject;
 import org.mariotaku.twidere.model.util.UserKeyConverter;
@@ -135,9 +139,28 @@ public class ParcelableActivity extends ParcelableStatus implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        decodeBlobs();
         ParcelableActivityParcelablePlease.writeToParcel(this, dest, flags);
     }
 
+    @AfterCursorObjectCreated
+    @Override
+    void finishCursorObjectCreation() {
+        super.finishCursorObjectCreation();
+    }
+
+    @BeforeWriteContentValues
+    @Override
+    void beforeWriteContentValues(ContentValues values) {
+        super.beforeWriteContentValues(values);
+    }
+
+    @OnPreJsonSerialize
+    @Override
+    void onPreJsonSerialize() {
+        super.onPreJsonSerialize();
+    }
+
     @Override
     public String toString() {
         return "ParcelableActivity{" +
@@ -205,13 +228,13 @@ public class ParcelableActivity extends ParcelableStatus implements Parcelable {
                 ", quoted_user_profile_image='" + quoted_user_profile_image + '\'' +
                 ", location=" + location +
                 ", place_full_name='" + place_full_name + '\'' +
-                ", mentions=" + Arrays.toString(mentions) +
-                ", media=" + Arrays.toString(media) +
-                ", quoted_media=" + Arrays.toString(quoted_media) +
-                ", card=" + card +
-                ", extras=" + extras +
-                ", spans=" + Arrays.toString(spans) +
-                ", quoted_spans=" + Arrays.toString(quoted_spans) +
+                ", mentions=" + Arrays.toString(getMentions()) +
+                ", media=" + Arrays.toString(getMedia()) +
+                ", quoted_media=" + Arrays.toString(getQuoted_media()) +
+                ", card=" + getCard() +
+                ", extras=" + getExtras() +
+                ", spans=" + Arrays.toString(getSpans()) +
+                ", quoted_spans=" + Arrays.toString(getQuoted_spans()) +
                 ", account_color=" + account_color +
                 ", inserted_date=" + inserted_date +
                 ", filter_flags=" + filter_flags +
@@ -18,6 +18,7 @@
 
 package org.mariotaku.twidere.model;
 
+import android.content.ContentValues;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.IntDef;
@@ -28,19 +29,23 @@ import android.text.TextUtils;
 import com.bluelinelabs.logansquare.annotation.JsonField;
 import com.bluelinelabs.logansquare.annotation.JsonObject;
 import com.bluelinelabs.logansquare.annotation.OnJsonParseComplete;
+import com.bluelinelabs.logansquare.annotation.OnPreJsonSerialize;
+import com.hannesdorfmann.parcelableplease.annotation.ParcelableNoThanks;
 import com.hannesdorfmann.parcelableplease.annotation.ParcelablePlease;
 
-import org.mariotaku.commons.objectcursor.LoganSquareCursorFieldConverter;
 import org.mariotaku.library.objectcursor.annotation.AfterCursorObjectCreated;
+import org.mariotaku.library.objectcursor.annotation.BeforeWriteContentValues;
 import org.mariotaku.library.objectcursor.annotation.CursorField;
 import org.mariotaku.library.objectcursor.annotation.CursorObject;
 import org.mariotaku.twidere.model.util.FilterStringsFieldConverter;
 import org.mariotaku.twidere.model.util.FilterUserKeysFieldConverter;
+import org.mariotaku.twidere.model.util.LazyBlob;
 import org.mariotaku.twidere.model.util.UserKeyConverter;
 import org.mariotaku.twidere.model.util.UserKeyCursorFieldConverter;
 import org.mariotaku.twidere.provider.TwidereDataStore;
 import org.mariotaku.twidere.provider.TwidereDataStore.Statuses;
 
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Arrays;
@@ -286,38 +291,63 @@ public class ParcelableStatus implements Parcelable, Comparable<ParcelableStatus
     public String place_full_name;
 
     @JsonField(name = "mentions")
-    @CursorField(value = Statuses.MENTIONS_JSON, converter = LoganSquareCursorFieldConverter.class)
-    public ParcelableUserMention[] mentions;
+    ParcelableUserMention[] mentions;
 
     // TODO: Simplify for list loader
     @JsonField(name = "media")
-    @CursorField(value = Statuses.MEDIA_JSON, converter = LoganSquareCursorFieldConverter.class)
     @Nullable
-    public ParcelableMedia[] media;
+    ParcelableMedia[] media;
 
     // TODO: Simplify for list loader
     @JsonField(name = "quoted_media")
-    @CursorField(value = Statuses.QUOTED_MEDIA_JSON, converter = LoganSquareCursorFieldConverter.class)
     @Nullable
-    public ParcelableMedia[] quoted_media;
+    ParcelableMedia[] quoted_media;
 
     @JsonField(name = "card")
-    @CursorField(value = Statuses.CARD, converter = LoganSquareCursorFieldConverter.class)
     @Nullable
-    public ParcelableCardEntity card;
+    ParcelableCardEntity card;
 
     @JsonField(name = "extras")
-    @CursorField(value = Statuses.EXTRAS, converter = LoganSquareCursorFieldConverter.class)
     @Nullable
-    public Extras extras;
+    Extras extras;
 
     @JsonField(name = "spans")
-    @CursorField(value = Statuses.SPANS, converter = LoganSquareCursorFieldConverter.class)
-    public SpanItem[] spans;
+    SpanItem[] spans;
 
     @JsonField(name = "quoted_spans")
-    @CursorField(value = Statuses.QUOTED_SPANS, converter = LoganSquareCursorFieldConverter.class)
-    public SpanItem[] quoted_spans;
+    SpanItem[] quoted_spans;
+
+    /*
+     * Blob columns read from cursor, decoded on first access of corresponding field.
+     */
+
+    @CursorField(value = Statuses.MENTIONS_JSON, converter = LazyBlob.Converter.class, type = TwidereDataStore.TYPE_BLOB)
+    @ParcelableNoThanks
+    LazyBlob mentions_blob;
+
+    @CursorField(value = Statuses.MEDIA_JSON, converter = LazyBlob.Converter.class, type = TwidereDataStore.TYPE_BLOB)
+    @ParcelableNoThanks
+    LazyBlob media_blob;
+
+    @CursorField(value = Statuses.QUOTED_MEDIA_JSON, converter = LazyBlob.Converter.class, type = TwidereDataStore.TYPE_BLOB)
+    @ParcelableNoThanks
+    LazyBlob quoted_media_blob;
+
+    @CursorField(value = Statuses.CARD, converter = LazyBlob.Converter.class, type = TwidereDataStore.TYPE_BLOB)
+    @ParcelableNoThanks
+    LazyBlob card_blob;
+
+    @CursorField(value = Statuses.EXTRAS, converter = LazyBlob.Converter.class, type = TwidereDataStore.TYPE_BLOB)
+    @ParcelableNoThanks
+    LazyBlob extras_blob;
+
+    @CursorField(value = Statuses.SPANS, converter = LazyBlob.Converter.class, type = TwidereDataStore.TYPE_BLOB)
+    @ParcelableNoThanks
+    LazyBlob spans_blob;
+
+    @CursorField(value = Statuses.QUOTED_SPANS, converter = LazyBlob.Converter.class, type = TwidereDataStore.TYPE_BLOB)
+    @ParcelableNoThanks
+    LazyBlob quoted_spans_blob;
 
     @JsonField(name = "account_color")
     @CursorField(Statuses.ACCOUNT_COLOR)
@@ -355,12 +385,117 @@ public class ParcelableStatus implements Parcelable, Comparable<ParcelableStatus
     @CursorField(value = Statuses.FILTER_DESCRIPTIONS)
     public String filter_descriptions;
 
+    @CursorField(Statuses.FILTERED_SCOPES)
+    public int filtered_scopes;
+
     public transient boolean is_pinned_status;
     public transient boolean is_filtered;
 
     public ParcelableStatus() {
     }
 
+    public ParcelableUserMention[] getMentions() {
+        final LazyBlob blob = mentions_blob;
+        if (blob != null) {
+            mentions = decodeArray(blob, ParcelableUserMention.class);
+            mentions_blob = null;
+        }
+        return mentions;
+    }
+
+    public void setMentions(ParcelableUserMention[] mentions) {
+        this.mentions = mentions;
+        this.mentions_blob = null;
+    }
+
+    @Nullable
+    public ParcelableMedia[] getMedia() {
+        final LazyBlob blob = media_blob;
+        if (blob != null) {
+            media = decodeArray(blob, ParcelableMedia.class);
+            media_blob = null;
+        }
+        return media;
+    }
+
+    public void setMedia(@Nullable ParcelableMedia[] media) {
+        this.media = media;
+        this.media_blob = null;
+    }
+
+    @Nullable
+    public ParcelableMedia[] getQuoted_media() {
+        final LazyBlob blob = quoted_media_blob;
+        if (blob != null) {
+            quoted_media = decodeArray(blob, ParcelableMedia.class);
+            quoted_media_blob = null;
+        }
+        return quoted_media;
+    }
+
+    public void setQuoted_media(@Nullable ParcelableMedia[] quoted_media) {
+        this.quoted_media = quoted_media;
+        this.quoted_media_blob = null;
+    }
+
+    @Nullable
+    public ParcelableCardEntity getCard() {
+        final LazyBlob blob = card_blob;
+        if (blob != null) {
+            card = decode(blob, ParcelableCardEntity.class);
+            card_blob = null;
+        }
+        return card;
+    }
+
+    public void setCard(@Nullable ParcelableCardEntity card) {
+        this.card = card;
+        this.card_blob = null;
+    }
+
+    @Nullable
+    public Extras getExtras() {
+        final LazyBlob blob = extras_blob;
+        if (blob != null) {
+            extras = decode(blob, Extras.class);
+            extras_blob = null;
+        }
+        return extras;
+    }
+
+    public void setExtras(@Nullable Extras extras) {
+        this.extras = extras;
+        this.extras_blob = null;
+    }
+
+    public SpanItem[] getSpans() {
+        final LazyBlob blob = spans_blob;
+        if (blob != null) {
+            spans = decodeArray(blob, SpanItem.class);
+            spans_blob = null;
+        }
+        return spans;
+    }
+
+    public void setSpans(SpanItem[] spans) {
+        this.spans = spans;
+        this.spans_blob = null;
+    }
+
+    public SpanItem[] getQuoted_spans() {
+        final LazyBlob blob = quoted_spans_blob;
+        if (blob != null) {
+            quoted_spans = decodeArray(blob, SpanItem.class);
+            quoted_spans_blob = null;
+        }
+        return quoted_spans;
+    }
+
+    public void setQuoted_spans(SpanItem[] quoted_spans) {
+        this.quoted_spans = quoted_spans;
+        this.quoted_spans_blob = null;
+    }
+
     public static int calculateHashCode(UserKey accountKey, String id) {
         int result = id.hashCode();
         result = 31 * result + accountKey.hashCode();
@@ -449,13 +584,13 @@ public class ParcelableStatus implements Parcelable, Comparable<ParcelableStatus
                 ", quoted_user_profile_image='" + quoted_user_profile_image + '\'' +
                 ", location=" + location +
                 ", place_full_name='" + place_full_name + '\'' +
-                ", mentions=" + Arrays.toString(mentions) +
-                ", media=" + Arrays.toString(media) +
-                ", quoted_media=" + Arrays.toString(quoted_media) +
-                ", card=" + card +
-                ", extras=" + extras +
-                ", spans=" + Arrays.toString(spans) +
-                ", quoted_spans=" + Arrays.toString(quoted_spans) +
+                ", mentions=" + Arrays.toString(getMentions()) +
+                ", media=" + Arrays.toString(getMedia()) +
+                ", quoted_media=" + Arrays.toString(getQuoted_media()) +
+                ", card=" + getCard() +
+                ", extras=" + getExtras() +
+                ", spans=" + Arrays.toString(getSpans()) +
+                ", quoted_spans=" + Arrays.toString(getQuoted_spans()) +
                 ", account_color=" + account_color +
                 ", inserted_date=" + inserted_date +
                 ", filter_flags=" + filter_flags +
@@ -472,15 +607,88 @@ public class ParcelableStatus implements Parcelable, Comparable<ParcelableStatus
 
     @AfterCursorObjectCreated
     void finishCursorObjectCreation() {
-        card_name = card != null ? card.name : null;
+        // Object may be reused, values of blob fields come from blob columns
+        mentions = null;
+        media = null;
+        quoted_media = null;
+        card = null;
+        extras = null;
+        spans = null;
+        quoted_spans = null;
+        // Same as card.name without decoding card
+        if (card_blob == null) {
+            card_name = null;
+        }
         fixSortId();
     }
 
+    @BeforeWriteContentValues
+    void beforeWriteContentValues(ContentValues values) {
+        // Blobs not decoded are written back as is
+        if (mentions_blob == null || mentions_blob.isLegacy()) {
+            mentions_blob = LazyBlob.ofArray(getMentions(), ParcelableUserMention.class);
+        }
+        if (media_blob == null || media_blob.isLegacy()) {
+            media_blob = LazyBlob.ofArray(getMedia(), ParcelableMedia.class);
+        }
+        if (quoted_media_blob == null || quoted_media_blob.isLegacy()) {
+            quoted_media_blob = LazyBlob.ofArray(getQuoted_media(), ParcelableMedia.class);
+        }
+        if (card_blob == null || card_blob.isLegacy()) {
+            card_blob = LazyBlob.of(getCard(), ParcelableCardEntity.class);
+        }
+        if (extras_blob == null || extras_blob.isLegacy()) {
+            extras_blob = LazyBlob.of(getExtras(), Extras.class);
+        }
+        if (spans_blob == null || spans_blob.isLegacy()) {
+            spans_blob = LazyBlob.ofArray(getSpans(), SpanItem.class);
+        }
+        if (quoted_spans_blob == null || quoted_spans_blob.isLegacy()) {
+            quoted_spans_blob = LazyBlob.ofArray(getQuoted_spans(), SpanItem.class);
+        }
+    }
+
     @OnJsonParseComplete
     void onParseComplete() {
         fixSortId();
     }
 
+    @OnPreJsonSerialize
+    void onPreJsonSerialize() {
+        decodeBlobs();
+    }
+
+    /**
+     * Decodes all blob fields not accessed yet
+     */
+    public void decodeBlobs() {
+        getMentions();
+        getMedia();
+        getQuoted_media();
+        getCard();
+        getExtras();
+        getSpans();
+        getQuoted_spans();
+    }
+
+    @Nullable
+    private static <T> T decode(LazyBlob blob, Class<T> cls) {
+        try {
+            return blob.decode(cls);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static <T> T[] decodeArray(LazyBlob blob, Class<T> cls) {
+        try {
+            return blob.decodeArray(cls);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     private void fixSortId() {
         if (sort_id <= 0) {
             try {
@@ -501,6 +709,7 @@ public class ParcelableStatus implements Parcelable, Comparable<ParcelableStatus
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        decodeBlobs();
         ParcelableStatusParcelablePlease.writeToParcel(this, dest, flags);
     }
 
@@ -0,0 +1,121 @@
+/*
+ *         Twidere - Twitter client for Android
+ *
+ * Copyright 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mariotaku.twidere.model.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.bluelinelabs.logansquare.JsonMapper;
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of LoganSquare objects, used for blob columns.
+ * <p>
+ * Encoded data starts with a format version byte, followed by Smile (binary JSON) content
+ * written by the same mappers used for JSON, so models don't need extra code.
+ */
+public final class BlobCodec {
+
+    public static final byte VERSION_SMILE = 1;
+
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+
+    private BlobCodec() {
+    }
+
+    @NonNull
+    public static <T> byte[] encode(@NonNull T object, @NonNull Class<T> cls) throws IOException {
+        final JsonMapper<T> mapper = LoganSquare.mapperFor(cls);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(VERSION_SMILE);
+        final JsonGenerator generator = SMILE_FACTORY.createGenerator(os);
+        mapper.serialize(object, generator, true);
+        generator.close();
+        return os.toByteArray();
+    }
+
+    @NonNull
+    public static <T> byte[] encodeArray(@NonNull T[] array, @NonNull Class<T> cls) throws IOException {
+        final JsonMapper<T> mapper = LoganSquare.mapperFor(cls);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(VERSION_SMILE);
+        final JsonGenerator generator = SMILE_FACTORY.createGenerator(os);
+        mapper.serialize(Arrays.asList(array), generator);
+        generator.close();
+        return os.toByteArray();
+    }
+
+    @Nullable
+    public static <T> T decode(@NonNull byte[] data, @NonNull Class<T> cls) throws IOException {
+        final JsonParser parser = createParser(data);
+        try {
+            if (parser.nextToken() == null) return null;
+            return LoganSquare.mapperFor(cls).parse(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    @Nullable
+    public static <T> T[] decodeArray(@NonNull byte[] data, @NonNull Class<T> cls) throws IOException {
+        final JsonParser parser = createParser(data);
+        try {
+            if (parser.nextToken() == null) return null;
+            return toArray(LoganSquare.mapperFor(cls).parseList(parser), cls);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Parses data written as JSON text before blob columns were introduced
+     */
+    @Nullable
+    public static <T> T decodeLegacy(@NonNull String json, @NonNull Class<T> cls) throws IOException {
+        return LoganSquare.parse(json, cls);
+    }
+
+    @Nullable
+    public static <T> T[] decodeLegacyArray(@NonNull String json, @NonNull Class<T> cls) throws IOException {
+        return toArray(LoganSquare.parseList(json, cls), cls);
+    }
+
+    private static JsonParser createParser(byte[] data) throws IOException {
+        if (data.length == 0 || data[0] != VERSION_SMILE) {
+            throw new IOException("Unsupported blob format");
+        }
+        return SMILE_FACTORY.createParser(data, 1, data.length - 1);
+    }
+
+    @Nullable
+    private static <T> T[] toArray(@Nullable List<T> list, Class<T> cls) {
+        if (list == null) return null;
+        //noinspection unchecked
+        return list.toArray((T[]) Array.newInstance(cls, list.size()));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *         Twidere - Twitter client for Android
+ *
+ * Copyright 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mariotaku.twidere.model.util;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.mariotaku.library.objectcursor.converter.CursorFieldConverter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+
+/**
+ * Value of a blob column, decoded only when needed.
+ * <p>
+ * Holds either raw column content read from cursor (binary, or JSON text of rows written by
+ * older versions), or a decoded value to be encoded when writing to database. Unchanged rows
+ * read from cursor are written back without decoding.
+ */
+public final class LazyBlob {
+
+    @Nullable
+    private final byte[] encoded;
+    @Nullable
+    private final String legacyJson;
+    @Nullable
+    private final Object value;
+    @Nullable
+    private final Class<?> valueClass;
+
+    private LazyBlob(@Nullable byte[] encoded, @Nullable String legacyJson, @Nullable Object value,
+            @Nullable Class<?> valueClass) {
+        this.encoded = encoded;
+        this.legacyJson = legacyJson;
+        this.value = value;
+        this.valueClass = valueClass;
+    }
+
+    @Nullable
+    public static <T> LazyBlob of(@Nullable T value, @NonNull Class<T> cls) {
+        if (value == null) return null;
+        return new LazyBlob(null, null, value, cls);
+    }
+
+    @Nullable
+    public static <T> LazyBlob ofArray(@Nullable T[] value, @NonNull Class<T> componentClass) {
+        if (value == null) return null;
+        return new LazyBlob(null, null, value, componentClass);
+    }
+
+    /**
+     * @return {@code true} if content was written by older versions, and should be re-encoded
+     */
+    public boolean isLegacy() {
+        return legacyJson != null;
+    }
+
+    @Nullable
+    public <T> T decode(@NonNull Class<T> cls) throws IOException {
+        if (value != null) return cls.cast(value);
+        if (encoded != null) return BlobCodec.decode(encoded, cls);
+        if (legacyJson != null) return BlobCodec.decodeLegacy(legacyJson, cls);
+        return null;
+    }
+
+    @Nullable
+    public <T> T[] decodeArray(@NonNull Class<T> componentClass) throws IOException {
+        //noinspection unchecked
+        if (value != null) return (T[]) value;
+        if (encoded != null) return BlobCodec.decodeArray(encoded, componentClass);
+        if (legacyJson != null) return BlobCodec.decodeLegacyArray(legacyJson, componentClass);
+        return null;
+    }
+
+    @Nullable
+    public byte[] getEncoded() throws IOException {
+        if (encoded != null) return encoded;
+        if (value == null || valueClass == null) return null;
+        if (value instanceof Object[]) {
+            //noinspection unchecked
+            return BlobCodec.encodeArray((Object[]) value, (Class<Object>) valueClass);
+        }
+        //noinspection unchecked
+        return BlobCodec.encode(value, (Class<Object>) valueClass);
+    }
+
+    public static class Converter implements CursorFieldConverter<LazyBlob> {
+        @Override
+        public LazyBlob parseField(Cursor cursor, int columnIndex, ParameterizedType fieldType) {
+            switch (cursor.getType(columnIndex)) {
+                case Cursor.FIELD_TYPE_BLOB: {
+                    return new LazyBlob(cursor.getBlob(columnIndex), null, null, null);
+                }
+                case Cursor.FIELD_TYPE_STRING: {
+                    return new LazyBlob(null, cursor.getString(columnIndex), null, null);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void writeField(ContentValues values, LazyBlob object, String columnName,
+                ParameterizedType fieldType) throws IOException {
+            if (object == null) return;
+            if (object.isLegacy()) {
+                // Values class unknown here, should be decoded and wrapped before writing
+                values.put(columnName, object.legacyJson);
+                return;
+            }
+            values.put(columnName, object.getEncoded());
+        }
+    }
+}
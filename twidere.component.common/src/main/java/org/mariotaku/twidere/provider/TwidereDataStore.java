@@ -47,6 +47,7 @@ public interface TwidereDataStore {
     String TYPE_BOOLEAN_DEFAULT_TRUE = "INTEGER(1) DEFAULT 1";
     String TYPE_BOOLEAN_DEFAULT_FALSE = "INTEGER(1) DEFAULT 0";
     String TYPE_TEXT = "TEXT";
+    String TYPE_BLOB = "BLOB";
     String TYPE_DOUBLE_NOT_NULL = "DOUBLE NOT NULL";
     String TYPE_TEXT_NOT_NULL = "TEXT NOT NULL";
     String TYPE_TEXT_NOT_NULL_UNIQUE = "TEXT NOT NULL UNIQUE";
@@ -56,6 +57,27 @@ public interface TwidereDataStore {
     String CONTENT_PATH_RAW_QUERY = "raw_query";
     String CONTENT_PATH_DATABASE_PREPARE = "database_prepare";
 
+    /**
+     * Provider call returning rows and nanoseconds spent of bulk inserts, as {@code long[]} keyed
+     * by table name
+     */
+    String METHOD_GET_BULK_INSERT_STATS = "get_bulk_insert_stats";
+
+    /**
+     * Provider call deleting rows by {@code _id}, then bulk inserting values, all in one
+     * transaction. Extras map content uri strings to bundles of {@link #EXTRA_DELETE_IDS} and
+     * {@link #EXTRA_INSERT_VALUES}
+     */
+    String METHOD_REPLACE_ROWS = "replace_rows";
+    String EXTRA_DELETE_IDS = "delete_ids";
+    String EXTRA_INSERT_VALUES = "insert_values";
+
+    /**
+     * Provider call deleting rows beyond database item limit, returns number of rows deleted
+     * keyed by table name
+     */
+    String METHOD_PRUNE_DATABASES = "prune_databases";
+
     Uri BASE_CONTENT_URI = Uri.parse(ContentResolver.SCHEME_CONTENT + "://" + AUTHORITY);
 
     Uri CONTENT_URI_NULL = Uri.withAppendedPath(BASE_CONTENT_URI, CONTENT_PATH_NULL);
@@ -738,6 +760,13 @@ public interface TwidereDataStore {
         String FILTER_TEXTS = "filter_texts";
         String FILTER_DESCRIPTIONS = "filter_descriptions";
 
+        /**
+         * Bitmask of {@link org.mariotaku.twidere.annotation.FilterScope} this status is
+         * filtered in, computed at insert time by filter rules.<br>
+         * Type: INTEGER
+         */
+        String FILTERED_SCOPES = "filtered_scopes";
+
         String DEFAULT_SORT_ORDER = TIMESTAMP + " DESC, " + SORT_ID + " DESC, " + ID
                 + " DESC";
 
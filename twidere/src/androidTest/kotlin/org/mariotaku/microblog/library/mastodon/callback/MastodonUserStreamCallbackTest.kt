@@ -0,0 +1,73 @@
+package org.mariotaku.microblog.library.mastodon.callback
+
+import android.support.test.runner.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.microblog.library.mastodon.model.Notification
+import org.mariotaku.microblog.library.mastodon.model.Status
+import org.mariotaku.restfu.http.ContentType
+import org.mariotaku.restfu.http.HttpRequest
+import org.mariotaku.restfu.http.HttpResponse
+import org.mariotaku.restfu.http.MultiValueMap
+import org.mariotaku.restfu.http.mime.Body
+import org.mariotaku.restfu.http.mime.SimpleBody
+
+@RunWith(AndroidJUnit4::class)
+class MastodonUserStreamCallbackTest {
+
+    @Test
+    fun testLineFeedFrames() {
+        // Frames as sent by /api/v1/streaming/user, lines end with LF only
+        val stream = ":thump\n\n" +
+                "event: update\ndata: {\"id\":\"1\",\"content\":\"test\"}\n\n" +
+                "event: notification\ndata: {\"id\":\"2\",\"type\":\"follow\"}\n\n" +
+                "event: delete\ndata: 3\n\n"
+        val events = ArrayList<String>()
+        val callback = object : MastodonUserStreamCallback() {
+            override fun onConnected(): Boolean {
+                events.add("connected")
+                return true
+            }
+
+            override fun onException(ex: Throwable): Boolean {
+                throw AssertionError(ex)
+            }
+
+            override fun onUpdate(status: Status): Boolean {
+                events.add("update:${status.id}")
+                return true
+            }
+
+            override fun onNotification(notification: Notification): Boolean {
+                events.add("notification:${notification.id}")
+                return true
+            }
+
+            override fun onDelete(id: String): Boolean {
+                events.add("delete:$id")
+                return true
+            }
+
+            override fun onUnhandledEvent(event: String, payload: String) {
+                events.add("unhandled:$event")
+            }
+        }
+        callback.result(StreamResponse(stream.toByteArray()))
+        Assert.assertEquals(listOf("connected", "update:1", "notification:2", "delete:3"), events)
+    }
+
+    private class StreamResponse(private val data: ByteArray) : HttpResponse() {
+        override fun getRequest(): HttpRequest? = null
+
+        override fun getStatus() = 200
+
+        override fun getHeaders() = MultiValueMap<String>()
+
+        override fun getBody(): Body = SimpleBody(ContentType.parse("text/event-stream"), null,
+                data.size.toLong(), data.inputStream())
+
+        override fun close() {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.mariotaku.microblog.library.twitter.model
+
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.microblog.library.twitter.model.TwitterStreamObject.Type
+import org.mariotaku.microblog.library.util.CRLFByteLineReader
+import org.mariotaku.twidere.test.R
+import org.mariotaku.twidere.util.JsonSerializer
+
+@RunWith(AndroidJUnit4::class)
+class TwitterStreamObjectTest {
+
+    private val lines by lazy {
+        val context = InstrumentationRegistry.getContext()
+        context.resources.openRawResource(R.raw.twitter_user_stream).use {
+            it.bufferedReader().readLines()
+        }.filter(String::isNotEmpty)
+    }
+
+    @Test
+    fun testParseStreaming() {
+        // Keep-alive empty lines between messages
+        val stream = lines.joinToString("\r\n\r\n", postfix = "\r\n").toByteArray()
+        val reader = CRLFByteLineReader(stream.inputStream())
+        val types = ArrayList<String>()
+        var length = reader.readLine()
+        while (length >= 0) {
+            if (length > 0) {
+                val line = String(reader.buffer, 0, length, Charsets.UTF_8)
+                val type = TwitterStreamObject.parse(reader.buffer, length).determine()
+                Assert.assertEquals(JsonSerializer.parse(line, TwitterStreamObject::class.java).determine(), type)
+                types.add(type)
+            }
+            length = reader.readLine()
+        }
+        Assert.assertEquals(listOf(Type.FRIENDS, Type.STATUS, Type.DELETE, Type.FAVORITE, Type.FOLLOW,
+                Type.LIMIT, Type.DIRECT_MESSAGE, Type.UNKNOWN, Type.DISCONNECTION), types)
+    }
+
+    @Test
+    fun testParseStatus() {
+        val line = lines[1]
+        val expected = JsonSerializer.parse(line, Status::class.java)
+        val status = parse(line).status
+        Assert.assertEquals(expected.id, status.id)
+        Assert.assertEquals(expected.text, status.text)
+        Assert.assertEquals(expected.source, status.source)
+        Assert.assertEquals(expected.createdAt, status.createdAt)
+        Assert.assertEquals(expected.user.id, status.user.id)
+    }
+
+    @Test
+    fun testParseEvent() {
+        val line = lines[3]
+        val expected = JsonSerializer.parse(line, StatusTargetObjectEvent::class.java)
+        val event = parse(line)
+        assertEvent(expected, event)
+        // Target object before event name, type is unknown when target object is read
+        val reordered = line.replace("\"event\":\"favorite\",", "").removeSuffix("}") +
+                ",\"event\":\"favorite\"}"
+        assertEvent(expected, parse(reordered))
+    }
+
+    private fun assertEvent(expected: StatusTargetObjectEvent, event: TwitterStreamObject) {
+        Assert.assertEquals(Type.FAVORITE, event.determine())
+        Assert.assertEquals(expected.createdAt, event.createdAt)
+        Assert.assertEquals(expected.source.id, event.source.id)
+        Assert.assertEquals(expected.target.id, event.target.id)
+        Assert.assertEquals(expected.targetObject.id, (event.targetObject as Status).id)
+    }
+
+    private fun parse(line: String): TwitterStreamObject {
+        val data = line.toByteArray()
+        return TwitterStreamObject.parse(data, data.size)
+    }
+}
@@ -0,0 +1,24 @@
+package org.mariotaku.twidere.adapter
+
+import android.support.test.runner.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.adapter.ParcelableStatusesAdapter.Companion.binarySearchFirst
+
+@RunWith(AndroidJUnit4::class)
+class ParcelableStatusesAdapterTest {
+
+    @Test
+    fun testBinarySearchFirst() {
+        // Descend sorted keys with duplicates, placed after 3 header items
+        val keys = longArrayOf(900, 800, 800, 700, 500, 500, 500, 100)
+        val range = 3 until 3 + keys.size
+        val linear = { target: Long -> range.first { target >= keys[it - 3] } }
+        for (target in longArrayOf(1000, 900, 850, 800, 600, 500, 100)) {
+            Assert.assertEquals(linear(target), range.binarySearchFirst { target >= keys[it - 3] })
+        }
+        Assert.assertEquals(range.last + 1, range.binarySearchFirst { false })
+        Assert.assertEquals(5, (5 until 5).binarySearchFirst { true })
+    }
+}
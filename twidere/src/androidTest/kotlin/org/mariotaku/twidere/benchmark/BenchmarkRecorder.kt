@@ -0,0 +1,45 @@
+package org.mariotaku.twidere.benchmark
+
+import android.os.SystemClock
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+
+/**
+ * Minimal harness for code paths needing Android runtime. Results are written in JMH JSON format,
+ * so they can be compared with `:twidere.benchmark:benchmarkDiff` like JVM benchmark results.
+ */
+class BenchmarkRecorder(private val prefix: String) {
+
+    private val results = JSONArray()
+
+    /**
+     * @return Average time of [block] in microseconds
+     */
+    fun measure(name: String, warmup: Int = 5, iterations: Int = 20, block: () -> Unit): Double {
+        repeat(warmup) { block() }
+        val samples = DoubleArray(iterations) {
+            val start = SystemClock.elapsedRealtimeNanos()
+            block()
+            return@DoubleArray (SystemClock.elapsedRealtimeNanos() - start) / 1000.0
+        }
+        val average = samples.average()
+        results.put(JSONObject().apply {
+            put("benchmark", "$prefix.$name")
+            put("mode", "avgt")
+            put("warmupIterations", warmup)
+            put("measurementIterations", iterations)
+            put("primaryMetric", JSONObject().apply {
+                put("score", average)
+                put("scoreUnit", "us/op")
+                put("rawData", JSONArray().put(JSONArray(samples.toList())))
+            })
+        })
+        return average
+    }
+
+    fun writeTo(file: File) {
+        file.parentFile?.mkdirs()
+        file.writeText(results.toString(2))
+    }
+}
@@ -0,0 +1,141 @@
+package org.mariotaku.twidere.benchmark
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import android.util.Log
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.library.objectcursor.ObjectCursor
+import org.mariotaku.microblog.library.twitter.model.Status
+import org.mariotaku.twidere.Constants
+import org.mariotaku.twidere.TwidereConstants.LOGTAG
+import org.mariotaku.twidere.annotation.FilterScope
+import org.mariotaku.twidere.extension.model.api.toParcelable
+import org.mariotaku.twidere.model.AccountDetails
+import org.mariotaku.twidere.model.ParcelableStatus
+import org.mariotaku.twidere.provider.TwidereDataStore.Filters
+import org.mariotaku.twidere.provider.TwidereDataStore.Statuses
+import org.mariotaku.twidere.test.R
+import org.mariotaku.twidere.util.HtmlSpanBuilder
+import org.mariotaku.twidere.util.JsonSerializer
+import org.mariotaku.twidere.util.content.TwidereSQLiteOpenHelper
+import org.mariotaku.twidere.util.filter.ContentFilterEngine
+import java.io.File
+
+/**
+ * Hot paths bound to Android runtime, measured over recorded fixtures and a synthetic database of
+ * [ROWS] statuses and [FILTER_RULES] keyword rules.
+ *
+ * Results are written to `files/benchmark/hot_paths.json` in external storage of test app, pull it
+ * with adb and compare with `:twidere.benchmark:benchmarkDiff`.
+ */
+@RunWith(AndroidJUnit4::class)
+class HotPathBenchmarkTest {
+
+    private val context = InstrumentationRegistry.getContext()
+    private val recorder = BenchmarkRecorder("org.mariotaku.twidere.benchmark.HotPathBenchmark")
+    private lateinit var helper: TwidereSQLiteOpenHelper
+    private lateinit var db: SQLiteDatabase
+    private lateinit var account: AccountDetails
+    private lateinit var statuses: List<Status>
+
+    @Before
+    fun setUp() {
+        account = context.resources.openRawResource(R.raw.account_4223092274_twitter_com).use {
+            JsonSerializer.parse(it, AccountDetails::class.java)
+        }
+        val fixtures = arrayOf(R.raw.status_8754050, R.raw.status_9171447).map { resId ->
+            context.resources.openRawResource(resId).use { it.bufferedReader().readText() }
+        }
+        // Distinct ids, so converted text cache won't be hit
+        statuses = (0 until ROWS).map { i ->
+            JsonSerializer.parse(fixtures[i % fixtures.size].replaceFirst(ID_REGEX, "\"id\": ${i + 1}"),
+                    Status::class.java)
+        }
+        helper = TwidereSQLiteOpenHelper(InstrumentationRegistry.getTargetContext(), null,
+                Constants.DATABASES_VERSION)
+        db = helper.writableDatabase
+        createSyntheticDatabase()
+    }
+
+    @After
+    fun tearDown() {
+        helper.close()
+    }
+
+    @Test
+    fun testHotPaths() {
+        val page = statuses.take(PAGE_SIZE)
+        var offset = 0
+        recorder.measure("statusToParcelable") {
+            // Next page every iteration, converted text cache holds fewer entries than ROWS
+            statuses.subList(offset, offset + PAGE_SIZE).forEach { it.toParcelable(account) }
+            offset = (offset + PAGE_SIZE) % (ROWS - PAGE_SIZE)
+        }
+        recorder.measure("htmlSpanBuilderFromHtml") {
+            HtmlSpanBuilder.fromHtml(MASTODON_HTML)
+        }
+        val engine = ContentFilterEngine.compile(db)
+        val creator = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java)
+        val values = page.map { creator.create(it.toParcelable(account)) }
+        recorder.measure("filterEngineApplyTo") {
+            values.forEach { engine.applyTo(it) }
+        }
+        recorder.measure("filterEngineCompile", iterations = 5) {
+            ContentFilterEngine.compile(db)
+        }
+        recorder.measure("objectCursorIteration", iterations = 5) {
+            val cursor = db.query(Statuses.TABLE_NAME, Statuses.COLUMNS, null, null, null, null,
+                    "${Statuses.POSITION_KEY} DESC")
+            ObjectCursor(cursor, ObjectCursor.indicesFrom(cursor, ParcelableStatus::class.java)).use {
+                val reuse = ParcelableStatus()
+                for (i in 0 until it.size) {
+                    it.setInto(i, reuse).text_unescaped
+                }
+            }
+        }
+        val file = File(context.getExternalFilesDir("benchmark"), "hot_paths.json")
+        recorder.writeTo(file)
+        Log.i(LOGTAG, "Benchmark results written to $file")
+    }
+
+    private fun createSyntheticDatabase() {
+        val creator = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java)
+        db.beginTransaction()
+        try {
+            statuses.forEachIndexed { i, status ->
+                val values = creator.create(status.toParcelable(account))
+                values.put(Statuses.POSITION_KEY, i.toLong())
+                db.insert(Statuses.TABLE_NAME, null, values)
+            }
+            for (i in 0 until FILTER_RULES) {
+                db.insert(Filters.Keywords.TABLE_NAME, null, ContentValues().apply {
+                    put(Filters.Keywords.VALUE, "keyword$i")
+                    put(Filters.Keywords.SCOPE, FilterScope.ALL)
+                })
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    companion object {
+        private const val ROWS = 2000
+        private const val PAGE_SIZE = 50
+        private const val FILTER_RULES = 500
+        private val ID_REGEX = Regex("\"id\": \\d+")
+
+        private const val MASTODON_HTML = "<p><span class=\"h-card\"><a href=\"https://mastodon.social/@Gargron\" " +
+                "class=\"u-url mention\">@<span>Gargron</span></a></span> Mastodon 1.4.1 is out! Changelog: " +
+                "<a href=\"https://github.com/tootsuite/mastodon/releases/tag/v1.4.1\" rel=\"nofollow noopener\" " +
+                "target=\"_blank\"><span class=\"invisible\">https://</span><span class=\"ellipsis\">" +
+                "github.com/tootsuite/mastodon/</span><span class=\"invisible\">releases/tag/v1.4.1</span></a> " +
+                "<a href=\"https://mastodon.social/tags/mastodon\" class=\"mention hashtag\">#<span>mastodon" +
+                "</span></a></p><p>Second paragraph &amp; some &lt;escaped&gt; text</p>"
+    }
+}
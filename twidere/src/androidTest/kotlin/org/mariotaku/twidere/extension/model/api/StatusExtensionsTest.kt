@@ -0,0 +1,34 @@
+package org.mariotaku.twidere.extension.model.api
+
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.microblog.library.twitter.model.Status
+import org.mariotaku.twidere.model.AccountDetails
+import org.mariotaku.twidere.test.R
+import org.mariotaku.twidere.util.JsonSerializer
+
+@RunWith(AndroidJUnit4::class)
+class StatusExtensionsTest {
+
+    @Test
+    fun testToParcelables() {
+        val context = InstrumentationRegistry.getContext()
+        val account = context.resources.openRawResource(R.raw.account_4223092274_twitter_com).use {
+            JsonSerializer.parse(it, AccountDetails::class.java)
+        }
+        val statuses = (0 until 120).map { i ->
+            val resId = if (i % 2 == 0) R.raw.status_8754050 else R.raw.status_9171447
+            context.resources.openRawResource(resId).use {
+                JsonSerializer.parse(it, Status::class.java)
+            }
+        }
+        val expected = statuses.map { it.toParcelable(account) }
+        val actual = statuses.toParcelables(account)
+        Assert.assertEquals(expected.map { it.id }, actual.map { it.id })
+        Assert.assertEquals(expected.map { it.text_unescaped }, actual.map { it.text_unescaped })
+        Assert.assertEquals(expected.map { it.text_plain }, actual.map { it.text_plain })
+    }
+}
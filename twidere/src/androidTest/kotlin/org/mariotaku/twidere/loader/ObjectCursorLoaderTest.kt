@@ -0,0 +1,97 @@
+package org.mariotaku.twidere.loader
+
+import android.content.ContentValues
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.sqliteqb.library.Expression
+import org.mariotaku.twidere.model.ParcelableStatus
+import org.mariotaku.twidere.provider.TwidereDataStore.Statuses
+
+@RunWith(AndroidJUnit4::class)
+class ObjectCursorLoaderTest {
+
+    private val context = InstrumentationRegistry.getTargetContext()
+
+    @Before
+    fun setUp() {
+        deleteRows()
+        context.contentResolver.bulkInsert(Statuses.CONTENT_URI, Array(500) { i ->
+            val values = ContentValues()
+            values.put(Statuses.ACCOUNT_KEY, ACCOUNT_KEY)
+            values.put(Statuses.ID, i.toString())
+            values.put(Statuses.SORT_ID, i.toLong())
+            values.put(Statuses.TIMESTAMP, i.toLong())
+            values.put(Statuses.POSITION_KEY, i.toLong())
+            return@Array values
+        })
+    }
+
+    @After
+    fun tearDown() {
+        deleteRows()
+    }
+
+    @Test
+    fun testInitialTarget() {
+        val firstPage = newLoader().loadInBackground()
+        try {
+            Assert.assertEquals(PAGE_SIZE, firstPage.size)
+            Assert.assertTrue(firstPage.none { it.position_key == 150L })
+        } finally {
+            firstPage.close()
+        }
+
+        // Rows 499 to 150 are in first two pages
+        val loader = newLoader()
+        loader.setInitialTarget(Statuses.POSITION_KEY, "150")
+        val objects = loader.loadInBackground()
+        try {
+            Assert.assertEquals(PAGE_SIZE * 2, objects.size)
+            Assert.assertTrue(objects.any { it.position_key == 150L })
+        } finally {
+            objects.close()
+        }
+
+        // Missing target doesn't extend first page
+        val missing = newLoader()
+        missing.setInitialTarget(Statuses.POSITION_KEY, "1000")
+        val missingObjects = missing.loadInBackground()
+        try {
+            Assert.assertEquals(PAGE_SIZE, missingObjects.size)
+        } finally {
+            missingObjects.close()
+        }
+    }
+
+    private fun newLoader(): ObjectCursorLoader<ParcelableStatus> {
+        var loader: ObjectCursorLoader<ParcelableStatus>? = null
+        // Content observer needs a looper
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            loader = ObjectCursorLoader(context, ParcelableStatus::class.java, Statuses.CONTENT_URI,
+                    projection, Expression.equalsArgs(Statuses.ACCOUNT_KEY).sql,
+                    arrayOf(ACCOUNT_KEY), Statuses.DEFAULT_SORT_ORDER)
+        }
+        return loader!!.apply {
+            setKeysetPaging(pageKeyColumns, PAGE_SIZE)
+        }
+    }
+
+    private fun deleteRows() {
+        context.contentResolver.delete(Statuses.CONTENT_URI,
+                Expression.equalsArgs(Statuses.ACCOUNT_KEY).sql, arrayOf(ACCOUNT_KEY))
+    }
+
+    companion object {
+        private const val ACCOUNT_KEY = "object_cursor_loader_test@test"
+        private const val PAGE_SIZE = 200
+        private val pageKeyColumns = arrayOf(Statuses.TIMESTAMP, Statuses.SORT_ID, Statuses.ID,
+                Statuses._ID)
+        private val projection = arrayOf(Statuses._ID, Statuses.ACCOUNT_KEY, Statuses.ID,
+                Statuses.SORT_ID, Statuses.TIMESTAMP, Statuses.POSITION_KEY)
+    }
+}
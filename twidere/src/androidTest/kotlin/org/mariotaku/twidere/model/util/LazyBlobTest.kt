@@ -0,0 +1,172 @@
+package org.mariotaku.twidere.model.util
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import android.util.Log
+import com.bluelinelabs.logansquare.LoganSquare
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.library.objectcursor.ObjectCursor
+import org.mariotaku.microblog.library.twitter.model.Status
+import org.mariotaku.twidere.TwidereConstants.LOGTAG
+import org.mariotaku.twidere.extension.model.api.toParcelable
+import org.mariotaku.twidere.model.*
+import org.mariotaku.twidere.provider.TwidereDataStore.Statuses
+import org.mariotaku.twidere.test.R
+import org.mariotaku.twidere.util.JsonSerializer
+
+@RunWith(AndroidJUnit4::class)
+class LazyBlobTest {
+
+    private lateinit var db: SQLiteDatabase
+    private lateinit var statuses: List<ParcelableStatus>
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getContext()
+        val account = context.resources.openRawResource(R.raw.account_4223092274_twitter_com).use {
+            JsonSerializer.parse(it, AccountDetails::class.java)
+        }
+        val fixtures = arrayOf(R.raw.status_8754050, R.raw.status_9171447).map { resId ->
+            context.resources.openRawResource(resId).use {
+                JsonSerializer.parse(it, Status::class.java).toParcelable(account)
+            }
+        }
+        statuses = (0 until ROWS).map { i ->
+            fixtures[i % fixtures.size].apply { id = "$i" }.let {
+                // JSON round trip gives a separate copy
+                JsonSerializer.parse(JsonSerializer.serialize(it), ParcelableStatus::class.java)
+            }
+        }
+        db = SQLiteDatabase.create(null)
+        val columns = Statuses.COLUMNS.zip(Statuses.TYPES).joinToString(",") { (name, type) -> "$name $type" }
+        db.execSQL("CREATE TABLE ${Statuses.TABLE_NAME} ($columns)")
+        db.execSQL("CREATE TABLE legacy ($columns)")
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun testCodec() {
+        val status = statuses.first()
+        val spans = status.spans
+        val encoded = BlobCodec.encodeArray(spans, SpanItem::class.java)
+        Assert.assertEquals(BlobCodec.VERSION_SMILE, encoded[0])
+        Assert.assertEquals(spans.map { it.link }, BlobCodec.decodeArray(encoded, SpanItem::class.java)!!.map { it.link })
+        val extras = status.extras!!
+        val decodedExtras = BlobCodec.decode(BlobCodec.encode(extras, ParcelableStatus.Extras::class.java),
+                ParcelableStatus.Extras::class.java)!!
+        Assert.assertArrayEquals(extras.display_text_range, decodedExtras.display_text_range)
+    }
+
+    @Test
+    fun testReadWrite() {
+        insertStatuses()
+        insertLegacyStatuses()
+        val expected = statuses.first()
+        arrayOf(Statuses.TABLE_NAME, "legacy").forEach { table ->
+            val status = query(table).use { it[0] }
+            Assert.assertEquals(expected.text_unescaped, status.text_unescaped)
+            Assert.assertEquals(expected.media?.size, status.media?.size)
+            Assert.assertEquals(expected.spans?.map { it.link }, status.spans?.map { it.link })
+            Assert.assertEquals(expected.mentions?.map { it.key }, status.mentions?.map { it.key })
+            // Legacy rows converted on write
+            val values = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java).create(status)
+            Assert.assertTrue(values.get(Statuses.SPANS) is ByteArray)
+        }
+        // Unchanged blobs written back as is
+        val undecoded = query(Statuses.TABLE_NAME).use { it[0] }
+        val values = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java).create(undecoded)
+        Assert.assertNotNull(values.getAsByteArray(Statuses.MEDIA_JSON))
+    }
+
+    @Test
+    fun testCursorIterationBenchmark() {
+        insertStatuses()
+        insertLegacyStatuses()
+        // Old behavior: every blob decoded from JSON when row materialized
+        val eagerJsonNanos = iterate("legacy") { it.decodeBlobs() }
+        val eagerBinaryNanos = iterate(Statuses.TABLE_NAME) { it.decodeBlobs() }
+        // View holder showing text only
+        val lazyNanos = iterate(Statuses.TABLE_NAME) { it.text_unescaped }
+        Log.i(LOGTAG, "Iterating $ROWS rows: JSON ${eagerJsonNanos / 1000000}ms, " +
+                "binary ${eagerBinaryNanos / 1000000}ms, lazy ${lazyNanos / 1000000}ms")
+        Assert.assertTrue(lazyNanos < eagerJsonNanos)
+    }
+
+    private fun iterate(table: String, touch: (ParcelableStatus) -> Unit): Long {
+        return query(table).use { cursor ->
+            val reuse = ParcelableStatus()
+            val start = SystemClock.elapsedRealtimeNanos()
+            for (i in 0 until cursor.size) {
+                touch(cursor.setInto(i, reuse))
+            }
+            return@use SystemClock.elapsedRealtimeNanos() - start
+        }
+    }
+
+    private fun query(table: String): ObjectCursor<ParcelableStatus> {
+        val cursor = db.query(table, Statuses.COLUMNS, null, null, null, null, Statuses.ID)
+        return ObjectCursor(cursor, ObjectCursor.indicesFrom(cursor, ParcelableStatus::class.java))
+    }
+
+    private fun insertStatuses() {
+        val creator = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java)
+        inTransaction {
+            statuses.forEach { db.insert(Statuses.TABLE_NAME, null, creator.create(it)) }
+        }
+    }
+
+    /**
+     * Rows written as JSON text like older versions did
+     */
+    private fun insertLegacyStatuses() {
+        val creator = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java)
+        inTransaction {
+            statuses.forEach { status ->
+                val values = creator.create(status)
+                values.putJson(Statuses.MENTIONS_JSON, status.mentions)
+                values.putJson(Statuses.MEDIA_JSON, status.media)
+                values.putJson(Statuses.QUOTED_MEDIA_JSON, status.quoted_media)
+                values.putJson(Statuses.CARD, status.card)
+                values.putJson(Statuses.EXTRAS, status.extras)
+                values.putJson(Statuses.SPANS, status.spans)
+                values.putJson(Statuses.QUOTED_SPANS, status.quoted_spans)
+                db.insert("legacy", null, values)
+            }
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun ContentValues.putJson(column: String, value: Any?) {
+        when (value) {
+            null -> putNull(column)
+            is Array<*> -> put(column, LoganSquare.serialize(value.toList(),
+                    value.javaClass.componentType as Class<Any?>))
+            else -> put(column, LoganSquare.serialize(value))
+        }
+    }
+
+    private inline fun inTransaction(action: () -> Unit) {
+        db.beginTransaction()
+        try {
+            action()
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    companion object {
+        private const val ROWS = 2000
+    }
+}
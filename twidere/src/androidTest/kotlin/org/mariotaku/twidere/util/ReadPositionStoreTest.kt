@@ -0,0 +1,125 @@
+package org.mariotaku.twidere.util
+
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+
+@RunWith(AndroidJUnit4::class)
+class ReadPositionStoreTest {
+
+    private val context = InstrumentationRegistry.getTargetContext()
+    private val file = File(context.cacheDir, "read_positions_test.journal")
+    private lateinit var executor: ScheduledExecutorService
+
+    @Before
+    fun setUp() {
+        file.delete()
+        executor = Executors.newSingleThreadScheduledExecutor()
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+        file.delete()
+    }
+
+    /**
+     * Scrolling a timeline updates position on every frame, only one write expected
+     */
+    @Test
+    fun testCoalesceScroll() {
+        val store = ReadPositionStore(file, executor, 60000)
+        for (i in 1..1000) {
+            store["position:home"] = i.toLong()
+            store["position:activities"] = i / 10L
+        }
+        Assert.assertEquals(0, store.writeCount)
+        store.flush()
+        Assert.assertEquals(1, store.writeCount)
+        // Nothing changed since last flush
+        store["position:home"] = 1000
+        store.flush()
+        Assert.assertEquals(1, store.writeCount)
+
+        val reloaded = ReadPositionStore(file, executor)
+        Assert.assertEquals(1000L, reloaded["position:home"])
+        Assert.assertEquals(100L, reloaded["position:activities"])
+    }
+
+    @Test
+    fun testScheduledFlush() {
+        val store = ReadPositionStore(file, executor, 100)
+        for (i in 1..100) {
+            store["position:home"] = i.toLong()
+        }
+        Thread.sleep(500)
+        Assert.assertEquals(1, store.writeCount)
+        Assert.assertEquals(100L, ReadPositionStore(file, executor)["position:home"])
+    }
+
+    @Test
+    fun testRemoveAndCompact() {
+        val store = ReadPositionStore(file, executor, 60000)
+        for (i in 0 until 500) {
+            store["sync_cache:$i"] = i.toLong()
+            store.flush()
+            store.remove("sync_cache:$i")
+            store.flush()
+        }
+        store["position:home"] = 42
+        store.flush()
+        val reloaded = ReadPositionStore(file, executor)
+        Assert.assertEquals(listOf("position:home"), reloaded.keys(""))
+        Assert.assertEquals(42L, reloaded["position:home"])
+        Assert.assertEquals(-1L, reloaded["sync_cache:0"])
+        // Journal compacted instead of holding every record ever written
+        Assert.assertTrue("Journal size ${file.length()}", file.length() < 8192)
+    }
+
+    /**
+     * Write interrupted in middle of a record, records appended later must still be readable
+     */
+    @Test
+    fun testTruncatedJournal() {
+        val store = ReadPositionStore(file, executor, 60000)
+        store["position:home"] = 1
+        store["position:activities"] = 2
+        store.flush()
+        val validLength = file.length()
+        // Key length and half of the key, position missing
+        file.appendBytes(byteArrayOf(0, 16, 'p'.toByte(), 'o'.toByte(), 's'.toByte()))
+
+        val reloaded = ReadPositionStore(file, executor, 60000)
+        Assert.assertEquals(1L, reloaded["position:home"])
+        Assert.assertEquals(2L, reloaded["position:activities"])
+        Assert.assertEquals(validLength, file.length())
+        reloaded["position:home"] = 3
+        reloaded.flush()
+
+        val appended = ReadPositionStore(file, executor)
+        Assert.assertEquals(3L, appended["position:home"])
+        Assert.assertEquals(2L, appended["position:activities"])
+    }
+
+    @Test
+    fun testListenerPrefix() {
+        val store = ReadPositionStore(file, executor, 60000)
+        val changes = ArrayList<Pair<String, Long>>()
+        val listener = { key: String, position: Long -> changes.add(Pair(key, position)) }
+        store.addListener("sync_staged:", listener)
+        store["position:home"] = 1
+        store["sync_staged:home"] = 2
+        store["sync_staged:home"] = 2
+        store.remove("sync_staged:home")
+        store.removeListener(listener)
+        store["sync_staged:home"] = 3
+        Assert.assertEquals(listOf(Pair("sync_staged:home", 2L), Pair("sync_staged:home", -1L)), changes)
+    }
+}
@@ -0,0 +1,57 @@
+package org.mariotaku.twidere.util.api
+
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import okhttp3.OkHttpClient
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.microblog.library.twitter.TwitterUpload
+import org.mariotaku.microblog.library.MicroBlog
+import org.mariotaku.restfu.okhttp3.OkHttpRestClient
+import org.mariotaku.twidere.annotation.AccountType
+import org.mariotaku.twidere.extension.model.newMicroBlogInstance
+import org.mariotaku.twidere.model.account.cred.OAuthCredentials
+
+@RunWith(AndroidJUnit4::class)
+class ApiClientRegistryTest {
+
+    @After
+    fun tearDown() {
+        ApiClientRegistry.clear()
+    }
+
+    @Test
+    fun testGet() {
+        val context = InstrumentationRegistry.getTargetContext()
+        val credentials = credentials("token")
+        val microBlog = credentials.newMicroBlogInstance(context, AccountType.TWITTER, MicroBlog::class.java)
+        Assert.assertSame(microBlog, credentials("token").newMicroBlogInstance(context,
+                AccountType.TWITTER, MicroBlog::class.java))
+        Assert.assertNotSame(microBlog, credentials("another").newMicroBlogInstance(context,
+                AccountType.TWITTER, MicroBlog::class.java))
+        Assert.assertNotSame(microBlog, credentials.newMicroBlogInstance(context,
+                AccountType.TWITTER, TwitterUpload::class.java))
+    }
+
+    @Test
+    fun testDerivedHttpClient() {
+        val base = OkHttpRestClient(OkHttpClient())
+        val upload = ApiClientRegistry.getUploadHttpClient(base) as OkHttpRestClient
+        Assert.assertSame(upload, ApiClientRegistry.getUploadHttpClient(base))
+        Assert.assertSame(base.client.connectionPool(), upload.client.connectionPool())
+        Assert.assertSame(base.client.dispatcher(), upload.client.dispatcher())
+
+        base.client = OkHttpClient()
+        Assert.assertNotSame(upload, ApiClientRegistry.getUploadHttpClient(base))
+    }
+
+    private fun credentials(token: String) = OAuthCredentials().apply {
+        api_url_format = "https://[DOMAIN.]twitter.com/"
+        consumer_key = "key"
+        consumer_secret = "secret"
+        access_token = token
+        access_token_secret = "token_secret"
+    }
+}
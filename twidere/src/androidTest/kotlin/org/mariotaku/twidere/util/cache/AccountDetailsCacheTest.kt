@@ -0,0 +1,80 @@
+package org.mariotaku.twidere.util.cache
+
+import android.accounts.AccountManager
+import android.os.SystemClock
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import android.util.Log
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.TwidereConstants.LOGTAG
+import org.mariotaku.twidere.extension.model.setColor
+import org.mariotaku.twidere.model.UserKey
+import org.mariotaku.twidere.model.util.AccountUtils
+import org.mariotaku.twidere.util.TestAccountUtils
+
+@RunWith(AndroidJUnit4::class)
+class AccountDetailsCacheTest {
+
+    private val accountKey = UserKey.valueOf("4223092274@twitter.com")
+    private lateinit var am: AccountManager
+
+    @Before
+    fun setUp() {
+        am = AccountManager.get(InstrumentationRegistry.getTargetContext())
+        TestAccountUtils.insertTestAccounts()
+        AccountDetailsCache.install(am)
+    }
+
+    @After
+    fun tearDown() {
+        TestAccountUtils.removeTestAccounts()
+    }
+
+    @Test
+    fun testLookup() {
+        val rounds = 50
+        var coldNanos = 0L
+        var warmNanos = 0L
+        repeat(rounds) {
+            AccountDetailsCache.invalidate()
+            val coldStart = SystemClock.elapsedRealtimeNanos()
+            val cold = AccountUtils.getAccountDetails(am, accountKey, true)!!
+            coldNanos += SystemClock.elapsedRealtimeNanos() - coldStart
+
+            val warmStart = SystemClock.elapsedRealtimeNanos()
+            val warm = AccountUtils.getAccountDetails(am, accountKey, true)!!
+            warmNanos += SystemClock.elapsedRealtimeNanos() - warmStart
+
+            Assert.assertEquals(cold.key, warm.key)
+            Assert.assertEquals(cold.user.screen_name, warm.user.screen_name)
+            Assert.assertNotNull(warm.credentials)
+        }
+        Log.i(LOGTAG, "Account details lookup: cold ${coldNanos / rounds / 1000}us, " +
+                "warm ${warmNanos / rounds / 1000}us")
+        Assert.assertTrue(warmNanos < coldNanos)
+    }
+
+    @Test
+    fun testInvalidateAddedAccount() {
+        TestAccountUtils.removeTestAccounts()
+        AccountDetailsCache.invalidate()
+        Assert.assertNull(AccountUtils.findByAccountKey(am, accountKey))
+        // Writing data of new account invalidates it, account list shouldn't wait for listener
+        TestAccountUtils.insertTestAccounts()
+        Assert.assertNotNull(AccountUtils.findByAccountKey(am, accountKey))
+    }
+
+    @Test
+    fun testInvalidateOnWrite() {
+        val account = AccountUtils.findByAccountKey(am, accountKey)!!
+        val details = AccountUtils.getAccountDetails(am, account, false)
+        Assert.assertNull(details.credentials)
+        account.setColor(am, details.color.inv() and 0xFFFFFF)
+        val updated = AccountUtils.getAccountDetails(am, account, false)
+        Assert.assertNotEquals(details.color, updated.color)
+    }
+}
@@ -0,0 +1,123 @@
+package org.mariotaku.twidere.util.content
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.sqliteqb.library.Columns.Column
+import org.mariotaku.sqliteqb.library.Expression
+import org.mariotaku.twidere.Constants
+import org.mariotaku.twidere.TwidereConstants.SHARED_PREFERENCES_NAME
+import org.mariotaku.twidere.annotation.FilterScope
+import org.mariotaku.twidere.provider.TwidereDataStore.*
+import org.mariotaku.twidere.util.DataStoreUtils
+
+/**
+ * Checks hot queries are served by index searches, fails if any of them falls back to a table or
+ * index scan, or a temporary b-tree for sorting.
+ */
+@RunWith(AndroidJUnit4::class)
+class TwidereSQLiteOpenHelperTest {
+
+    private val context = InstrumentationRegistry.getTargetContext()
+    private val preferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE)
+    private lateinit var helper: TwidereSQLiteOpenHelper
+    private lateinit var db: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        helper = TwidereSQLiteOpenHelper(context, null, Constants.DATABASES_VERSION)
+        db = helper.writableDatabase
+    }
+
+    @After
+    fun tearDown() {
+        helper.close()
+    }
+
+    @Test
+    fun testStatusesQueryPlan() {
+        assertIndexed(Statuses.TABLE_NAME, "SELECT ${Statuses._ID} FROM ${Statuses.TABLE_NAME} " +
+                "WHERE ${Statuses.ACCOUNT_KEY} = ? AND ${Statuses.ID} = ?")
+        assertIndexed(Statuses.TABLE_NAME, "DELETE FROM ${Statuses.TABLE_NAME} " +
+                "WHERE ${Statuses.ACCOUNT_KEY} = ? AND ${Statuses.ID} = ?")
+        assertIndexed(Statuses.TABLE_NAME, "SELECT ${Statuses.POSITION_KEY} FROM ${Statuses.TABLE_NAME} " +
+                "WHERE ${Statuses.ACCOUNT_KEY} = ? ORDER BY ${Statuses.POSITION_KEY} DESC LIMIT 1")
+        assertIndexed(Statuses.TABLE_NAME, "SELECT * FROM ${Statuses.TABLE_NAME} " +
+                "WHERE ${Statuses.ACCOUNT_KEY} = ? ORDER BY ${Statuses.TIMESTAMP} DESC")
+        assertIndexed(CachedStatuses.TABLE_NAME, "SELECT ${CachedStatuses._ID} FROM ${CachedStatuses.TABLE_NAME} " +
+                "WHERE ${CachedStatuses.ACCOUNT_KEY} = ? AND ${CachedStatuses.ID} = ?")
+    }
+
+    /**
+     * Queries of a single account timeline as built by CursorStatusesFragment, first and next pages
+     */
+    @Test
+    fun testTimelineQueryPlan() {
+        val table = Statuses.TABLE_NAME
+        val accountWhere = Expression.inArgs(Column(Statuses.ACCOUNT_KEY), 1)
+        val filterWhere = DataStoreUtils.buildStatusFilterWhereClause(preferences, table, null,
+                FilterScope.HOME)
+        val pageSortOrder = "${Statuses.DEFAULT_SORT_ORDER}, ${Statuses._ID} DESC"
+        val keysetWhere = "(${Statuses.TIMESTAMP} < ?) OR (${Statuses.TIMESTAMP} = ? AND ${Statuses.SORT_ID} < ?)" +
+                " OR (${Statuses.TIMESTAMP} = ? AND ${Statuses.SORT_ID} = ? AND ${Statuses.ID} < ?)" +
+                " OR (${Statuses.TIMESTAMP} = ? AND ${Statuses.SORT_ID} = ? AND ${Statuses.ID} = ?" +
+                " AND ${Statuses._ID} < ?)"
+        listOf(accountWhere, Expression.and(accountWhere, filterWhere)).forEach { where ->
+            assertIndexed(table, "SELECT * FROM $table WHERE ${where.sql} " +
+                    "ORDER BY ${Statuses.DEFAULT_SORT_ORDER}")
+            assertIndexed(table, "SELECT * FROM $table WHERE ${where.sql} ORDER BY $pageSortOrder LIMIT 200")
+            assertIndexed(table, "SELECT * FROM $table WHERE (${where.sql}) AND ($keysetWhere) " +
+                    "ORDER BY $pageSortOrder LIMIT 200")
+        }
+    }
+
+    @Test
+    fun testActivitiesQueryPlan() {
+        val table = Activities.AboutMe.TABLE_NAME
+        val accountWhere = Expression.inArgs(Column(Activities.ACCOUNT_KEY), 1)
+        val filterWhere = DataStoreUtils.buildStatusFilterWhereClause(preferences, table, null,
+                FilterScope.INTERACTIONS)
+        assertIndexed(table, "SELECT * FROM $table WHERE ${accountWhere.sql} " +
+                "ORDER BY ${Activities.DEFAULT_SORT_ORDER}")
+        assertIndexed(table, "SELECT * FROM $table WHERE ${Expression.and(accountWhere, filterWhere).sql} " +
+                "ORDER BY ${Activities.DEFAULT_SORT_ORDER}")
+        assertIndexed(table, "SELECT ${Activities.POSITION_KEY} FROM $table " +
+                "WHERE ${Activities.ACCOUNT_KEY} = ? ORDER BY ${Activities.POSITION_KEY} DESC LIMIT 1")
+    }
+
+    @Test
+    fun testCacheQueryPlan() {
+        assertIndexed(CachedRelationships.TABLE_NAME, "SELECT * FROM ${CachedRelationships.TABLE_NAME} " +
+                "WHERE ${CachedRelationships.ACCOUNT_KEY} = ? AND ${CachedRelationships.USER_KEY} = ?")
+        assertIndexed(CachedUsers.TABLE_NAME, "SELECT * FROM ${CachedUsers.TABLE_NAME} " +
+                "WHERE ${CachedUsers.USER_KEY} = ?")
+        assertIndexed(Messages.TABLE_NAME, "SELECT * FROM ${Messages.TABLE_NAME} " +
+                "WHERE ${Messages.ACCOUNT_KEY} = ? AND ${Messages.CONVERSATION_ID} = ? " +
+                "ORDER BY ${Messages.SORT_ID} DESC")
+    }
+
+    private fun assertIndexed(table: String, sql: String) {
+        val args = arrayOfNulls<String>(sql.count { it == '?' }).map { "" }.toTypedArray()
+        val details = ArrayList<String>()
+        db.rawQuery("EXPLAIN QUERY PLAN $sql", args).use { cur ->
+            val detailIdx = cur.getColumnIndex("detail")
+            while (cur.moveToNext()) {
+                details.add(cur.getString(detailIdx))
+            }
+        }
+        // Both "SCAN TABLE x" and "SCAN TABLE x USING COVERING INDEX y" read every row
+        val scan = Regex("^SCAN (TABLE )?$table\\b")
+        val search = Regex("^SEARCH (TABLE )?$table\\b.* USING (COVERING )?(INDEX|INTEGER PRIMARY KEY)")
+        Assert.assertTrue("No index search: $sql\n$details", details.any { search.containsMatchIn(it) })
+        details.forEach { detail ->
+            Assert.assertFalse("Scan: $sql\n$details", scan.containsMatchIn(detail))
+            Assert.assertFalse("Sorting without index: $sql\n$details", detail.startsWith("USE TEMP B-TREE"))
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.mariotaku.twidere.util.database
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import android.support.test.runner.AndroidJUnit4
+import android.util.Log
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.sqliteqb.library.Columns
+import org.mariotaku.sqliteqb.library.Expression
+import org.mariotaku.sqliteqb.library.OrderBy
+import org.mariotaku.twidere.TwidereConstants.LOGTAG
+import org.mariotaku.twidere.model.UserKey
+import org.mariotaku.twidere.provider.TwidereDataStore.*
+
+@RunWith(AndroidJUnit4::class)
+class AutoCompleteIndexTest {
+
+    private lateinit var db: SQLiteDatabase
+    private val index = AutoCompleteIndex()
+
+    @Before
+    fun setUp() {
+        db = SQLiteDatabase.create(null)
+        createTable(CachedUsers.TABLE_NAME, CachedUsers.COLUMNS, CachedUsers.TYPES)
+        createTable(CachedRelationships.TABLE_NAME, CachedRelationships.COLUMNS, CachedRelationships.TYPES)
+        createTable(CachedHashtags.TABLE_NAME, CachedHashtags.COLUMNS, CachedHashtags.TYPES)
+        db.beginTransaction()
+        try {
+            for (i in 0 until USERS) {
+                db.insert(CachedUsers.TABLE_NAME, null, ContentValues().apply {
+                    put(CachedUsers.USER_KEY, "$i@twitter.com")
+                    put(CachedUsers.SCREEN_NAME, "user$i")
+                    put(CachedUsers.NAME, if (i % 10 == 0) "Émile $i" else "Name $i")
+                    put(CachedUsers.LAST_SEEN, i.toLong())
+                })
+                if (i % 7 == 0) {
+                    db.insert(CachedRelationships.TABLE_NAME, null, ContentValues().apply {
+                        put(CachedRelationships.ACCOUNT_KEY, ACCOUNT_KEY)
+                        put(CachedRelationships.USER_KEY, "$i@twitter.com")
+                        put(CachedRelationships.FOLLOWING, true)
+                        put(CachedRelationships.BLOCKING, i % 2 == 0)
+                    })
+                }
+            }
+            arrayOf("twidere", "Twitter", "tëst").forEach { name ->
+                db.insert(CachedHashtags.TABLE_NAME, null, ContentValues().apply {
+                    put(CachedHashtags.NAME, name)
+                })
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        index.build(db, mapOf("42@twitter.com" to "Nick"))
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun testQueryUsers() {
+        for (query in arrayOf("user1", "user42", "name 9", "User12")) {
+            Assert.assertEquals(query, queryDatabase(query), queryIndex(query, USERS))
+        }
+        // Folded
+        Assert.assertEquals(USERS / 10, queryIndex("emile", USERS).size)
+        Assert.assertEquals(listOf("42@twitter.com"), queryIndex("nick", USERS))
+        Assert.assertEquals(listOf("twidere", "Twitter"), index.queryHashtags("TW", 10).map { it.name })
+        Assert.assertEquals(listOf("tëst"), index.queryHashtags("test", 10).map { it.name })
+    }
+
+    @Test
+    fun testIncrementalUpdate() {
+        index.putUsers(arrayOf(ContentValues().apply {
+            put(CachedUsers.USER_KEY, "1@twitter.com")
+            put(CachedUsers.SCREEN_NAME, "renamed")
+            put(CachedUsers.NAME, "Name 1")
+        }))
+        Assert.assertFalse("1@twitter.com" in queryIndex("user1", USERS))
+        Assert.assertEquals(listOf("1@twitter.com"), queryIndex("renamed", USERS))
+
+        index.putRelationships(arrayOf(ContentValues().apply {
+            put(CachedRelationships.ACCOUNT_KEY, ACCOUNT_KEY)
+            put(CachedRelationships.USER_KEY, "10@twitter.com")
+            put(CachedRelationships.FOLLOWING, true)
+            put(CachedRelationships.NOTIFICATIONS_ENABLED, true)
+        }))
+        Assert.assertEquals("10@twitter.com", queryIndex("user10", 1).single())
+
+        index.setNickname("42@twitter.com", null)
+        Assert.assertTrue(queryIndex("nick", USERS).isEmpty())
+
+        index.invalidate()
+        Assert.assertFalse(index.isReady)
+    }
+
+    @Test
+    fun testBenchmark() {
+        val queries = (0 until 1000).map { i -> "user${i % 100}".substring(0, 4 + i % 3) }
+        val indexStart = System.nanoTime()
+        queries.forEach { queryIndex(it, 100) }
+        val indexNanos = (System.nanoTime() - indexStart) / queries.size
+        val databaseQueries = queries.take(20)
+        val databaseStart = System.nanoTime()
+        databaseQueries.forEach { queryDatabase(it, 100) }
+        val databaseNanos = (System.nanoTime() - databaseStart) / databaseQueries.size
+        Log.i(LOGTAG, "Auto complete over $USERS users: index ${indexNanos / 1000}us, " +
+                "database ${databaseNanos / 1000}us per query")
+        Assert.assertTrue(indexNanos < databaseNanos)
+    }
+
+    private fun queryIndex(query: String, limit: Int): List<String> {
+        return index.queryUsers(query, ACCOUNT_KEY, null, null, AutoCompleteIndex.autoCompleteOrder,
+                limit).map { it.user.userKey }
+    }
+
+    private fun queryDatabase(query: String, limit: Int = 0): List<String> {
+        val where = Expression.or(Expression.likeRaw(Columns.Column(CachedUsers.SCREEN_NAME), "?||'%'", "^"),
+                Expression.likeRaw(Columns.Column(CachedUsers.NAME), "?||'%'", "^"))
+        val orderBy = OrderBy(arrayOf(CachedUsers.SCORE, CachedUsers.LAST_SEEN, CachedUsers.SCREEN_NAME,
+                CachedUsers.NAME), booleanArrayOf(false, false, true, true))
+        val (sql, args) = CachedUsersQueryBuilder.withScore(arrayOf(CachedUsers.USER_KEY), where,
+                arrayOf(query, query), orderBy.sql, UserKey.valueOf(ACCOUNT_KEY), null, null, limit)
+        return db.rawQuery(sql.sql, args).use { cursor ->
+            val result = ArrayList<String>()
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0))
+            }
+            return@use result
+        }
+    }
+
+    private fun createTable(table: String, columns: Array<String>, types: Array<String>) {
+        val definitions = columns.zip(types).joinToString(",") { (name, type) -> "$name $type" }
+        db.execSQL("CREATE TABLE $table ($definitions)")
+    }
+
+    companion object {
+        private const val USERS = 50000
+        private const val ACCOUNT_KEY = "1000@twitter.com"
+    }
+}
@@ -0,0 +1,78 @@
+package org.mariotaku.twidere.util.database
+
+import android.content.ContentValues
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.support.test.runner.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class BulkInsertEngineTest {
+
+    private lateinit var db: SQLiteDatabase
+    private val engine = BulkInsertEngine()
+
+    @Before
+    fun setUp() {
+        db = SQLiteDatabase.create(null)
+        db.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, key TEXT UNIQUE, value INTEGER)")
+    }
+
+    @After
+    fun tearDown() {
+        engine.clear()
+        db.close()
+    }
+
+    @Test
+    fun testInsert() {
+        val rows = Array(10000) { i -> values("key$i", i) }
+        insertInTransaction(rows, SQLiteDatabase.CONFLICT_REPLACE)
+        insertInTransaction(arrayOf(values("key0", -1), ContentValues().apply { put("key", "key10000") }),
+                SQLiteDatabase.CONFLICT_REPLACE)
+        Assert.assertEquals(10001, DatabaseUtils.queryNumEntries(db, "items"))
+        Assert.assertEquals(-1, DatabaseUtils.longForQuery(db,
+                "SELECT value FROM items WHERE key = 'key0'", null))
+        Assert.assertEquals(10002, engine.stats["items"]!!.rows)
+    }
+
+    @Test
+    fun testInsertNoConflictAlgorithm() {
+        insertInTransaction(arrayOf(values("key", 1), values("key", 2)), SQLiteDatabase.CONFLICT_NONE)
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, "items"))
+    }
+
+    @Test
+    fun testUpsert() {
+        db.beginTransaction()
+        try {
+            engine.upsert(db, "items", arrayOf(values("a", 1), values("b", 2)), "key")
+            engine.upsert(db, "items", arrayOf(values("a", 3)), "key")
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        Assert.assertEquals(2, DatabaseUtils.queryNumEntries(db, "items"))
+        Assert.assertEquals(3, DatabaseUtils.longForQuery(db,
+                "SELECT value FROM items WHERE key = 'a'", null))
+    }
+
+    private fun insertInTransaction(rows: Array<ContentValues>, conflictAlgorithm: Int) {
+        db.beginTransaction()
+        try {
+            engine.insert(db, "items", rows, conflictAlgorithm)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun values(key: String, value: Int) = ContentValues().apply {
+        put("key", key)
+        put("value", value)
+    }
+}
@@ -0,0 +1,126 @@
+package org.mariotaku.twidere.util.database
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.Constants
+import org.mariotaku.twidere.provider.TwidereDataStore.*
+import org.mariotaku.twidere.util.content.TwidereSQLiteOpenHelper
+
+@RunWith(AndroidJUnit4::class)
+class DatabasePrunerTest {
+
+    private val context = InstrumentationRegistry.getTargetContext()
+    private val preferences = context.getSharedPreferences("database_pruner_test", Context.MODE_PRIVATE)
+    private lateinit var helper: TwidereSQLiteOpenHelper
+    private lateinit var db: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        preferences.edit().clear().commit()
+        helper = TwidereSQLiteOpenHelper(context, null, Constants.DATABASES_VERSION)
+        db = helper.writableDatabase
+    }
+
+    @After
+    fun tearDown() {
+        helper.close()
+        preferences.edit().clear().commit()
+    }
+
+    @Test
+    fun testPrune() {
+        insertStatuses("1@a", 0 until 1000)
+        insertStatuses("2@a", 0 until 50)
+        insertActivities("1@a", 0 until 300)
+        val pruner = DatabasePruner(db, preferences, batchSize = 64, yieldDelay = 0)
+        val result = pruner.prune(listOf("1@a", "2@a"), 100)
+        Assert.assertEquals(900, result.deletedRows[Statuses.TABLE_NAME])
+        Assert.assertEquals(200, result.deletedRows[Activities.AboutMe.TABLE_NAME])
+        Assert.assertEquals(1100, result.total)
+        // Newest rows kept
+        Assert.assertEquals(100, count(Statuses.TABLE_NAME, "1@a"))
+        Assert.assertEquals(900, DatabaseUtils.longForQuery(db, "SELECT MIN(${Statuses.POSITION_KEY}) " +
+                "FROM ${Statuses.TABLE_NAME} WHERE ${Statuses.ACCOUNT_KEY} = ?", arrayOf("1@a")))
+        Assert.assertEquals(50, count(Statuses.TABLE_NAME, "2@a"))
+        Assert.assertEquals(100, count(Activities.AboutMe.TABLE_NAME, "1@a"))
+    }
+
+    @Test
+    fun testHighWaterMark() {
+        insertStatuses("1@a", 0 until 200)
+        val pruner = DatabasePruner(db, preferences, yieldDelay = 0)
+        Assert.assertEquals(100, pruner.prune(listOf("1@a"), 100).total)
+        // Nothing inserted since, no table touched
+        Assert.assertTrue(pruner.prune(listOf("1@a"), 100).deletedRows.isEmpty())
+        // Rows older than kept ones, like loaded by load more, are still pruned
+        insertStatuses("1@a", -50 until 0)
+        Assert.assertEquals(50, pruner.prune(listOf("1@a"), 100).total)
+        Assert.assertEquals(100, count(Statuses.TABLE_NAME, "1@a"))
+    }
+
+    @Test
+    fun testItemLimitChanged() {
+        insertStatuses("1@a", 0 until 200)
+        val pruner = DatabasePruner(db, preferences, yieldDelay = 0)
+        Assert.assertEquals(0, pruner.prune(listOf("1@a"), 500).total)
+        // No rows inserted since, but lowered limit should apply
+        Assert.assertEquals(150, pruner.prune(listOf("1@a"), 50).total)
+        Assert.assertEquals(50, count(Statuses.TABLE_NAME, "1@a"))
+    }
+
+    @Test
+    fun testPruneCache() {
+        db.beginTransaction()
+        for (i in 0 until 3000) {
+            db.insert(CachedUsers.TABLE_NAME, null, ContentValues().apply {
+                put(CachedUsers.USER_KEY, "$i@a")
+                put(CachedUsers.NAME, "user$i")
+            })
+        }
+        db.setTransactionSuccessful()
+        db.endTransaction()
+        val result = DatabasePruner(db, preferences, yieldDelay = 0).prune(emptyList(), 100)
+        Assert.assertEquals(1000, result.deletedRows[CachedUsers.TABLE_NAME])
+        Assert.assertEquals(2000, DatabaseUtils.queryNumEntries(db, CachedUsers.TABLE_NAME))
+    }
+
+    private fun insertStatuses(accountKey: String, positions: IntRange) {
+        insert(Statuses.TABLE_NAME, accountKey, positions) { values, position ->
+            values.put(Statuses.ID, position.toString())
+            values.put(Statuses.TIMESTAMP, position.toLong())
+        }
+    }
+
+    private fun insertActivities(accountKey: String, positions: IntRange) {
+        insert(Activities.AboutMe.TABLE_NAME, accountKey, positions) { values, position ->
+            values.put(Activities.TIMESTAMP, position.toLong())
+        }
+    }
+
+    private inline fun insert(table: String, accountKey: String, positions: IntRange,
+            fill: (ContentValues, Int) -> Unit) {
+        db.beginTransaction()
+        for (position in positions) {
+            val values = ContentValues()
+            values.put(Statuses.ACCOUNT_KEY, accountKey)
+            values.put(Statuses.POSITION_KEY, position.toLong())
+            fill(values, position)
+            db.insert(table, null, values)
+        }
+        db.setTransactionSuccessful()
+        db.endTransaction()
+    }
+
+    private fun count(table: String, accountKey: String): Long {
+        return DatabaseUtils.queryNumEntries(db, table, "${Statuses.ACCOUNT_KEY} = ?", arrayOf(accountKey))
+    }
+}
@@ -0,0 +1,61 @@
+package org.mariotaku.twidere.util.database
+
+import android.content.ContentValues
+import android.support.test.runner.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class WrittenRowHashesTest {
+
+    private val keyColumns = arrayOf("account_key", "user_key")
+
+    @Test
+    fun testFilterChanged() {
+        val hashes = WrittenRowHashes()
+        val rows = arrayOf(values("1@a", "2@a", "foo"), values("1@a", "3@a", "bar"))
+        Assert.assertEquals(2, hashes.filterChanged("items", rows, keyColumns).size)
+        hashes.put("items", hashes.generation("items"), rows, keyColumns)
+        Assert.assertEquals(0, hashes.filterChanged("items", rows, keyColumns).size)
+
+        val changed = arrayOf(values("1@a", "2@a", "foo"), values("1@a", "3@a", "baz"),
+                values("2@a", "2@a", "foo"))
+        Assert.assertEquals(listOf("baz", "foo"), hashes.filterChanged("items", changed, keyColumns)
+                .map { it.getAsString("name") })
+        // Rows without key are always written
+        Assert.assertEquals(1, hashes.filterChanged("items", arrayOf(ContentValues()), keyColumns).size)
+    }
+
+    @Test
+    fun testInvalidate() {
+        val hashes = WrittenRowHashes()
+        val rows = arrayOf(values("1@a", "2@a", "foo"))
+        hashes.put("items", hashes.generation("items"), rows, keyColumns)
+        hashes.invalidate("items")
+        // Rows may have been deleted, write again
+        Assert.assertEquals(1, hashes.filterChanged("items", rows, keyColumns).size)
+
+        // Invalidated while writing, hashes not recorded
+        val generation = hashes.generation("items")
+        hashes.invalidate("items")
+        hashes.put("items", generation, rows, keyColumns)
+        Assert.assertEquals(1, hashes.filterChanged("items", rows, keyColumns).size)
+    }
+
+    @Test
+    fun testHashColumnOrder() {
+        val a = ContentValues().apply { put("a", 1); put("b", "2") }
+        val b = ContentValues().apply { put("b", "2"); put("a", 1) }
+        Assert.assertEquals(WrittenRowHashes.hash(a), WrittenRowHashes.hash(b))
+        Assert.assertNotEquals(WrittenRowHashes.hash(a), WrittenRowHashes.hash(ContentValues().apply {
+            put("a", 1); put("b", "3")
+        }))
+    }
+
+    private fun values(accountKey: String, userKey: String, name: String) = ContentValues().apply {
+        put("account_key", accountKey)
+        put("user_key", userKey)
+        put("name", name)
+    }
+}
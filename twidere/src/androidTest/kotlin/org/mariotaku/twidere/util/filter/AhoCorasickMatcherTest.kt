@@ -0,0 +1,29 @@
+package org.mariotaku.twidere.util.filter
+
+import org.junit.Assert
+import org.junit.Test
+
+class AhoCorasickMatcherTest {
+
+    @Test
+    fun testMatch() {
+        val matcher = AhoCorasickMatcher.Builder()
+                .add("he", 0x1)
+                .add("she", 0x2)
+                .add("hers", 0x4)
+                .add("Spoiler", 0x8)
+                .build()
+        Assert.assertEquals(0x1 or 0x2, matcher.match("ushe"))
+        Assert.assertEquals(0x1 or 0x4, matcher.match("ahers"))
+        Assert.assertEquals(0x8, matcher.match("no SPOILERS please"))
+        Assert.assertEquals(0, matcher.match("nothing"))
+        Assert.assertEquals(0, matcher.match(null))
+    }
+
+    @Test
+    fun testEmpty() {
+        val matcher = AhoCorasickMatcher.Builder().add("", 0x1).build()
+        Assert.assertTrue(matcher.isEmpty)
+        Assert.assertEquals(0, matcher.match("anything"))
+    }
+}
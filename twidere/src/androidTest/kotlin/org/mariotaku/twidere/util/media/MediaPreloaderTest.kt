@@ -0,0 +1,55 @@
+package org.mariotaku.twidere.util.media
+
+import android.support.test.runner.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.model.ParcelableMedia
+import org.mariotaku.twidere.model.ParcelableStatus
+
+@RunWith(AndroidJUnit4::class)
+class MediaPreloaderTest {
+
+    @Test
+    fun testPlanOrder() {
+        val statuses = listOf(status(1, "a", "m1"), status(3, "b", "m3"), status(2, "c", "m2"))
+        val urls = MediaPreloader.plan(statuses, MediaPreloader.UNMETERED_BUDGET) { false }.map { it.url }
+        Assert.assertEquals(listOf("b", "c", "a", "m3", "m2", "m1"), urls)
+    }
+
+    @Test
+    fun testPlanDeduplicate() {
+        val statuses = listOf(status(3, "a", "m1"), status(2, "a", "m1"), status(1, "b", "m2"))
+        val requests = MediaPreloader.plan(statuses, MediaPreloader.UNMETERED_BUDGET) { it == "m2" }
+        Assert.assertEquals(listOf("a", "b", "m1"), requests.map { it.url })
+    }
+
+    @Test
+    fun testPlanBudget() {
+        val statuses = (0 until 200).map { status(it.toLong(), "avatar$it", "media$it") }
+        val requests = MediaPreloader.plan(statuses, MediaPreloader.METERED_BUDGET) { false }
+        Assert.assertTrue(requests.sumByLong { it.estimatedBytes } <= MediaPreloader.METERED_BUDGET)
+        // All profile images fit, media of newest statuses first
+        Assert.assertEquals(200, requests.count { it.isProfileImage })
+        val media = requests.filterNot { it.isProfileImage }
+        Assert.assertTrue(media.size in 1 until 200)
+        Assert.assertEquals((199 downTo 200 - media.size).map { "media$it" }, media.map { it.url })
+    }
+
+    private fun status(timestamp: Long, profileImage: String, mediaUrl: String) = ParcelableStatus().apply {
+        this.timestamp = timestamp
+        this.user_profile_image_url = profileImage
+        this.media = arrayOf(ParcelableMedia().apply {
+            this.type = ParcelableMedia.Type.IMAGE
+            this.preview_url = mediaUrl
+            this.width = 1200
+            this.height = 800
+        })
+    }
+
+    private inline fun <T> List<T>.sumByLong(selector: (T) -> Long): Long {
+        var sum = 0L
+        forEach { sum += selector(it) }
+        return sum
+    }
+}
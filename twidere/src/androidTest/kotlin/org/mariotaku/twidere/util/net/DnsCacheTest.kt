@@ -0,0 +1,51 @@
+package org.mariotaku.twidere.util.net
+
+import org.junit.Assert
+import org.junit.Test
+import java.net.InetAddress
+
+class DnsCacheTest {
+
+    private val address = InetAddress.getByAddress("pbs.twimg.com", byteArrayOf(127, 0, 0, 1))
+
+    @Test
+    fun testTtl() {
+        val cache = DnsCache(minTtlMillis = 1000, maxTtlMillis = 10000)
+        cache.put("pbs.twimg.com", listOf(address), 100, 0)
+        Assert.assertNotNull(cache["PBS.twimg.com", 999])
+        Assert.assertNull(cache["pbs.twimg.com", 1000])
+        cache.put("pbs.twimg.com", listOf(address), 100000, 0)
+        Assert.assertNotNull(cache["pbs.twimg.com", 9999])
+        Assert.assertNull(cache["pbs.twimg.com", 10000])
+    }
+
+    @Test
+    fun testNegative() {
+        val cache = DnsCache(minTtlMillis = 1000)
+        cache.putNegative("nxdomain.invalid", 0)
+        Assert.assertNull(cache["nxdomain.invalid", 0]!!.addresses)
+        Assert.assertNull(cache["nxdomain.invalid", 1000])
+    }
+
+    @Test
+    fun testEviction() {
+        val cache = DnsCache(maxSize = 2)
+        cache.put("a.example.com", listOf(address), 60000, 0)
+        cache.put("b.example.com", listOf(address), 60000, 0)
+        Assert.assertNotNull(cache["a.example.com", 0])
+        cache.put("c.example.com", listOf(address), 60000, 0)
+        Assert.assertNotNull(cache["a.example.com", 0])
+        Assert.assertNull(cache["b.example.com", 0])
+    }
+
+    @Test
+    fun testClaimRefresh() {
+        val cache = DnsCache(minTtlMillis = 1000, maxTtlMillis = 1000)
+        cache.put("pbs.twimg.com", listOf(address), 1000, 0)
+        repeat(3) { cache["pbs.twimg.com", 0] }
+        val entry = cache["pbs.twimg.com", 800]!!
+        Assert.assertFalse(cache.claimRefresh(entry, 500))
+        Assert.assertTrue(cache.claimRefresh(entry, 800))
+        Assert.assertFalse(cache.claimRefresh(entry, 800))
+    }
+}
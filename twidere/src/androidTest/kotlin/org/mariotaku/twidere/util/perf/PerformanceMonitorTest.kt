@@ -0,0 +1,103 @@
+package org.mariotaku.twidere.util.perf
+
+import android.support.test.runner.AndroidJUnit4
+import okhttp3.HttpUrl
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.util.okhttp.PerformanceInterceptor
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class PerformanceMonitorTest {
+
+    @After
+    fun tearDown() {
+        PerformanceMonitor.isEnabled = false
+        PerformanceMonitor.reset()
+    }
+
+    @Test
+    fun testBuckets() {
+        var lastIndex = -1
+        for (value in 0L..100000L) {
+            val index = LatencyHistogram.bucketIndex(value)
+            Assert.assertTrue(index == lastIndex || index == lastIndex + 1)
+            Assert.assertTrue("$value in bucket $index", value >= LatencyHistogram.lowerBound(index))
+            Assert.assertTrue("$value in bucket $index", value < LatencyHistogram.lowerBound(index + 1))
+            lastIndex = index
+        }
+    }
+
+    @Test
+    fun testPercentile() {
+        val histogram = LatencyHistogram()
+        Assert.assertEquals(0L, histogram.percentile(0.5))
+        for (i in 1..1000L) {
+            histogram.record(i * 100)
+        }
+        Assert.assertEquals(1000L, histogram.count)
+        Assert.assertEquals(100000L, histogram.max)
+        Assert.assertEquals(50050L, histogram.mean)
+        assertApproximately(50000, histogram.percentile(0.5))
+        assertApproximately(95000, histogram.percentile(0.95))
+        Assert.assertEquals(100000L, histogram.percentile(1.0))
+        histogram.reset()
+        Assert.assertEquals(0L, histogram.count)
+        Assert.assertEquals(0L, histogram.percentile(0.95))
+    }
+
+    @Test
+    fun testDisabled() {
+        PerformanceMonitor.isEnabled = false
+        Assert.assertEquals("result", PerformanceMonitor.trace(PerformanceMonitor.JSON, "Status") { "result" })
+        PerformanceMonitor.record(PerformanceMonitor.HTTP, "GET api.twitter.com/1.1/test", 1000)
+        Assert.assertTrue(PerformanceMonitor.snapshot().isEmpty())
+    }
+
+    @Test
+    fun testRecord() {
+        PerformanceMonitor.isEnabled = true
+        for (i in 1..10L) {
+            PerformanceMonitor.record(PerformanceMonitor.PROVIDER_QUERY, "statuses", TimeUnit.MILLISECONDS.toNanos(i))
+        }
+        PerformanceMonitor.record(PerformanceMonitor.PROVIDER_QUERY, "activities_about_me",
+                TimeUnit.MILLISECONDS.toNanos(1))
+        try {
+            PerformanceMonitor.trace(PerformanceMonitor.JSON, "Status") { throw IllegalStateException() }
+        } catch (e: IllegalStateException) {
+            // Failed calls are recorded too
+        }
+        val snapshot = PerformanceMonitor.snapshot()
+        Assert.assertEquals(listOf("json:Status", "provider_query:statuses", "provider_query:activities_about_me"),
+                snapshot.map { "${it.category}:${it.name}" })
+        val statuses = snapshot[1]
+        Assert.assertEquals(10L, statuses.count)
+        Assert.assertEquals(10000L, statuses.max)
+        assertApproximately(5000, statuses.p50)
+        Assert.assertTrue(PerformanceMonitor.dump().contains("statuses"))
+    }
+
+    @Test
+    fun testBoundedNames() {
+        PerformanceMonitor.isEnabled = true
+        for (i in 0 until 1000) {
+            PerformanceMonitor.record(PerformanceMonitor.DNS, "host$i.example.com", 1000)
+        }
+        val snapshot = PerformanceMonitor.snapshot()
+        Assert.assertTrue(snapshot.size < 1000)
+        Assert.assertEquals(1000, snapshot.sumBy { it.count.toInt() })
+    }
+
+    @Test
+    fun testEndpoint() {
+        val url = HttpUrl.parse("https://api.twitter.com/1.1/statuses/show/1234567890.json?id=1")!!
+        Assert.assertEquals("GET api.twitter.com/1.1/statuses/show/:id.json",
+                PerformanceInterceptor.endpoint("GET", url))
+    }
+
+    private fun assertApproximately(expected: Long, actual: Long) {
+        Assert.assertTrue("Expected about $expected, got $actual", Math.abs(actual - expected) <= expected / 8)
+    }
+}
@@ -0,0 +1,148 @@
+package org.mariotaku.twidere.util.refresh
+
+import android.support.test.runner.AndroidJUnit4
+import android.util.Log
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.TwidereConstants.LOGTAG
+import org.mariotaku.twidere.annotation.AutoRefreshType
+import org.mariotaku.twidere.model.UserKey
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class AdaptiveRefreshPlannerTest {
+
+    private val utc = TimeZone.getTimeZone("UTC")
+    private val accountKey = UserKey("1", "twitter.com")
+
+    /**
+     * Replays [HOURLY_ARRIVALS] for a few days, refreshing whenever planner asks to
+     */
+    @Test
+    fun testSimulation() {
+        var now = START_TIME
+        val planner = AdaptiveRefreshPlanner(null, { now }, utc)
+        val end = START_TIME + TimeUnit.DAYS.toMillis(SIMULATED_DAYS.toLong())
+        var lastRefresh = now
+        var wakeups = 0
+        planner.recordRefresh(AutoRefreshType.HOME_TIMELINE, accountKey, 0, now)
+        while (now < end) {
+            val interval = planner.interval(AutoRefreshType.HOME_TIMELINE, listOf(accountKey),
+                    MIN_INTERVAL, MAX_INTERVAL)
+            Assert.assertTrue("Interval $interval out of bounds", interval in MIN_INTERVAL..MAX_INTERVAL)
+            val hour = hourOfDay(now)
+            if (now - START_TIME > TimeUnit.DAYS.toMillis(1) && HOURLY_ARRIVALS[hour] >= BUSY_ARRIVALS) {
+                // Rate learned, busy hours should be refreshed as often as allowed
+                Assert.assertEquals("Slow refresh at $hour:00", MIN_INTERVAL, interval)
+            }
+            now += interval
+            wakeups++
+            val newItems = arrivals(now) - arrivals(lastRefresh)
+            planner.recordRefresh(AutoRefreshType.HOME_TIMELINE, accountKey, newItems.toInt(), now)
+            lastRefresh = now
+        }
+        val fixedWakeups = (end - START_TIME) / MIN_INTERVAL
+        Log.i(LOGTAG, "Adaptive refresh woke up $wakeups times, fixed interval $fixedWakeups times")
+        Assert.assertTrue("$wakeups wakeups, $fixedWakeups with fixed interval",
+                wakeups < fixedWakeups * 3 / 4)
+    }
+
+    @Test
+    fun testNextDayPart() {
+        var now = START_TIME + TimeUnit.DAYS.toMillis(1)
+        val planner = AdaptiveRefreshPlanner(null, { now }, utc)
+        // Teach a quiet night and a busy morning
+        planner.recordRefresh(AutoRefreshType.HOME_TIMELINE, accountKey, 0, now)
+        now += TimeUnit.HOURS.toMillis(7)
+        planner.recordRefresh(AutoRefreshType.HOME_TIMELINE, accountKey, 0, now)
+        now += TimeUnit.MINUTES.toMillis(10)
+        planner.recordRefresh(AutoRefreshType.HOME_TIMELINE, accountKey, 50, now)
+        // 05:30, next refresh should not sleep through 06:00
+        now = START_TIME + TimeUnit.DAYS.toMillis(2) + TimeUnit.MINUTES.toMillis(5 * 60 + 30)
+        planner.recordRefresh(AutoRefreshType.HOME_TIMELINE, accountKey, 0, now - MAX_INTERVAL)
+        planner.recordRefresh(AutoRefreshType.HOME_TIMELINE, accountKey, 0, now)
+        val interval = planner.interval(AutoRefreshType.HOME_TIMELINE, listOf(accountKey),
+                MIN_INTERVAL, MAX_INTERVAL)
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(30) + MIN_INTERVAL, interval)
+    }
+
+    @Test
+    fun testBounds() {
+        val now = START_TIME
+        val planner = AdaptiveRefreshPlanner(null, { now }, utc)
+        // Unknown rate
+        Assert.assertEquals(MIN_INTERVAL, planner.interval(AutoRefreshType.HOME_TIMELINE,
+                listOf(accountKey), MIN_INTERVAL, MAX_INTERVAL))
+        // All accounts covered by streaming
+        Assert.assertEquals(MAX_INTERVAL, planner.interval(AutoRefreshType.HOME_TIMELINE,
+                emptyList(), MIN_INTERVAL, MAX_INTERVAL))
+        // Maximum smaller than minimum
+        Assert.assertEquals(MIN_INTERVAL, planner.interval(AutoRefreshType.HOME_TIMELINE,
+                emptyList(), MIN_INTERVAL, MIN_INTERVAL / 2))
+        Assert.assertEquals(MAX_INTERVAL, AdaptiveRefreshPlanner.intervalForRate(0.0,
+                MIN_INTERVAL, MAX_INTERVAL))
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(50), AdaptiveRefreshPlanner.intervalForRate(0.1,
+                MIN_INTERVAL, MAX_INTERVAL))
+    }
+
+    @Test
+    fun testDueWithin() {
+        val now = START_TIME
+        val planner = AdaptiveRefreshPlanner(null, { now }, utc)
+        planner.setDueTime(AutoRefreshType.HOME_TIMELINE, now + TimeUnit.MINUTES.toMillis(3))
+        planner.setDueTime(AutoRefreshType.INTERACTIONS_TIMELINE, now + TimeUnit.MINUTES.toMillis(30))
+        Assert.assertEquals(listOf(AutoRefreshType.HOME_TIMELINE), planner.dueWithin(
+                AutoRefreshType.DIRECT_MESSAGES, TimeUnit.MINUTES.toMillis(5)))
+        Assert.assertEquals(emptyList<String>(), planner.dueWithin(AutoRefreshType.HOME_TIMELINE,
+                TimeUnit.MINUTES.toMillis(5)))
+    }
+
+    @Test
+    fun testStatsJson() {
+        val stats = AdaptiveRefreshPlanner.Stats(doubleArrayOf(0.5, Double.NaN, 0.0, 2.0), START_TIME)
+        val parsed = AdaptiveRefreshPlanner.Stats.parse(stats.toJson())
+        Assert.assertEquals(START_TIME, parsed.lastRefresh)
+        Assert.assertEquals(0.5, parsed.rates[0], 0.0)
+        Assert.assertTrue(parsed.rates[1].isNaN())
+        Assert.assertEquals(0.0, parsed.rates[2], 0.0)
+        Assert.assertEquals(0.8333, parsed.rateAt(1), 0.001)
+    }
+
+    private fun hourOfDay(time: Long): Int {
+        return ((time - START_TIME) / TimeUnit.HOURS.toMillis(1) % 24).toInt()
+    }
+
+    /**
+     * Items arrived since [START_TIME], spread evenly in each hour
+     */
+    private fun arrivals(time: Long): Long {
+        val hourMillis = TimeUnit.HOURS.toMillis(1)
+        val hours = (time - START_TIME) / hourMillis
+        var count = 0L
+        for (i in 0 until hours) {
+            count += HOURLY_ARRIVALS[(i % 24).toInt()]
+        }
+        val partial = (time - START_TIME) % hourMillis
+        return count + HOURLY_ARRIVALS[(hours % 24).toInt()] * partial / hourMillis
+    }
+
+    companion object {
+        // 2017-06-01T00:00:00Z
+        private const val START_TIME = 1496275200000L
+        private const val SIMULATED_DAYS = 4
+        private const val BUSY_ARRIVALS = 30
+        private val MIN_INTERVAL = TimeUnit.MINUTES.toMillis(15)
+        private val MAX_INTERVAL = TimeUnit.MINUTES.toMillis(120)
+
+        /**
+         * New home timeline items in each hour of day, recorded from a moderately active account
+         */
+        private val HOURLY_ARRIVALS = intArrayOf(
+                2, 1, 0, 0, 0, 1,
+                8, 14, 22, 18, 12, 16,
+                38, 44, 35, 31, 40, 47,
+                52, 61, 58, 49, 36, 30)
+    }
+}
@@ -0,0 +1,101 @@
+package org.mariotaku.twidere.util.refresh
+
+import android.os.SystemClock
+import android.support.test.runner.AndroidJUnit4
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.util.okhttp.RateLimitInterceptor
+
+@RunWith(AndroidJUnit4::class)
+class ConcurrentRefresherTest {
+
+    private lateinit var server: MockWebServer
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.setDispatcher(object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                Thread.sleep(RESPONSE_DELAY)
+                return MockResponse().setBody(request.path)
+            }
+        })
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun testMap() {
+        val client = OkHttpClient()
+        // Six accounts on three hosts
+        val accounts = (0 until 6).map { Pair("host${it % 3}", "/account$it") }
+        val fetch = { _: Int, account: Pair<String, String> ->
+            val request = Request.Builder().url(server.url(account.second)).build()
+            client.newCall(request).execute().use { it.body()!!.string() }
+        }
+
+        val sequentialStart = SystemClock.elapsedRealtime()
+        val sequential = accounts.mapIndexed(fetch)
+        val sequentialTime = SystemClock.elapsedRealtime() - sequentialStart
+
+        val concurrentStart = SystemClock.elapsedRealtime()
+        val concurrent = ConcurrentRefresher().map(accounts, { it.first }, fetch)
+        val concurrentTime = SystemClock.elapsedRealtime() - concurrentStart
+
+        Assert.assertEquals(sequential, concurrent)
+        Assert.assertTrue("Took ${concurrentTime}ms, ${sequentialTime}ms sequentially",
+                concurrentTime < sequentialTime / 2)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun testMapError() {
+        ConcurrentRefresher().map(listOf(1, 2, 3), { it }) { _, item ->
+            if (item == 2) throw IllegalStateException()
+            return@map item
+        }
+    }
+
+    @Test
+    fun testRateLimit() {
+        server.setDispatcher(object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val reset = System.currentTimeMillis() / 1000 + 60
+                return MockResponse().addHeader("x-rate-limit-remaining", 0)
+                        .addHeader("x-rate-limit-reset", reset)
+            }
+        })
+        val client = OkHttpClient.Builder()
+                .addInterceptor(RateLimitInterceptor(RateLimitTracker()))
+                .build()
+        val request = Request.Builder().url(server.url("/home_timeline.json"))
+                .header("Authorization", "OAuth oauth_nonce=\"1\", oauth_token=\"token\"")
+                .build()
+        Assert.assertEquals(200, client.newCall(request).execute().use { it.code() })
+        val limited = request.newBuilder()
+                .header("Authorization", "OAuth oauth_nonce=\"2\", oauth_token=\"token\"")
+                .build()
+        Assert.assertEquals(429, client.newCall(limited).execute().use { it.code() })
+        val otherUser = request.newBuilder()
+                .header("Authorization", "OAuth oauth_nonce=\"3\", oauth_token=\"another\"")
+                .build()
+        Assert.assertEquals(200, client.newCall(otherUser).execute().use { it.code() })
+        Assert.assertEquals(2, server.requestCount)
+    }
+
+    companion object {
+        private const val RESPONSE_DELAY = 300L
+    }
+}
@@ -0,0 +1,22 @@
+package org.mariotaku.twidere.util.streaming
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class ExponentialBackoffTest {
+
+    @Test
+    fun testNextDelayMillis() {
+        val backoff = ExponentialBackoff(1000, 60000, Random(0))
+        repeat(100) { attempt ->
+            val ceiling = if (attempt < 6) 1000L shl attempt else 60000L
+            val delay = backoff.nextDelayMillis()
+            Assert.assertTrue("Attempt $attempt: $delay", delay in 500..ceiling)
+        }
+        Assert.assertEquals(100, backoff.attempts)
+        backoff.reset()
+        Assert.assertEquals(0, backoff.attempts)
+        Assert.assertTrue(backoff.nextDelayMillis() in 500..1000)
+    }
+}
@@ -0,0 +1,146 @@
+package org.mariotaku.twidere.util.sync
+
+import android.content.Context
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.twidere.extension.model.filename
+import org.mariotaku.twidere.model.Draft
+import org.mariotaku.twidere.util.sync.FileBasedDraftsSyncAction.SyncState
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(AndroidJUnit4::class)
+class FileBasedDraftsSyncActionTest {
+
+    private val context = InstrumentationRegistry.getTargetContext()
+
+    @Test
+    fun testComputeChanges() {
+        val action = FakeDraftsSyncAction(context)
+        val snapshot = mapOf(
+                "same" to SyncState(1000, 1000),
+                "local_edited" to SyncState(1000, 1000),
+                "remote_edited" to SyncState(1000, 1000),
+                "both_edited" to SyncState(1000, 1000),
+                "local_removed" to SyncState(1000, 1000),
+                "remote_removed" to SyncState(1000, 1000),
+                "edited_remote_removed" to SyncState(1000, 1000),
+                "both_removed" to SyncState(1000, 1000)
+        )
+        val local = listOf(draft("same", 1000), draft("local_edited", 5000), draft("remote_edited", 1000),
+                draft("both_edited", 5000), draft("remote_removed", 1000),
+                draft("edited_remote_removed", 5000), draft("local_new", 1000))
+        val remote = listOf(file("same", 1000), file("local_edited", 1000), file("remote_edited", 3000),
+                file("both_edited", 9000), file("local_removed", 1000), file("remote_new", 1000))
+
+        val changes = action.computeChanges(local, remote, snapshot)
+        Assert.assertEquals(setOf("local_edited", "edited_remote_removed", "local_new"),
+                changes.upload.map { it.unique_id }.toSet())
+        Assert.assertEquals(setOf("remote_new"), changes.download.map { it.id }.toSet())
+        Assert.assertEquals(setOf("remote_edited", "both_edited"),
+                changes.updateLocal.map { it.first.unique_id }.toSet())
+        Assert.assertEquals(setOf("remote_removed"), changes.removeLocal.map { it.unique_id }.toSet())
+        Assert.assertEquals(setOf("local_removed"), changes.removeRemote.map { it.id }.toSet())
+        Assert.assertEquals(setOf("same"), changes.unchanged.keys)
+    }
+
+    @Test
+    fun testComputeChangesLegacySnapshot() {
+        val action = FakeDraftsSyncAction(context)
+        val snapshot = FileBasedDraftsSyncAction.parseSnapshot(listOf("a", "b", "c"))
+        val local = listOf(draft("a", 1000), draft("b", 1000), draft("new", 1000))
+        val remote = listOf(file("a", 5000), file("c", 1000))
+
+        val changes = action.computeChanges(local, remote, snapshot)
+        Assert.assertEquals(listOf("a"), changes.updateLocal.map { it.first.unique_id })
+        Assert.assertEquals(listOf("b"), changes.removeLocal.map { it.unique_id })
+        Assert.assertEquals(listOf("c"), changes.removeRemote.map { it.id })
+        Assert.assertEquals(listOf("new"), changes.upload.map { it.unique_id })
+    }
+
+    @Test
+    fun testParseSnapshot() {
+        val snapshot = FileBasedDraftsSyncAction.parseSnapshot(listOf("a\t1\t2", "b", ""))
+        Assert.assertEquals(mapOf("a" to SyncState(1, 2), "b" to SyncState(-1, -1)), snapshot)
+    }
+
+    @Test
+    fun testTransfers() {
+        val action = FakeDraftsSyncAction(context)
+        val drafts = (0 until 50).map { draft("draft$it", it * 1000L) }
+
+        val uploaded = action.uploadDrafts(drafts)
+        Assert.assertEquals(drafts.map { it.filename }, uploaded.map { it?.name })
+        Assert.assertEquals(50, action.remote.size)
+        Assert.assertTrue("Transfers were sequential", action.maxConcurrent.get() > 1)
+        Assert.assertTrue(action.maxConcurrent.get() <= action.maxParallelTransfers)
+
+        val remote = action.listRemoteDrafts().sortedBy { it.timestamp }
+        val downloaded = action.downloadDrafts(remote)
+        Assert.assertEquals(drafts.map { it.unique_id }, downloaded.map { it?.unique_id })
+
+        Assert.assertTrue(action.removeDrafts(remote))
+        Assert.assertTrue(action.remote.isEmpty())
+    }
+
+    private fun draft(id: String, timestamp: Long) = Draft().apply {
+        this.unique_id = id
+        this.timestamp = timestamp
+    }
+
+    private fun file(id: String, timestamp: Long) = RemoteFile("$id.eml", timestamp, draft(id, timestamp))
+
+    data class RemoteFile(val name: String, val timestamp: Long, val draft: Draft) {
+        val id: String get() = name.substringBefore(".eml")
+    }
+
+    /**
+     * Keeps remote files in memory, tracks how many transfers run at the same time
+     */
+    class FakeDraftsSyncAction(context: Context) : FileBasedDraftsSyncAction<RemoteFile>(context) {
+
+        val remote = ConcurrentHashMap<String, RemoteFile>()
+        val maxConcurrent = AtomicInteger()
+        private val running = AtomicInteger()
+
+        override fun listRemoteDrafts(): List<RemoteFile> = remote.values.toList()
+
+        override fun Draft.loadFromRemote(info: RemoteFile): Boolean = transfer {
+            val file = remote[info.name] ?: return@transfer false
+            unique_id = file.draft.unique_id
+            timestamp = file.draft.timestamp
+            return@transfer true
+        }
+
+        override fun removeDraft(info: RemoteFile): Boolean = transfer {
+            remote.remove(info.name) != null
+        }
+
+        override fun Draft.saveToRemote(): RemoteFile? = transfer {
+            val file = RemoteFile(filename, timestamp, this)
+            remote[file.name] = file
+            return@transfer file
+        }
+
+        override val RemoteFile.draftFileName: String get() = name
+        override val RemoteFile.draftTimestamp: Long get() = timestamp
+
+        private inline fun <T> transfer(action: () -> T): T {
+            val count = running.incrementAndGet()
+            while (true) {
+                val max = maxConcurrent.get()
+                if (count <= max || maxConcurrent.compareAndSet(max, count)) break
+            }
+            try {
+                // Simulate network latency
+                Thread.sleep(10)
+                return action()
+            } finally {
+                running.decrementAndGet()
+            }
+        }
+    }
+}
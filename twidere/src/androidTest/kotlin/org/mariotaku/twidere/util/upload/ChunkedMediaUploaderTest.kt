@@ -0,0 +1,126 @@
+package org.mariotaku.twidere.util.upload
+
+import android.content.Context
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mariotaku.microblog.library.MicroBlogException
+import org.mariotaku.microblog.library.twitter.TwitterUpload
+import org.mariotaku.microblog.library.twitter.auth.EmptyAuthorization
+import org.mariotaku.restfu.http.ContentType
+import org.mariotaku.restfu.http.Endpoint
+import org.mariotaku.restfu.http.mime.SimpleBody
+import org.mariotaku.twidere.annotation.AccountType
+import org.mariotaku.twidere.extension.model.newMicroBlogInstance
+import java.io.ByteArrayInputStream
+import java.util.*
+
+@RunWith(AndroidJUnit4::class)
+class ChunkedMediaUploaderTest {
+
+    private lateinit var server: MockWebServer
+    private lateinit var store: UploadSessionStore
+    private lateinit var upload: TwitterUpload
+
+    private val data = ByteArray(5 * ChunkedMediaUploader.DEFAULT_SEGMENT_SIZE - 1000).apply {
+        Random(0).nextBytes(this)
+    }
+    private val commands = Collections.synchronizedList(ArrayList<String>())
+    private val appended = Collections.synchronizedSet(HashSet<Int>())
+    @Volatile
+    private var failSegment = -1
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getTargetContext()
+        val preferences = context.getSharedPreferences("upload_sessions_test", Context.MODE_PRIVATE)
+        preferences.edit().clear().commit()
+        store = UploadSessionStore(preferences)
+        server = MockWebServer()
+        server.setDispatcher(object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val body = request.body.readUtf8()
+                val command = COMMAND_REGEX.find(request.path + "\n" + body)?.groupValues?.get(1)
+                        ?: return MockResponse().setResponseCode(400)
+                commands.add(command)
+                return when (command) {
+                    "INIT" -> json("{\"media_id\":\"1\"}")
+                    "APPEND" -> {
+                        val index = SEGMENT_INDEX_REGEX.find(body)!!.groupValues[1].toInt()
+                        if (index == failSegment) {
+                            failSegment = -1
+                            return MockResponse().setResponseCode(503)
+                        }
+                        appended.add(index)
+                        MockResponse().setResponseCode(204)
+                    }
+                    "FINALIZE" -> json("{\"media_id\":\"1\",\"processing_info\":" +
+                            "{\"state\":\"pending\",\"check_after_secs\":1}}")
+                    else -> json("{\"media_id\":\"1\",\"processing_info\":{\"state\":\"succeeded\"}}")
+                }
+            }
+        })
+        server.start()
+        upload = newMicroBlogInstance(context, Endpoint(server.url("/").toString()),
+                EmptyAuthorization(), AccountType.TWITTER, TwitterUpload::class.java)
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun testUpload() {
+        val response = ChunkedMediaUploader(upload, store).upload("key", body(), "tweet_video")
+        Assert.assertEquals("1", response.id)
+        Assert.assertEquals(setOf(0, 1, 2, 3, 4), appended)
+        Assert.assertEquals(listOf("INIT", "FINALIZE", "STATUS"), commands.filter { it != "APPEND" })
+        Assert.assertNull(store["key"])
+    }
+
+    @Test
+    fun testResume() {
+        failSegment = 3
+        val uploader = ChunkedMediaUploader(upload, store, parallelism = 1)
+        try {
+            uploader.upload("key", body(), "tweet_video")
+            Assert.fail()
+        } catch (e: MicroBlogException) {
+            // Expected
+        }
+        Assert.assertEquals(setOf(0, 1, 2), store["key"]!!.acknowledged.keys)
+        commands.clear()
+        uploader.upload("key", body(), "tweet_video")
+        // Only segments not acknowledged sent again, without a new INIT
+        Assert.assertEquals(listOf("APPEND", "APPEND", "FINALIZE", "STATUS"), commands)
+        Assert.assertEquals(setOf(0, 1, 2, 3, 4), appended)
+    }
+
+    @Test
+    fun testSegmentSize() {
+        Assert.assertEquals(ChunkedMediaUploader.DEFAULT_SEGMENT_SIZE, ChunkedMediaUploader.segmentSize(0))
+        Assert.assertEquals(ChunkedMediaUploader.MIN_SEGMENT_SIZE, ChunkedMediaUploader.segmentSize(1024))
+        Assert.assertEquals(ChunkedMediaUploader.MAX_SEGMENT_SIZE,
+                ChunkedMediaUploader.segmentSize(100L * 1024 * 1024))
+    }
+
+    private fun body() = SimpleBody(ContentType.parse("video/mp4"), null, data.size.toLong(),
+            ByteArrayInputStream(data))
+
+    private fun json(content: String) = MockResponse().setHeader("Content-Type", "application/json")
+            .setBody(content)
+
+    companion object {
+        private val COMMAND_REGEX = Regex("command=?\\W*(INIT|APPEND|FINALIZE|STATUS)")
+        private val SEGMENT_INDEX_REGEX = Regex("name=\"segment_index\"[^\\d]*(\\d+)")
+    }
+}
@@ -26,6 +26,7 @@ import org.mariotaku.ktextension.toHexColor
 import org.mariotaku.twidere.TwidereConstants.*
 import org.mariotaku.twidere.model.AccountDetails
 import org.mariotaku.twidere.util.JsonSerializer
+import org.mariotaku.twidere.util.cache.AccountDetailsCache
 
 /**
  * Created by mariotaku on 2017/4/16.
@@ -42,4 +43,5 @@ fun Account.updateDetails(am: AccountManager, details: AccountDetails) {
     am.setUserData(this, ACCOUNT_USER_DATA_USER, JsonSerializer.serialize(details.user))
     am.setUserData(this, ACCOUNT_USER_DATA_EXTRAS, details.extras?.let { JsonSerializer.serialize(it) })
     am.setAuthToken(this, ACCOUNT_AUTH_TOKEN_TYPE, JsonSerializer.serialize(details.credentials))
+    AccountDetailsCache.invalidate(this)
 }
@@ -19,10 +19,14 @@
 
 package org.mariotaku.twidere.loader;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.FixedAsyncTaskLoader;
 import android.support.v4.content.LoaderAccessor;
 
@@ -30,9 +34,12 @@ import org.mariotaku.library.objectcursor.ObjectCursor;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.mariotaku.twidere.TwidereConstants.QUERY_PARAM_LIMIT;
+
 /**
  * Created by mariotaku on 15-7-5.
  */
@@ -47,12 +54,21 @@ public class ObjectCursorLoader<T> extends FixedAsyncTaskLoader<List<T>> {
     String[] mSelectionArgs;
     String mSortOrder;
     boolean mUseCache;
+    String[] mPageKeyColumns;
+    int mPageSize;
+    String mInitialTargetColumn;
+    String mInitialTargetValue;
 
-    ObjectCursor<T> mObjects;
+    volatile ObjectCursor<T> mObjects;
+    volatile boolean mNextPageRequested;
 
     /* Runs on a worker thread */
     @Override
     public ObjectCursor<T> loadInBackground() {
+        if (mPageSize > 0) {
+            final PagedCursor cursor = loadPages();
+            return createObjectCursor(cursor, createIndices(cursor));
+        }
         Cursor cursor = getContext().getContentResolver().query(mUri, mProjection, mSelection,
                 mSelectionArgs, mSortOrder);
         if (cursor != null) {
@@ -64,6 +80,154 @@ public class ObjectCursorLoader<T> extends FixedAsyncTaskLoader<List<T>> {
         return createObjectCursor(cursor, createIndices(cursor));
     }
 
+    /**
+     * Loads next page after the last key of current result, or requeries loaded extent (plus one
+     * page, so rows inserted by load more show up) on content change.
+     * Pages are shared between results, and closed after all results using them closed.
+     */
+    @NonNull
+    private PagedCursor loadPages() {
+        final boolean nextPage = mNextPageRequested;
+        mNextPageRequested = false;
+        final ObjectCursor<T> current = mObjects;
+        final Cursor previous = current != null ? current.getCursor() : null;
+        final List<PageCursor> pages = new ArrayList<>();
+        String selection = mSelection;
+        String[] selectionArgs = mSelectionArgs;
+        int limit = mPageSize;
+        if (previous instanceof PagedCursor) {
+            final PagedCursor paged = (PagedCursor) previous;
+            if (nextPage && paged.acquirePages(pages)) {
+                if (!paged.hasNextPage()) {
+                    return new PagedCursor(pages, paged.mLastKey, false);
+                }
+                selection = keysetSelection(mSelection);
+                selectionArgs = keysetSelectionArgs(mSelectionArgs, paged.mLastKey);
+            } else {
+                limit = paged.getLoadedCount() + mPageSize;
+            }
+        } else if (mInitialTargetColumn != null) {
+            limit = Math.max(limit, getInitialTargetLimit());
+        }
+        final Uri uri = mUri.buildUpon().appendQueryParameter(QUERY_PARAM_LIMIT,
+                String.valueOf(limit)).build();
+        final Cursor cursor = getContext().getContentResolver().query(uri, mProjection, selection,
+                selectionArgs, keysetSortOrder());
+        if (cursor == null) {
+            for (PageCursor page : pages) {
+                page.close();
+            }
+            throw new NullPointerException("Cursor is null");
+        }
+        cursor.registerContentObserver(mObserver);
+        final int count = cursor.getCount();
+        String[] lastKey = pages.isEmpty() ? null : ((PagedCursor) previous).mLastKey;
+        if (count > 0 && cursor.moveToLast()) {
+            lastKey = new String[mPageKeyColumns.length];
+            for (int i = 0; i < mPageKeyColumns.length; i++) {
+                final int columnIndex = cursor.getColumnIndex(mPageKeyColumns[i]);
+                if (columnIndex < 0) {
+                    cursor.close();
+                    throw new IllegalArgumentException("Key column " + mPageKeyColumns[i]
+                            + " not in projection");
+                }
+                lastKey[i] = cursor.getString(columnIndex);
+            }
+        }
+        pages.add(new PageCursor(cursor));
+        return new PagedCursor(pages, lastKey, count >= limit && lastKey != null
+                && !Arrays.asList(lastKey).contains(null));
+    }
+
+    /**
+     * @return Whole pages covering the first row matching initial target, or 0 if no such row
+     */
+    private int getInitialTargetLimit() {
+        final ContentResolver cr = getContext().getContentResolver();
+        final String targetSelection = mInitialTargetColumn + " = ?";
+        final Uri uri = mUri.buildUpon().appendQueryParameter(QUERY_PARAM_LIMIT, "1").build();
+        final Cursor targetCursor = cr.query(uri, mPageKeyColumns, mSelection != null ? "("
+                + mSelection + ") AND " + targetSelection : targetSelection,
+                appendArgs(mSelectionArgs, mInitialTargetValue), keysetSortOrder());
+        if (targetCursor == null) return 0;
+        final String[] targetKey = new String[mPageKeyColumns.length];
+        try {
+            if (!targetCursor.moveToFirst()) return 0;
+            for (int i = 0; i < mPageKeyColumns.length; i++) {
+                targetKey[i] = targetCursor.getString(i);
+                if (targetKey[i] == null) return 0;
+            }
+        } finally {
+            targetCursor.close();
+        }
+        // Rows up to and including target row in keyset order
+        final String before = "NOT (" + keysetCondition() + ")";
+        final Cursor countCursor = cr.query(mUri, new String[]{"COUNT(*)"}, mSelection != null
+                ? "(" + mSelection + ") AND " + before : before, keysetSelectionArgs(mSelectionArgs,
+                targetKey), null);
+        if (countCursor == null) return 0;
+        try {
+            if (!countCursor.moveToFirst()) return 0;
+            final int count = countCursor.getInt(0);
+            return (count + mPageSize - 1) / mPageSize * mPageSize;
+        } finally {
+            countCursor.close();
+        }
+    }
+
+    /**
+     * (k1 < ?) OR (k1 = ? AND k2 < ?) OR ..., matches rows after last key in descending order
+     */
+    private String keysetSelection(@Nullable String selection) {
+        final String condition = keysetCondition();
+        if (selection == null) return condition;
+        return "(" + selection + ") AND (" + condition + ")";
+    }
+
+    private String keysetCondition() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mPageKeyColumns.length; i++) {
+            if (i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append('(');
+            for (int j = 0; j < i; j++) {
+                sb.append(mPageKeyColumns[j]).append(" = ? AND ");
+            }
+            sb.append(mPageKeyColumns[i]).append(" < ?)");
+        }
+        return sb.toString();
+    }
+
+    private static String[] appendArgs(@Nullable String[] selectionArgs, String arg) {
+        if (selectionArgs == null) return new String[]{arg};
+        final String[] args = Arrays.copyOf(selectionArgs, selectionArgs.length + 1);
+        args[selectionArgs.length] = arg;
+        return args;
+    }
+
+    private String[] keysetSelectionArgs(@Nullable String[] selectionArgs, String[] lastKey) {
+        final List<String> args = new ArrayList<>();
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        for (int i = 0; i < mPageKeyColumns.length; i++) {
+            args.addAll(Arrays.asList(lastKey).subList(0, i + 1));
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    private String keysetSortOrder() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mPageKeyColumns.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(mPageKeyColumns[i]).append(" DESC");
+        }
+        return sb.toString();
+    }
+
     protected ObjectCursor<T> createObjectCursor(Cursor cursor, ObjectCursor.CursorIndices<T> indices) {
         return new ObjectCursor<>(cursor, indices, mUseCache);
     }
@@ -213,6 +377,49 @@ public class ObjectCursorLoader<T> extends FixedAsyncTaskLoader<List<T>> {
         mSortOrder = sortOrder;
     }
 
+    /**
+     * Loads results in pages of {@code pageSize} rows ordered by {@code keyColumns} descending,
+     * replaces sort order. Key columns must be included in projection, and identify a row uniquely.
+     * Call {@link #loadNextPage()} to append next page.
+     */
+    public void setKeysetPaging(String[] keyColumns, int pageSize) {
+        mPageKeyColumns = keyColumns;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * First load extends to whole pages until the first row whose {@code column} equals
+     * {@code value}, so a saved position beyond first page can be restored. Later loads keep the
+     * loaded extent.
+     */
+    public void setInitialTarget(@Nullable String column, @Nullable String value) {
+        mInitialTargetColumn = value != null ? column : null;
+        mInitialTargetValue = value;
+    }
+
+    public boolean isPaging() {
+        return mPageSize > 0;
+    }
+
+    /**
+     * @return {@code true} if current result may have more rows in database
+     */
+    public boolean hasNextPage() {
+        final ObjectCursor<T> objects = mObjects;
+        if (objects == null) return false;
+        final Cursor cursor = objects.getCursor();
+        return cursor instanceof PagedCursor && ((PagedCursor) cursor).hasNextPage();
+    }
+
+    /**
+     * Must be called from the UI thread
+     */
+    public void loadNextPage() {
+        if (!hasNextPage()) return;
+        mNextPageRequested = true;
+        forceLoad();
+    }
+
     public boolean isUseCache() {
         return mUseCache;
     }
@@ -240,6 +447,11 @@ public class ObjectCursorLoader<T> extends FixedAsyncTaskLoader<List<T>> {
         writer.print("mSortOrder=");
         writer.println(mSortOrder);
         writer.print(prefix);
+        writer.print("mPageKeyColumns=");
+        writer.print(Arrays.toString(mPageKeyColumns));
+        writer.print(" mPageSize=");
+        writer.println(mPageSize);
+        writer.print(prefix);
         writer.print("mObjects=");
         if (mObjects != null) {
             writer.println(mObjects.getCursor());
@@ -251,4 +463,73 @@ public class ObjectCursorLoader<T> extends FixedAsyncTaskLoader<List<T>> {
         writer.println(LoaderAccessor.isContentChanged(this));
     }
 
+    /**
+     * Reference counted page, underlying cursor is closed when all results using it closed
+     */
+    static class PageCursor extends CursorWrapper {
+
+        private int mReferences = 1;
+
+        PageCursor(Cursor cursor) {
+            super(cursor);
+        }
+
+        synchronized boolean acquire() {
+            if (mReferences <= 0) return false;
+            mReferences++;
+            return true;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mReferences <= 0) return;
+            if (--mReferences == 0) {
+                super.close();
+            }
+        }
+    }
+
+    static class PagedCursor extends MergeCursor {
+
+        private final List<PageCursor> mPages;
+        final String[] mLastKey;
+        private final boolean mHasNextPage;
+        private final int mLoadedCount;
+
+        PagedCursor(List<PageCursor> pages, String[] lastKey, boolean hasNextPage) {
+            super(pages.toArray(new Cursor[pages.size()]));
+            mPages = pages;
+            mLastKey = lastKey;
+            mHasNextPage = hasNextPage;
+            // Counted on worker thread, so it can be read without touching pages later
+            mLoadedCount = getCount();
+        }
+
+        boolean hasNextPage() {
+            return mHasNextPage;
+        }
+
+        int getLoadedCount() {
+            return mLoadedCount;
+        }
+
+        /**
+         * Adds a reference to all pages of this cursor into {@code out}
+         *
+         * @return {@code false} if this cursor was already closed
+         */
+        boolean acquirePages(List<PageCursor> out) {
+            for (PageCursor page : mPages) {
+                if (!page.acquire()) {
+                    for (PageCursor acquired : out) {
+                        acquired.close();
+                    }
+                    out.clear();
+                    return false;
+                }
+                out.add(page);
+            }
+            return true;
+        }
+    }
 }
@@ -14,6 +14,7 @@ import org.mariotaku.twidere.model.AccountDetails;
 import org.mariotaku.twidere.model.UserKey;
 import org.mariotaku.twidere.model.account.cred.Credentials;
 import org.mariotaku.twidere.util.Utils;
+import org.mariotaku.twidere.util.cache.AccountDetailsCache;
 
 import java.util.Arrays;
 
@@ -48,17 +49,11 @@ public class AccountUtils {
 
     @Nullable
     public static Account findByAccountKey(@NonNull AccountManager am, @NonNull UserKey userKey) {
-        for (Account account : getAccounts(am)) {
-            if (userKey.equals(AccountExtensionsKt.getAccountKey(account, am))) {
-                return account;
-            }
-        }
-        return null;
+        return AccountDetailsCache.INSTANCE.findByAccountKey(am, userKey);
     }
 
     public static Account[] getAccounts(@NonNull AccountManager am) {
-        //noinspection MissingPermission
-        return am.getAccountsByType(ACCOUNT_TYPE);
+        return AccountDetailsCache.INSTANCE.getAccounts(am);
     }
 
     public static AccountDetails[] getAllAccountDetails(@NonNull AccountManager am, @NonNull Account[] accounts, boolean getCredentials) {
@@ -100,6 +95,11 @@ public class AccountUtils {
     }
 
     public static AccountDetails getAccountDetails(@NonNull AccountManager am, @NonNull Account account, boolean getCredentials) {
+        return AccountDetailsCache.INSTANCE.getDetails(am, account, getCredentials,
+                a -> loadAccountDetails(am, a));
+    }
+
+    private static AccountDetails loadAccountDetails(@NonNull AccountManager am, @NonNull Account account) {
         AccountDetails details = new AccountDetails();
         details.key = AccountExtensionsKt.getAccountKey(account, am);
         details.account = account;
@@ -112,10 +112,6 @@ public class AccountUtils {
         details.user.color = details.color;
 
         details.extras = AccountExtensionsKt.getAccountExtras(account, am);
-
-        if (getCredentials) {
-            details.credentials = AccountExtensionsKt.getCredentials(account, am);
-        }
         return details;
     }
 
@@ -184,7 +180,8 @@ public class AccountUtils {
 
     public static boolean hasAccountPermission(@NonNull AccountManager am) {
         try {
-            getAccounts(am);
+            //noinspection MissingPermission
+            am.getAccountsByType(ACCOUNT_TYPE);
         } catch (SecurityException e) {
             return false;
         }
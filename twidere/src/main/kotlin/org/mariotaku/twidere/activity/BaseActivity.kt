@@ -275,6 +275,8 @@ open class BaseActivity : ChameleonActivity(), IBaseActivity<BaseActivity>, IThe
 
     override fun onStop() {
         requestManager.onStop()
+        // Process may be killed any time in background
+        readStateManager.flush()
         super.onStop()
     }
 
@@ -30,7 +30,6 @@ import android.content.Context
 import android.content.DialogInterface
 import android.content.Intent
 import android.content.SharedPreferences
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener
 import android.content.res.Configuration
 import android.graphics.Rect
 import android.graphics.drawable.Drawable
@@ -126,7 +125,7 @@ class HomeActivity : BaseActivity(), OnClickListener, OnPageChangeListener, Supp
     private var actionsButtonBottomMargin: Int = 0
 
     private var updateUnreadCountTask: UpdateUnreadCountTask? = null
-    private val readStateChangeListener = OnSharedPreferenceChangeListener { _, _ -> updateUnreadCount() }
+    private val readStateChangeListener = { _: String, _: Long -> updateUnreadCount() }
     private val controlBarShowHideHelper = ControlBarShowHideHelper(this)
 
     override val controlBarHeight: Int
@@ -307,7 +306,7 @@ class HomeActivity : BaseActivity(), OnClickListener, OnPageChangeListener, Supp
         AccountManager.get(this).addOnAccountsUpdatedListenerSafe(accountUpdatedListener, updateImmediately = false)
         bus.register(this)
 
-        readStateManager.registerOnSharedPreferenceChangeListener(readStateChangeListener)
+        readStateManager.registerOnPositionChangedListener(readStateChangeListener)
         updateUnreadCount()
     }
 
@@ -319,7 +318,7 @@ class HomeActivity : BaseActivity(), OnClickListener, OnPageChangeListener, Supp
 
     override fun onStop() {
         multiSelectHandler.dispatchOnStop()
-        readStateManager.unregisterOnSharedPreferenceChangeListener(readStateChangeListener)
+        readStateManager.unregisterOnPositionChangedListener(readStateChangeListener)
         bus.unregister(this)
         AccountManager.get(this).removeOnAccountsUpdatedListenerSafe(accountUpdatedListener)
         preferences.edit().putInt(KEY_SAVED_TAB_POSITION, mainPager.currentItem).apply()
@@ -106,6 +106,7 @@ import org.mariotaku.twidere.model.util.AccountUtils
 import org.mariotaku.twidere.model.util.ParcelableUserUtils
 import org.mariotaku.twidere.util.*
 import org.mariotaku.twidere.util.OAuthPasswordAuthenticator.*
+import org.mariotaku.twidere.util.cache.AccountDetailsCache
 import java.io.IOException
 import java.lang.ref.WeakReference
 import java.util.*
@@ -1151,6 +1152,7 @@ class SignInActivity : BaseActivity(), OnClickListener, TextWatcher,
         private fun writeAuthToken(am: AccountManager, account: Account) {
             val authToken = JsonSerializer.serialize(credentials)
             am.setAuthToken(account, ACCOUNT_AUTH_TOKEN_TYPE, authToken)
+            AccountDetailsCache.invalidate(account)
         }
 
         fun updateAccount(am: AccountManager) {
@@ -122,6 +122,7 @@ abstract class ParcelableStatusesAdapter(
     private val showingFullTextStates = SparseBooleanArray()
     private val reuseStatus = ParcelableStatus()
     private var infoCache: Array<StatusInfo?>? = null
+    private var idIndex: HashMap<ObjectId, Int>? = null
 
     override val itemCounts = ItemCounts(5)
 
@@ -191,6 +192,7 @@ abstract class ParcelableStatusesAdapter(
         }
         this.data = data
         this.infoCache = if (data != null) arrayOfNulls(data.size) else null
+        this.idIndex = null
         gapLoadingIds.clear()
         updateItemCount()
         notifyDataSetChanged()
@@ -222,7 +224,7 @@ abstract class ParcelableStatusesAdapter(
             return@getFieldValue info.id
         }, { status ->
             return@getFieldValue status.id
-        }, "")
+        }, "", raw)
     }
 
     fun getStatusSortId(position: Int, raw: Boolean): Long {
@@ -238,7 +240,7 @@ abstract class ParcelableStatusesAdapter(
             return@getFieldValue info.timestamp
         }, { status ->
             return@getFieldValue status.timestamp
-        }, -1L)
+        }, -1L, raw)
     }
 
     override fun getStatusPositionKey(position: Int, raw: Boolean): Long {
@@ -249,7 +251,7 @@ abstract class ParcelableStatusesAdapter(
             val positionKey = status.position_key
             if (positionKey > 0) return@getFieldValue positionKey
             return@getFieldValue status.timestamp
-        }, -1L)
+        }, -1L, raw)
     }
 
     override fun getAccountKey(position: Int, raw: Boolean): UserKey {
@@ -374,12 +376,9 @@ abstract class ParcelableStatusesAdapter(
     }
 
     override fun findStatusById(accountKey: UserKey, statusId: String): ParcelableStatus? {
-        for (i in 0 until getStatusCount(true)) {
-            if (accountKey == getAccountKey(i, true) && statusId == getStatusId(i, true)) {
-                return getStatus(i, true)
-            }
-        }
-        return null
+        val index = idIndex ?: buildIdIndex().also { idIndex = it }
+        val dataPosition = index[ObjectId(accountKey, statusId)] ?: return null
+        return getStatus(statusStartIndex + dataPosition, true)
     }
 
     fun isStatus(position: Int, raw: Boolean = false): Boolean {
@@ -403,7 +402,7 @@ abstract class ParcelableStatusesAdapter(
         if (positionKey < getStatusPositionKey(range.last, raw)) {
             return range.last
         }
-        return range.indexOfFirst { positionKey >= getStatusPositionKey(it, raw) }
+        return range.binarySearchFirst { positionKey >= getStatusPositionKey(it, raw) }
     }
 
     fun findPositionBySortId(sortId: Long, raw: Boolean = false): Int {
@@ -415,7 +414,21 @@ abstract class ParcelableStatusesAdapter(
         if (sortId < getStatusSortId(range.last, raw)) {
             return range.last
         }
-        return range.indexOfFirst { sortId >= getStatusSortId(it, raw) }
+        return range.binarySearchFirst { sortId >= getStatusSortId(it, raw) }
+    }
+
+    /**
+     * Maps (account key, status id) to raw data position, built on first lookup after [setData]
+     */
+    private fun buildIdIndex(): HashMap<ObjectId, Int> {
+        val count = getStatusCount(true)
+        val startIndex = statusStartIndex
+        val index = HashMap<ObjectId, Int>(count)
+        for (i in 0 until count) {
+            val position = startIndex + i
+            index.getOrPut(ObjectId(getAccountKey(position, true), getStatusId(position, true))) { i }
+        }
+        return index
     }
 
     private fun getItemCountIndex(position: Int, raw: Boolean): Int {
@@ -521,6 +534,26 @@ abstract class ParcelableStatusesAdapter(
         const val ITEM_INDEX_PINNED_STATUS = 2
         const val ITEM_INDEX_STATUS = 3
         const val ITEM_INDEX_LOAD_END_INDICATOR = 4
+
+        /**
+         * Binary search over positions where [predicate] is false for a prefix and true for the
+         * rest, e.g. descend sorted keys compared with a target
+         *
+         * @return First position matches [predicate], or `last + 1` if none matches
+         */
+        internal inline fun IntRange.binarySearchFirst(predicate: (Int) -> Boolean): Int {
+            var low = first
+            var high = last + 1
+            while (low < high) {
+                val mid = (low + high).ushr(1)
+                if (predicate(mid)) {
+                    high = mid
+                } else {
+                    low = mid + 1
+                }
+            }
+            return low
+        }
     }
 
 
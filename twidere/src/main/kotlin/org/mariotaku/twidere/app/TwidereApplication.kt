@@ -60,6 +60,7 @@ import org.mariotaku.twidere.model.DefaultFeatures
 import org.mariotaku.twidere.receiver.ConnectivityStateReceiver
 import org.mariotaku.twidere.service.StreamingService
 import org.mariotaku.twidere.util.*
+import org.mariotaku.twidere.util.cache.AccountDetailsCache
 import org.mariotaku.twidere.util.concurrent.ConstantFuture
 import org.mariotaku.twidere.util.content.TwidereSQLiteOpenHelper
 import org.mariotaku.twidere.util.dagger.ApplicationModule
@@ -72,6 +73,7 @@ import org.mariotaku.twidere.util.media.ThumborWrapper
 import org.mariotaku.twidere.util.net.TwidereDns
 import org.mariotaku.twidere.util.notification.ContentNotificationManager
 import org.mariotaku.twidere.util.notification.NotificationChannelsManager
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
 import org.mariotaku.twidere.util.premium.ExtraFeaturesService
 import org.mariotaku.twidere.util.promotion.PromotionService
 import org.mariotaku.twidere.util.refresh.AutoRefreshController
@@ -157,6 +159,8 @@ class TwidereApplication : Application(), OnSharedPreferenceChangeListener {
 
         GeneralComponent.get(this).inject(this)
 
+        PerformanceMonitor.isEnabled = sharedPreferences[performanceMonitorKey]
+
         autoRefreshController.appStarted()
         syncController.appStarted()
         extraFeaturesService.appStarted()
@@ -172,6 +176,7 @@ class TwidereApplication : Application(), OnSharedPreferenceChangeListener {
         Analyzer.preferencesChanged(sharedPreferences)
         DataSyncProvider.Factory.notifyUpdate(this)
 
+        AccountDetailsCache.install(AccountManager.get(this))
         AccountManager.get(this).addOnAccountsUpdatedListenerSafe(OnAccountsUpdateListener {
             NotificationChannelsManager.updateAccountChannelsAndGroups(this)
         }, updateImmediately = true)
@@ -194,7 +199,7 @@ class TwidereApplication : Application(), OnSharedPreferenceChangeListener {
 
     override fun onSharedPreferenceChanged(preferences: SharedPreferences, key: String) {
         when (key) {
-            KEY_REFRESH_INTERVAL -> {
+            KEY_REFRESH_INTERVAL, KEY_ADAPTIVE_REFRESH, KEY_MAX_REFRESH_INTERVAL -> {
                 autoRefreshController.rescheduleAll()
             }
             KEY_ENABLE_PROXY, KEY_PROXY_HOST, KEY_PROXY_PORT, KEY_PROXY_TYPE, KEY_PROXY_USERNAME,
@@ -232,6 +237,12 @@ class TwidereApplication : Application(), OnSharedPreferenceChangeListener {
             KEY_OVERRIDE_LANGUAGE -> {
                 applyLanguageSettings()
             }
+            KEY_PERFORMANCE_MONITOR -> {
+                PerformanceMonitor.isEnabled = preferences[performanceMonitorKey]
+                if (!PerformanceMonitor.isEnabled) {
+                    PerformanceMonitor.reset()
+                }
+            }
         }
         Analyzer.preferencesChanged(preferences)
     }
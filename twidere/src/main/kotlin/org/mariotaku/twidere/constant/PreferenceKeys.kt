@@ -70,6 +70,7 @@ val mediaPreloadKey = KBooleanKey(KEY_MEDIA_PRELOAD, false)
 val mediaPreloadOnWifiOnlyKey = KBooleanKey(KEY_PRELOAD_WIFI_ONLY, true)
 val autoRefreshCompatibilityModeKey = KBooleanKey(KEY_AUTO_REFRESH_COMPATIBILITY_MODE,
         Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+val adaptiveRefreshKey = KBooleanKey(KEY_ADAPTIVE_REFRESH, true)
 val floatingDetailedContentsKey = KBooleanKey(KEY_FLOATING_DETAILED_CONTENTS, true)
 val localTrendsWoeIdKey = KIntKey(KEY_LOCAL_TRENDS_WOEID, 1)
 val phishingLinksWaringKey = KBooleanKey(KEY_PHISHING_LINK_WARNING, true)
@@ -77,6 +78,7 @@ val multiColumnWidthKey = KStringKey(KEY_MULTI_COLUMN_TAB_WIDTH, "normal")
 val streamingEnabledKey = KBooleanKey(KEY_STREAMING_ENABLED, false)
 val streamingNonMeteredNetworkKey = KBooleanKey(KEY_STREAMING_NON_METERED_NETWORK, true)
 val streamingPowerSavingKey = KBooleanKey(KEY_STREAMING_POWER_SAVING, true)
+val performanceMonitorKey = KBooleanKey(KEY_PERFORMANCE_MONITOR, false)
 val quickSendKey = KBooleanKey(KEY_QUICK_SEND, false)
 val refreshAfterTweetKey = KBooleanKey(KEY_REFRESH_AFTER_TWEET, false)
 val refreshOnStartKey = KBooleanKey(KEY_REFRESH_ON_START, false)
@@ -193,6 +195,18 @@ object refreshIntervalKey : KSimpleKey<Long>(KEY_REFRESH_INTERVAL, 15) {
 
 }
 
+object maxRefreshIntervalKey : KSimpleKey<Long>(KEY_MAX_REFRESH_INTERVAL, 120) {
+    override fun read(preferences: SharedPreferences): Long {
+        return preferences.getString(key, null).toLongOr(def)
+    }
+
+    override fun write(editor: SharedPreferences.Editor, value: Long): Boolean {
+        editor.putString(key, value.toString())
+        return true
+    }
+
+}
+
 object defaultAPIConfigKey : KPreferenceKey<CustomAPIConfig> {
     override fun contains(preferences: SharedPreferences): Boolean {
         if (preferences.getString(KEY_API_URL_FORMAT, null) == null) return false
@@ -111,4 +111,4 @@ val Array<AccountDetails>.textLimit: Int
 
 
 val AccountDetails.isStreamingSupported: Boolean
-    get() = type == AccountType.TWITTER
\ No newline at end of file
+    get() = type == AccountType.TWITTER || type == AccountType.MASTODON
\ No newline at end of file
@@ -22,6 +22,7 @@ import org.mariotaku.twidere.model.util.AccountUtils.ACCOUNT_USER_DATA_KEYS
 import org.mariotaku.twidere.util.InternalTwitterContentUtils
 import org.mariotaku.twidere.util.JsonSerializer
 import org.mariotaku.twidere.util.ParseUtils
+import org.mariotaku.twidere.util.cache.AccountDetailsCache
 import org.mariotaku.twidere.util.model.AccountDetailsUtils
 import java.io.IOException
 import java.util.concurrent.Callable
@@ -53,6 +54,7 @@ fun Account.getAccountKey(am: AccountManager): UserKey {
 
 fun Account.setAccountKey(am: AccountManager, accountKey: UserKey) {
     am.setUserData(this, ACCOUNT_USER_DATA_KEY, accountKey.toString())
+    AccountDetailsCache.invalidate(this)
 }
 
 fun Account.getAccountUser(am: AccountManager): ParcelableUser {
@@ -63,6 +65,7 @@ fun Account.getAccountUser(am: AccountManager): ParcelableUser {
 
 fun Account.setAccountUser(am: AccountManager, user: ParcelableUser) {
     am.setUserData(this, ACCOUNT_USER_DATA_USER, JsonSerializer.serialize(user))
+    AccountDetailsCache.invalidate(this)
 }
 
 @android.support.annotation.ColorInt
@@ -90,14 +93,17 @@ fun Account.isActivated(am: AccountManager): Boolean {
 
 fun Account.setActivated(am: AccountManager, activated: Boolean) {
     am.setUserData(this, ACCOUNT_USER_DATA_ACTIVATED, activated.toString())
+    AccountDetailsCache.invalidate(this)
 }
 
 fun Account.setColor(am: AccountManager, color: Int) {
     am.setUserData(this, ACCOUNT_USER_DATA_COLOR, toHexColor(color, format = HexColorFormat.RGB))
+    AccountDetailsCache.invalidate(this)
 }
 
 fun Account.setPosition(am: AccountManager, position: Int) {
     am.setUserData(this, ACCOUNT_USER_DATA_POSITION, position.toString())
+    AccountDetailsCache.invalidate(this)
 }
 
 fun Account.isOfficial(am: AccountManager, context: Context): Boolean {
@@ -137,6 +143,7 @@ fun AccountManager.renameTwidereAccount(oldAccount: Account, newName: String): A
         }
         setAuthToken(newAccount, ACCOUNT_AUTH_TOKEN_TYPE,
                 peekAuthToken(oldAccount, ACCOUNT_AUTH_TOKEN_TYPE))
+        AccountDetailsCache.invalidate(newAccount)
         @Suppress("DEPRECATION")
         val booleanFuture = removeAccount(oldAccount, null, null)
         return AccountFuture(newAccount, booleanFuture)
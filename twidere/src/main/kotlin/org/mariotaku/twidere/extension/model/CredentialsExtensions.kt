@@ -3,6 +3,7 @@ package org.mariotaku.twidere.extension.model
 import android.content.Context
 import android.net.Uri
 import android.text.TextUtils
+import okio.ByteString
 import org.mariotaku.microblog.library.MicroBlog
 import org.mariotaku.microblog.library.MicroBlogException
 import org.mariotaku.microblog.library.fanfou.FanfouStream
@@ -24,7 +25,6 @@ import org.mariotaku.restfu.oauth2.OAuth2Authorization
 import org.mariotaku.twidere.TwidereConstants.DEFAULT_TWITTER_API_URL_FORMAT
 import org.mariotaku.twidere.annotation.AccountType
 import org.mariotaku.twidere.model.account.cred.*
-import org.mariotaku.twidere.util.HttpClientFactory
 import org.mariotaku.twidere.util.InternalTwitterContentUtils
 import org.mariotaku.twidere.util.MicroBlogAPIFactory
 import org.mariotaku.twidere.util.MicroBlogAPIFactory.sFanfouConstantPool
@@ -140,11 +140,35 @@ fun Credentials.getEndpoint(cls: Class<*>): Endpoint {
 
 fun <T> Credentials.newMicroBlogInstance(context: Context, @AccountType accountType: String? = null,
         cls: Class<T>): T {
-    return newMicroBlogInstance(context, getEndpoint(cls), getAuthorization(cls), accountType, cls)
+    val credentialsKey = identityKey
+    return ApiClientRegistry.get(credentialsKey, accountType, cls) {
+        newMicroBlogInstance(context, getEndpoint(cls), getAuthorization(cls), accountType, cls,
+                credentialsKey)
+    }
 }
 
+/**
+ * SHA-256 of credentials material, identifies credentials without keeping secrets around
+ */
+val Credentials.identityKey: String
+    get() {
+        val common = "$api_url_format|$no_version_suffix"
+        val material = when (this) {
+            is OAuthCredentials -> "oauth|$common|$consumer_key|$consumer_secret|$access_token|" +
+                    "$access_token_secret|$same_oauth_signing_url"
+            is OAuth2Credentials -> "oauth2|$common|$access_token"
+            is BasicCredentials -> "basic|$common|$username|$password"
+            else -> "${javaClass.simpleName}|$common"
+        }
+        return ByteString.encodeString(material, Charsets.UTF_8).sha256().hex()
+    }
+
+/**
+ * @param conditionalScope Timeline requests are sent as conditional requests scoped to this key,
+ * `null` to disable
+ */
 fun <T> newMicroBlogInstance(context: Context, endpoint: Endpoint, auth: Authorization,
-        @AccountType accountType: String? = null, cls: Class<T>): T {
+        @AccountType accountType: String? = null, cls: Class<T>, conditionalScope: String? = null): T {
     val factory = RestAPIFactory<MicroBlogException>()
     val extraHeaders = run {
         if (auth !is OAuthAuthorization) return@run null
@@ -156,22 +180,10 @@ fun <T> newMicroBlogInstance(context: Context, endpoint: Endpoint, auth: Authori
     var extraRequestParams: Map<String, String>? = null
     when (cls) {
         TwitterUpload::class.java -> {
-            val conf = HttpClientFactory.HttpClientConfiguration(holder.preferences)
-            // Use longer timeout for uploading
-            conf.readTimeoutSecs = 30
-            conf.writeTimeoutSecs = 30
-            conf.connectionTimeoutSecs = 60
-            val uploadHttpClient = HttpClientFactory.createRestHttpClient(conf, holder.dns,
-                    holder.connectionPool, holder.cache)
-            factory.setHttpClient(uploadHttpClient)
+            factory.setHttpClient(ApiClientRegistry.getUploadHttpClient(holder.restHttpClient))
         }
         TwitterUserStream::class.java, FanfouStream::class.java, MastodonStreaming::class.java -> {
-            val conf = HttpClientFactory.HttpClientConfiguration(holder.preferences)
-            // Use longer read timeout for streaming
-            conf.readTimeoutSecs = 300
-            val streamHttpClient = HttpClientFactory.createRestHttpClient(conf, holder.dns,
-                    holder.connectionPool, holder.cache)
-            factory.setHttpClient(streamHttpClient)
+            factory.setHttpClient(ApiClientRegistry.getStreamHttpClient(holder.restHttpClient))
         }
         else -> {
             factory.setHttpClient(holder.restHttpClient)
@@ -193,7 +205,7 @@ fun <T> newMicroBlogInstance(context: Context, endpoint: Endpoint, auth: Authori
     factory.setRestConverterFactory(TwitterConverterFactory)
     factory.setExceptionFactory(TwidereExceptionFactory)
     factory.setRestRequestFactory(TwidereRestRequestFactory(extraRequestParams))
-    factory.setHttpRequestFactory(TwidereHttpRequestFactory(extraHeaders))
+    factory.setHttpRequestFactory(TwidereHttpRequestFactory(extraHeaders, conditionalScope))
     return factory.build<T>(cls)
 }
 
@@ -19,6 +19,7 @@
 
 package org.mariotaku.twidere.extension.model.api
 
+import android.support.v4.util.LruCache
 import android.text.Spanned
 import android.text.style.URLSpan
 import org.apache.commons.text.translate.LookupTranslator
@@ -46,6 +47,11 @@ import org.mariotaku.twidere.util.HtmlSpanBuilder
 import org.mariotaku.twidere.util.InternalTwitterContentUtils
 import org.mariotaku.twidere.util.InternalTwitterContentUtils.getMediaUrl
 import org.mariotaku.twidere.util.InternalTwitterContentUtils.getStartEndForEntity
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 fun Status.toParcelable(details: AccountDetails, profileImageSize: String = "normal",
         updateFilterInfoAction: (Status, ParcelableStatus) -> Unit = ::updateFilterInfoDefault): ParcelableStatus {
@@ -57,7 +63,31 @@ fun Status.toParcelable(details: AccountDetails, profileImageSize: String = "nor
 fun Status.toParcelable(accountKey: UserKey, accountType: String, profileImageSize: String = "normal",
         updateFilterInfoAction: (Status, ParcelableStatus) -> Unit = ::updateFilterInfoDefault): ParcelableStatus {
     val result = ParcelableStatus()
-    applyTo(accountKey, accountType, profileImageSize, result, updateFilterInfoAction)
+    PerformanceMonitor.trace(PerformanceMonitor.STATUS_CONVERSION, accountType) {
+        applyTo(accountKey, accountType, profileImageSize, result, updateFilterInfoAction)
+    }
+    return result
+}
+
+/**
+ * Converts a page of statuses in order. Pages larger than [PARALLEL_CONVERSION_THRESHOLD] are
+ * split into chunks converted on [conversionExecutor] and calling thread simultaneously.
+ */
+fun List<Status>.toParcelables(details: AccountDetails, profileImageSize: String = "normal",
+        updateFilterInfoAction: (Status, ParcelableStatus) -> Unit = ::updateFilterInfoDefault): List<ParcelableStatus> {
+    if (size < PARALLEL_CONVERSION_THRESHOLD) return map {
+        it.toParcelable(details, profileImageSize, updateFilterInfoAction)
+    }
+    val chunkSize = (size + CONVERSION_THREADS) / (CONVERSION_THREADS + 1)
+    val chunks = chunked(chunkSize)
+    val futures = chunks.subList(1, chunks.size).map { chunk ->
+        conversionExecutor.submit<List<ParcelableStatus>> {
+            chunk.map { it.toParcelable(details, profileImageSize, updateFilterInfoAction) }
+        }
+    }
+    val result = ArrayList<ParcelableStatus>(size)
+    chunks.first().mapTo(result) { it.toParcelable(details, profileImageSize, updateFilterInfoAction) }
+    futures.forEach { result.addAll(it.getUnwrapped()) }
     return result
 }
 
@@ -116,21 +146,11 @@ fun Status.applyTo(accountKey: UserKey, accountType: String, profileImageSize: S
         result.quoted_id = quoted.id
         extras.quoted_external_url = quoted.inferredExternalUrl
 
-        val quotedText = quoted.htmlText
-        // Twitter will escape <> to &lt;&gt;, so if a status contains those symbols unescaped
-        // We should treat this as an html
-        if (quotedText.isHtml) {
-            val html = HtmlSpanBuilder.fromHtml(quotedText, quoted.extendedText)
-            result.quoted_text_unescaped = html?.toString()
-            result.quoted_text_plain = result.quoted_text_unescaped
-            result.quoted_spans = html?.spanItems
-        } else {
-            val textWithIndices = quoted.formattedTextWithIndices()
-            result.quoted_text_plain = quotedText.twitterUnescaped()
-            result.quoted_text_unescaped = textWithIndices.text
-            result.quoted_spans = textWithIndices.spans
-            extras.quoted_display_text_range = textWithIndices.range
-        }
+        val quotedText = quoted.getConvertedText(accountKey.host)
+        result.quoted_text_plain = quotedText.plain
+        result.quoted_text_unescaped = quotedText.unescaped
+        result.quoted_spans = quotedText.spans
+        extras.quoted_display_text_range = quotedText.range
 
         result.quoted_timestamp = quoted.createdAt.time
         result.quoted_source = quoted.source
@@ -169,21 +189,11 @@ fun Status.applyTo(accountKey: UserKey, accountType: String, profileImageSize: S
     result.user_is_following = user.isFollowing == true
     extras.user_statusnet_profile_url = user.statusnetProfileUrl
     extras.user_profile_image_url_fallback = user.profileImageUrlHttps ?: user.profileImageUrl
-    val text = status.htmlText
-    // Twitter will escape <> to &lt;&gt;, so if a status contains those symbols unescaped
-    // We should treat this as an html
-    if (text.isHtml) {
-        val html = HtmlSpanBuilder.fromHtml(text, status.extendedText)
-        result.text_unescaped = html?.toString()
-        result.text_plain = result.text_unescaped
-        result.spans = html?.spanItems
-    } else {
-        val textWithIndices = status.formattedTextWithIndices()
-        result.text_unescaped = textWithIndices.text
-        result.text_plain = text.twitterUnescaped()
-        result.spans = textWithIndices.spans
-        extras.display_text_range = textWithIndices.range
-    }
+    val text = status.getConvertedText(accountKey.host)
+    result.text_unescaped = text.unescaped
+    result.text_plain = text.plain
+    result.spans = text.spans
+    extras.display_text_range = text.range
 
     result.media = ParcelableMediaUtils.fromStatus(status, accountKey, accountType)
     result.source = status.source
@@ -212,7 +222,8 @@ fun Status.applyTo(accountKey: UserKey, accountType: String, profileImageSize: S
 
 fun Status.formattedTextWithIndices(): StatusTextWithIndices {
     val source = CodePointArray(this.fullText ?: this.text!!)
-    val builder = HtmlBuilder(source, false, true, false)
+    val builder = statusHtmlBuilder.get()
+    builder.reset(source)
     builder.addEntities(this)
     val textWithIndices = StatusTextWithIndices()
     val (text, spans) = builder.buildWithIndices()
@@ -311,6 +322,37 @@ fun updateFilterInfoForUserTimeline(status: Status, result: ParcelableStatus) {
     }
 }
 
+/**
+ * Converted text is cached by status id, refreshing a status (e.g. for its retweet count)
+ * won't parse its text again unless text changed.
+ */
+private fun Status.getConvertedText(host: String?): ConvertedText {
+    val key = "$host/$id"
+    val source = htmlText
+    convertedTextCache[key]?.takeIf { it.source == source }?.let { return it }
+    // Twitter will escape <> to &lt;&gt;, so if a status contains those symbols unescaped
+    // We should treat this as an html
+    val converted = if (source.isHtml) {
+        val html = HtmlSpanBuilder.fromHtml(source, extendedText)
+        val unescaped = html?.toString()
+        ConvertedText(source, unescaped, unescaped, html?.spanItems, null)
+    } else {
+        val textWithIndices = formattedTextWithIndices()
+        ConvertedText(source, textWithIndices.text, source.twitterUnescaped(),
+                textWithIndices.spans, textWithIndices.range)
+    }
+    convertedTextCache.put(key, converted)
+    return converted
+}
+
+private fun <T> Future<T>.getUnwrapped(): T {
+    try {
+        return get()
+    } catch (e: ExecutionException) {
+        throw e.cause ?: e
+    }
+}
+
 private fun String.twitterUnescaped(): String {
     return TwitterRawTextTranslator.translate(this)
 }
@@ -405,6 +447,35 @@ private val noticeUriRegex = Regex("tag:([\\w\\d.]+),(\\d{4}-\\d{2}-\\d{2}):noti
 
 private object TwitterRawTextTranslator : LookupTranslator(EntityArrays.BASIC_UNESCAPE)
 
+private const val PARALLEL_CONVERSION_THRESHOLD = 50
+private val CONVERSION_THREADS = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 3)
+
+private val conversionExecutor: ExecutorService by lazy {
+    Executors.newFixedThreadPool(CONVERSION_THREADS) { runnable ->
+        val thread = Thread(runnable, "twidere-status-conversion")
+        thread.isDaemon = true
+        thread.priority = Thread.NORM_PRIORITY - 1
+        return@newFixedThreadPool thread
+    }
+}
+
+private val statusHtmlBuilder = object : ThreadLocal<HtmlBuilder>() {
+    override fun initialValue() = HtmlBuilder(CodePointArray(""), false, true, false)
+}
+
+private val convertedTextCache = LruCache<String, ConvertedText>(512)
+
+/**
+ * Shared between converted statuses, must not be modified
+ */
+private class ConvertedText(
+        val source: String,
+        val unescaped: String?,
+        val plain: String?,
+        val spans: Array<SpanItem>?,
+        val range: IntArray?
+)
+
 class StatusTextWithIndices {
     var text: String? = null
     var spans: Array<SpanItem>? = null
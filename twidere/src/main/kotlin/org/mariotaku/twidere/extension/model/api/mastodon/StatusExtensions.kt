@@ -25,6 +25,7 @@ import android.text.Spanned
 import org.mariotaku.ktextension.isNotNullOrEmpty
 import org.mariotaku.ktextension.mapToArray
 import org.mariotaku.microblog.library.mastodon.model.Status
+import org.mariotaku.twidere.annotation.AccountType
 import org.mariotaku.twidere.extension.model.addFilterFlag
 import org.mariotaku.twidere.extension.model.api.isHtml
 import org.mariotaku.twidere.extension.model.api.spanItems
@@ -35,6 +36,7 @@ import org.mariotaku.twidere.text.HashtagSpan
 import org.mariotaku.twidere.util.HtmlEscapeHelper
 import org.mariotaku.twidere.util.HtmlSpanBuilder
 import org.mariotaku.twidere.util.emoji.EmojioneTranslator
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
 
 fun Status.toParcelable(details: AccountDetails): ParcelableStatus {
     return toParcelable(details.key).apply {
@@ -44,7 +46,9 @@ fun Status.toParcelable(details: AccountDetails): ParcelableStatus {
 
 fun Status.toParcelable(accountKey: UserKey): ParcelableStatus {
     val result = ParcelableStatus()
-    applyTo(accountKey, result)
+    PerformanceMonitor.trace(PerformanceMonitor.STATUS_CONVERSION, AccountType.MASTODON) {
+        applyTo(accountKey, result)
+    }
     return result
 }
 
@@ -295,19 +295,7 @@ abstract class AbsStatusesFragment : AbsContentListRecyclerViewFragment<Parcelab
             lastReadViewTop = layoutManager.findViewByPosition(lastReadPosition)?.top ?: 0
             loadMore = statusRange.endInclusive in 0..lastVisibleItemPosition
         } else if (rememberPosition) {
-            val syncManager = timelineSyncManager
-            val positionTag = this.readPositionTag
-            val syncTag = this.timelineSyncTag
-            val currentTag = this.currentReadPositionTag
-
-            if (syncManager != null && positionTag != null && syncTag != null &&
-                    syncPreferences.isSyncEnabled(SyncTaskRunner.SYNC_TYPE_TIMELINE_POSITIONS)) {
-                lastReadId = syncManager.peekPosition(positionTag, syncTag)
-            }
-            if (lastReadId <= 0 && currentTag != null) {
-                lastReadId = readStateManager.getPosition(currentTag)
-            }
-
+            lastReadId = getSavedReadPosition()
             lastReadViewTop = 0
         }
         // 2. Change adapter data
@@ -360,6 +348,27 @@ abstract class AbsStatusesFragment : AbsContentListRecyclerViewFragment<Parcelab
         }
     }
 
+    /**
+     * @return Synced or locally saved read position, sort id or position key depending on
+     * [useSortIdAsReadPosition], `-1` if not saved
+     */
+    protected fun getSavedReadPosition(): Long {
+        var position: Long = -1
+        val syncManager = timelineSyncManager
+        val positionTag = this.readPositionTag
+        val syncTag = this.timelineSyncTag
+        val currentTag = this.currentReadPositionTag
+
+        if (syncManager != null && positionTag != null && syncTag != null &&
+                syncPreferences.isSyncEnabled(SyncTaskRunner.SYNC_TYPE_TIMELINE_POSITIONS)) {
+            position = syncManager.peekPosition(positionTag, syncTag)
+        }
+        if (position <= 0 && currentTag != null) {
+            position = readStateManager.getPosition(currentTag)
+        }
+        return position
+    }
+
 
     override fun onGapClick(holder: GapViewHolder, position: Int) {
         val status = adapter.getStatus(position)
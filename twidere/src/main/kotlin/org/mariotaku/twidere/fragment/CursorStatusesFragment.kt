@@ -31,6 +31,7 @@ import android.widget.Toast
 import com.bumptech.glide.RequestManager
 import com.squareup.otto.Subscribe
 import kotlinx.android.synthetic.main.fragment_content_recyclerview.*
+import org.mariotaku.kpreferences.get
 import org.mariotaku.ktextension.*
 import org.mariotaku.sqliteqb.library.Columns.Column
 import org.mariotaku.sqliteqb.library.Expression
@@ -40,8 +41,10 @@ import org.mariotaku.twidere.adapter.iface.ILoadMoreSupportAdapter
 import org.mariotaku.twidere.adapter.iface.ILoadMoreSupportAdapter.IndicatorPosition
 import org.mariotaku.twidere.annotation.FilterScope
 import org.mariotaku.twidere.constant.IntentConstants.EXTRA_FROM_USER
+import org.mariotaku.twidere.constant.rememberPositionKey
 import org.mariotaku.twidere.extension.queryOne
 import org.mariotaku.twidere.loader.ExtendedObjectCursorLoader
+import org.mariotaku.twidere.loader.ObjectCursorLoader
 import org.mariotaku.twidere.model.ParameterizedExpression
 import org.mariotaku.twidere.model.ParcelableStatus
 import org.mariotaku.twidere.model.RefreshTaskParam
@@ -80,6 +83,7 @@ abstract class CursorStatusesFragment : AbsStatusesFragment() {
     abstract val filterScopes: Int
 
     private var contentObserver: ContentObserver? = null
+    private var loadingNextPage: Boolean = false
     private val accountListener: OnAccountsUpdateListener = OnAccountsUpdateListener {
         reloadStatuses()
     }
@@ -110,6 +114,11 @@ abstract class CursorStatusesFragment : AbsStatusesFragment() {
 
 
     override fun onStatusesLoaded(loader: Loader<List<ParcelableStatus>?>, data: List<ParcelableStatus>?) {
+        if (loadingNextPage) {
+            loadingNextPage = false
+            setLoadMoreIndicatorPosition(ILoadMoreSupportAdapter.NONE)
+            refreshEnabled = true
+        }
         showContentOrError()
     }
 
@@ -135,6 +144,15 @@ abstract class CursorStatusesFragment : AbsStatusesFragment() {
         return ExtendedObjectCursorLoader(context, ParcelableStatus::class.java, uri, projection,
                 expression.sql, expression.parameters, sortOrder, fromUser).apply {
             isUseCache = false
+            setKeysetPaging(pageKeyColumns, PAGE_SIZE)
+            if (preferences[rememberPositionKey]) {
+                // Load until saved position, or it can't be restored if beyond first page
+                val readPosition = getSavedReadPosition()
+                if (readPosition > 0) {
+                    val column = if (useSortIdAsReadPosition) Statuses.SORT_ID else Statuses.POSITION_KEY
+                    setInitialTarget(column, readPosition.toString())
+                }
+            }
         }
     }
 
@@ -160,6 +178,13 @@ abstract class CursorStatusesFragment : AbsStatusesFragment() {
         if (ILoadMoreSupportAdapter.START in position) return
         super.onLoadMoreContents(position)
         if (position == 0L) return
+        // Show statuses already in database before fetching older ones
+        val loader = loaderManager.getLoader<List<ParcelableStatus>?>(loaderId)
+        if (loader is ObjectCursorLoader<*> && loader.hasNextPage()) {
+            loadingNextPage = true
+            loader.loadNextPage()
+            return
+        }
         getStatuses(object : RefreshTaskParam {
             override val accountKeys by lazy {
                 this@CursorStatusesFragment.accountKeys
@@ -325,6 +350,10 @@ abstract class CursorStatusesFragment : AbsStatusesFragment() {
     }
 
     companion object {
+        private const val PAGE_SIZE = 200
+        // Same order as Statuses.DEFAULT_SORT_ORDER, with _id to break ties
+        private val pageKeyColumns = arrayOf(Statuses.TIMESTAMP, Statuses.SORT_ID, Statuses.ID,
+                Statuses._ID)
         private val statusColumnsLite = Statuses.COLUMNS - arrayOf(Statuses.MENTIONS_JSON,
                 Statuses.CARD, Statuses.FILTER_FLAGS, Statuses.FILTER_USERS, Statuses.FILTER_LINKS,
                 Statuses.FILTER_SOURCES, Statuses.FILTER_NAMES, Statuses.FILTER_TEXTS,
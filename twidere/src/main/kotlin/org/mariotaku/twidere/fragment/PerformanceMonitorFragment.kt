@@ -0,0 +1,96 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.fragment
+
+import android.content.Intent
+import android.os.Build
+import android.os.Bundle
+import android.text.method.ScrollingMovementMethod
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import kotlinx.android.synthetic.main.fragment_performance_monitor.*
+import org.mariotaku.twidere.BuildConfig
+import org.mariotaku.twidere.R
+import org.mariotaku.twidere.provider.TwidereDataStore
+import org.mariotaku.twidere.util.dagger.DependencyHolder
+import org.mariotaku.twidere.util.database.BulkInsertEngine
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
+
+/**
+ * Shows latencies collected by [PerformanceMonitor], and exports them as plain text
+ */
+class PerformanceMonitorFragment : BaseFragment() {
+
+    override fun onActivityCreated(savedInstanceState: Bundle?) {
+        super.onActivityCreated(savedInstanceState)
+        statsText.movementMethod = ScrollingMovementMethod.getInstance()
+        refreshStats.setOnClickListener {
+            displayStats()
+        }
+        resetStats.setOnClickListener {
+            PerformanceMonitor.reset()
+            displayStats()
+        }
+        shareStats.setOnClickListener {
+            val intent = Intent(Intent.ACTION_SEND)
+            intent.type = "text/plain"
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.performance_monitor))
+            intent.putExtra(Intent.EXTRA_TEXT, buildDump())
+            startActivity(Intent.createChooser(intent, getString(R.string.action_share)))
+        }
+        displayStats()
+    }
+
+    override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
+        return inflater.inflate(R.layout.fragment_performance_monitor, container, false)
+    }
+
+    private fun displayStats() {
+        if (!PerformanceMonitor.isEnabled) {
+            statsText.setText(R.string.message_performance_monitor_disabled)
+            shareStats.isEnabled = false
+            return
+        }
+        statsText.text = buildDump()
+        shareStats.isEnabled = true
+    }
+
+    private fun buildDump(): String {
+        val cacheStats = DependencyHolder.get(context).conditionalRequestCache.stats
+        val sb = StringBuilder()
+        sb.append("version: ${BuildConfig.VERSION_NAME} (${BuildConfig.VERSION_CODE})\n")
+        sb.append("device: ${Build.MANUFACTURER} ${Build.MODEL}, API ${Build.VERSION.SDK_INT}\n")
+        sb.append("conditional requests: ${cacheStats.hits} hits, ${cacheStats.misses} misses, " +
+                "${cacheStats.notModified} not modified\n")
+        val insertStats = context.contentResolver.call(TwidereDataStore.BASE_CONTENT_URI,
+                TwidereDataStore.METHOD_GET_BULK_INSERT_STATS, null, null)
+        insertStats?.keySet()?.sorted()?.forEach { table ->
+            val (rows, nanos) = insertStats.getLongArray(table) ?: return@forEach
+            val stats = BulkInsertEngine.TableStats(rows, nanos)
+            sb.append("bulk insert $table: ${stats.rows} rows, ${stats.rowsPerSecond} rows/s\n")
+        }
+        sb.append('\n')
+        sb.append(PerformanceMonitor.dump())
+        return sb.toString()
+    }
+
+}
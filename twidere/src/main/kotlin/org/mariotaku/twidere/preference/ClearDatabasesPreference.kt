@@ -21,9 +21,9 @@ package org.mariotaku.twidere.preference
 
 import android.content.Context
 import android.util.AttributeSet
-import org.mariotaku.twidere.TwidereConstants.TIMELINE_POSITIONS_PREFERENCES_NAME
 import org.mariotaku.twidere.provider.TwidereDataStore.*
 import org.mariotaku.twidere.util.DataStoreUtils
+import org.mariotaku.twidere.util.dagger.DependencyHolder
 
 class ClearDatabasesPreference(context: Context, attrs: AttributeSet? = null) :
         AsyncTaskPreference(context, attrs) {
@@ -47,10 +47,9 @@ class ClearDatabasesPreference(context: Context, attrs: AttributeSet? = null) :
         resolver.delete(SavedSearches.CONTENT_URI, null, null)
         // TODO clear all notifications
 
-        val prefs = context.getSharedPreferences(TIMELINE_POSITIONS_PREFERENCES_NAME, Context.MODE_PRIVATE)
-        val editor = prefs.edit()
-        editor.clear()
-        editor.apply()
+        val holder = DependencyHolder.get(context)
+        holder.readStateManager.clearPositions()
+        holder.conditionalRequestCache.clear()
     }
 
 }
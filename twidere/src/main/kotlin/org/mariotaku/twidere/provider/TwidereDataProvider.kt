@@ -20,7 +20,10 @@
 package org.mariotaku.twidere.provider
 
 import android.content.ContentProvider
+import android.content.ContentProviderOperation
+import android.content.ContentProviderResult
 import android.content.ContentValues
+import android.content.Context
 import android.content.SharedPreferences
 import android.database.Cursor
 import android.database.MatrixCursor
@@ -29,12 +32,16 @@ import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteFullException
 import android.net.Uri
 import android.os.Binder
+import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
+import android.os.Parcelable
 import android.os.Process
+import android.provider.BaseColumns
 import android.support.v4.text.BidiFormatter
 import com.squareup.otto.Bus
 import okhttp3.Dns
+import org.mariotaku.kpreferences.get
 import org.mariotaku.ktextension.isNullOrEmpty
 import org.mariotaku.ktextension.toNulls
 import org.mariotaku.sqliteqb.library.Columns.Column
@@ -44,6 +51,7 @@ import org.mariotaku.twidere.TwidereConstants.*
 import org.mariotaku.twidere.annotation.CustomTabType
 import org.mariotaku.twidere.annotation.ReadPositionTag
 import org.mariotaku.twidere.app.TwidereApplication
+import org.mariotaku.twidere.constant.databaseItemLimitKey
 import org.mariotaku.twidere.extension.withAppendedPath
 import org.mariotaku.twidere.model.AccountPreferences
 import org.mariotaku.twidere.model.UserKey
@@ -52,11 +60,18 @@ import org.mariotaku.twidere.provider.TwidereDataStore.*
 import org.mariotaku.twidere.util.*
 import org.mariotaku.twidere.util.SQLiteDatabaseWrapper.LazyLoadCallback
 import org.mariotaku.twidere.util.dagger.GeneralComponent
+import org.mariotaku.twidere.util.database.AutoCompleteIndex
+import org.mariotaku.twidere.util.database.BulkInsertEngine
 import org.mariotaku.twidere.util.database.CachedUsersQueryBuilder
+import org.mariotaku.twidere.util.database.DatabasePruner
 import org.mariotaku.twidere.util.database.SuggestionsCursorCreator
+import org.mariotaku.twidere.util.database.WrittenRowHashes
+import org.mariotaku.twidere.util.filter.ContentFilterEngine
 import org.mariotaku.twidere.util.notification.ContentNotificationManager
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
 
 class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
@@ -85,6 +100,14 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
     private lateinit var backgroundExecutor: Executor
     private lateinit var handler: Handler
 
+    private val bulkInsertEngine = BulkInsertEngine()
+    private val writtenRowHashes = WrittenRowHashes()
+    private val autoCompleteIndex = AutoCompleteIndex()
+    private val autoCompleteIndexBuilding = AtomicBoolean(false)
+
+    @Volatile
+    private var filterEngine: ContentFilterEngine? = null
+    private val filterEngineInvalidated = AtomicBoolean(false)
 
     override fun onCreate(): Boolean {
         val context = context!!
@@ -92,6 +115,11 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
         handler = Handler(Looper.getMainLooper())
         databaseWrapper = SQLiteDatabaseWrapper(this)
         backgroundExecutor = Executors.newSingleThreadExecutor()
+        userColorNameManager.registerNicknameChangedListener(object : UserColorNameManager.UserNicknameChangedListener {
+            override fun onUserNicknameChanged(userKey: UserKey, nick: String?) {
+                autoCompleteIndex.setNickname(userKey.toString(), nick)
+            }
+        })
         // final GetWritableDatabaseTask task = new
         // GetWritableDatabaseTask(context, helper, mDatabaseWrapper);
         // task.executeTask();
@@ -106,7 +134,7 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
 
     override fun insert(uri: Uri, values: ContentValues?): Uri? {
         try {
-            return insertInternal(uri, values)
+            return traceTable(PerformanceMonitor.PROVIDER_INSERT, uri) { insertInternal(uri, values) }
         } catch (e: SQLException) {
             if (handleSQLException(e)) {
                 try {
@@ -123,7 +151,7 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
 
     override fun bulkInsert(uri: Uri, valuesArray: Array<ContentValues>): Int {
         try {
-            return bulkInsertInternal(uri, valuesArray)
+            return traceTable(PerformanceMonitor.PROVIDER_INSERT, uri) { bulkInsertInternal(uri, valuesArray) }
         } catch (e: SQLException) {
             if (handleSQLException(e)) {
                 try {
@@ -138,8 +166,32 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
 
     }
 
+    /**
+     * Applies operations in one transaction
+     */
+    override fun applyBatch(operations: ArrayList<ContentProviderOperation>): Array<ContentProviderResult> {
+        databaseWrapper.beginTransaction()
+        try {
+            val results = super.applyBatch(operations)
+            databaseWrapper.setTransactionSuccessful()
+            return results
+        } finally {
+            databaseWrapper.endTransaction()
+        }
+    }
+
     override fun query(uri: Uri, projection: Array<String>?, selection: String?, selectionArgs: Array<String>?,
             sortOrder: String?): Cursor? {
+        return traceTable(PerformanceMonitor.PROVIDER_QUERY, uri) {
+            val cursor = queryInternal(uri, projection, selection, selectionArgs, sortOrder)
+            // Rows are loaded lazily, count them so time spent in SQLite is measured
+            if (PerformanceMonitor.isEnabled) cursor?.count
+            return@traceTable cursor
+        }
+    }
+
+    private fun queryInternal(uri: Uri, projection: Array<String>?, selection: String?,
+            selectionArgs: Array<String>?, sortOrder: String?): Cursor? {
         try {
             val tableId = DataStoreUtils.getTableId(uri)
             val table = DataStoreUtils.getTableNameById(tableId)
@@ -206,11 +258,11 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
                 }
                 VIRTUAL_TABLE_ID_SUGGESTIONS_AUTO_COMPLETE -> {
                     return SuggestionsCursorCreator.forAutoComplete(databaseWrapper,
-                            userColorNameManager, uri, projection)
+                            userColorNameManager, getAutoCompleteIndex(), uri, projection)
                 }
                 VIRTUAL_TABLE_ID_SUGGESTIONS_SEARCH -> {
                     return SuggestionsCursorCreator.forSearch(databaseWrapper,
-                            userColorNameManager, uri, projection)
+                            userColorNameManager, getAutoCompleteIndex(), uri, projection)
                 }
                 VIRTUAL_TABLE_ID_NULL -> {
                     return null
@@ -279,10 +331,90 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
         return null
     }
 
+    override fun call(method: String, arg: String?, extras: Bundle?): Bundle? {
+        // Not covered by provider permission, only for this app
+        if (Binder.getCallingUid() != Process.myUid()) {
+            throw SecurityException("Provider calls are not allowed from uid ${Binder.getCallingUid()}")
+        }
+        when (method) {
+            METHOD_GET_BULK_INSERT_STATS -> {
+                val result = Bundle()
+                bulkInsertEngine.stats.forEach { (table, stats) ->
+                    result.putLongArray(table, longArrayOf(stats.rows, stats.nanos))
+                }
+                return result
+            }
+            METHOD_REPLACE_ROWS -> {
+                if (extras == null) return null
+                databaseWrapper.beginTransaction()
+                try {
+                    extras.keySet().forEach { uriString ->
+                        val changes = extras.getBundle(uriString) ?: return@forEach
+                        replaceRows(Uri.parse(uriString), changes.getLongArray(EXTRA_DELETE_IDS),
+                                changes.getParcelableArray(EXTRA_INSERT_VALUES))
+                    }
+                    databaseWrapper.setTransactionSuccessful()
+                } finally {
+                    databaseWrapper.endTransaction()
+                }
+                return null
+            }
+            METHOD_PRUNE_DATABASES -> {
+                return pruneDatabases()
+            }
+        }
+        return super.call(method, arg, extras)
+    }
+
+    /**
+     * Runs [DatabasePruner] here so deleted tables are notified and indices invalidated the same
+     * way as [delete]
+     */
+    private fun pruneDatabases(): Bundle {
+        val context = context!!
+        databaseWrapper.prepare()
+        val pruner = DatabasePruner(databaseWrapper.sqLiteDatabase,
+                context.getSharedPreferences(DATABASE_PRUNER_PREFERENCES_NAME, Context.MODE_PRIVATE))
+        val accountKeys = DataStoreUtils.getAccountKeys(context).map(UserKey::toString)
+        val result = pruner.prune(accountKeys, preferences[databaseItemLimitKey])
+        (DataStoreUtils.STATUSES_URIS + DataStoreUtils.ACTIVITIES_URIS + DataStoreUtils.CACHE_URIS)
+                .distinct().forEach { uri ->
+            val tableId = DataStoreUtils.getTableId(uri)
+            if (DataStoreUtils.getTableNameById(tableId) !in result.deletedRows) return@forEach
+            onDatabaseUpdated(tableId, uri)
+            invalidateAutoCompleteIndex(tableId)
+            invalidateWrittenRows(tableId)
+        }
+        DebugLog.d(msg = "Pruned ${result.total} rows in ${result.duration}ms: ${result.deletedRows}")
+        val bundle = Bundle()
+        result.deletedRows.forEach { (table, count) -> bundle.putInt(table, count) }
+        return bundle
+    }
+
+    private fun replaceRows(uri: Uri, deleteIds: LongArray?, insertValues: Array<Parcelable>?) {
+        deleteIds?.asList()?.chunked(DELETE_CHUNK_SIZE)?.forEach { chunk ->
+            val where = Expression.inArgs(Column(BaseColumns._ID), chunk.size)
+            deleteInternal(uri, where.sql, chunk.map(Long::toString).toTypedArray())
+        }
+        if (insertValues != null && insertValues.isNotEmpty()) {
+            bulkInsertInternal(uri, Array(insertValues.size) { insertValues[it] as ContentValues })
+        }
+    }
+
+    private inline fun <T> traceTable(category: String, uri: Uri, action: () -> T): T {
+        if (!PerformanceMonitor.isEnabled) return action()
+        val table = DataStoreUtils.getTableNameById(DataStoreUtils.getTableId(uri))
+                ?: uri.pathSegments.firstOrNull() ?: "unknown"
+        return PerformanceMonitor.trace(category, table, action)
+    }
+
     private fun handleSQLException(e: SQLException): Boolean {
         try {
             if (e is SQLiteFullException) {
                 // Drop cached databases
+                bulkInsertEngine.clear()
+                writtenRowHashes.clear()
+                autoCompleteIndex.invalidate()
                 databaseWrapper.delete(CachedUsers.TABLE_NAME, null, null)
                 databaseWrapper.delete(CachedStatuses.TABLE_NAME, null, null)
                 databaseWrapper.delete(CachedHashtags.TABLE_NAME, null, null)
@@ -299,44 +431,45 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
     private fun bulkInsertInternal(uri: Uri, valuesArray: Array<ContentValues>): Int {
         val tableId = DataStoreUtils.getTableId(uri)
         val table = DataStoreUtils.getTableNameById(tableId)
+        val rowKeyColumns = getRowKeyColumns(tableId)
         var result = 0
-        val newIds = LongArray(valuesArray.size)
+        var rowHashGeneration = 0
         if (table != null && valuesArray.isNotEmpty()) {
             databaseWrapper.beginTransaction()
-            if (tableId == TABLE_ID_CACHED_USERS) {
-                for (values in valuesArray) {
-                    val where = Expression.equalsArgs(CachedUsers.USER_KEY)
-                    databaseWrapper.update(table, values, where.sql, arrayOf(values.getAsString(CachedUsers.USER_KEY)))
-                    newIds[result++] = databaseWrapper.insertWithOnConflict(table, null,
-                            values, SQLiteDatabase.CONFLICT_REPLACE)
-                }
-            } else if (tableId == TABLE_ID_SEARCH_HISTORY) {
-                for (values in valuesArray) {
-                    values.put(SearchHistory.RECENT_QUERY, System.currentTimeMillis())
-                    val where = Expression.equalsArgs(SearchHistory.QUERY)
-                    val args = arrayOf(values.getAsString(SearchHistory.QUERY))
-                    databaseWrapper.update(table, values, where.sql, args)
-                    newIds[result++] = databaseWrapper.insertWithOnConflict(table, null,
-                            values, SQLiteDatabase.CONFLICT_IGNORE)
-                }
-            } else {
-                val conflictAlgorithm = getConflictAlgorithm(tableId)
-                if (conflictAlgorithm != SQLiteDatabase.CONFLICT_NONE) {
-                    for (values in valuesArray) {
-                        newIds[result++] = databaseWrapper.insertWithOnConflict(table, null,
-                                values, conflictAlgorithm)
+            val db = databaseWrapper.sqLiteDatabase
+            try {
+                when {
+                    rowKeyColumns != null -> {
+                        // Skip cached rows unchanged since last bulk insert
+                        rowHashGeneration = writtenRowHashes.generation(table)
+                        val changed = writtenRowHashes.filterChanged(table, valuesArray, rowKeyColumns)
+                        result = bulkInsertEngine.insert(db, table, changed, getConflictAlgorithm(tableId))
+                    }
+                    tableId == TABLE_ID_SEARCH_HISTORY -> {
+                        val now = System.currentTimeMillis()
+                        valuesArray.forEach { it.put(SearchHistory.RECENT_QUERY, now) }
+                        result = bulkInsertEngine.upsert(db, table, valuesArray, SearchHistory.QUERY)
                     }
-                } else {
-                    for (values in valuesArray) {
-                        newIds[result++] = databaseWrapper.insert(table, null, values)
+                    else -> {
+                        if (isFilteredTable(tableId)) {
+                            val engine = getFilterEngine()
+                            valuesArray.forEach(engine::applyTo)
+                        }
+                        result = bulkInsertEngine.insert(db, table, valuesArray,
+                                getConflictAlgorithm(tableId))
                     }
                 }
+                databaseWrapper.setTransactionSuccessful()
+            } finally {
+                databaseWrapper.endTransaction()
+            }
+            if (rowKeyColumns != null) {
+                writtenRowHashes.put(table, rowHashGeneration, valuesArray, rowKeyColumns)
             }
-            databaseWrapper.setTransactionSuccessful()
-            databaseWrapper.endTransaction()
         }
         if (result > 0) {
             onDatabaseUpdated(tableId, uri)
+            updateAutoCompleteIndex(tableId, valuesArray.toNulls())
         }
         onNewItemsInserted(uri, tableId, valuesArray.toNulls())
         return result
@@ -354,6 +487,8 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
                 val result = databaseWrapper.delete(table, selection, selectionArgs)
                 if (result > 0) {
                     onDatabaseUpdated(tableId, uri)
+                    invalidateAutoCompleteIndex(tableId)
+                    invalidateWrittenRows(tableId)
                 }
                 onItemDeleted(uri, tableId)
                 return result
@@ -414,18 +549,28 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
                 rowId = contentNotificationManager.showDraft(uri)
             }
             else -> {
-                val conflictAlgorithm = getConflictAlgorithm(tableId)
-                if (conflictAlgorithm != SQLiteDatabase.CONFLICT_NONE) {
-                    rowId = databaseWrapper.insertWithOnConflict(table, null, values,
-                            conflictAlgorithm)
-                } else if (table != null) {
-                    rowId = databaseWrapper.insert(table, null, values)
-                } else {
-                    return null
+                if (table == null) return null
+                val filtered = values != null && isFilteredTable(tableId)
+                // Engine read in the transaction, see onFiltersChanged
+                if (filtered) databaseWrapper.beginTransaction()
+                try {
+                    if (filtered) getFilterEngine().applyTo(values!!)
+                    val conflictAlgorithm = getConflictAlgorithm(tableId)
+                    if (conflictAlgorithm != SQLiteDatabase.CONFLICT_NONE) {
+                        rowId = databaseWrapper.insertWithOnConflict(table, null, values,
+                                conflictAlgorithm)
+                    } else {
+                        rowId = databaseWrapper.insert(table, null, values)
+                    }
+                    if (filtered) databaseWrapper.setTransactionSuccessful()
+                } finally {
+                    if (filtered) databaseWrapper.endTransaction()
                 }
             }
         }
         onDatabaseUpdated(tableId, uri)
+        updateAutoCompleteIndex(tableId, arrayOf(values))
+        invalidateWrittenRows(tableId)
         onNewItemsInserted(uri, tableId, arrayOf(values))
         return uri.withAppendedPath(rowId.toString())
     }
@@ -434,11 +579,27 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
         val tableId = DataStoreUtils.getTableId(uri)
         val table = DataStoreUtils.getTableNameById(tableId)
         var result = 0
-        if (table != null) {
+        if (table != null && isFilteredTable(tableId) && values != null &&
+                ContentFilterEngine.FILTER_COLUMNS.any { values.containsKey(it) }) {
+            // Recompute filtered scopes of updated rows, engine read in the transaction as well
+            databaseWrapper.beginTransaction()
+            try {
+                result = databaseWrapper.update(table, values, selection, selectionArgs)
+                if (result > 0) {
+                    getFilterEngine().applyTo(databaseWrapper.sqLiteDatabase, table, selection,
+                            selectionArgs)
+                }
+                databaseWrapper.setTransactionSuccessful()
+            } finally {
+                databaseWrapper.endTransaction()
+            }
+        } else if (table != null) {
             result = databaseWrapper.update(table, values, selection, selectionArgs)
         }
         if (result > 0) {
             onDatabaseUpdated(tableId, uri)
+            invalidateAutoCompleteIndex(tableId)
+            invalidateWrittenRows(tableId)
         }
         return result
     }
@@ -456,9 +617,87 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
 
     private fun onDatabaseUpdated(tableId: Int, uri: Uri?) {
         if (uri == null) return
+        when (tableId) {
+            TABLE_ID_FILTERED_USERS, TABLE_ID_FILTERED_KEYWORDS, TABLE_ID_FILTERED_SOURCES,
+            TABLE_ID_FILTERED_LINKS -> onFiltersChanged()
+        }
         notifyContentObserver(uri)
     }
 
+    private fun getFilterEngine(): ContentFilterEngine {
+        filterEngine?.let { return it }
+        databaseWrapper.prepare()
+        val engine = ContentFilterEngine.compile(databaseWrapper.sqLiteDatabase)
+        filterEngine = engine
+        return engine
+    }
+
+    /**
+     * Recompiles filter rules and re-evaluates stored items, multiple changes in a row
+     * (e.g. refreshing filter subscriptions) are coalesced into one pass.
+     *
+     * Inserts and updates read the engine inside their transactions. A write still using the old
+     * engine either commits before re-evaluation starts, so it's re-evaluated, or reads the
+     * engine after the swap.
+     */
+    private fun onFiltersChanged() {
+        if (!filterEngineInvalidated.compareAndSet(false, true)) return
+        backgroundExecutor.execute {
+            filterEngineInvalidated.set(false)
+            val db = databaseWrapper.sqLiteDatabase
+            val engine = ContentFilterEngine.compile(db)
+            filterEngine = engine
+            if (engine.applyTo(db, Statuses.TABLE_NAME) > 0) {
+                notifyContentObserver(Statuses.CONTENT_URI)
+            }
+            if (engine.applyTo(db, Activities.AboutMe.TABLE_NAME) > 0) {
+                notifyContentObserver(Activities.AboutMe.CONTENT_URI)
+            }
+        }
+    }
+
+    /**
+     * Returns index for suggestions, builds it in background if not ready yet
+     */
+    private fun getAutoCompleteIndex(): AutoCompleteIndex {
+        if (autoCompleteIndex.isReady || !autoCompleteIndexBuilding.compareAndSet(false, true)) {
+            return autoCompleteIndex
+        }
+        backgroundExecutor.execute {
+            try {
+                autoCompleteIndex.build(databaseWrapper.sqLiteDatabase, userColorNameManager.nicknames)
+            } finally {
+                autoCompleteIndexBuilding.set(false)
+            }
+        }
+        return autoCompleteIndex
+    }
+
+    private fun updateAutoCompleteIndex(tableId: Int, valuesArray: Array<ContentValues?>) {
+        when (tableId) {
+            TABLE_ID_CACHED_USERS -> autoCompleteIndex.putUsers(valuesArray)
+            TABLE_ID_CACHED_RELATIONSHIPS -> autoCompleteIndex.putRelationships(valuesArray)
+            TABLE_ID_CACHED_HASHTAGS -> autoCompleteIndex.putHashtags(valuesArray)
+        }
+    }
+
+    private fun invalidateAutoCompleteIndex(tableId: Int) {
+        when (tableId) {
+            TABLE_ID_CACHED_USERS, TABLE_ID_CACHED_RELATIONSHIPS, TABLE_ID_CACHED_HASHTAGS -> {
+                autoCompleteIndex.invalidate()
+            }
+        }
+    }
+
+    /**
+     * Rows written other than bulk insert no longer match recorded hashes
+     */
+    private fun invalidateWrittenRows(tableId: Int) {
+        if (getRowKeyColumns(tableId) == null) return
+        val table = DataStoreUtils.getTableNameById(tableId) ?: return
+        writtenRowHashes.invalidate(table)
+    }
+
     private fun onItemDeleted(uri: Uri, tableId: Int) {
     }
 
@@ -515,6 +754,25 @@ class TwidereDataProvider : ContentProvider(), LazyLoadCallback {
 
     companion object {
 
+        // Keep below SQLite variable limit (999)
+        private const val DELETE_CHUNK_SIZE = 500
+
+        /**
+         * @return Columns identifying rows whose bulk inserts are skipped when unchanged
+         */
+        private fun getRowKeyColumns(tableId: Int): Array<String>? {
+            return when (tableId) {
+                TABLE_ID_CACHED_USERS -> arrayOf(CachedUsers.USER_KEY)
+                TABLE_ID_CACHED_RELATIONSHIPS -> arrayOf(CachedRelationships.ACCOUNT_KEY,
+                        CachedRelationships.USER_KEY)
+                else -> null
+            }
+        }
+
+        private fun isFilteredTable(tableId: Int): Boolean {
+            return tableId == TABLE_ID_STATUSES || tableId == TABLE_ID_ACTIVITIES_ABOUT_ME
+        }
+
         private fun getConflictAlgorithm(tableId: Int): Int {
             when (tableId) {
                 TABLE_ID_CACHED_HASHTAGS, TABLE_ID_CACHED_STATUSES, TABLE_ID_CACHED_USERS,
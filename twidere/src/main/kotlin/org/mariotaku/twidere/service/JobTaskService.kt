@@ -24,6 +24,8 @@ import android.annotation.TargetApi
 import android.app.job.JobParameters
 import android.app.job.JobService
 import android.os.Build
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
 import org.mariotaku.kpreferences.KPreferences
 import org.mariotaku.twidere.TwidereConstants.LOGTAG
@@ -32,7 +34,11 @@ import org.mariotaku.twidere.constant.autoRefreshCompatibilityModeKey
 import org.mariotaku.twidere.util.Analyzer
 import org.mariotaku.twidere.util.TaskServiceRunner
 import org.mariotaku.twidere.util.dagger.GeneralComponent
+import org.mariotaku.twidere.util.refresh.AutoRefreshController
+import org.mariotaku.twidere.util.refresh.JobSchedulerAutoRefreshController
 import org.mariotaku.twidere.util.support.JobServiceSupport
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 
 /**
@@ -46,6 +52,15 @@ class JobTaskService : JobService() {
     internal lateinit var taskServiceRunner: TaskServiceRunner
     @Inject
     internal lateinit var kPreferences: KPreferences
+    @Inject
+    internal lateinit var autoRefreshController: AutoRefreshController
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    /**
+     * Timelines refreshed by running adaptive refresh jobs
+     */
+    private val runningBatches = ConcurrentHashMap<Int, List<String>>()
 
     override fun onCreate() {
         super.onCreate()
@@ -62,12 +77,21 @@ class JobTaskService : JobService() {
         Log.d(LOGTAG, "JobTaskService received job $params")
         if (kPreferences[autoRefreshCompatibilityModeKey]) return false
         val action = getTaskAction(params.jobId) ?: return false
+        val type = getRefreshType(params.jobId)
+        val controller = autoRefreshController as? JobSchedulerAutoRefreshController
+        if (type != null && controller != null && controller.isAdaptive) {
+            return runAdaptiveRefresh(params, controller, listOf(type) + controller.takeBatch(type))
+        }
         return taskServiceRunner.runTask(action) {
             this.jobFinished(params, false)
         }
     }
 
     override fun onStopJob(params: JobParameters): Boolean {
+        runningBatches.remove(params.jobId)?.let { types ->
+            // One-shot jobs won't run again unless rescheduled
+            handler.post { types.forEach { autoRefreshController.schedule(it) } }
+        }
         try {
             if (JobServiceSupport.handleStopJob(params, false)) {
                 JobServiceSupport.removeCallback(params)
@@ -79,6 +103,35 @@ class JobTaskService : JobService() {
         return false
     }
 
+    /**
+     * Refreshes [types] together, each of them will be rescheduled after refreshed, since
+     * adaptive refresh jobs are one-shot.
+     */
+    private fun runAdaptiveRefresh(params: JobParameters, controller: JobSchedulerAutoRefreshController,
+            types: List<String>): Boolean {
+        runningBatches[params.jobId] = types
+        // Extra count is released after all tasks started, so job won't finish before that
+        val pending = AtomicInteger(types.size + 1)
+        val finishOne = {
+            if (pending.decrementAndGet() == 0 && runningBatches.remove(params.jobId) != null) {
+                // Rescheduling job still running will stop it, so finish first
+                jobFinished(params, false)
+                types.forEach { controller.schedule(it) }
+            }
+        }
+        types.forEach { type ->
+            val action = getTaskAction(getRefreshJobId(type))
+            if (action == null || !taskServiceRunner.runTask(action) { finishOne() }) {
+                pending.decrementAndGet()
+            }
+        }
+        if (pending.decrementAndGet() > 0) return true
+        // Nothing started
+        runningBatches.remove(params.jobId)
+        handler.post { types.forEach { controller.schedule(it) } }
+        return false
+    }
+
     companion object {
         // DON'T CHANGE JOB ID ONCE CREATED!
         const val JOB_ID_REFRESH_HOME_TIMELINE = 1
@@ -103,6 +156,14 @@ class JobTaskService : JobService() {
             else -> 0
         }
 
+        @AutoRefreshType
+        fun getRefreshType(jobId: Int): String? = when (jobId) {
+            JOB_ID_REFRESH_HOME_TIMELINE -> AutoRefreshType.HOME_TIMELINE
+            JOB_ID_REFRESH_NOTIFICATIONS -> AutoRefreshType.INTERACTIONS_TIMELINE
+            JOB_ID_REFRESH_DIRECT_MESSAGES -> AutoRefreshType.DIRECT_MESSAGES
+            else -> null
+        }
+
         @TaskServiceRunner.Action
         fun getTaskAction(jobId: Int): String? = when (jobId) {
             JOB_ID_REFRESH_HOME_TIMELINE -> TaskServiceRunner.ACTION_REFRESH_HOME_TIMELINE
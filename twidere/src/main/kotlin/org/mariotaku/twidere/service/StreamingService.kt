@@ -3,6 +3,7 @@ package org.mariotaku.twidere.service
 import android.accounts.AccountManager
 import android.accounts.OnAccountsUpdateListener
 import android.app.PendingIntent
+import android.content.ContentValues
 import android.content.Context
 import android.content.Intent
 import android.os.Handler
@@ -15,10 +16,12 @@ import org.mariotaku.abstask.library.TaskStarter
 import org.mariotaku.kpreferences.get
 import org.mariotaku.ktextension.addOnAccountsUpdatedListenerSafe
 import org.mariotaku.ktextension.removeOnAccountsUpdatedListenerSafe
-import org.mariotaku.ktextension.toLongOr
 import org.mariotaku.ktextension.toNulls
 import org.mariotaku.library.objectcursor.ObjectCursor
 import org.mariotaku.microblog.library.MicroBlogException
+import org.mariotaku.microblog.library.mastodon.MastodonStreaming
+import org.mariotaku.microblog.library.mastodon.callback.MastodonUserStreamCallback
+import org.mariotaku.microblog.library.mastodon.model.Notification
 import org.mariotaku.microblog.library.twitter.TwitterUserStream
 import org.mariotaku.microblog.library.twitter.annotation.StreamWith
 import org.mariotaku.microblog.library.twitter.model.*
@@ -27,11 +30,13 @@ import org.mariotaku.sqliteqb.library.Expression
 import org.mariotaku.twidere.R
 import org.mariotaku.twidere.TwidereConstants.LOGTAG
 import org.mariotaku.twidere.annotation.AccountType
+import org.mariotaku.twidere.annotation.AutoRefreshType
 import org.mariotaku.twidere.constant.streamingEnabledKey
 import org.mariotaku.twidere.constant.streamingNonMeteredNetworkKey
 import org.mariotaku.twidere.constant.streamingPowerSavingKey
 import org.mariotaku.twidere.extension.model.*
 import org.mariotaku.twidere.extension.model.api.key
+import org.mariotaku.twidere.extension.model.api.mastodon.toParcelable
 import org.mariotaku.twidere.extension.model.api.microblog.toParcelable
 import org.mariotaku.twidere.extension.model.api.toParcelable
 import org.mariotaku.twidere.extension.queryCount
@@ -48,15 +53,27 @@ import org.mariotaku.twidere.util.IntentUtils
 import org.mariotaku.twidere.util.Utils
 import org.mariotaku.twidere.util.dagger.DependencyHolder
 import org.mariotaku.twidere.util.dagger.GeneralComponent
+import org.mariotaku.twidere.util.refresh.StreamingCoverage
+import org.mariotaku.twidere.util.streaming.ExponentialBackoff
+import org.mariotaku.twidere.util.streaming.StreamingContentWriter
 import org.mariotaku.twidere.util.streaming.TwitterTimelineStreamCallback
 import java.util.*
-import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.inject.Inject
+import org.mariotaku.microblog.library.mastodon.model.Status as MastodonStatus
 
 class StreamingService : BaseService() {
 
-    internal lateinit var threadPoolExecutor: ExecutorService
+    @Inject
+    internal lateinit var streamingCoverage: StreamingCoverage
+
+    internal lateinit var streamingScheduler: ScheduledThreadPoolExecutor
+    internal lateinit var writerExecutor: ScheduledExecutorService
     internal lateinit var handler: Handler
 
     private val submittedTasks: MutableMap<UserKey, StreamingRunnable<*>> = WeakHashMap()
@@ -70,14 +87,18 @@ class StreamingService : BaseService() {
     override fun onCreate() {
         super.onCreate()
         GeneralComponent.get(this).inject(this)
-        threadPoolExecutor = Executors.newCachedThreadPool { runnable ->
-            val thread = Thread(runnable)
+        // Streams hold their thread while connected, reconnections are scheduled instead of
+        // sleeping so waiting accounts don't occupy threads. Pool is resized to the enabled
+        // accounts in updateStreamingInstances, up to MAX_STREAMING_THREADS
+        val threadNumber = AtomicInteger()
+        streamingScheduler = ScheduledThreadPoolExecutor(1) { runnable ->
+            val thread = Thread(runnable, "twidere-streaming-${threadNumber.incrementAndGet()}")
             thread.priority = Thread.NORM_PRIORITY - 1
-            if (runnable is StreamingRunnable<*>) {
-                thread.name = "twidere-streaming-${runnable.account.key}"
-            }
-            return@newCachedThreadPool thread
+            return@ScheduledThreadPoolExecutor thread
+        }.apply {
+            executeExistingDelayedTasksAfterShutdownPolicy = false
         }
+        writerExecutor = Executors.newSingleThreadScheduledExecutor()
         handler = Handler(Looper.getMainLooper())
         AccountManager.get(this).addOnAccountsUpdatedListenerSafe(accountChangeObserver, updateImmediately = false)
     }
@@ -89,7 +110,9 @@ class StreamingService : BaseService() {
             val (_, v) = it
             v.cancel()
         }
-        threadPoolExecutor.shutdown()
+        streamingScheduler.shutdown()
+        // Pending writes scheduled by cancelled tasks will still be executed
+        writerExecutor.shutdown()
         submittedTasks.clear()
         removeNotification()
         AccountManager.get(this).removeOnAccountsUpdatedListenerSafe(accountChangeObserver)
@@ -150,6 +173,9 @@ class StreamingService : BaseService() {
 
         if (enabledAccounts.isEmpty()) return false
 
+        // One thread per connected stream, accounts beyond the limit wait for a free thread
+        streamingScheduler.corePoolSize = Math.min(enabledAccounts.size, MAX_STREAMING_THREADS)
+
         // Remove all disabled instances
         submittedTasks.forEach {
             // NOTE: IMPORTANT!!! Before Nougat, forEach { k, v -> } will crash because referenced
@@ -166,7 +192,7 @@ class StreamingService : BaseService() {
                 val runnable = newStreamingRunnable(account, supportedPrefs.first {
                     it.accountKey == account.key
                 }) ?: return@forEach
-                threadPoolExecutor.submit(runnable)
+                streamingScheduler.execute(runnable)
                 submittedTasks[account.key] = runnable
             }
         }
@@ -198,11 +224,14 @@ class StreamingService : BaseService() {
             AccountType.TWITTER -> {
                 return TwitterStreamingRunnable(this, account, preferences)
             }
+            AccountType.MASTODON -> {
+                return MastodonStreamingRunnable(this, account, preferences)
+            }
         }
         return null
     }
 
-    internal abstract class StreamingRunnable<T>(
+    internal abstract inner class StreamingRunnable<T>(
             val context: Context,
             val account: AccountDetails,
             val accountPreferences: AccountPreferences
@@ -211,25 +240,92 @@ class StreamingService : BaseService() {
         var cancelled: Boolean = false
             private set
 
+        /**
+         * Call [onStreamConnected] once connected
+         */
+        protected val backoff = ExponentialBackoff()
+
+        protected val writer = StreamingContentWriter(context.contentResolver, writerExecutor)
+
+        private var scheduledReconnect: Future<*>? = null
+
+        private val lastStatusTimestamps = LongArray(2)
+
+        private val instance by lazy { createStreamingInstance() }
+
         override fun run() {
-            val instance = createStreamingInstance()
-            while (!cancelled && !Thread.currentThread().isInterrupted) {
-                try {
-                    instance.beginStreaming()
-                } catch (e: MicroBlogException) {
-                    DebugLog.w(LOGTAG, msg = "Can't stream for ${account.key}", tr = e)
-                }
-                Thread.sleep(TimeUnit.MINUTES.toMillis(1))
+            if (cancelled) return
+            try {
+                instance.beginStreaming()
+            } catch (e: MicroBlogException) {
+                DebugLog.w(LOGTAG, msg = "Can't stream for ${account.key}", tr = e)
+            }
+            streamingCoverage.clear(account.key)
+            synchronized(this) {
+                if (cancelled) return
+                scheduledReconnect = streamingScheduler.schedule(this, backoff.nextDelayMillis(),
+                        TimeUnit.MILLISECONDS)
             }
         }
 
         fun cancel(): Boolean {
-            if (cancelled) return false
-            cancelled = true
+            synchronized(this) {
+                if (cancelled) return false
+                cancelled = true
+                scheduledReconnect?.cancel(false)
+            }
+            streamingCoverage.clear(account.key)
             onCancelled()
+            writerExecutor.execute { writer.flush() }
             return true
         }
 
+        /**
+         * Resets reconnect backoff, and marks streamed timelines so auto refresh skips them
+         */
+        protected fun onStreamConnected() {
+            backoff.reset()
+            val types = HashSet<String>()
+            if (accountPreferences.isStreamHomeTimelineEnabled) {
+                types.add(AutoRefreshType.HOME_TIMELINE)
+            }
+            if (accountPreferences.isStreamInteractionsEnabled) {
+                types.add(AutoRefreshType.INTERACTIONS_TIMELINE)
+            }
+            streamingCoverage.setCovered(account.key, types)
+        }
+
+        /**
+         * Buffers a home timeline status, statuses with same timestamp will be ordered by arrival
+         */
+        protected fun insertHomeStatus(status: ParcelableStatus, insertGap: Boolean) {
+            status.is_gap = insertGap
+
+            val currentTimeMillis = System.currentTimeMillis()
+            if (lastStatusTimestamps[0] >= status.timestamp) {
+                val extraValue = (currentTimeMillis - lastStatusTimestamps[1]).coerceAtMost(499)
+                status.position_key = status.timestamp + extraValue
+            } else {
+                status.position_key = status.timestamp
+            }
+            status.inserted_date = currentTimeMillis
+
+            lastStatusTimestamps[0] = status.position_key
+            lastStatusTimestamps[1] = status.inserted_date
+
+            val values = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java).create(status)
+            writer.insert(Statuses.CONTENT_URI, values)
+        }
+
+        protected fun deleteStatus(id: String) {
+            // Deleted status may be still pending
+            writer.flush()
+            val deleteWhere = Expression.and(Expression.likeRaw(Columns.Column(Statuses.ACCOUNT_KEY), "'%@'||?"),
+                    Expression.equalsArgs(Columns.Column(Statuses.ID))).sql
+            val deleteWhereArgs = arrayOf(account.key.host, id)
+            context.contentResolver.delete(Statuses.CONTENT_URI, deleteWhere, deleteWhereArgs)
+        }
+
         abstract fun createStreamingInstance(): T
 
         abstract fun T.beginStreaming()
@@ -259,16 +355,16 @@ class StreamingService : BaseService() {
 
         val callback = object : TwitterTimelineStreamCallback(account.key.id) {
 
-            private var lastStatusTimestamps = LongArray(2)
-
             private var homeInsertGap = false
             private var interactionsInsertGap = false
 
             private var lastActivityAboutMe: ParcelableActivity? = null
+            private var lastActivityAboutMeValues: ContentValues? = null
 
             override fun onConnected(): Boolean {
                 homeInsertGap = true
                 interactionsInsertGap = true
+                onStreamConnected()
                 return true
             }
 
@@ -277,24 +373,8 @@ class StreamingService : BaseService() {
                     homeInsertGap = true
                     return false
                 }
-                val parcelableStatus = status.toParcelable(account, profileImageSize = profileImageSize)
-                parcelableStatus.is_gap = homeInsertGap
-
-                val currentTimeMillis = System.currentTimeMillis()
-                if (lastStatusTimestamps[0] >= parcelableStatus.timestamp) {
-                    val extraValue = (currentTimeMillis - lastStatusTimestamps[1]).coerceAtMost(499)
-                    parcelableStatus.position_key = parcelableStatus.timestamp + extraValue
-                } else {
-                    parcelableStatus.position_key = parcelableStatus.timestamp
-                }
-                parcelableStatus.inserted_date = currentTimeMillis
-
-                lastStatusTimestamps[0] = parcelableStatus.position_key
-                lastStatusTimestamps[1] = parcelableStatus.inserted_date
-
-                val values = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java)
-                        .create(parcelableStatus)
-                context.contentResolver.insert(Statuses.CONTENT_URI, values)
+                insertHomeStatus(status.toParcelable(account, profileImageSize = profileImageSize),
+                        homeInsertGap)
                 homeInsertGap = false
                 return true
             }
@@ -322,7 +402,7 @@ class StreamingService : BaseService() {
                     val curActivity = activity.toParcelable(account, insertGap, profileImageSize)
                     curActivity.account_color = account.color
                     curActivity.position_key = curActivity.timestamp
-                    var updateId = -1L
+                    var merged = false
                     if (curActivity.action !in Activity.Action.MENTION_ACTIONS) {
                         /* Merge two activities if:
                          * * Not mention/reply/quote
@@ -336,17 +416,17 @@ class StreamingService : BaseService() {
                             } else if (curActivity.isSameSources(lastActivity)) {
                                 curActivity.prependTargets(lastActivity)
                                 curActivity.prependTargetObjects(lastActivity)
-                                updateId = lastActivity._id
+                                merged = true
                             } else if (curActivity.isSameTarget(lastActivity)) {
                                 curActivity.prependSources(lastActivity)
                                 curActivity.prependTargets(lastActivity)
-                                updateId = lastActivity._id
+                                merged = true
                             } else if (curActivity.isSameTargetObject(lastActivity)) {
                                 curActivity.prependSources(lastActivity)
                                 curActivity.prependTargets(lastActivity)
-                                updateId = lastActivity._id
+                                merged = true
                             }
-                            if (updateId > 0) {
+                            if (merged) {
                                 curActivity.min_position = lastActivity.min_position
                                 curActivity.min_sort_position = lastActivity.min_sort_position
                             }
@@ -354,18 +434,21 @@ class StreamingService : BaseService() {
                     }
                     val values = ObjectCursor.valuesCreatorFrom(ParcelableActivity::class.java)
                             .create(curActivity)
-                    val resolver = context.contentResolver
-                    if (updateId > 0) {
-                        val where = Expression.equals(Activities._ID, updateId).sql
-                        resolver.update(Activities.AboutMe.CONTENT_URI, values, where, null)
-                        curActivity._id = updateId
-                    } else {
-                        val uri = resolver.insert(Activities.AboutMe.CONTENT_URI, values)
-                        if (uri != null) {
-                            curActivity._id = uri.lastPathSegment.toLongOr(-1L)
-                        }
+                    val lastActivity = this.lastActivityAboutMe
+                    val lastValues = this.lastActivityAboutMeValues
+                    if (!merged || lastActivity == null || lastValues == null) {
+                        writer.insert(Activities.AboutMe.CONTENT_URI, values)
+                    } else if (!writer.replace(Activities.AboutMe.CONTENT_URI, lastValues, values)) {
+                        // Merge target already written, make sure it's not being written now
+                        writer.flush()
+                        val where = Expression.and(Expression.equalsArgs(Activities.ACCOUNT_KEY),
+                                Expression.equalsArgs(Activities.ID)).sql
+                        val whereArgs = arrayOf(account.key.toString(), lastActivity.id)
+                        context.contentResolver.update(Activities.AboutMe.CONTENT_URI, values,
+                                where, whereArgs)
                     }
                     lastActivityAboutMe = curActivity
+                    lastActivityAboutMeValues = values
                 }
                 return true
             }
@@ -401,10 +484,7 @@ class StreamingService : BaseService() {
             }
 
             override fun onStatusDeleted(event: DeletionEvent): Boolean {
-                val deleteWhere = Expression.and(Expression.likeRaw(Columns.Column(Statuses.ACCOUNT_KEY), "'%@'||?"),
-                        Expression.equalsArgs(Columns.Column(Statuses.ID))).sql
-                val deleteWhereArgs = arrayOf(account.key.host, event.id)
-                context.contentResolver.delete(Statuses.CONTENT_URI, deleteWhere, deleteWhereArgs)
+                deleteStatus(event.id)
                 return true
             }
 
@@ -467,10 +547,90 @@ class StreamingService : BaseService() {
 
     }
 
+    internal inner class MastodonStreamingRunnable(
+            context: Context,
+            account: AccountDetails,
+            accountPreferences: AccountPreferences
+    ) : StreamingRunnable<MastodonStreaming>(context, account, accountPreferences) {
+
+        val callback = object : MastodonUserStreamCallback() {
+
+            private var homeInsertGap = false
+            private var interactionsInsertGap = false
+
+            override fun onConnected(): Boolean {
+                homeInsertGap = true
+                interactionsInsertGap = true
+                onStreamConnected()
+                return true
+            }
+
+            override fun onUpdate(status: MastodonStatus): Boolean {
+                if (!accountPreferences.isStreamHomeTimelineEnabled) {
+                    homeInsertGap = true
+                    return false
+                }
+                insertHomeStatus(status.toParcelable(account), homeInsertGap)
+                homeInsertGap = false
+                return true
+            }
+
+            override fun onNotification(notification: Notification): Boolean {
+                if (!accountPreferences.isStreamInteractionsEnabled) {
+                    interactionsInsertGap = true
+                    return false
+                }
+                val activity = notification.toParcelable(account, null)
+                if (activity.action == Activity.Action.INVALID) return false
+                if (activity.action in Activity.Action.MENTION_ACTIONS) {
+                    activity.is_gap = interactionsInsertGap
+                    interactionsInsertGap = false
+                }
+                activity.position_key = activity.timestamp
+                val values = ObjectCursor.valuesCreatorFrom(ParcelableActivity::class.java)
+                        .create(activity)
+                writer.insert(Activities.AboutMe.CONTENT_URI, values)
+                return true
+            }
+
+            override fun onDelete(id: String): Boolean {
+                deleteStatus(id)
+                return true
+            }
+
+            override fun onException(ex: Throwable): Boolean {
+                DebugLog.w(LOGTAG, msg = "Exception for ${account.key}", tr = ex)
+                return true
+            }
+
+            override fun onUnhandledEvent(event: String, payload: String) {
+                DebugLog.d(LOGTAG, msg = "Unhandled event $event for ${account.key}: $payload")
+            }
+        }
+
+        override fun createStreamingInstance(): MastodonStreaming {
+            return account.newMicroBlogInstance(context, cls = MastodonStreaming::class.java)
+        }
+
+        override fun MastodonStreaming.beginStreaming() {
+            getUserStream(callback)
+        }
+
+        override fun onCancelled() {
+            callback.disconnect()
+        }
+
+    }
+
     companion object {
 
         private val NOTIFICATION_SERVICE_STARTED = 1
 
+        /**
+         * Accounts beyond this will wait for a free thread
+         */
+        private val MAX_STREAMING_THREADS = 4
+
         fun startOrStopService(context: Context) {
             val streamingIntent = Intent(context, StreamingService::class.java)
             val holder = DependencyHolder.get(context)
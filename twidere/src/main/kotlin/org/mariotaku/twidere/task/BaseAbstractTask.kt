@@ -16,6 +16,7 @@ import org.mariotaku.twidere.util.cache.JsonCache
 import org.mariotaku.twidere.util.dagger.GeneralComponent
 import org.mariotaku.twidere.util.media.MediaPreloader
 import org.mariotaku.twidere.util.premium.ExtraFeaturesService
+import org.mariotaku.twidere.util.refresh.AdaptiveRefreshPlanner
 import org.mariotaku.twidere.util.schedule.StatusScheduleProvider
 import org.mariotaku.twidere.util.sync.SyncPreferences
 import org.mariotaku.twidere.util.sync.TimelineSyncManager
@@ -61,6 +62,8 @@ abstract class BaseAbstractTask<Params, Result, Callback>(val context: Context)
     lateinit var timelineSyncManagerFactory: TimelineSyncManager.Factory
     @Inject
     lateinit var jsonCache: JsonCache
+    @Inject
+    lateinit var refreshPlanner: AdaptiveRefreshPlanner
 
     val scheduleProvider: StatusScheduleProvider?
         get() = scheduleProviderFactory.newInstance(context)
@@ -1,11 +1,9 @@
 package org.mariotaku.twidere.task.cache
 
+import android.content.ContentValues
 import android.content.Context
-import android.support.v4.util.ArraySet
-import org.mariotaku.ktextension.ContentValues
-import org.mariotaku.ktextension.set
+import org.mariotaku.library.objectcursor.ObjectCursor
 import org.mariotaku.sqliteqb.library.Expression
-import org.mariotaku.twidere.extension.bulkInsert
 import org.mariotaku.twidere.extension.model.applyTo
 import org.mariotaku.twidere.extension.model.relationship
 import org.mariotaku.twidere.extension.queryAll
@@ -25,12 +23,14 @@ class CacheTimelineResultTask(
     override fun doLongOperation(param: Any?) {
         val cr = context.contentResolver
         val account = result.account
-        val users = result.users
+        val users = result.users.distinctBy { it.key }
         val hashtags = result.hashtags
 
-        cr.bulkInsert(CachedUsers.CONTENT_URI, users, ParcelableUser::class.java)
+        // Provider skips user and relationship rows unchanged since its last bulk insert
+        val userCreator = ObjectCursor.valuesCreatorFrom(ParcelableUser::class.java)
+        ContentResolverUtils.bulkInsert(cr, CachedUsers.CONTENT_URI, users.map(userCreator::create))
         ContentResolverUtils.bulkInsert(cr, CachedHashtags.CONTENT_URI, hashtags.map {
-            ContentValues { this[CachedHashtags.NAME] = it.substringAfter("#") }
+            ContentValues().apply { put(CachedHashtags.NAME, it.substringAfter("#")) }
         })
 
         if (cacheRelationship) {
@@ -41,13 +41,13 @@ class CacheTimelineResultTask(
                     Expression.and(Expression.equalsArgs(CachedRelationships.ACCOUNT_KEY),
                             Expression.inArgs(CachedRelationships.USER_KEY, users.size)).sql,
                     selectionArgsList.toTypedArray(), null, ParcelableRelationship::class.java)
-            val relationships = users.mapTo(ArraySet<ParcelableRelationship>()) { user ->
-                val userKey = user.key
-                return@mapTo localRelationships.find {
-                    it.user_key == userKey
-                }?.apply { user.applyTo(this) } ?: user.relationship
-            }
-            cr.bulkInsert(CachedRelationships.CONTENT_URI, relationships, ParcelableRelationship::class.java)
+                    .associateBy { it.user_key }
+            val relationshipCreator = ObjectCursor.valuesCreatorFrom(ParcelableRelationship::class.java)
+            ContentResolverUtils.bulkInsert(cr, CachedRelationships.CONTENT_URI, users.map { user ->
+                val relationship = localRelationships[user.key]?.apply { user.applyTo(this) }
+                        ?: user.relationship
+                return@map relationshipCreator.create(relationship)
+            })
         }
     }
 
@@ -1,51 +1,90 @@
 package org.mariotaku.twidere.task.filter
 
 import android.content.ContentResolver
+import android.content.ContentValues
 import android.content.Context
+import android.database.SQLException
 import android.net.Uri
+import android.os.Bundle
+import okhttp3.HttpUrl
 import org.mariotaku.abstask.library.AbstractTask
 import org.mariotaku.library.objectcursor.ObjectCursor
 import org.mariotaku.sqliteqb.library.Expression
 import org.mariotaku.twidere.extension.model.instantiateComponent
-import org.mariotaku.twidere.extension.queryReference
+import org.mariotaku.twidere.extension.queryAll
+import org.mariotaku.twidere.extension.queryCount
 import org.mariotaku.twidere.model.FiltersData
 import org.mariotaku.twidere.model.FiltersSubscription
+import org.mariotaku.twidere.provider.TwidereDataStore
 import org.mariotaku.twidere.provider.TwidereDataStore.Filters
 import org.mariotaku.twidere.util.DebugLog
 import org.mariotaku.twidere.util.content.ContentResolverUtils
+import org.mariotaku.twidere.util.filter.FiltersSubscriptionProvider
+import org.mariotaku.twidere.util.filter.LocalFiltersSubscriptionProvider
+import org.mariotaku.twidere.util.filter.UrlFiltersSubscriptionProvider
+import org.mariotaku.twidere.util.refresh.ConcurrentRefresher
 import org.mariotaku.twidere.util.sync.LOGTAG_SYNC
 import java.io.IOException
 import java.util.*
 
+/**
+ * Fetches subscriptions concurrently, then writes only rules added, removed or changed since
+ * last refresh. Subscriptions not modified since last fetch are left untouched.
+ */
 class RefreshFiltersSubscriptionsTask(val context: Context) : AbstractTask<Unit?, Boolean, (Boolean) -> Unit>() {
 
     override fun doLongOperation(param: Unit?): Boolean {
         val resolver = context.contentResolver
-        val sourceIds = ArrayList<Long>()
-        resolver.queryReference(Filters.Subscriptions.CONTENT_URI, Filters.Subscriptions.COLUMNS,
-                null, null, null)?.use { (cursor) ->
-            val indices = ObjectCursor.indicesFrom(cursor, FiltersSubscription::class.java)
-            cursor.moveToFirst()
-            while (!cursor.isAfterLast) {
-                val subscription = indices.newObject(cursor)
-                sourceIds.add(subscription.id)
-                val component = subscription.instantiateComponent(context)
-                if (component != null) {
-                    try {
-                        if (component.fetchFilters()) {
-                            updateUserItems(resolver, component.users, subscription.id)
-                            updateBaseItems(resolver, component.keywords, Filters.Keywords.CONTENT_URI, subscription.id)
-                            updateBaseItems(resolver, component.links, Filters.Links.CONTENT_URI, subscription.id)
-                            updateBaseItems(resolver, component.sources, Filters.Sources.CONTENT_URI, subscription.id)
-                        }
-                    } catch (e: IOException) {
-                        DebugLog.w(LOGTAG_SYNC, "Unable to refresh filters", e)
-                    }
+        val subscriptions = resolver.queryAll(Filters.Subscriptions.CONTENT_URI,
+                Filters.Subscriptions.COLUMNS, null, null, cls = FiltersSubscription::class.java)
+        val components = subscriptions.map { it.instantiateComponent(context) }
+        val fetched = ConcurrentRefresher(maxPerGroup = MAX_CONCURRENT_PER_HOST).map(components.indices.toList(),
+                { components[it].host }) { _, index ->
+            val component = components[index] ?: return@map false
+            try {
+                var success = component.fetchFilters()
+                if (success && component.isNotModified && !hasRules(resolver, subscriptions[index].id)) {
+                    // Rules were removed since validators recorded, `304` can't restore them
+                    (component as LocalFiltersSubscriptionProvider).dropValidators()
+                    success = component.fetchFilters()
                 }
-                cursor.moveToNext()
+                return@map success && !component.isNotModified
+            } catch (e: IOException) {
+                DebugLog.w(LOGTAG_SYNC, "Unable to refresh filters", e)
+                return@map false
+            }
+        }
+        val changes = HashMap<Uri, RowChanges>()
+        subscriptions.forEachIndexed { index, subscription ->
+            val component = components[index] ?: return@forEachIndexed
+            if (!fetched[index]) return@forEachIndexed
+            diffUserItems(resolver, component.users, subscription.id, changes)
+            diffBaseItems(resolver, component.keywords, Filters.Keywords.CONTENT_URI, subscription.id, changes)
+            diffBaseItems(resolver, component.links, Filters.Links.CONTENT_URI, subscription.id, changes)
+            diffBaseItems(resolver, component.sources, Filters.Sources.CONTENT_URI, subscription.id, changes)
+        }
+        if (changes.isNotEmpty()) {
+            // Deletions and a single bulk insert for each table, in one transaction
+            val extras = Bundle()
+            changes.forEach { (uri, rows) ->
+                extras.putBundle(uri.toString(), Bundle().apply {
+                    putLongArray(TwidereDataStore.EXTRA_DELETE_IDS, rows.deleteIds.toLongArray())
+                    putParcelableArray(TwidereDataStore.EXTRA_INSERT_VALUES, rows.insertValues.toTypedArray())
+                })
+            }
+            try {
+                resolver.call(TwidereDataStore.BASE_CONTENT_URI, TwidereDataStore.METHOD_REPLACE_ROWS,
+                        null, extras)
+            } catch (e: SQLException) {
+                DebugLog.w(LOGTAG_SYNC, "Unable to update filters", e)
+                return false
+            } catch (e: IllegalStateException) {
+                DebugLog.w(LOGTAG_SYNC, "Unable to update filters", e)
+                return false
             }
         }
         // Delete 'orphaned' filter items with `sourceId` > 0
+        val sourceIds = subscriptions.map { it.id }
         val extraWhere = Expression.greaterThan(Filters.SOURCE, 0).sql
         ContentResolverUtils.bulkDelete(resolver, Filters.Users.CONTENT_URI, Filters.Users.SOURCE,
                 true, sourceIds, extraWhere, null)
@@ -55,11 +94,6 @@ class RefreshFiltersSubscriptionsTask(val context: Context) : AbstractTask<Unit?
                 true, sourceIds, extraWhere, null)
         ContentResolverUtils.bulkDelete(resolver, Filters.Links.CONTENT_URI, Filters.Links.SOURCE,
                 true, sourceIds, extraWhere, null)
-        try {
-            Thread.sleep(1000)
-        } catch (e: InterruptedException) {
-            return false
-        }
         return true
     }
 
@@ -67,28 +101,85 @@ class RefreshFiltersSubscriptionsTask(val context: Context) : AbstractTask<Unit?
         callback?.invoke(result)
     }
 
-    private fun updateUserItems(resolver: ContentResolver, items: List<FiltersData.UserItem>?, sourceId: Long) {
-        resolver.delete(Filters.Users.CONTENT_URI, Expression.equalsArgs(Filters.Users.SOURCE).sql,
-                arrayOf(sourceId.toString()))
+    private fun hasRules(resolver: ContentResolver, sourceId: Long): Boolean {
+        val where = Expression.equalsArgs(Filters.SOURCE).sql
+        val whereArgs = arrayOf(sourceId.toString())
+        return arrayOf(Filters.Users.CONTENT_URI, Filters.Keywords.CONTENT_URI, Filters.Links.CONTENT_URI,
+                Filters.Sources.CONTENT_URI).any { resolver.queryCount(it, where, whereArgs) > 0 }
+    }
+
+    private fun diffUserItems(resolver: ContentResolver, items: List<FiltersData.UserItem>?, sourceId: Long,
+            changes: MutableMap<Uri, RowChanges>) {
         val creator = ObjectCursor.valuesCreatorFrom(FiltersData.UserItem::class.java)
-        items?.map { item ->
+        diffItems(resolver, Filters.Users.CONTENT_URI, Filters.Users.COLUMNS, Filters.Users.SOURCE,
+                FiltersData.UserItem::class.java, items, sourceId, changes, { it.userKey?.toString() },
+                { it.id }, { a, b ->
+            a.name == b.name && a.screenName == b.screenName && a.scope == b.scope
+        }) { item ->
             item.source = sourceId
-            return@map creator.create(item)
-        }?.let {
-            ContentResolverUtils.bulkInsert(resolver, Filters.Users.CONTENT_URI, it)
+            return@diffItems creator.create(item)
         }
     }
 
-    private fun updateBaseItems(resolver: ContentResolver, items: List<FiltersData.BaseItem>?, uri: Uri, sourceId: Long) {
-        resolver.delete(uri, Expression.equalsArgs(Filters.SOURCE).sql,
-                arrayOf(sourceId.toString()))
+    private fun diffBaseItems(resolver: ContentResolver, items: List<FiltersData.BaseItem>?, uri: Uri,
+            sourceId: Long, changes: MutableMap<Uri, RowChanges>) {
         val creator = ObjectCursor.valuesCreatorFrom(FiltersData.BaseItem::class.java)
-        items?.map { item ->
+        diffItems(resolver, uri, Filters.COLUMNS, Filters.SOURCE, FiltersData.BaseItem::class.java,
+                items, sourceId, changes, { it.value }, { it.id }, { a, b ->
+            a.scope == b.scope && a.userKey == b.userKey
+        }) { item ->
             item.source = sourceId
-            return@map creator.create(item)
-        }?.let {
-            ContentResolverUtils.bulkInsert(resolver, uri, it)
+            return@diffItems creator.create(item)
+        }
+    }
+
+    /**
+     * Compares [items] with rows of [sourceId] by key, rows removed or changed are deleted and
+     * items added or changed are inserted. First item of a duplicated key wins, extra rows of a
+     * duplicated key are deleted.
+     */
+    private inline fun <T> diffItems(resolver: ContentResolver, uri: Uri, columns: Array<String>,
+            sourceColumn: String, cls: Class<T>, items: List<T>?, sourceId: Long,
+            changes: MutableMap<Uri, RowChanges>, key: (T) -> String?, id: (T) -> Long,
+            sameContent: (T, T) -> Boolean, createValues: (T) -> ContentValues) {
+        val existing = resolver.queryAll(uri, columns, Expression.equalsArgs(sourceColumn).sql,
+                arrayOf(sourceId.toString()), cls = cls)
+        val updated = LinkedHashMap<String, T>()
+        items?.forEach { item ->
+            val k = key(item) ?: return@forEach
+            if (k !in updated) updated[k] = item
+        }
+        val kept = HashSet<String>()
+        val deleteIds = ArrayList<Long>()
+        existing.forEach { row ->
+            val k = key(row)
+            val item = k?.let { updated[it] }
+            if (k == null || item == null || k in kept || !sameContent(row, item)) {
+                deleteIds.add(id(row))
+            } else {
+                kept.add(k)
+            }
         }
+        val insertValues = updated.filterKeys { it !in kept }.values.map(createValues)
+        if (deleteIds.isEmpty() && insertValues.isEmpty()) return
+        val rows = changes.getOrPut(uri) { RowChanges() }
+        rows.deleteIds.addAll(deleteIds)
+        rows.insertValues.addAll(insertValues)
+    }
+
+    private val FiltersSubscriptionProvider?.host: String?
+        get() = (this as? UrlFiltersSubscriptionProvider)?.arguments?.url?.let { HttpUrl.parse(it)?.host() }
+
+    private val FiltersSubscriptionProvider.isNotModified: Boolean
+        get() = (this as? LocalFiltersSubscriptionProvider)?.isNotModified ?: false
+
+    private class RowChanges {
+        val deleteIds = ArrayList<Long>()
+        val insertValues = ArrayList<ContentValues>()
+    }
+
+    companion object {
+        private const val MAX_CONCURRENT_PER_HOST = 2
     }
 
-}
\ No newline at end of file
+}
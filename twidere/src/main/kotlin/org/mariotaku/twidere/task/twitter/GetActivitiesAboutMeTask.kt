@@ -30,6 +30,7 @@ import org.mariotaku.microblog.library.twitter.model.InternalActivityCreator
 import org.mariotaku.microblog.library.twitter.model.Paging
 import org.mariotaku.twidere.R
 import org.mariotaku.twidere.annotation.AccountType
+import org.mariotaku.twidere.annotation.AutoRefreshType
 import org.mariotaku.twidere.annotation.FilterScope
 import org.mariotaku.twidere.annotation.ReadPositionTag
 import org.mariotaku.twidere.extension.api.batchGetRelationships
@@ -56,6 +57,8 @@ class GetActivitiesAboutMeTask(context: Context) : GetActivitiesTask(context) {
     override val filterScopes: Int = FilterScope.INTERACTIONS
     override val contentUri: Uri = Activities.AboutMe.CONTENT_URI
 
+    override val autoRefreshType: String? = AutoRefreshType.INTERACTIONS_TIMELINE
+
     private val profileImageSize = context.getString(R.string.profile_image_size)
 
     @Throws(MicroBlogException::class)
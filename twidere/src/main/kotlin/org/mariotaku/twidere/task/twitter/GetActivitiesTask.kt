@@ -12,6 +12,7 @@ import org.mariotaku.microblog.library.twitter.model.Paging
 import org.mariotaku.sqliteqb.library.Expression
 import org.mariotaku.twidere.TwidereConstants.LOGTAG
 import org.mariotaku.twidere.TwidereConstants.QUERY_PARAM_NOTIFY_CHANGE
+import org.mariotaku.twidere.annotation.AutoRefreshType
 import org.mariotaku.twidere.annotation.FilterScope
 import org.mariotaku.twidere.constant.loadItemLimitKey
 import org.mariotaku.twidere.exception.AccountNotFoundException
@@ -51,6 +52,13 @@ abstract class GetActivitiesTask(
 
     protected abstract val contentUri: Uri
 
+    /**
+     * New items arrival rate is tracked as this type for adaptive auto refresh, `null` if this
+     * timeline won't be auto refreshed
+     */
+    @AutoRefreshType
+    protected open val autoRefreshType: String? = null
+
     override fun doLongOperation(param: RefreshTaskParam): List<Pair<GetTimelineResult<ParcelableActivity>?, Exception?>> {
         if (param.shouldAbort) return emptyList()
         val accountKeys = param.accountKeys.takeIf { it.isNotEmpty() } ?: return emptyList()
@@ -82,8 +90,19 @@ abstract class GetActivitiesTask(
                 if (storeResult != 0) {
                     throw GetStatusesTask.GetTimelineException(storeResult)
                 }
+                if (sinceId != null && maxId == null) {
+                    recordArrivals(accountKey, timelineResult.data.count { it.max_position != sinceId })
+                }
                 return@mapIndexed Pair(timelineResult, null)
             } catch (e: MicroBlogException) {
+                if (e.statusCode == 304) {
+                    // Not modified since last refresh
+                    errorInfoStore.remove(errorInfoKey, accountKey)
+                    if (sinceId != null && maxId == null) {
+                        recordArrivals(accountKey, 0)
+                    }
+                    return@mapIndexed Pair(null, null)
+                }
                 DebugLog.w(LOGTAG, tr = e)
                 if (e.errorCode == 220) {
                     errorInfoStore[errorInfoKey, accountKey] = ErrorInfoStore.CODE_NO_ACCESS_FOR_CREDENTIALS
@@ -117,6 +136,11 @@ abstract class GetActivitiesTask(
         bus.post(GetActivitiesTaskEvent(contentUri, true, null))
     }
 
+    private fun recordArrivals(accountKey: UserKey, newItems: Int) {
+        val type = autoRefreshType ?: return
+        refreshPlanner.recordRefresh(type, accountKey, newItems)
+    }
+
     @Throws(MicroBlogException::class)
     protected abstract fun getActivities(account: AccountDetails, paging: Paging): GetTimelineResult<ParcelableActivity>
 
@@ -136,7 +160,6 @@ abstract class GetActivitiesTask(
             // Get id diff of first and last item
             val sortDiff = firstSortId - lastSortId
             activities.forEachIndexed { i, activity ->
-                mediaPreloader.preloadActivity(activity)
                 activity.position_key = GetStatusesTask.getPositionKey(activity.timestamp,
                         activity.timestamp, lastSortId, sortDiff, i, activities.size)
                 if (deleteBound[0] < 0) {
@@ -159,6 +182,7 @@ abstract class GetActivitiesTask(
                         .create(activity))
             }
         }
+        mediaPreloader.preloadActivities("$contentUri|${details.key}", activities)
         var olderCount = -1
         if (minPositionKey > 0) {
             olderCount = DataStoreUtils.getActivitiesCount(context, preferences, contentUri,
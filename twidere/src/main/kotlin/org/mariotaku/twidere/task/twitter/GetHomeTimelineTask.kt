@@ -28,10 +28,12 @@ import org.mariotaku.microblog.library.mastodon.Mastodon
 import org.mariotaku.microblog.library.twitter.model.Paging
 import org.mariotaku.twidere.R
 import org.mariotaku.twidere.annotation.AccountType
+import org.mariotaku.twidere.annotation.AutoRefreshType
 import org.mariotaku.twidere.annotation.FilterScope
 import org.mariotaku.twidere.annotation.ReadPositionTag
 import org.mariotaku.twidere.extension.model.api.mastodon.toParcelable
 import org.mariotaku.twidere.extension.model.api.toParcelable
+import org.mariotaku.twidere.extension.model.api.toParcelables
 import org.mariotaku.twidere.extension.model.extractFanfouHashtags
 import org.mariotaku.twidere.extension.model.newMicroBlogInstance
 import org.mariotaku.twidere.fragment.HomeTimelineFragment
@@ -54,6 +56,8 @@ class GetHomeTimelineTask(context: Context) : GetStatusesTask(context) {
 
     override val errorInfoKey: String = ErrorInfoStore.KEY_HOME_TIMELINE
 
+    override val autoRefreshType: String? = AutoRefreshType.HOME_TIMELINE
+
     private val profileImageSize = context.getString(R.string.profile_image_size)
 
     @Throws(MicroBlogException::class)
@@ -75,9 +79,7 @@ class GetHomeTimelineTask(context: Context) : GetStatusesTask(context) {
             else -> {
                 val microBlog = account.newMicroBlogInstance(context, MicroBlog::class.java)
                 val timeline = microBlog.getHomeTimeline(paging)
-                val statuses = timeline.map {
-                    it.toParcelable(account, profileImageSize)
-                }
+                val statuses = timeline.toParcelables(account, profileImageSize)
                 val hashtags = if (account.type == AccountType.FANFOU) statuses.flatMap { status ->
                     return@flatMap status.extractFanfouHashtags()
                 } else timeline.flatMap { status ->
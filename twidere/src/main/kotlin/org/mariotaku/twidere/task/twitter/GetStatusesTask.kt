@@ -16,6 +16,7 @@ import org.mariotaku.twidere.R
 import org.mariotaku.twidere.TwidereConstants.LOGTAG
 import org.mariotaku.twidere.TwidereConstants.QUERY_PARAM_NOTIFY_CHANGE
 import org.mariotaku.twidere.annotation.AccountType
+import org.mariotaku.twidere.annotation.AutoRefreshType
 import org.mariotaku.twidere.annotation.FilterScope
 import org.mariotaku.twidere.constant.loadItemLimitKey
 import org.mariotaku.twidere.exception.AccountNotFoundException
@@ -37,6 +38,7 @@ import org.mariotaku.twidere.util.DebugLog
 import org.mariotaku.twidere.util.ErrorInfoStore
 import org.mariotaku.twidere.util.UriUtils
 import org.mariotaku.twidere.util.content.ContentResolverUtils
+import org.mariotaku.twidere.util.refresh.ConcurrentRefresher
 import org.mariotaku.twidere.util.sync.SyncTaskRunner
 import org.mariotaku.twidere.util.sync.TimelineSyncManager
 
@@ -55,14 +57,24 @@ abstract class GetStatusesTask(
 
     protected abstract val errorInfoKey: String
 
+    /**
+     * New items arrival rate is tracked as this type for adaptive auto refresh, `null` if this
+     * timeline won't be auto refreshed
+     */
+    @AutoRefreshType
+    protected open val autoRefreshType: String? = null
+
     override fun doLongOperation(param: RefreshTaskParam): List<Pair<GetTimelineResult<ParcelableStatus>?, Exception?>> {
         if (param.shouldAbort) return emptyList()
         val accountKeys = param.accountKeys.takeIf { it.isNotEmpty() } ?: return emptyList()
         val loadItemLimit = preferences[loadItemLimitKey]
-        val result = accountKeys.mapIndexed { i, accountKey ->
+        val am = AccountManager.get(context)
+        val accounts = accountKeys.map { AccountUtils.getAccountDetails(am, it, true) }
+        // Accounts on the same API host are throttled together
+        val result = ConcurrentRefresher().map(accounts, { it?.credentials?.api_url_format }) { i, details ->
+            val accountKey = accountKeys[i]
             try {
-                val account = AccountUtils.getAccountDetails(AccountManager.get(context),
-                        accountKey, true) ?: throw AccountNotFoundException()
+                val account = details ?: throw AccountNotFoundException()
                 val paging = Paging()
                 paging.applyLoadLimit(account, loadItemLimit)
                 val maxId = param.getMaxId(i)
@@ -93,17 +105,28 @@ abstract class GetStatusesTask(
                 if (storeResult != 0) {
                     throw GetTimelineException(storeResult)
                 }
-                return@mapIndexed Pair(timelineResult, null)
+                if (sinceId != null && maxId == null) {
+                    recordArrivals(accountKey, timelineResult.data.count { it.id != sinceId })
+                }
+                return@map Pair(timelineResult, null)
             } catch (e: MicroBlogException) {
+                if (e.statusCode == 304) {
+                    // Not modified since last refresh
+                    errorInfoStore.remove(errorInfoKey, accountKey.id)
+                    if (param.getSinceId(i) != null && param.getMaxId(i) == null) {
+                        recordArrivals(accountKey, 0)
+                    }
+                    return@map Pair(null, null)
+                }
                 DebugLog.w(LOGTAG, tr = e)
                 if (e.isCausedByNetworkIssue) {
                     errorInfoStore[errorInfoKey, accountKey.id] = ErrorInfoStore.CODE_NETWORK_ERROR
                 } else if (e.statusCode == 401) {
                     // Unauthorized
                 }
-                return@mapIndexed Pair(null, e)
+                return@map Pair(null, e)
             } catch (e: GetTimelineException) {
-                return@mapIndexed Pair(null, e)
+                return@map Pair(null, e)
             }
         }
         val manager = timelineSyncManagerFactory.get()
@@ -128,6 +151,11 @@ abstract class GetStatusesTask(
         bus.post(GetStatusesTaskEvent(contentUri, true, null))
     }
 
+    private fun recordArrivals(accountKey: UserKey, newItems: Int) {
+        val type = autoRefreshType ?: return
+        refreshPlanner.recordRefresh(type, accountKey, newItems)
+    }
+
     @Throws(MicroBlogException::class)
     protected abstract fun getStatuses(account: AccountDetails, paging: Paging): GetTimelineResult<ParcelableStatus>
 
@@ -157,7 +185,6 @@ abstract class GetStatusesTask(
                 status.position_key = getPositionKey(status.timestamp, status.sort_id, lastSortId,
                         sortDiff, i, statuses.size)
                 status.inserted_date = System.currentTimeMillis()
-                mediaPreloader.preloadStatus(status)
                 values[i] = creator.create(status)
                 if (minIdx == -1 || status < statuses[minIdx]) {
                     minIdx = i
@@ -169,6 +196,7 @@ abstract class GetStatusesTask(
                 statusIds[i] = status.id
             }
         }
+        mediaPreloader.preloadStatuses("$uri|$accountKey", statuses)
         // Delete all rows conflicting before new data inserted.
         val accountWhere = Expression.equalsArgs(AccountSupportColumns.ACCOUNT_KEY)
         val statusWhere = Expression.inArgs(Columns.Column(Statuses.ID),
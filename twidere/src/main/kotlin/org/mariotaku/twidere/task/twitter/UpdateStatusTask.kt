@@ -25,13 +25,11 @@ import org.mariotaku.microblog.library.mastodon.Mastodon
 import org.mariotaku.microblog.library.mastodon.model.Attachment
 import org.mariotaku.microblog.library.twitter.TwitterUpload
 import org.mariotaku.microblog.library.twitter.model.ErrorInfo
-import org.mariotaku.microblog.library.twitter.model.MediaUploadResponse
 import org.mariotaku.microblog.library.twitter.model.NewMediaMetadata
 import org.mariotaku.microblog.library.twitter.model.StatusUpdate
 import org.mariotaku.restfu.http.ContentType
 import org.mariotaku.restfu.http.mime.Body
 import org.mariotaku.restfu.http.mime.FileBody
-import org.mariotaku.restfu.http.mime.SimpleBody
 import org.mariotaku.sqliteqb.library.Expression
 import org.mariotaku.twidere.R
 import org.mariotaku.twidere.TwidereConstants.*
@@ -53,13 +51,15 @@ import org.mariotaku.twidere.task.BaseAbstractTask
 import org.mariotaku.twidere.util.*
 import org.mariotaku.twidere.util.io.ContentLengthInputStream
 import org.mariotaku.twidere.util.premium.ExtraFeaturesService
+import org.mariotaku.twidere.util.refresh.ConcurrentRefresher
 import org.mariotaku.twidere.util.text.StatusTextValidator
+import org.mariotaku.twidere.util.upload.ChunkedMediaUploader
+import org.mariotaku.twidere.util.upload.UploadSessionStore
 import java.io.Closeable
 import java.io.File
 import java.io.FileNotFoundException
 import java.io.IOException
 import java.util.*
-import java.util.concurrent.TimeUnit
 
 /**
  * Update status
@@ -693,88 +693,87 @@ class UpdateStatusTask(
 
     companion object {
 
-        private val BULK_SIZE = 512 * 1024// 512 Kib
+        /**
+         * Media items of one status uploaded at the same time
+         */
+        private const val MAX_CONCURRENT_MEDIA = 3
 
         @Throws(UploadException::class)
         fun uploadMicroBlogMediaShared(context: Context, upload: TwitterUpload,
                 account: AccountDetails, media: Array<ParcelableMediaUpdate>,
                 mediaCategory: String? = null, ownerIds: Array<String>?, chucked: Boolean,
                 callback: UploadCallback?): SharedMediaUploadResult {
-            val deleteOnSuccess = ArrayList<MediaDeletionItem>()
-            val deleteAlways = ArrayList<MediaDeletionItem>()
-            val mediaIds = media.mapIndexedToArray { index, media ->
-                val resp: MediaUploadResponse
-                //noinspection TryWithIdenticalCatches
-                var body: MediaStreamBody? = null
-                try {
-                    val sizeLimit = account.getMediaSizeLimit(mediaCategory)
-                    body = getBodyFromMedia(context, media, sizeLimit, chucked,
-                            ContentLengthInputStream.ReadListener { length, position ->
-                                callback?.onUploadingProgressChanged(index, position, length)
-                            })
-                    resp = if (chucked) {
-                        uploadMediaChucked(upload, body.body, mediaCategory, ownerIds)
-                    } else {
-                        upload.uploadMedia(body.body, ownerIds)
-                    }
-                } catch (e: IOException) {
-                    throw UploadException(e).apply {
-                        this.deleteAlways = deleteAlways
-                    }
-                } catch (e: MicroBlogException) {
-                    throw UploadException(e).apply {
-                        this.deleteAlways = deleteAlways
-                    }
-                } finally {
-                    body?.close()
+            val sessionStore = if (chucked) UploadSessionStore(context).apply { trim() } else null
+            return uploadMediaConcurrently(context, account, media, mediaCategory, chucked,
+                    callback) { item, body ->
+                val resp = if (chucked) {
+                    val sessionKey = "${account.key}|${item.uri}|${body.length()}|$mediaCategory"
+                    ChunkedMediaUploader(upload, sessionStore).upload(sessionKey, body,
+                            mediaCategory, ownerIds)
+                } else {
+                    upload.uploadMedia(body, ownerIds)
                 }
-                body?.deleteOnSuccess?.addAllTo(deleteOnSuccess)
-                body?.deleteAlways?.addAllTo(deleteAlways)
-                if (media.alt_text?.isNotEmpty() == true) {
+                if (item.alt_text?.isNotEmpty() == true) {
                     try {
-                        upload.createMetadata(NewMediaMetadata(resp.id, media.alt_text))
+                        upload.createMetadata(NewMediaMetadata(resp.id, item.alt_text))
                     } catch (e: MicroBlogException) {
                         // Ignore
                     }
                 }
-                return@mapIndexedToArray resp.id
+                return@uploadMediaConcurrently resp.id
             }
-            return SharedMediaUploadResult(mediaIds, deleteOnSuccess, deleteAlways)
         }
 
         @Throws(UploadException::class)
         fun uploadMastodonMedia(context: Context, mastodon: Mastodon,
                 account: AccountDetails, media: Array<ParcelableMediaUpdate>,
                 chucked: Boolean, callback: UploadCallback?): SharedMediaUploadResult {
-            val deleteOnSuccess = ArrayList<MediaDeletionItem>()
-            val deleteAlways = ArrayList<MediaDeletionItem>()
-            val mediaIds = media.mapIndexedToArray { index, media ->
-                val resp: Attachment
-                //noinspection TryWithIdenticalCatches
-                var body: MediaStreamBody? = null
-                try {
-                    val sizeLimit = account.getMediaSizeLimit()
-                    body = getBodyFromMedia(context, media, sizeLimit, chucked,
-                            ContentLengthInputStream.ReadListener { length, position ->
-                                callback?.onUploadingProgressChanged(index, position, length)
-                            })
-                    resp = mastodon.uploadMediaAttachment(body.body)
-                } catch (e: IOException) {
-                    throw UploadException(e).apply {
-                        this.deleteAlways = deleteAlways
-                    }
-                } catch (e: MicroBlogException) {
-                    throw UploadException(e).apply {
-                        this.deleteAlways = deleteAlways
+            return uploadMediaConcurrently(context, account, media, null, chucked,
+                    callback) { _, body ->
+                val resp: Attachment = mastodon.uploadMediaAttachment(body)
+                return@uploadMediaConcurrently resp.id
+            }
+        }
+
+        /**
+         * Uploads media items at the same time, ids are returned in same order as [media]
+         */
+        @Throws(UploadException::class)
+        private fun uploadMediaConcurrently(context: Context, account: AccountDetails,
+                media: Array<ParcelableMediaUpdate>, mediaCategory: String?, chucked: Boolean,
+                callback: UploadCallback?, action: (ParcelableMediaUpdate, Body) -> String):
+                SharedMediaUploadResult {
+            val deleteOnSuccess = Collections.synchronizedList(ArrayList<MediaDeletionItem>())
+            val deleteAlways = Collections.synchronizedList(ArrayList<MediaDeletionItem>())
+            val refresher = ConcurrentRefresher(maxPerGroup = MAX_CONCURRENT_MEDIA)
+            val mediaIds = try {
+                refresher.map(media.asList(), { account.key }) { index, item ->
+                    var body: MediaStreamBody? = null
+                    try {
+                        val sizeLimit = account.getMediaSizeLimit(mediaCategory)
+                        body = getBodyFromMedia(context, item, sizeLimit, chucked,
+                                ContentLengthInputStream.ReadListener { length, position ->
+                                    if (callback != null) synchronized(callback) {
+                                        callback.onUploadingProgressChanged(index, position, length)
+                                    }
+                                })
+                        return@map action(item, body.body)
+                    } finally {
+                        body?.close()
+                        body?.deleteAlways?.let { deleteAlways.addAll(it) }
+                        body?.deleteOnSuccess?.let { deleteOnSuccess.addAll(it) }
                     }
-                } finally {
-                    body?.close()
                 }
-                body?.deleteOnSuccess?.addAllTo(deleteOnSuccess)
-                body?.deleteAlways?.addAllTo(deleteAlways)
-                return@mapIndexedToArray resp.id
+            } catch (e: IOException) {
+                throw UploadException(e).apply {
+                    this.deleteAlways = deleteAlways
+                }
+            } catch (e: MicroBlogException) {
+                throw UploadException(e).apply {
+                    this.deleteAlways = deleteAlways
+                }
             }
-            return SharedMediaUploadResult(mediaIds, deleteOnSuccess, deleteAlways)
+            return SharedMediaUploadResult(mediaIds.toTypedArray(), deleteOnSuccess, deleteAlways)
         }
 
         @Throws(IOException::class)
@@ -835,54 +834,6 @@ class UpdateStatusTask(
         }
 
 
-        @Throws(IOException::class, MicroBlogException::class)
-        private fun uploadMediaChucked(upload: TwitterUpload, body: Body,
-                mediaCategory: String? = null, ownerIds: Array<String>?): MediaUploadResponse {
-            val mediaType = body.contentType().contentType
-            val length = body.length()
-            val stream = body.stream()
-            var response = upload.initUploadMedia(mediaType, length, mediaCategory, ownerIds)
-            val segments = if (length == 0L) 0 else (length / BULK_SIZE + 1).toInt()
-            for (segmentIndex in 0 until segments) {
-                val currentBulkSize = Math.min(BULK_SIZE.toLong(), length - segmentIndex * BULK_SIZE).toInt()
-                val bulk = SimpleBody(ContentType.OCTET_STREAM, null, currentBulkSize.toLong(),
-                        stream)
-                upload.appendUploadMedia(response.id, segmentIndex, bulk)
-            }
-            response = upload.finalizeUploadMedia(response.id)
-            var info: MediaUploadResponse.ProcessingInfo? = response.processingInfo
-            while (info != null && shouldWaitForProcess(info)) {
-                val checkAfterSecs = info.checkAfterSecs
-                if (checkAfterSecs <= 0) {
-                    break
-                }
-                try {
-                    Thread.sleep(TimeUnit.SECONDS.toMillis(checkAfterSecs))
-                } catch (e: InterruptedException) {
-                    break
-                }
-
-                response = upload.getUploadMediaStatus(response.id)
-                info = response.processingInfo
-            }
-            if (info != null && MediaUploadResponse.ProcessingInfo.State.FAILED == info.state) {
-                val exception = MicroBlogException()
-                val errorInfo = info.error
-                if (errorInfo != null) {
-                    exception.errors = arrayOf(errorInfo)
-                }
-                throw exception
-            }
-            return response
-        }
-
-        private fun shouldWaitForProcess(info: MediaUploadResponse.ProcessingInfo): Boolean {
-            when (info.state) {
-                MediaUploadResponse.ProcessingInfo.State.PENDING, MediaUploadResponse.ProcessingInfo.State.IN_PROGRESS -> return true
-                else -> return false
-            }
-        }
-
         private fun imageStream(
                 context: Context,
                 resolver: ContentResolver,
@@ -36,6 +36,7 @@ import org.mariotaku.sqliteqb.library.Expression
 import org.mariotaku.twidere.R
 import org.mariotaku.twidere.TwidereConstants.QUERY_PARAM_SHOW_NOTIFICATION
 import org.mariotaku.twidere.annotation.AccountType
+import org.mariotaku.twidere.annotation.AutoRefreshType
 import org.mariotaku.twidere.extension.model.*
 import org.mariotaku.twidere.extension.model.api.toParcelable
 import org.mariotaku.twidere.extension.queryCount
@@ -57,6 +58,7 @@ import org.mariotaku.twidere.task.BaseAbstractTask
 import org.mariotaku.twidere.util.DataStoreUtils
 import org.mariotaku.twidere.util.UriUtils
 import org.mariotaku.twidere.util.content.ContentResolverUtils
+import org.mariotaku.twidere.util.refresh.ConcurrentRefresher
 import java.util.*
 
 /**
@@ -68,23 +70,29 @@ class GetMessagesTask(
 ) : BaseAbstractTask<GetMessagesTask.RefreshMessagesTaskParam, Unit, (Boolean) -> Unit>(context) {
 
     private val profileImageSize = context.getString(R.string.profile_image_size)
+    private val refresher = ConcurrentRefresher()
 
     override fun doLongOperation(param: RefreshMessagesTaskParam) {
         val accountKeys = param.accountKeys
         val am = android.accounts.AccountManager.get(context)
-        accountKeys.forEachIndexed { i, accountKey ->
-            val details = try {
-                getAccountDetails(am, accountKey, true) ?: return@forEachIndexed
-            } catch (e: LoganSquareMapperFinder.ClassLoaderDeadLockException) {
-                return
-            }
+        val accounts = try {
+            accountKeys.map { getAccountDetails(am, it, true) }
+        } catch (e: LoganSquareMapperFinder.ClassLoaderDeadLockException) {
+            return
+        }
+        refresher.map(accounts, { it?.credentials?.api_url_format }) { i, details ->
+            if (details == null) return@map
             val microBlog = details.newMicroBlogInstance(context, cls = MicroBlog::class.java)
             val messages = try {
                 getMessages(microBlog, details, param, i)
             } catch (e: MicroBlogException) {
-                return@forEachIndexed
+                return@map
             }
             storeMessages(context, messages, details, param.showNotification)
+            if (param is RefreshNewTaskParam) {
+                refreshPlanner.recordRefresh(AutoRefreshType.DIRECT_MESSAGES, details.key,
+                        messages.messages.size)
+            }
         }
     }
 
@@ -145,28 +153,26 @@ class GetMessagesTask(
 
         val updateLastRead = param.hasMaxIds || firstFetch
 
-        val received = microBlog.getDirectMessages(Paging().apply {
-            count(100)
-            val maxId = receivedPagination?.maxId
-            val sinceId = receivedPagination?.sinceId
-            if (maxId != null) {
-                maxId(maxId)
-            }
-            if (sinceId != null) {
-                sinceId(sinceId)
-            }
-        })
-        val sent = microBlog.getSentDirectMessages(Paging().apply {
-            count(100)
-            val maxId = sincePagination?.maxId
-            val sinceId = sincePagination?.sinceId
-            if (maxId != null) {
-                maxId(maxId)
+        // Received and sent messages are independent, fetch them at the same time
+        val (received, sent) = refresher.map(listOf(false, true), { it }) { _, outgoing ->
+            val pagination = if (outgoing) sincePagination else receivedPagination
+            val paging = Paging().apply {
+                count(100)
+                val maxId = pagination?.maxId
+                val sinceId = pagination?.sinceId
+                if (maxId != null) {
+                    maxId(maxId)
+                }
+                if (sinceId != null) {
+                    sinceId(sinceId)
+                }
             }
-            if (sinceId != null) {
-                sinceId(sinceId)
+            return@map if (outgoing) {
+                microBlog.getSentDirectMessages(paging)
+            } else {
+                microBlog.getDirectMessages(paging)
             }
-        })
+        }
 
 
         val insertMessages = arrayListOf<ParcelableMessage>()
@@ -18,6 +18,7 @@ import org.mariotaku.twidere.model.account.cred.EmptyCredentials
 import org.mariotaku.twidere.model.account.cred.OAuthCredentials
 import org.mariotaku.twidere.model.util.AccountUtils
 import org.mariotaku.twidere.provider.TwidereDataStore.Accounts
+import org.mariotaku.twidere.util.cache.AccountDetailsCache
 
 /**
  * Migrate legacy credentials to system account framework
@@ -53,6 +54,7 @@ fun migrateAccounts(am: AccountManager, db: SQLiteDatabase) {
             }))
             am.setUserData(account, ACCOUNT_USER_DATA_EXTRAS, credentials.account_extras)
             am.setAuthToken(account, ACCOUNT_AUTH_TOKEN_TYPE, JsonSerializer.serialize(credentials.toCredentials()))
+            AccountDetailsCache.invalidate(account)
             cur.moveToNext()
         }
     }
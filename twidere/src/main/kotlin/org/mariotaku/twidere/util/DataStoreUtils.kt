@@ -25,6 +25,7 @@ import android.database.Cursor
 import android.net.Uri
 import android.os.Bundle
 import android.os.Parcelable
+import android.os.SystemClock
 import android.provider.BaseColumns
 import android.support.annotation.WorkerThread
 import android.text.TextUtils
@@ -37,13 +38,11 @@ import org.mariotaku.microblog.library.mastodon.Mastodon
 import org.mariotaku.microblog.library.twitter.model.Activity
 import org.mariotaku.sqliteqb.library.*
 import org.mariotaku.sqliteqb.library.Columns.Column
-import org.mariotaku.sqliteqb.library.query.SQLSelectQuery
 import org.mariotaku.twidere.R
 import org.mariotaku.twidere.TwidereConstants.*
 import org.mariotaku.twidere.annotation.AccountType
 import org.mariotaku.twidere.annotation.FilterScope
 import org.mariotaku.twidere.constant.IntentConstants
-import org.mariotaku.twidere.constant.databaseItemLimitKey
 import org.mariotaku.twidere.constant.filterPossibilitySensitiveStatusesKey
 import org.mariotaku.twidere.constant.filterUnavailableQuoteStatusesKey
 import org.mariotaku.twidere.extension.model.*
@@ -62,6 +61,9 @@ import org.mariotaku.twidere.provider.TwidereDataStore
 import org.mariotaku.twidere.provider.TwidereDataStore.*
 import org.mariotaku.twidere.provider.TwidereDataStore.Messages.Conversations
 import org.mariotaku.twidere.util.content.ContentResolverUtils
+import org.mariotaku.twidere.util.dagger.DependencyHolder
+import org.mariotaku.twidere.util.database.DatabasePruner
+import org.mariotaku.twidere.util.filter.ContentFilterEngine
 import java.io.IOException
 import java.util.*
 
@@ -479,72 +481,13 @@ object DataStoreUtils {
         return getTableNameById(getTableId(uri))
     }
 
+    /**
+     * Filter rules are evaluated at insert time by [ContentFilterEngine], so matching
+     * against rules is a bitmask check on [Statuses.FILTERED_SCOPES].
+     */
     fun buildStatusFilterWhereClause(preferences: SharedPreferences, table: String,
             extraSelection: Expression?, @FilterScope filterScopes: Int): Expression {
 
-        fun ScopeMatchesExpression(scopeTable: String, scopeField: String) = Expression.or(
-                Expression.equals("$scopeTable.$scopeField & ${FilterScope.MASK_SCOPE}", 0),
-                Expression.notEquals("$scopeTable.$scopeField & $filterScopes", 0)
-        )
-
-        fun ContainsExpression(dataField: String, filterTable: String, filterField: String) =
-                Expression.likeRaw(Column(Table(table), dataField), "'%'||$filterTable.$filterField||'%'")
-
-        fun LineContainsExpression(dataField: String, filterTable: String, filterField: String) =
-                Expression.likeRaw(Column(Table(table), dataField), "'\\%'||$filterTable.$filterField||'%\\'")
-
-        fun LineMatchExpression(dataField: String, filterTable: String, filterField: String) =
-                Expression.likeRaw(Column(Table(table), dataField), "'%\\'||$filterTable.$filterField||'\\%'")
-
-        val filteredUsersWhere = Expression.and(
-                ScopeMatchesExpression(Filters.Users.TABLE_NAME, Filters.Users.SCOPE),
-                LineMatchExpression(Statuses.FILTER_USERS, Filters.Users.TABLE_NAME, Filters.Users.USER_KEY)
-        )
-        val filteredSourcesWhere = Expression.and(
-                ScopeMatchesExpression(Filters.Sources.TABLE_NAME, Filters.Sources.SCOPE),
-                LineMatchExpression(Statuses.FILTER_SOURCES, Filters.Sources.TABLE_NAME, Filters.Sources.VALUE)
-        )
-        val filteredTextKeywordsWhere = Expression.or(
-                Expression.and(
-                        Expression.or(
-                                Expression.equals("${Filters.Keywords.TABLE_NAME}.${Filters.Keywords.SCOPE} & ${FilterScope.MASK_TARGET}", 0),
-                                Expression.notEquals("${Filters.Keywords.TABLE_NAME}.${Filters.Keywords.SCOPE} & ${FilterScope.TARGET_TEXT}", 0)
-                        ),
-                        ScopeMatchesExpression(Filters.Keywords.TABLE_NAME, Filters.Keywords.SCOPE),
-                        ContainsExpression(Statuses.FILTER_TEXTS, Filters.Keywords.TABLE_NAME, Filters.Keywords.VALUE)
-                ),
-                Expression.and(
-                        Expression.notEquals("${Filters.Keywords.TABLE_NAME}.${Filters.Keywords.SCOPE} & ${FilterScope.TARGET_NAME}", 0),
-                        ScopeMatchesExpression(Filters.Keywords.TABLE_NAME, Filters.Keywords.SCOPE),
-                        LineMatchExpression(Statuses.FILTER_NAMES, Filters.Keywords.TABLE_NAME, Filters.Keywords.VALUE)
-                ),
-                Expression.and(
-                        Expression.notEquals("${Filters.Keywords.TABLE_NAME}.${Filters.Keywords.SCOPE} & ${FilterScope.TARGET_DESCRIPTION}", 0),
-                        ScopeMatchesExpression(Filters.Keywords.TABLE_NAME, Filters.Keywords.SCOPE),
-                        ContainsExpression(Statuses.FILTER_DESCRIPTIONS, Filters.Keywords.TABLE_NAME, Filters.Keywords.VALUE)
-                )
-        )
-        val filteredLinksWhere = Expression.and(
-                ScopeMatchesExpression(Filters.Links.TABLE_NAME, Filters.Links.SCOPE),
-                LineContainsExpression(Statuses.FILTER_LINKS, Filters.Links.TABLE_NAME, Filters.Links.VALUE)
-        )
-        val filteredIdsQueryBuilder = SQLQueryBuilder
-                .select(Column(Table(table), Statuses._ID))
-                .from(Tables(table, Filters.Users.TABLE_NAME))
-                .where(filteredUsersWhere)
-                .union()
-                .select(Columns(Column(Table(table), Statuses._ID)))
-                .from(Tables(table, Filters.Sources.TABLE_NAME))
-                .where(filteredSourcesWhere)
-                .union()
-                .select(Columns(Column(Table(table), Statuses._ID)))
-                .from(Tables(table, Filters.Keywords.TABLE_NAME))
-                .where(filteredTextKeywordsWhere)
-                .union()
-                .select(Columns(Column(Table(table), Statuses._ID)))
-                .from(Tables(table, Filters.Links.TABLE_NAME))
-                .where(filteredLinksWhere)
-
         var filterFlags: Long = 0
         if (preferences[filterUnavailableQuoteStatusesKey]) {
             filterFlags = filterFlags or ParcelableStatus.FilterFlags.QUOTE_NOT_AVAILABLE
@@ -556,7 +499,7 @@ object DataStoreUtils {
         val filterExpression = Expression.or(
                 Expression.and(
                         Expression.equals("${Statuses.FILTER_FLAGS} & $filterFlags", 0),
-                        Expression.notIn(Column(Table(table), Statuses._ID), filteredIdsQueryBuilder.build())
+                        Expression.equals("${Statuses.FILTERED_SCOPES} & ${filterScopes and FilterScope.MASK_SCOPE}", 0)
                 ),
                 Expression.equals(Column(Table(table), Statuses.IS_GAP), 1)
         )
@@ -615,59 +558,23 @@ object DataStoreUtils {
         return AccountUtils.getAccounts(AccountManager.get(context)).isNotEmpty()
     }
 
+    /**
+     * Deletes timeline and cache rows beyond item limit incrementally, see [DatabasePruner]
+     */
     @Synchronized
-    fun cleanDatabasesByItemLimit(context: Context) {
-        val resolver = context.contentResolver
-        val preferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE)
-        val itemLimit = preferences[databaseItemLimitKey]
-
-        for (accountKey in getAccountKeys(context)) {
-            // Clean statuses.
-            for (uri in STATUSES_URIS) {
-                if (CachedStatuses.CONTENT_URI == uri) {
-                    continue
-                }
-                val table = getTableNameByUri(uri)
-                val qb = SQLSelectQuery.Builder()
-                qb.select(Column(Statuses._ID))
-                        .from(Tables(table))
-                        .where(Expression.equalsArgs(Statuses.ACCOUNT_KEY))
-                        .orderBy(OrderBy(Statuses.POSITION_KEY, false))
-                        .limit(itemLimit)
-                val where = Expression.and(
-                        Expression.notIn(Column(Statuses._ID), qb.build()),
-                        Expression.equalsArgs(Statuses.ACCOUNT_KEY)
-                )
-                val whereArgs = arrayOf(accountKey.toString(), accountKey.toString())
-                resolver.delete(uri, where.sql, whereArgs)
-            }
-            for (uri in ACTIVITIES_URIS) {
-                val table = getTableNameByUri(uri)
-                val qb = SQLSelectQuery.Builder()
-                qb.select(Column(Activities._ID))
-                        .from(Tables(table))
-                        .where(Expression.equalsArgs(Activities.ACCOUNT_KEY))
-                        .orderBy(OrderBy(Activities.TIMESTAMP, false))
-                        .limit(itemLimit)
-                val where = Expression.and(
-                        Expression.notIn(Column(Activities._ID), qb.build()),
-                        Expression.equalsArgs(Activities.ACCOUNT_KEY)
-                )
-                val whereArgs = arrayOf(accountKey.toString(), accountKey.toString())
-                resolver.delete(uri, where.sql, whereArgs)
-            }
-        }
-        // Clean cached values.
-        for (uri in CACHE_URIS) {
-            val table = getTableNameByUri(uri) ?: continue
-            val qb = SQLSelectQuery.Builder()
-            qb.select(Column(BaseColumns._ID))
-                    .from(Tables(table))
-                    .orderBy(OrderBy(BaseColumns._ID, false))
-                    .limit(itemLimit * 20)
-            val where = Expression.notIn(Column(BaseColumns._ID), qb.build())
-            resolver.delete(uri, where.sql, null)
-        }
+    @WorkerThread
+    fun cleanDatabasesByItemLimit(context: Context): DatabasePruner.Result {
+        val start = SystemClock.elapsedRealtime()
+        // Pruned in provider, which notifies observers and invalidates its indices
+        val bundle = context.contentResolver.call(TwidereDataStore.BASE_CONTENT_URI,
+                METHOD_PRUNE_DATABASES, null, null)
+        val deletedRows = bundle?.keySet()?.associate { Pair(it, bundle.getInt(it)) }.orEmpty()
+        val result = DatabasePruner.Result(deletedRows, SystemClock.elapsedRealtime() - start)
+        if (result.total > 0) {
+            // Don't let `304 Not Modified` stand for rows no longer there
+            DependencyHolder.get(context).conditionalRequestCache.clear()
+        }
+        return result
     }
 
     fun isFilteringUser(context: Context, userKey: UserKey): Boolean {
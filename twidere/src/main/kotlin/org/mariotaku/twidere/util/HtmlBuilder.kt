@@ -24,19 +24,30 @@ import org.mariotaku.twidere.model.SpanItem
 import java.util.*
 
 class HtmlBuilder(
-        private val source: CodePointArray,
+        source: CodePointArray,
         private val throwExceptions: Boolean,
         private val sourceIsEscaped: Boolean,
         private val shouldReEscape: Boolean
 ) {
 
-    private val sourceLength = source.length()
+    private var source = source
+    private var sourceLength = source.length()
 
     private val spanSpecs = ArrayList<SpanSpec>()
+    private val sb = StringBuilder()
 
     constructor(source: String, strict: Boolean, sourceIsEscaped: Boolean, shouldReEscape: Boolean)
             : this(CodePointArray(source), strict, sourceIsEscaped, shouldReEscape)
 
+    /**
+     * Clears added links and starts over with [source], so a builder can be reused
+     */
+    fun reset(source: CodePointArray) {
+        this.source = source
+        this.sourceLength = source.length()
+        spanSpecs.clear()
+    }
+
     fun addLink(link: String, display: String, start: Int, end: Int,
             displayIsHtml: Boolean = false): Boolean {
         if (start < 0 || end < 0 || start > end || end > sourceLength) {
@@ -59,7 +70,8 @@ class HtmlBuilder(
     fun buildWithIndices(): Pair<String, Array<SpanItem>> {
         if (spanSpecs.isEmpty()) return Pair(escapeSource(), emptyArray())
         Collections.sort(spanSpecs)
-        val sb = StringBuilder()
+        val sb = this.sb
+        sb.setLength(0)
         val linksSize = spanSpecs.size
         val items = arrayOfNulls<SpanItem>(linksSize)
         for (i in 0 until linksSize) {
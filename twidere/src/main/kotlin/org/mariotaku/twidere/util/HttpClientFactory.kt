@@ -14,8 +14,15 @@ import org.mariotaku.restfu.http.RestHttpClient
 import org.mariotaku.restfu.okhttp3.OkHttpRestClient
 import org.mariotaku.twidere.constant.SharedPreferenceConstants.*
 import org.mariotaku.twidere.constant.cacheSizeLimitKey
+import org.mariotaku.twidere.util.api.ApiClientRegistry
+import org.mariotaku.twidere.util.cache.ConditionalRequestCache
 import org.mariotaku.twidere.util.dagger.DependencyHolder
 import org.mariotaku.twidere.util.net.TLSSocketFactory
+import org.mariotaku.twidere.util.okhttp.ConditionalRequestInterceptor
+import org.mariotaku.twidere.util.okhttp.PerformanceInterceptor
+import org.mariotaku.twidere.util.okhttp.RateLimitInterceptor
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
+import org.mariotaku.twidere.util.refresh.RateLimitTracker
 import java.io.IOException
 import java.net.InetSocketAddress
 import java.net.Proxy
@@ -33,9 +40,17 @@ import javax.net.ssl.X509TrustManager
 object HttpClientFactory {
 
     fun createRestHttpClient(conf: HttpClientConfiguration, dns: Dns, connectionPool: ConnectionPool,
-            cache: Cache): RestHttpClient {
+            cache: Cache, conditionalRequestCache: ConditionalRequestCache? = null,
+            rateLimitTracker: RateLimitTracker? = null): RestHttpClient {
         val builder = OkHttpClient.Builder()
         initOkHttpClient(conf, builder, dns, connectionPool, cache)
+        if (conditionalRequestCache != null) {
+            builder.addInterceptor(ConditionalRequestInterceptor(conditionalRequestCache))
+        }
+        if (rateLimitTracker != null) {
+            builder.addInterceptor(RateLimitInterceptor(rateLimitTracker))
+        }
+        builder.addInterceptor(PerformanceInterceptor(PerformanceMonitor.HTTP))
         return OkHttpRestClient(builder.build())
     }
 
@@ -58,7 +73,11 @@ object HttpClientFactory {
         val builder = OkHttpClient.Builder()
         initOkHttpClient(HttpClientConfiguration(holder.preferences), builder, holder.dns,
                 holder.connectionPool, holder.cache)
+        builder.addInterceptor(ConditionalRequestInterceptor(holder.conditionalRequestCache))
+        builder.addInterceptor(RateLimitInterceptor(holder.rateLimitTracker))
+        builder.addInterceptor(PerformanceInterceptor(PerformanceMonitor.HTTP))
         client.client = builder.build()
+        ApiClientRegistry.clear()
     }
 
     /**
@@ -0,0 +1,283 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util
+
+import android.support.v4.util.AtomicFile
+import java.io.*
+import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Timeline positions kept in memory. Changes made within [flushDelay] are written together,
+ * appended to a binary journal, instead of rewriting whole file for every change.
+ *
+ * Journal is compacted once it contains much more records than positions. Incomplete record
+ * left by an interrupted write is truncated on load, so later records can be appended safely.
+ */
+class ReadPositionStore(
+        file: File,
+        private val executor: ScheduledExecutorService = defaultExecutor,
+        private val flushDelay: Long = DEFAULT_FLUSH_DELAY
+) {
+
+    private val journal = AtomicFile(file)
+
+    private val positions = HashMap<String, Long>()
+    private val dirty = LinkedHashMap<String, Long>()
+    private val listeners = CopyOnWriteArrayList<Pair<String, (String, Long) -> Unit>>()
+
+    private var loaded = false
+    private var journalRecords = 0
+    private var scheduledFlush: Future<*>? = null
+
+    /**
+     * Number of times journal written, for diagnostics
+     */
+    @Volatile
+    var writeCount: Int = 0
+        private set
+
+    operator fun get(key: String): Long {
+        synchronized(this) {
+            ensureLoaded()
+            return positions[key] ?: -1
+        }
+    }
+
+    /**
+     * Negative [position] removes [key]
+     */
+    operator fun set(key: String, position: Long) {
+        if (position < 0) {
+            remove(key)
+            return
+        }
+        synchronized(this) {
+            ensureLoaded()
+            if (positions.put(key, position) == position) return
+            dirty[key] = position
+            scheduleFlush()
+        }
+        notifyChanged(key, position)
+    }
+
+    fun remove(key: String) {
+        synchronized(this) {
+            ensureLoaded()
+            if (positions.remove(key) == null) return
+            dirty[key] = REMOVED
+            scheduleFlush()
+        }
+        notifyChanged(key, REMOVED)
+    }
+
+    fun keys(prefix: String): List<String> {
+        synchronized(this) {
+            ensureLoaded()
+            return positions.keys.filter { it.startsWith(prefix) }
+        }
+    }
+
+    fun isEmpty(): Boolean {
+        synchronized(this) {
+            ensureLoaded()
+            return positions.isEmpty()
+        }
+    }
+
+    /**
+     * @param listener Called with new position, or `-1` if removed, on thread making the change
+     */
+    fun addListener(prefix: String, listener: (key: String, position: Long) -> Unit) {
+        listeners.add(Pair(prefix, listener))
+    }
+
+    fun removeListener(listener: (key: String, position: Long) -> Unit) {
+        listeners.removeAll(listeners.filter { it.second == listener })
+    }
+
+    /**
+     * Writes pending changes to journal now
+     */
+    fun flush() {
+        val changes = synchronized(this) {
+            scheduledFlush?.cancel(false)
+            scheduledFlush = null
+            if (dirty.isEmpty()) return
+            val pending = dirty.entries.map { Pair(it.key, it.value) }
+            dirty.clear()
+            return@synchronized pending
+        }
+        synchronized(journal) {
+            try {
+                if (shouldCompact(changes.size)) {
+                    compact()
+                } else {
+                    append(changes)
+                }
+                writeCount++
+            } catch (e: IOException) {
+                DebugLog.w(msg = "Unable to write read positions", tr = e)
+            }
+        }
+    }
+
+    /**
+     * Writes pending changes on [executor], used when app goes to background
+     */
+    fun flushAsync() {
+        synchronized(this) {
+            if (dirty.isEmpty()) return
+        }
+        executor.execute { flush() }
+    }
+
+    private fun notifyChanged(key: String, position: Long) {
+        listeners.forEach { (prefix, listener) ->
+            if (key.startsWith(prefix)) listener(key, position)
+        }
+    }
+
+    private fun scheduleFlush() {
+        if (scheduledFlush != null) return
+        scheduledFlush = executor.schedule({ flush() }, flushDelay, TimeUnit.MILLISECONDS)
+    }
+
+    private fun shouldCompact(pendingRecords: Int): Boolean {
+        synchronized(this) {
+            val records = journalRecords + pendingRecords
+            return records > COMPACT_MIN_RECORDS && records > positions.size * 2
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun append(changes: List<Pair<String, Long>>) {
+        val file = journal.baseFile
+        val isNew = !file.exists() || file.length() == 0L
+        DataOutputStream(BufferedOutputStream(FileOutputStream(file, true))).use { output ->
+            if (isNew) output.writeInt(MAGIC)
+            changes.forEach { (key, position) -> output.writeRecord(key, position) }
+        }
+        synchronized(this) { journalRecords += changes.size }
+    }
+
+    @Throws(IOException::class)
+    private fun compact() {
+        val snapshot = synchronized(this) { HashMap(positions) }
+        val stream = journal.startWrite()
+        try {
+            val output = DataOutputStream(BufferedOutputStream(stream))
+            output.writeInt(MAGIC)
+            snapshot.forEach { (key, position) -> output.writeRecord(key, position) }
+            output.flush()
+            journal.finishWrite(stream)
+        } catch (e: IOException) {
+            journal.failWrite(stream)
+            throw e
+        }
+        synchronized(this) { journalRecords = snapshot.size }
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        loaded = true
+        val counter = try {
+            CountingInputStream(BufferedInputStream(journal.openRead()))
+        } catch (e: FileNotFoundException) {
+            return
+        }
+        // Length of journal up to last complete record
+        var validLength = 0L
+        DataInputStream(counter).use {
+            try {
+                if (it.readInt() != MAGIC) return
+                validLength = counter.count
+                while (true) {
+                    val key = it.readUTF()
+                    val position = it.readLong()
+                    if (position == REMOVED) {
+                        positions.remove(key)
+                    } else {
+                        positions[key] = position
+                    }
+                    journalRecords++
+                    validLength = counter.count
+                }
+            } catch (e: EOFException) {
+                // End of journal, or last record incomplete
+            } catch (e: IOException) {
+                DebugLog.w(msg = "Unable to read read positions", tr = e)
+            }
+        }
+        val file = journal.baseFile
+        if (file.length() <= validLength) return
+        // Records appended after a torn one would never be read
+        try {
+            RandomAccessFile(file, "rw").use { it.setLength(validLength) }
+        } catch (e: IOException) {
+            DebugLog.w(msg = "Unable to truncate read positions", tr = e)
+        }
+    }
+
+    private fun DataOutputStream.writeRecord(key: String, position: Long) {
+        writeUTF(key)
+        writeLong(position)
+    }
+
+    private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+
+        var count: Long = 0
+            private set
+
+        override fun read(): Int {
+            val b = super.read()
+            if (b >= 0) count++
+            return b
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val read = super.read(b, off, len)
+            if (read > 0) count += read
+            return read
+        }
+
+        override fun skip(n: Long): Long {
+            val skipped = super.skip(n)
+            count += skipped
+            return skipped
+        }
+
+        override fun markSupported() = false
+    }
+
+    companion object {
+        private const val MAGIC = 0x52505331 // RPS1
+        private const val REMOVED = -1L
+        private const val COMPACT_MIN_RECORDS = 256
+        private const val DEFAULT_FLUSH_DELAY = 2000L
+
+        private val defaultExecutor by lazy { Executors.newSingleThreadScheduledExecutor() }
+    }
+}
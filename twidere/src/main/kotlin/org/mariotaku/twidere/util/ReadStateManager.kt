@@ -20,41 +20,78 @@
 package org.mariotaku.twidere.util
 
 import android.content.Context
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener
 import android.text.TextUtils
 import org.mariotaku.twidere.TwidereConstants.TIMELINE_POSITIONS_PREFERENCES_NAME
 import org.mariotaku.twidere.annotation.CustomTabType
 import org.mariotaku.twidere.annotation.NotificationType
 import org.mariotaku.twidere.annotation.ReadPositionTag
+import java.io.File
 
 class ReadStateManager(context: Context) {
 
-    private val preferences = context.getSharedPreferences(TIMELINE_POSITIONS_PREFERENCES_NAME,
-            Context.MODE_PRIVATE)
+    private val positionStoreLazy = lazy {
+        val store = ReadPositionStore(File(context.filesDir, READ_POSITIONS_FILE_NAME))
+        migrateLegacyPositions(context, store)
+        return@lazy store
+    }
+
+    /**
+     * Shared with [org.mariotaku.twidere.util.sync.TimelineSyncManager], read positions are
+     * stored with [POSITION_PREFIX]
+     */
+    val positionStore: ReadPositionStore by positionStoreLazy
 
     fun getPosition(key: String): Long {
         if (TextUtils.isEmpty(key)) return -1
-        return preferences.getLong(key, -1)
+        return positionStore[POSITION_PREFIX + key]
     }
 
-    fun registerOnSharedPreferenceChangeListener(listener: OnSharedPreferenceChangeListener) {
-        preferences.registerOnSharedPreferenceChangeListener(listener)
+    /**
+     * @param listener Called with prefixed key and new position
+     */
+    fun registerOnPositionChangedListener(listener: (key: String, position: Long) -> Unit) {
+        positionStore.addListener(POSITION_PREFIX, listener)
     }
 
-    fun unregisterOnSharedPreferenceChangeListener(listener: OnSharedPreferenceChangeListener) {
-        preferences.unregisterOnSharedPreferenceChangeListener(listener)
+    fun unregisterOnPositionChangedListener(listener: (key: String, position: Long) -> Unit) {
+        positionStore.removeListener(listener)
     }
 
     fun setPosition(key: String, position: Long, acceptOlder: Boolean = false): Boolean {
         if (TextUtils.isEmpty(key) || !acceptOlder && getPosition(key) >= position) return false
-        val editor = preferences.edit()
-        editor.putLong(key, position)
-        editor.apply()
+        positionStore[POSITION_PREFIX + key] = position
         return true
     }
 
+    /**
+     * Writes pending positions in background, call when app is no longer visible
+     */
+    fun flush() {
+        if (!positionStoreLazy.isInitialized()) return
+        positionStore.flushAsync()
+    }
+
+    fun clearPositions() {
+        positionStore.keys(POSITION_PREFIX).forEach { positionStore.remove(it) }
+    }
+
+    private fun migrateLegacyPositions(context: Context, store: ReadPositionStore) {
+        val preferences = context.getSharedPreferences(TIMELINE_POSITIONS_PREFERENCES_NAME,
+                Context.MODE_PRIVATE)
+        val legacy = preferences.all
+        if (legacy.isEmpty()) return
+        legacy.forEach { (key, value) ->
+            if (value is Long) store[POSITION_PREFIX + key] = value
+        }
+        store.flush()
+        preferences.edit().clear().apply()
+    }
+
     companion object {
 
+        const val POSITION_PREFIX = "position:"
+        private const val READ_POSITIONS_FILE_NAME = "read_positions.journal"
+
         @ReadPositionTag
         fun getReadPositionTagForNotificationType(@NotificationType notificationType: String?): String? {
             if (notificationType == null) return null
@@ -11,7 +11,9 @@ import org.mariotaku.kpreferences.get
 import org.mariotaku.ktextension.mapToArray
 import org.mariotaku.ktextension.toNulls
 import org.mariotaku.twidere.TwidereConstants.LOGTAG
+import org.mariotaku.twidere.annotation.AutoRefreshType
 import org.mariotaku.twidere.constant.IntentConstants.INTENT_PACKAGE_PREFIX
+import org.mariotaku.twidere.constant.adaptiveRefreshKey
 import org.mariotaku.twidere.constant.dataSyncProviderInfoKey
 import org.mariotaku.twidere.constant.stopAutoRefreshWhenBatteryLowKey
 import org.mariotaku.twidere.model.AccountPreferences
@@ -26,6 +28,7 @@ import org.mariotaku.twidere.task.filter.RefreshLaunchPresentationsTask
 import org.mariotaku.twidere.task.twitter.GetActivitiesAboutMeTask
 import org.mariotaku.twidere.task.twitter.GetHomeTimelineTask
 import org.mariotaku.twidere.task.twitter.message.GetMessagesTask
+import org.mariotaku.twidere.util.refresh.StreamingCoverage
 
 /**
  * Created by mariotaku on 2017/1/6.
@@ -35,7 +38,8 @@ class TaskServiceRunner(
         val context: Context,
         val preferences: SharedPreferences,
         val activityTracker: ActivityTracker,
-        val bus: Bus
+        val bus: Bus,
+        val streamingCoverage: StreamingCoverage
 ) {
 
     fun runTask(@Action action: String, callback: (Boolean) -> Unit): Boolean {
@@ -62,11 +66,13 @@ class TaskServiceRunner(
             // Low battery, don't refresh
             return null
         }
+        // Timelines delivered by streaming don't need refresh
+        val coverage = if (preferences[adaptiveRefreshKey]) streamingCoverage else null
         when (action) {
             ACTION_REFRESH_HOME_TIMELINE -> {
                 val task = GetHomeTimelineTask(context)
                 task.params = AutoRefreshTaskParam(context, preferences, activityTracker.isEmpty,
-                        AccountPreferences::isAutoRefreshHomeTimelineEnabled) { accountKeys ->
+                        AutoRefreshType.HOME_TIMELINE, coverage) { accountKeys ->
                     DataStoreUtils.getNewestStatusIds(context, Statuses.CONTENT_URI,
                             accountKeys.toNulls())
                 }
@@ -75,7 +81,7 @@ class TaskServiceRunner(
             ACTION_REFRESH_NOTIFICATIONS -> {
                 val task = GetActivitiesAboutMeTask(context)
                 task.params = AutoRefreshTaskParam(context, preferences, activityTracker.isEmpty,
-                        AccountPreferences::isAutoRefreshMentionsEnabled) { accountKeys ->
+                        AutoRefreshType.INTERACTIONS_TIMELINE, coverage) { accountKeys ->
                     DataStoreUtils.getRefreshNewestActivityMaxPositions(context,
                             Activities.AboutMe.CONTENT_URI, accountKeys.toNulls())
                 }
@@ -88,10 +94,8 @@ class TaskServiceRunner(
                     override val isBackground: Boolean = activityTracker.isEmpty
 
                     override val accountKeys: Array<UserKey> by lazy {
-                        AccountPreferences.getAccountPreferences(context, preferences,
-                                DataStoreUtils.getAccountKeys(context)).filter {
-                            it.isAutoRefreshEnabled && it.isAutoRefreshDirectMessagesEnabled
-                        }.mapToArray(AccountPreferences::accountKey)
+                        getRefreshableAccountKeys(context, preferences, AutoRefreshType.DIRECT_MESSAGES,
+                                coverage)
                     }
                 }
                 return task
@@ -116,15 +120,13 @@ class TaskServiceRunner(
             val context: Context,
             val preferences: SharedPreferences,
             override val isBackground: Boolean,
-            val refreshable: (AccountPreferences) -> Boolean,
+            @AutoRefreshType val type: String,
+            val coverage: StreamingCoverage?,
             val getSinceIds: (Array<UserKey>) -> Array<String?>?
     ) : RefreshTaskParam {
 
         override val accountKeys: Array<UserKey> by lazy {
-            return@lazy AccountPreferences.getAccountPreferences(context, preferences,
-                    DataStoreUtils.getAccountKeys(context)).filter {
-                it.isAutoRefreshEnabled && refreshable(it)
-            }.mapToArray(AccountPreferences::accountKey)
+            return@lazy getRefreshableAccountKeys(context, preferences, type, coverage)
         }
 
         override val pagination: Array<Pagination?>?
@@ -156,6 +158,25 @@ class TaskServiceRunner(
 
         val ACTIONS_SYNC = arrayOf(ACTION_SYNC_DRAFTS, ACTION_SYNC_FILTERS, ACTION_SYNC_USER_COLORS,
                 ACTION_SYNC_USER_NICKNAMES)
+
+        /**
+         * @param coverage Accounts with [type] covered by streaming will be excluded if set
+         */
+        fun getRefreshableAccountKeys(context: Context, preferences: SharedPreferences,
+                @AutoRefreshType type: String, coverage: StreamingCoverage?): Array<UserKey> {
+            return AccountPreferences.getAccountPreferences(context, preferences,
+                    DataStoreUtils.getAccountKeys(context)).filter {
+                it.isAutoRefreshEnabled && it.isAutoRefreshEnabled(type)
+                        && coverage?.isCovered(type, it.accountKey) != true
+            }.mapToArray(AccountPreferences::accountKey)
+        }
+
+        private fun AccountPreferences.isAutoRefreshEnabled(@AutoRefreshType type: String) = when (type) {
+            AutoRefreshType.HOME_TIMELINE -> isAutoRefreshHomeTimelineEnabled
+            AutoRefreshType.INTERACTIONS_TIMELINE -> isAutoRefreshMentionsEnabled
+            AutoRefreshType.DIRECT_MESSAGES -> isAutoRefreshDirectMessagesEnabled
+            else -> false
+        }
     }
 
     data class SyncFinishedEvent(val syncType: String, val success: Boolean)
@@ -0,0 +1,102 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.api
+
+import android.support.v4.util.LruCache
+import okhttp3.OkHttpClient
+import org.mariotaku.restfu.http.RestHttpClient
+import org.mariotaku.restfu.okhttp3.OkHttpRestClient
+import org.mariotaku.twidere.extension.model.identityKey
+import java.util.concurrent.TimeUnit
+
+/**
+ * Caches API proxies per (credentials, account type, API class), and HTTP clients for uploading
+ * and streaming, derived from the shared client so they share dispatcher and connection pool.
+ *
+ * Call [clear] when connection settings changed. Changed credentials get new entries as they're
+ * part of the key, old entries are evicted eventually.
+ */
+object ApiClientRegistry {
+
+    private const val MAX_CLIENTS = 64
+
+    private val clients = LruCache<String, Any>(MAX_CLIENTS)
+
+    private var derivedFrom: OkHttpClient? = null
+    private var uploadHttpClient: RestHttpClient? = null
+    private var streamHttpClient: RestHttpClient? = null
+
+    /**
+     * @param credentialsKey Hash of credentials like [identityKey], secrets shouldn't be kept in keys
+     */
+    fun <T> get(credentialsKey: String, accountType: String?, cls: Class<T>, creator: () -> T): T {
+        val key = "${cls.name}|$accountType|$credentialsKey"
+        @Suppress("UNCHECKED_CAST")
+        (clients[key] as T?)?.let { return it }
+        val client = creator()
+        clients.put(key, client)
+        return client
+    }
+
+    /**
+     * Client with longer timeouts for uploading
+     */
+    @Synchronized
+    fun getUploadHttpClient(base: RestHttpClient): RestHttpClient {
+        checkDerivedFrom(base)
+        return uploadHttpClient ?: derive(base) {
+            connectTimeout(60, TimeUnit.SECONDS)
+            readTimeout(30, TimeUnit.SECONDS)
+            writeTimeout(30, TimeUnit.SECONDS)
+        }.also { uploadHttpClient = it }
+    }
+
+    /**
+     * Client with longer read timeout for streaming
+     */
+    @Synchronized
+    fun getStreamHttpClient(base: RestHttpClient): RestHttpClient {
+        checkDerivedFrom(base)
+        return streamHttpClient ?: derive(base) {
+            readTimeout(300, TimeUnit.SECONDS)
+        }.also { streamHttpClient = it }
+    }
+
+    @Synchronized
+    fun clear() {
+        clients.evictAll()
+        derivedFrom = null
+        uploadHttpClient = null
+        streamHttpClient = null
+    }
+
+    private fun checkDerivedFrom(base: RestHttpClient) {
+        val client = (base as? OkHttpRestClient)?.client
+        if (client === derivedFrom) return
+        derivedFrom = client
+        uploadHttpClient = null
+        streamHttpClient = null
+    }
+
+    private fun derive(base: RestHttpClient, config: OkHttpClient.Builder.() -> Unit): RestHttpClient {
+        val client = (base as? OkHttpRestClient)?.client ?: return base
+        return OkHttpRestClient(client.newBuilder().apply(config).build())
+    }
+}
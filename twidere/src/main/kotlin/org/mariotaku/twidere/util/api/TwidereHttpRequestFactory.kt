@@ -23,17 +23,20 @@ import org.mariotaku.microblog.library.MicroBlogException
 import org.mariotaku.restfu.RestConverter
 import org.mariotaku.restfu.RestFuUtils
 import org.mariotaku.restfu.RestRequest
+import org.mariotaku.restfu.annotation.method.GET
 import org.mariotaku.restfu.http.Authorization
 import org.mariotaku.restfu.http.Endpoint
 import org.mariotaku.restfu.http.HttpRequest
 import org.mariotaku.restfu.http.MultiValueMap
 import org.mariotaku.twidere.util.MicroBlogAPIFactory
+import org.mariotaku.twidere.util.okhttp.ConditionalRequestInterceptor
 
 /**
  * Created by mariotaku on 2017/4/11.
  */
 class TwidereHttpRequestFactory(
-        private val extraHeaders: MicroBlogAPIFactory.ExtraHeaders?
+        private val extraHeaders: MicroBlogAPIFactory.ExtraHeaders?,
+        private val conditionalScope: String? = null
 ) : HttpRequest.Factory<MicroBlogException> {
 
     override fun create(endpoint: Endpoint, info: RestRequest, authorization: Authorization?,
@@ -53,6 +56,21 @@ class TwidereHttpRequestFactory(
                 headers.add(first, RestFuUtils.sanitizeHeader(second))
             }
         }
+        if (conditionalScope != null && restMethod == GET.METHOD &&
+                timelinePathRegex.containsMatchIn(url.substringBefore('?'))) {
+            headers.add(ConditionalRequestInterceptor.HEADER_CONDITIONAL, conditionalScope)
+        }
         return HttpRequest(restMethod, url, headers, info.getBody(converterFactory), null)
     }
+
+    companion object {
+        /**
+         * Timelines refreshed repeatedly with same paging, worth sending as conditional requests.
+         * Only endpoints of [org.mariotaku.twidere.task.twitter.GetStatusesTask] and
+         * [org.mariotaku.twidere.task.twitter.GetActivitiesTask], which keep cached rows on `304`,
+         * loaders would show an empty list instead.
+         */
+        private val timelinePathRegex = Regex("(/statuses/(home|mentions)_timeline|" +
+                "/statuses/mentions|/v1/timelines/home|/v1/notifications)(\\.json)?$")
+    }
 }
@@ -35,6 +35,7 @@ import org.mariotaku.restfu.http.mime.Body
 import org.mariotaku.restfu.http.mime.SimpleBody
 import org.mariotaku.restfu.logansqaure.LoganSquareConverterFactory
 import org.mariotaku.restfu.oauth.OAuthToken
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
 
 import java.lang.reflect.Type
 
@@ -47,6 +48,7 @@ object TwitterConverterFactory : LoganSquareConverterFactory<MicroBlogException>
 
     private val responseConverters = SimpleArrayMap<Type, RestConverter<HttpResponse, *, MicroBlogException>>()
     private val bodyConverters = SimpleArrayMap<Type, RestConverter<*, Body, MicroBlogException>>()
+    private val packagePrefixRegex = Regex("(\\w+\\.)+(?=\\w)")
 
     init {
         responseConverters.put(ResponseCode::class.java, ResponseCode.ResponseConverter())
@@ -67,7 +69,9 @@ object TwitterConverterFactory : LoganSquareConverterFactory<MicroBlogException>
         if (converter != null) {
             return converter
         }
-        return super.forResponse(type)
+        val jsonConverter = super.forResponse(type)
+        if (!PerformanceMonitor.isEnabled) return jsonConverter
+        return TimedResponseConverter(jsonConverter, typeName(type))
     }
 
     @Throws(RestConverter.ConvertException::class)
@@ -88,4 +92,25 @@ object TwitterConverterFactory : LoganSquareConverterFactory<MicroBlogException>
             is LinkHeaderList<*> -> obj.processResponseHeader(httpResponse)
         }
     }
+
+    /**
+     * `java.util.List<org.mariotaku.microblog.library.twitter.model.Status>` to `List<Status>`
+     */
+    private fun typeName(type: Type): String {
+        if (type is Class<*>) return type.simpleName
+        return type.toString().replace(packagePrefixRegex, "")
+    }
+
+    /**
+     * Records JSON decoding time, reading body from network included
+     */
+    private class TimedResponseConverter(
+            private val converter: RestConverter<HttpResponse, *, MicroBlogException>,
+            private val name: String
+    ) : RestConverter<HttpResponse, Any?, MicroBlogException> {
+
+        override fun convert(from: HttpResponse): Any? {
+            return PerformanceMonitor.trace(PerformanceMonitor.JSON, name) { converter.convert(from) }
+        }
+    }
 }
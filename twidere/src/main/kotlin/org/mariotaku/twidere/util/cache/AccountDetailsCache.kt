@@ -0,0 +1,155 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.cache
+
+import android.accounts.Account
+import android.accounts.AccountManager
+import android.accounts.OnAccountsUpdateListener
+import org.mariotaku.ktextension.addOnAccountsUpdatedListenerSafe
+import org.mariotaku.twidere.TwidereConstants.ACCOUNT_TYPE
+import org.mariotaku.twidere.extension.model.getAccountKey
+import org.mariotaku.twidere.extension.model.getCredentials
+import org.mariotaku.twidere.model.AccountDetails
+import org.mariotaku.twidere.model.UserKey
+import org.mariotaku.twidere.model.account.cred.Credentials
+
+/**
+ * In-process snapshots of account data, so hot paths don't need `AccountManager` IPC and JSON
+ * parsing for every lookup.
+ *
+ * Invalidated when accounts added or removed, and when account data written through
+ * `AccountExtensions` setters. Code writing `AccountManager` directly should call [invalidate].
+ * Cache is disabled until [install] called.
+ */
+object AccountDetailsCache {
+
+    private val lock = Any()
+
+    @Volatile
+    private var installed = false
+    private var generation = 0L
+
+    private var accounts: Array<Account>? = null
+    private val accountKeys = HashMap<UserKey, Account>()
+    private val details = HashMap<Account, AccountDetails>()
+    private val credentials = HashMap<Account, Credentials>()
+
+    private val accountsListener = OnAccountsUpdateListener { invalidate() }
+
+    fun install(am: AccountManager) {
+        if (installed) return
+        installed = am.addOnAccountsUpdatedListenerSafe(accountsListener)
+    }
+
+    fun getAccounts(am: AccountManager): Array<Account> {
+        if (!installed) return am.getAccountsByType(ACCOUNT_TYPE)
+        val gen = synchronized(lock) {
+            accounts?.let { return it.copyOf() }
+            generation
+        }
+        val loaded = am.getAccountsByType(ACCOUNT_TYPE)
+        synchronized(lock) {
+            if (gen == generation) accounts = loaded
+        }
+        return loaded.copyOf()
+    }
+
+    fun findByAccountKey(am: AccountManager, accountKey: UserKey): Account? {
+        // Taken before loading, so accounts loaded before an invalidation won't be cached
+        val gen = synchronized(lock) {
+            if (installed) accountKeys[accountKey]?.let { return it }
+            generation
+        }
+        val accounts = getAccounts(am)
+        val account = accounts.firstOrNull { accountKey == it.getAccountKey(am) } ?: return null
+        synchronized(lock) {
+            if (gen == generation) accountKeys[accountKey] = account
+        }
+        return account
+    }
+
+    /**
+     * @param loader Loads details without credentials
+     * @return Copy of cached details, nested objects are shared, don't modify them
+     */
+    fun getDetails(am: AccountManager, account: Account, getCredentials: Boolean,
+            loader: (Account) -> AccountDetails): AccountDetails {
+        if (!installed) {
+            return loader(account).apply {
+                if (getCredentials) credentials = account.getCredentials(am)
+            }
+        }
+        var cachedDetails: AccountDetails? = null
+        var cachedCredentials: Credentials? = null
+        val gen = synchronized(lock) {
+            cachedDetails = details[account]
+            cachedCredentials = credentials[account]
+            generation
+        }
+        val result = cachedDetails ?: loader(account)
+        if (getCredentials && cachedCredentials == null) {
+            cachedCredentials = account.getCredentials(am)
+        }
+        synchronized(lock) {
+            if (gen == generation) {
+                details[account] = result
+                cachedCredentials?.let { credentials[account] = it }
+            }
+        }
+        return result.snapshot(if (getCredentials) cachedCredentials else null)
+    }
+
+    /**
+     * @param account Account changed, or `null` for all accounts. Account list is always
+     * reloaded, as [account] may be just added
+     */
+    fun invalidate(account: Account? = null) {
+        synchronized(lock) {
+            generation++
+            accounts = null
+            if (account == null) {
+                accountKeys.clear()
+                details.clear()
+                credentials.clear()
+            } else {
+                accountKeys.values.removeAll { it == account }
+                details.remove(account)
+                credentials.remove(account)
+            }
+        }
+    }
+
+    private fun AccountDetails.snapshot(credentials: Credentials?): AccountDetails {
+        val copy = AccountDetails()
+        copy.account = account
+        copy.key = key
+        copy.type = type
+        copy.credentials_type = credentials_type
+        copy.user = user
+        copy.color = color
+        copy.position = position
+        copy.activated = activated
+        copy.dummy = dummy
+        copy.test = test
+        copy.extras = extras
+        copy.credentials = credentials
+        return copy
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.cache
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteException
+import android.database.sqlite.SQLiteOpenHelper
+import android.support.v4.util.LruCache
+import org.mariotaku.ktextension.queryReference
+import org.mariotaku.twidere.TwidereConstants.ETAG_CACHE_PREFERENCES_NAME
+import org.mariotaku.twidere.util.DebugLog
+import org.mariotaku.twidere.util.okhttp.ConditionalRequestInterceptor
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Stores `ETag` and `Last-Modified` validators by request key (request url scoped by credentials,
+ * see [ConditionalRequestInterceptor.cacheKey]), so refreshes can be sent as conditional requests.
+ * Backed by a small SQLite database, least recently validated entries are trimmed when exceeding
+ * [maxEntries].
+ *
+ * Database errors are logged and treated as cache misses, they never fail the request itself.
+ */
+class ConditionalRequestCache(context: Context, private val maxEntries: Int = 1000) {
+
+    private val helper = OpenHelper(context)
+    private val memoryCache = LruCache<String, Validators>(64)
+
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+    private val notModifiedCount = AtomicLong()
+    private val writesSinceTrim = AtomicInteger()
+
+    val stats: Stats
+        get() = Stats(hitCount.get(), missCount.get(), notModifiedCount.get())
+
+    operator fun get(key: String): Validators? {
+        memoryCache[key]?.let { return it }
+        try {
+            val db = helper.readableDatabase
+            db.queryReference(TABLE_NAME, arrayOf(ETAG, LAST_MODIFIED), "$KEY = ?", arrayOf(key),
+                    null, null, null)?.use { (cur) ->
+                if (!cur.moveToFirst()) return null
+                val validators = Validators(cur.getString(0), cur.getString(1))
+                memoryCache.put(key, validators)
+                return validators
+            }
+        } catch (e: SQLiteException) {
+            DebugLog.w(tr = e)
+        }
+        return null
+    }
+
+    /**
+     * Gets validators for an outgoing request, counted as hit or miss
+     */
+    fun getForRequest(key: String): Validators? {
+        val validators = get(key)
+        if (validators != null) {
+            hitCount.incrementAndGet()
+        } else {
+            missCount.incrementAndGet()
+        }
+        return validators
+    }
+
+    fun put(key: String, etag: String?, lastModified: String?) {
+        if (etag == null && lastModified == null) {
+            remove(key)
+            return
+        }
+        val validators = Validators(etag, lastModified)
+        if (memoryCache[key] == validators) {
+            touch(key)
+            return
+        }
+        memoryCache.put(key, validators)
+        try {
+            val values = ContentValues()
+            values.put(KEY, key)
+            values.put(ETAG, etag)
+            values.put(LAST_MODIFIED, lastModified)
+            values.put(ACCESSED, System.currentTimeMillis())
+            val db = helper.writableDatabase
+            db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            if (writesSinceTrim.incrementAndGet() >= TRIM_INTERVAL) {
+                writesSinceTrim.set(0)
+                db.delete(TABLE_NAME, "$KEY NOT IN (SELECT $KEY FROM $TABLE_NAME " +
+                        "ORDER BY $ACCESSED DESC LIMIT $maxEntries)", null)
+            }
+        } catch (e: SQLiteException) {
+            DebugLog.w(tr = e)
+        }
+    }
+
+    /**
+     * Server answered `304 Not Modified`, current validators are still fresh
+     */
+    fun onNotModified(key: String) {
+        notModifiedCount.incrementAndGet()
+        touch(key)
+    }
+
+    fun remove(key: String) {
+        memoryCache.remove(key)
+        try {
+            helper.writableDatabase.delete(TABLE_NAME, "$KEY = ?", arrayOf(key))
+        } catch (e: SQLiteException) {
+            DebugLog.w(tr = e)
+        }
+    }
+
+    /**
+     * Drops all validators, call when cached rows were deleted, or a `304` would keep them missing
+     */
+    fun clear() {
+        memoryCache.evictAll()
+        try {
+            helper.writableDatabase.delete(TABLE_NAME, null, null)
+        } catch (e: SQLiteException) {
+            DebugLog.w(tr = e)
+        }
+    }
+
+    private fun touch(key: String) {
+        try {
+            val values = ContentValues()
+            values.put(ACCESSED, System.currentTimeMillis())
+            helper.writableDatabase.update(TABLE_NAME, values, "$KEY = ?", arrayOf(key))
+        } catch (e: SQLiteException) {
+            DebugLog.w(tr = e)
+        }
+    }
+
+    data class Validators(val etag: String?, val lastModified: String?)
+
+    data class Stats(val hits: Long, val misses: Long, val notModified: Long)
+
+    private class OpenHelper(val context: Context) : SQLiteOpenHelper(context, DATABASE_NAME, null,
+            DATABASE_VERSION) {
+
+        override fun onCreate(db: SQLiteDatabase) {
+            db.execSQL("CREATE TABLE $TABLE_NAME ($KEY TEXT PRIMARY KEY, $ETAG TEXT, " +
+                    "$LAST_MODIFIED TEXT, $ACCESSED INTEGER)")
+            db.execSQL("CREATE INDEX ${TABLE_NAME}_$ACCESSED ON $TABLE_NAME ($ACCESSED)")
+            // Validators used to be stored in SharedPreferences, drop them
+            context.getSharedPreferences(ETAG_CACHE_PREFERENCES_NAME, Context.MODE_PRIVATE)
+                    .edit().clear().apply()
+        }
+
+        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+            db.execSQL("DROP TABLE IF EXISTS $TABLE_NAME")
+            onCreate(db)
+        }
+    }
+
+    companion object {
+        private const val DATABASE_NAME = "conditional_requests.db"
+        private const val DATABASE_VERSION = 2
+
+        private const val TABLE_NAME = "validators"
+        private const val KEY = "request_key"
+        private const val ETAG = "etag"
+        private const val LAST_MODIFIED = "last_modified"
+        private const val ACCESSED = "accessed"
+
+        private const val TRIM_INTERVAL = 50
+    }
+}
@@ -24,8 +24,8 @@ import android.content.ContentValues
 import android.content.Context
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
-import android.os.Build
 import org.mariotaku.kpreferences.get
+import org.mariotaku.ktextension.queryReference
 import org.mariotaku.library.objectcursor.ObjectCursor
 import org.mariotaku.sqliteqb.library.*
 import org.mariotaku.sqliteqb.library.Columns.Column
@@ -34,11 +34,13 @@ import org.mariotaku.sqliteqb.library.query.SQLCreateTriggerQuery.Type
 import org.mariotaku.twidere.TwidereConstants.SHARED_PREFERENCES_NAME
 import org.mariotaku.twidere.annotation.CustomTabType
 import org.mariotaku.twidere.constant.defaultAPIConfigKey
+import org.mariotaku.twidere.model.ParcelableStatus
 import org.mariotaku.twidere.model.Tab
 import org.mariotaku.twidere.model.tab.TabConfiguration
 import org.mariotaku.twidere.provider.TwidereDataStore.*
 import org.mariotaku.twidere.provider.TwidereDataStore.Messages.Conversations
 import org.mariotaku.twidere.util.content.DatabaseUpgradeHelper.safeUpgrade
+import org.mariotaku.twidere.util.filter.ContentFilterEngine
 import org.mariotaku.twidere.util.migrateAccounts
 import java.util.*
 
@@ -128,9 +130,14 @@ class TwidereSQLiteOpenHelper(
         return Constraint.unique(Columns(*columns), OnConflict.IGNORE)
     }
 
+    /**
+     * Creates indices in [indices], and drops ones in [retiredIndices]
+     */
     private fun createIndices(db: SQLiteDatabase) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return
-        db.execSQL(createIndex("statuses_index", Statuses.TABLE_NAME, arrayOf(Statuses.ACCOUNT_KEY), true))
+        retiredIndices.forEach { db.execSQL(SQLQueryBuilder.dropIndex(true, it).sql) }
+        indices.forEach {
+            db.execSQL(createIndex(it.name, it.table, it.columns, true))
+        }
     }
 
     private fun createTriggers(db: SQLiteDatabase) {
@@ -261,6 +268,49 @@ class TwidereSQLiteOpenHelper(
         createIndices(db)
         db.setTransactionSuccessful()
         db.endTransaction()
+
+        if (oldVersion < 189) {
+            // Populate filtered_scopes for existing rows
+            val filterEngine = ContentFilterEngine.compile(db)
+            filterEngine.applyTo(db, Statuses.TABLE_NAME)
+            filterEngine.applyTo(db, Activities.AboutMe.TABLE_NAME)
+        }
+        if (oldVersion < 191) {
+            migrateStatusBlobs(db, Statuses.TABLE_NAME)
+            migrateStatusBlobs(db, Activities.AboutMe.TABLE_NAME)
+            migrateStatusBlobs(db, CachedStatuses.TABLE_NAME)
+        }
+    }
+
+    /**
+     * Re-encodes JSON text written by older versions in blob columns of [table] to binary format.
+     * Rows are read and written through [ParcelableStatus], which reads both formats.
+     */
+    private fun migrateStatusBlobs(db: SQLiteDatabase, table: String) {
+        val where = statusBlobColumns.joinToString(" OR ") { "typeof($it) = 'text'" }
+        val projection = arrayOf(Statuses._ID, *statusBlobColumns)
+        val creator = ObjectCursor.valuesCreatorFrom(ParcelableStatus::class.java)
+        db.beginTransaction()
+        try {
+            db.queryReference(table, projection, where, null, null, null, null)?.use { (cur) ->
+                val indices = ObjectCursor.indicesFrom(cur, ParcelableStatus::class.java)
+                cur.moveToFirst()
+                while (!cur.isAfterLast) {
+                    val written = creator.create(indices.newObject(cur))
+                    val values = ContentValues()
+                    statusBlobColumns.forEach { column ->
+                        written.get(column)?.let { values.put(column, it as ByteArray) }
+                    }
+                    if (values.size() > 0) {
+                        db.update(table, values, "${Statuses._ID} = ?", arrayOf(cur.getLong(0).toString()))
+                    }
+                    cur.moveToNext()
+                }
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
     }
 
     private fun migrateDrafts(db: SQLiteDatabase) {
@@ -319,6 +369,8 @@ class TwidereSQLiteOpenHelper(
         return qb.buildSQL()
     }
 
+    private class IndexInfo(val name: String, val table: String, val columns: Array<String>)
+
     private fun messagesConstraint(): Constraint {
         return Constraint.unique("unique_message", Columns(Messages.ACCOUNT_KEY, Messages.CONVERSATION_ID,
                 Messages.MESSAGE_ID), OnConflict.REPLACE)
@@ -328,4 +380,38 @@ class TwidereSQLiteOpenHelper(
         return Constraint.unique("unique_message_conversations", Columns(Conversations.ACCOUNT_KEY,
                 Conversations.CONVERSATION_ID), OnConflict.REPLACE)
     }
+
+    companion object {
+
+        private val statusBlobColumns = arrayOf(Statuses.MENTIONS_JSON, Statuses.MEDIA_JSON,
+                Statuses.QUOTED_MEDIA_JSON, Statuses.CARD, Statuses.EXTRAS, Statuses.SPANS,
+                Statuses.QUOTED_SPANS)
+
+        /**
+         * Index set of current schema. Index with same name won't be recreated, so give it a new
+         * name when changing columns of an existing index, and add old name to [retiredIndices].
+         */
+        private val indices = arrayOf(
+                IndexInfo("statuses_account_key_id_index", Statuses.TABLE_NAME,
+                        arrayOf(Statuses.ACCOUNT_KEY, Statuses.ID)),
+                IndexInfo("statuses_account_key_position_key_index", Statuses.TABLE_NAME,
+                        arrayOf(Statuses.ACCOUNT_KEY, Statuses.POSITION_KEY)),
+                // Covers Statuses.DEFAULT_SORT_ORDER, rowid breaks remaining ties
+                IndexInfo("statuses_account_key_timestamp_sort_id_id_index", Statuses.TABLE_NAME,
+                        arrayOf(Statuses.ACCOUNT_KEY, Statuses.TIMESTAMP, Statuses.SORT_ID, Statuses.ID)),
+                IndexInfo("activities_about_me_account_key_timestamp_index", Activities.AboutMe.TABLE_NAME,
+                        arrayOf(Activities.ACCOUNT_KEY, Activities.TIMESTAMP)),
+                IndexInfo("activities_about_me_account_key_position_key_index", Activities.AboutMe.TABLE_NAME,
+                        arrayOf(Activities.ACCOUNT_KEY, Activities.POSITION_KEY)),
+                IndexInfo("cached_statuses_account_key_id_index", CachedStatuses.TABLE_NAME,
+                        arrayOf(CachedStatuses.ACCOUNT_KEY, CachedStatuses.ID)),
+                IndexInfo("messages_account_key_conversation_id_sort_id_index", Messages.TABLE_NAME,
+                        arrayOf(Messages.ACCOUNT_KEY, Messages.CONVERSATION_ID, Messages.SORT_ID))
+        )
+
+        /**
+         * Indices created by previous versions and replaced by [indices]
+         */
+        private val retiredIndices = arrayOf("statuses_index", "statuses_account_key_timestamp_index")
+    }
 }
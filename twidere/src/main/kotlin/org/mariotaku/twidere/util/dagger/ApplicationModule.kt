@@ -51,6 +51,7 @@ import org.mariotaku.twidere.constant.autoRefreshCompatibilityModeKey
 import org.mariotaku.twidere.extension.model.load
 import org.mariotaku.twidere.model.DefaultFeatures
 import org.mariotaku.twidere.util.*
+import org.mariotaku.twidere.util.cache.ConditionalRequestCache
 import org.mariotaku.twidere.util.cache.DiskLRUFileCache
 import org.mariotaku.twidere.util.cache.JsonCache
 import org.mariotaku.twidere.util.gifshare.GifShareProvider
@@ -61,9 +62,7 @@ import org.mariotaku.twidere.util.net.TwidereDns
 import org.mariotaku.twidere.util.notification.ContentNotificationManager
 import org.mariotaku.twidere.util.premium.ExtraFeaturesService
 import org.mariotaku.twidere.util.promotion.PromotionService
-import org.mariotaku.twidere.util.refresh.AutoRefreshController
-import org.mariotaku.twidere.util.refresh.JobSchedulerAutoRefreshController
-import org.mariotaku.twidere.util.refresh.LegacyAutoRefreshController
+import org.mariotaku.twidere.util.refresh.*
 import org.mariotaku.twidere.util.schedule.StatusScheduleProvider
 import org.mariotaku.twidere.util.sync.*
 import java.io.File
@@ -131,10 +130,12 @@ class ApplicationModule(private val context: Context) {
 
     @Provides
     @Singleton
-    fun restHttpClient(prefs: SharedPreferences, dns: Dns,
-            connectionPool: ConnectionPool, cache: Cache): RestHttpClient {
+    fun restHttpClient(prefs: SharedPreferences, dns: Dns, connectionPool: ConnectionPool,
+            cache: Cache, conditionalRequestCache: ConditionalRequestCache,
+            rateLimitTracker: RateLimitTracker): RestHttpClient {
         val conf = HttpClientFactory.HttpClientConfiguration(prefs)
-        return HttpClientFactory.createRestHttpClient(conf, dns, connectionPool, cache)
+        return HttpClientFactory.createRestHttpClient(conf, dns, connectionPool, cache,
+                conditionalRequestCache, rateLimitTracker)
     }
 
     @Provides
@@ -225,9 +226,11 @@ class ApplicationModule(private val context: Context) {
 
     @Provides
     @Singleton
-    fun autoRefreshController(kPreferences: KPreferences): AutoRefreshController {
+    fun autoRefreshController(kPreferences: KPreferences, preferences: SharedPreferences,
+            planner: AdaptiveRefreshPlanner, streamingCoverage: StreamingCoverage): AutoRefreshController {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && !kPreferences[autoRefreshCompatibilityModeKey]) {
-            return JobSchedulerAutoRefreshController(context, kPreferences)
+            return JobSchedulerAutoRefreshController(context, kPreferences, preferences, planner,
+                    streamingCoverage)
         }
         return LegacyAutoRefreshController(context, kPreferences)
     }
@@ -250,8 +253,8 @@ class ApplicationModule(private val context: Context) {
     @Provides
     @Singleton
     fun taskCreator(preferences: SharedPreferences, activityTracker: ActivityTracker,
-            bus: Bus): TaskServiceRunner {
-        return TaskServiceRunner(context, preferences, activityTracker, bus)
+            bus: Bus, streamingCoverage: StreamingCoverage): TaskServiceRunner {
+        return TaskServiceRunner(context, preferences, activityTracker, bus, streamingCoverage)
     }
 
     @Provides
@@ -270,8 +273,26 @@ class ApplicationModule(private val context: Context) {
 
     @Provides
     @Singleton
-    fun etagCache(): ETagCache {
-        return ETagCache(context)
+    fun conditionalRequestCache(): ConditionalRequestCache {
+        return ConditionalRequestCache(context)
+    }
+
+    @Provides
+    @Singleton
+    fun rateLimitTracker(): RateLimitTracker {
+        return RateLimitTracker()
+    }
+
+    @Provides
+    @Singleton
+    fun adaptiveRefreshPlanner(): AdaptiveRefreshPlanner {
+        return AdaptiveRefreshPlanner(context)
+    }
+
+    @Provides
+    @Singleton
+    fun streamingCoverage(): StreamingCoverage {
+        return StreamingCoverage()
     }
 
     @Provides
@@ -28,9 +28,11 @@ import org.mariotaku.kpreferences.KPreferences
 import org.mariotaku.restfu.http.RestHttpClient
 import org.mariotaku.twidere.model.DefaultFeatures
 import org.mariotaku.twidere.util.*
+import org.mariotaku.twidere.util.cache.ConditionalRequestCache
 import org.mariotaku.twidere.util.media.MediaPreloader
 import org.mariotaku.twidere.util.media.ThumborWrapper
 import org.mariotaku.twidere.util.premium.ExtraFeaturesService
+import org.mariotaku.twidere.util.refresh.RateLimitTracker
 import org.mariotaku.twidere.util.sync.TimelineSyncManager
 import javax.inject.Inject
 
@@ -63,6 +65,12 @@ class DependencyHolder internal constructor(context: Context) {
     lateinit var cache: Cache
         internal set
     @Inject
+    lateinit var conditionalRequestCache: ConditionalRequestCache
+        internal set
+    @Inject
+    lateinit var rateLimitTracker: RateLimitTracker
+        internal set
+    @Inject
     lateinit var defaultFeatures: DefaultFeatures
         internal set
     @Inject
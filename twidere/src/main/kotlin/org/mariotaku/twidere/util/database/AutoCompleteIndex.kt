@@ -0,0 +1,281 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.database
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import org.mariotaku.ktextension.queryReference
+import org.mariotaku.twidere.provider.TwidereDataStore.*
+import org.mariotaku.twidere.util.DebugLog
+import java.text.Normalizer
+import java.util.*
+
+/**
+ * In-memory prefix index of cached users (screen names, names and nicknames) and hashtags
+ * for auto complete.
+ *
+ * Terms are case and diacritic folded and kept sorted, so a prefix lookup is a range scan.
+ * Relationship scores are kept per account, same as [CachedUsersQueryBuilder.scoreExpr].
+ *
+ * Index is built with [build] and kept in sync with [putUsers], [putRelationships],
+ * [putHashtags] and [setNickname]; changes can't be applied incrementally (updates with
+ * selection, deletions) should call [invalidate], and callers fall back to database until rebuilt.
+ */
+class AutoCompleteIndex {
+
+    @Volatile
+    var isReady: Boolean = false
+        private set
+
+    private val users = HashMap<String, UserEntry>()
+    private val userTerms = TreeMap<String, UserEntry>()
+    private val hashtagTerms = TreeMap<String, HashtagEntry>()
+    private val relationships = HashMap<String, HashMap<String, Int>>()
+    private val nicknames = HashMap<String, String>()
+    private var nextLocalId = -1L
+
+    @Synchronized
+    fun build(db: SQLiteDatabase, nicknames: Map<String, Any?>) {
+        clear()
+        val start = System.nanoTime()
+        nicknames.forEach { (key, value) ->
+            val nickname = value?.toString()?.takeIf(String::isNotEmpty) ?: return@forEach
+            this.nicknames[key] = nickname
+        }
+        db.queryReference(CachedUsers.TABLE_NAME, userColumns, null, null, null, null, null)?.use { (cur) ->
+            cur.moveToFirst()
+            while (!cur.isAfterLast) {
+                putUser(cur.getString(1), cur.getLong(0), cur.getString(2), cur.getString(3),
+                        cur.getString(4), cur.getLong(5), cur.getString(6))
+                cur.moveToNext()
+            }
+        }
+        db.queryReference(CachedRelationships.TABLE_NAME, relationshipColumns, null, null, null,
+                null, null)?.use { (cur) ->
+            cur.moveToFirst()
+            while (!cur.isAfterLast) {
+                var flags = 0
+                relationshipFlags.forEachIndexed { i, flag ->
+                    if (cur.getInt(i + 2) != 0) flags = flags or flag
+                }
+                relationshipsOf(cur.getString(0))[cur.getString(1)] = flags
+                cur.moveToNext()
+            }
+        }
+        db.queryReference(CachedHashtags.TABLE_NAME, hashtagColumns, null, null, null, null, null)?.use { (cur) ->
+            cur.moveToFirst()
+            while (!cur.isAfterLast) {
+                putHashtag(cur.getLong(0), cur.getString(1))
+                cur.moveToNext()
+            }
+        }
+        isReady = true
+        DebugLog.d(msg = "Built auto complete index of ${users.size} users, " +
+                "${hashtagTerms.size} hashtags in ${(System.nanoTime() - start) / 1000000}ms")
+    }
+
+    @Synchronized
+    fun invalidate() {
+        clear()
+    }
+
+    @Synchronized
+    fun putUsers(valuesArray: Array<ContentValues?>) {
+        if (!isReady) return
+        valuesArray.forEach { values ->
+            val userKey = values?.getAsString(CachedUsers.USER_KEY) ?: return@forEach
+            putUser(userKey, values.getAsLong(CachedUsers._ID) ?: users[userKey]?.id ?: nextLocalId--,
+                    values.getAsString(CachedUsers.NAME), values.getAsString(CachedUsers.SCREEN_NAME),
+                    values.getAsString(CachedUsers.PROFILE_IMAGE_URL),
+                    values.getAsLong(CachedUsers.LAST_SEEN) ?: 0, values.getAsString(CachedUsers.USER_TYPE))
+        }
+    }
+
+    /**
+     * Merges relationship flags, values may contain only changed columns
+     */
+    @Synchronized
+    fun putRelationships(valuesArray: Array<ContentValues?>) {
+        if (!isReady) return
+        valuesArray.forEach { values ->
+            val accountKey = values?.getAsString(CachedRelationships.ACCOUNT_KEY) ?: return@forEach
+            val userKey = values.getAsString(CachedRelationships.USER_KEY) ?: return@forEach
+            val accountRelationships = relationshipsOf(accountKey)
+            var flags = accountRelationships[userKey] ?: 0
+            relationshipColumns.forEachIndexed { i, column ->
+                if (i < 2 || !values.containsKey(column)) return@forEachIndexed
+                val flag = relationshipFlags[i - 2]
+                flags = if (values.getAsBoolean(column) == true) flags or flag else flags and flag.inv()
+            }
+            accountRelationships[userKey] = flags
+        }
+    }
+
+    @Synchronized
+    fun putHashtags(valuesArray: Array<ContentValues?>) {
+        if (!isReady) return
+        valuesArray.forEach { values ->
+            val name = values?.getAsString(CachedHashtags.NAME) ?: return@forEach
+            putHashtag(values.getAsLong(CachedHashtags._ID) ?: nextLocalId--, name)
+        }
+    }
+
+    @Synchronized
+    fun setNickname(userKey: String, nickname: String?) {
+        if (nickname.isNullOrEmpty()) {
+            nicknames.remove(userKey)
+        } else {
+            nicknames[userKey] = nickname!!
+        }
+        val entry = users[userKey] ?: return
+        putUser(userKey, entry.id, entry.name, entry.screenName, entry.profileImageUrl,
+                entry.lastSeen, entry.userType)
+    }
+
+    /**
+     * @param comparator Order of results, scores are of [accountKey]
+     */
+    @Synchronized
+    fun queryUsers(query: String, accountKey: String, accountHost: String?, accountType: String?,
+            comparator: Comparator<ScoredUser>, limit: Int): List<ScoredUser> {
+        val prefix = fold(query)
+        if (prefix.isEmpty()) return emptyList()
+        val accountRelationships = relationships[accountKey]
+        val matched = HashSet<UserEntry>()
+        // Keep best [limit] users, queue head is the worst one
+        val queue = PriorityQueue<ScoredUser>(limit + 1, Collections.reverseOrder(comparator))
+        for (entry in userTerms.subMap(prefix, prefix + Character.MAX_VALUE).values) {
+            if (!matched.add(entry)) continue
+            if (accountType != null && accountType != entry.userType) continue
+            if (accountHost != null && !entry.userKey.endsWith("@$accountHost")) continue
+            val flags = accountRelationships?.get(entry.userKey) ?: 0
+            queue.add(ScoredUser(entry, score(flags)))
+            if (queue.size > limit) queue.poll()
+        }
+        return queue.sortedWith(comparator)
+    }
+
+    @Synchronized
+    fun queryHashtags(query: String, limit: Int): List<HashtagEntry> {
+        val prefix = fold(query)
+        if (prefix.isEmpty()) return emptyList()
+        return hashtagTerms.subMap(prefix, prefix + Character.MAX_VALUE).values.take(limit)
+    }
+
+    private fun putUser(userKey: String, id: Long, name: String?, screenName: String?,
+            profileImageUrl: String?, lastSeen: Long, userType: String?) {
+        users.remove(userKey)?.terms?.forEach { userTerms.remove(it) }
+        val entry = UserEntry(id, userKey, name, screenName, profileImageUrl, lastSeen, userType)
+        entry.terms = arrayOf(screenName, name, nicknames[userKey]).mapIndexedNotNull { i, term ->
+            if (term.isNullOrEmpty()) return@mapIndexedNotNull null
+            return@mapIndexedNotNull "${fold(term!!)}\u0000$userKey\u0000$i"
+        }
+        entry.terms.forEach { userTerms[it] = entry }
+        users[userKey] = entry
+    }
+
+    private fun putHashtag(id: Long, name: String) {
+        val term = "${fold(name)}\u0000$name"
+        if (term in hashtagTerms) return
+        hashtagTerms[term] = HashtagEntry(id, name)
+    }
+
+    private fun relationshipsOf(accountKey: String) = relationships.getOrPut(accountKey) { HashMap() }
+
+    private fun clear() {
+        isReady = false
+        users.clear()
+        userTerms.clear()
+        hashtagTerms.clear()
+        relationships.clear()
+        nicknames.clear()
+    }
+
+    class UserEntry internal constructor(
+            val id: Long,
+            val userKey: String,
+            val name: String?,
+            val screenName: String?,
+            val profileImageUrl: String?,
+            val lastSeen: Long,
+            val userType: String?
+    ) {
+        internal var terms: List<String> = emptyList()
+    }
+
+    data class ScoredUser(val user: UserEntry, val score: Int)
+
+    data class HashtagEntry(val id: Long, val name: String)
+
+    companion object {
+
+        /**
+         * Score desc, last seen desc, screen name, name; same as auto complete query
+         */
+        val autoCompleteOrder: Comparator<ScoredUser> = compareByDescending<ScoredUser> { it.score }
+                .thenByDescending { it.user.lastSeen }
+                .thenBy { it.user.screenName }
+                .thenBy { it.user.name }
+
+        /**
+         * Last seen desc, score desc, screen name, name; same as search suggestions query
+         */
+        val searchOrder: Comparator<ScoredUser> = compareByDescending<ScoredUser> { it.user.lastSeen }
+                .thenByDescending { it.score }
+                .thenBy { it.user.screenName }
+                .thenBy { it.user.name }
+
+        private val userColumns = arrayOf(CachedUsers._ID, CachedUsers.USER_KEY, CachedUsers.NAME,
+                CachedUsers.SCREEN_NAME, CachedUsers.PROFILE_IMAGE_URL, CachedUsers.LAST_SEEN,
+                CachedUsers.USER_TYPE)
+
+        private val hashtagColumns = arrayOf(CachedHashtags._ID, CachedHashtags.NAME)
+
+        private val relationshipColumns = arrayOf(CachedRelationships.ACCOUNT_KEY,
+                CachedRelationships.USER_KEY, CachedRelationships.FOLLOWING,
+                CachedRelationships.NOTIFICATIONS_ENABLED, CachedRelationships.FOLLOWED_BY,
+                CachedRelationships.BLOCKING, CachedRelationships.BLOCKED_BY,
+                CachedRelationships.MUTING)
+
+        // Same order as relationshipColumns after account and user key
+        private val relationshipFlags = intArrayOf(1, 2, 4, 8, 16, 32)
+        private val relationshipWeights = intArrayOf(100, 50, 50, -100, -100, -100)
+
+        private val combiningMarks = Regex("\\p{Mn}+")
+
+        fun score(flags: Int): Int {
+            var score = 0
+            relationshipFlags.forEachIndexed { i, flag ->
+                if (flags and flag != 0) score += relationshipWeights[i]
+            }
+            return score
+        }
+
+        /**
+         * Lower case, with diacritics removed
+         */
+        fun fold(str: String): String {
+            val decomposed = Normalizer.normalize(str, Normalizer.Form.NFD)
+            return combiningMarks.replace(decomposed, "").toLowerCase(Locale.ROOT)
+        }
+
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.database
+
+import android.content.ContentValues
+import android.database.DatabaseUtils
+import android.database.SQLException
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
+import org.mariotaku.twidere.BuildConfig
+import org.mariotaku.twidere.util.DebugLog
+import java.util.*
+
+/**
+ * Inserts rows with compiled statements, one statement is compiled for each
+ * (table, column set, conflict algorithm) and reused across calls.
+ *
+ * Caller should hold a transaction, statements are bound to [SQLiteDatabase] they were compiled
+ * with, so call [clear] when database is reopened or schema changed.
+ */
+class BulkInsertEngine(private val maxStatements: Int = 32) {
+
+    private val statements = object : LinkedHashMap<StatementKey, CompiledStatement>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<StatementKey, CompiledStatement>): Boolean {
+            if (size <= maxStatements) return false
+            eldest.value.statement.close()
+            return true
+        }
+    }
+
+    private val tableStats = HashMap<String, TableStats>()
+
+    val stats: Map<String, TableStats>
+        @Synchronized get() = tableStats.mapValues { it.value.copy() }
+
+    /**
+     * @return Number of rows processed
+     */
+    @Synchronized
+    fun insert(db: SQLiteDatabase, table: String, valuesArray: Array<ContentValues>,
+            conflictAlgorithm: Int): Int {
+        val start = System.nanoTime()
+        for (values in valuesArray) {
+            if (values.size() == 0) {
+                db.insertWithOnConflict(table, null, values, conflictAlgorithm)
+                continue
+            }
+            val compiled = statement(db, StatementKey(table, conflictAlgorithm, values.keySet(), null))
+            if (conflictAlgorithm != SQLiteDatabase.CONFLICT_NONE) {
+                compiled.bind(values).executeInsert()
+                continue
+            }
+            // Behave like SQLiteDatabase.insert, which logs and skips failed rows
+            try {
+                compiled.bind(values).executeInsert()
+            } catch (e: SQLException) {
+                DebugLog.w(msg = "Error inserting into $table", tr = e)
+            }
+        }
+        record(table, valuesArray.size, start)
+        return valuesArray.size
+    }
+
+    /**
+     * Updates rows matching [keyColumn] of each values, and inserts rows not exist yet
+     *
+     * @return Number of rows processed
+     */
+    @Synchronized
+    fun upsert(db: SQLiteDatabase, table: String, valuesArray: Array<ContentValues>,
+            keyColumn: String): Int {
+        val start = System.nanoTime()
+        for (values in valuesArray) {
+            val keySet = values.keySet()
+            val update = statement(db, StatementKey(table, SQLiteDatabase.CONFLICT_NONE, keySet, keyColumn))
+            val updateStatement = update.bind(values)
+            DatabaseUtils.bindObjectToProgram(updateStatement, update.columns.size + 1,
+                    values.get(keyColumn))
+            if (updateStatement.executeUpdateDelete() == 0) {
+                val insert = statement(db, StatementKey(table, SQLiteDatabase.CONFLICT_IGNORE, keySet, null))
+                insert.bind(values).executeInsert()
+            }
+        }
+        record(table, valuesArray.size, start)
+        return valuesArray.size
+    }
+
+    @Synchronized
+    fun clear() {
+        statements.values.forEach { it.statement.close() }
+        statements.clear()
+    }
+
+    private fun statement(db: SQLiteDatabase, key: StatementKey): CompiledStatement {
+        statements[key]?.let { return it }
+        val columns = key.columns.toTypedArray()
+        val sql = if (key.updateKey != null) {
+            "UPDATE ${key.table} SET ${columns.joinToString(",") { "$it = ?" }} WHERE ${key.updateKey} = ?"
+        } else {
+            "INSERT${CONFLICT_VALUES[key.conflictAlgorithm]} INTO ${key.table} " +
+                    "(${columns.joinToString(",")}) VALUES (${columns.joinToString(",") { "?" }})"
+        }
+        val compiled = CompiledStatement(db.compileStatement(sql), columns)
+        // Key set of ContentValues is live, keep a copy
+        statements[key.copy(columns = compiled.columns.toSet())] = compiled
+        return compiled
+    }
+
+    private fun record(table: String, rows: Int, startNanos: Long) {
+        val nanos = System.nanoTime() - startNanos
+        val stats = tableStats.getOrPut(table) { TableStats() }
+        stats.rows += rows
+        stats.nanos += nanos
+        if (BuildConfig.DEBUG) {
+            DebugLog.d(msg = "Inserted $rows rows into $table in ${nanos / 1000000}ms, " +
+                    "${stats.rowsPerSecond} rows/s overall")
+        }
+    }
+
+    data class TableStats(var rows: Long = 0, var nanos: Long = 0) {
+        val rowsPerSecond: Long
+            get() = if (nanos > 0) rows * 1000000000 / nanos else 0
+    }
+
+    private data class StatementKey(
+            val table: String,
+            val conflictAlgorithm: Int,
+            val columns: Set<String>,
+            val updateKey: String?
+    )
+
+    private class CompiledStatement(val statement: SQLiteStatement, val columns: Array<String>) {
+
+        fun bind(values: ContentValues): SQLiteStatement {
+            statement.clearBindings()
+            columns.forEachIndexed { index, column ->
+                DatabaseUtils.bindObjectToProgram(statement, index + 1, values.get(column))
+            }
+            return statement
+        }
+    }
+
+    companion object {
+        // Same order as SQLiteDatabase.CONFLICT_* constants
+        private val CONFLICT_VALUES = arrayOf("", " OR ROLLBACK", " OR ABORT", " OR FAIL",
+                " OR IGNORE", " OR REPLACE")
+    }
+}
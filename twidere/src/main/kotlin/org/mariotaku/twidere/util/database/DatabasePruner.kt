@@ -0,0 +1,162 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.database
+
+import android.content.SharedPreferences
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.provider.BaseColumns
+import org.mariotaku.sqliteqb.library.Expression
+import org.mariotaku.twidere.provider.TwidereDataStore.*
+
+/**
+ * Deletes rows beyond item limit in small batches, so provider writes can get in between.
+ *
+ * Timeline rows are pruned per account below the `position_key` of the n-th newest row, which is
+ * served by `(account_key, position_key)` indices. Largest `_id` of each table is remembered after
+ * a run, tables and accounts with no rows inserted since are skipped, unless item limit changed.
+ */
+class DatabasePruner(
+        private val db: SQLiteDatabase,
+        private val preferences: SharedPreferences?,
+        private val batchSize: Int = DEFAULT_BATCH_SIZE,
+        private val yieldDelay: Long = DEFAULT_YIELD_DELAY
+) {
+
+    fun prune(accountKeys: List<String>, itemLimit: Int): Result {
+        val start = SystemClock.elapsedRealtime()
+        val deleted = HashMap<String, Int>()
+        val editor = preferences?.edit()
+        // Marks only hold for the limit they were taken with
+        val marksValid = preferences?.getInt(KEY_ITEM_LIMIT, -1) == itemLimit
+        for (table in TIMELINE_TABLES) {
+            val mark = if (marksValid) highWaterMark(table) else -1
+            val maxId = maxId(table)
+            if (maxId <= mark) continue
+            var count = 0
+            for (accountKey in accountKeys) {
+                if (!hasRowsAfter(table, mark, accountKey)) continue
+                val threshold = positionThreshold(table, accountKey, itemLimit) ?: continue
+                val where = Expression.and(Expression.equalsArgs(Statuses.ACCOUNT_KEY),
+                        Expression.lesserThan(Statuses.POSITION_KEY, threshold))
+                count += deleteBatched(table, where.sql, arrayOf(accountKey))
+            }
+            if (count > 0) deleted[table] = count
+            editor?.putLong(table, maxId)
+        }
+        for (table in CACHE_TABLES) {
+            val mark = if (marksValid) highWaterMark(table) else -1
+            val maxId = maxId(table)
+            if (maxId <= mark) continue
+            val threshold = idThreshold(table, itemLimit * CACHE_LIMIT_MULTIPLIER)
+            if (threshold != null) {
+                val where = Expression.lesserThan(BaseColumns._ID, threshold)
+                val count = deleteBatched(table, where.sql, null)
+                if (count > 0) deleted[table] = count
+            }
+            editor?.putLong(table, maxId)
+        }
+        editor?.putInt(KEY_ITEM_LIMIT, itemLimit)
+        editor?.apply()
+        return Result(deleted, SystemClock.elapsedRealtime() - start)
+    }
+
+    /**
+     * Each batch is a statement of its own, write lock is released between batches
+     */
+    private fun deleteBatched(table: String, where: String, whereArgs: Array<String>?): Int {
+        val batchWhere = "${BaseColumns._ID} IN (SELECT ${BaseColumns._ID} FROM $table " +
+                "WHERE $where LIMIT $batchSize)"
+        var total = 0
+        while (true) {
+            val count = db.delete(table, batchWhere, whereArgs)
+            total += count
+            if (count < batchSize) break
+            if (yieldDelay > 0) {
+                Thread.sleep(yieldDelay)
+            } else {
+                Thread.yield()
+            }
+        }
+        return total
+    }
+
+    private fun highWaterMark(table: String): Long {
+        return preferences?.getLong(table, -1) ?: -1
+    }
+
+    private fun maxId(table: String): Long {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(${BaseColumns._ID}), -1) FROM $table", null)
+    }
+
+    private fun hasRowsAfter(table: String, id: Long, accountKey: String): Boolean {
+        if (id < 0) return true
+        val where = Expression.and(Expression.greaterThan(BaseColumns._ID, id),
+                Expression.equalsArgs(Statuses.ACCOUNT_KEY))
+        return DatabaseUtils.longForQuery(db, "SELECT EXISTS (SELECT 1 FROM $table " +
+                "WHERE ${where.sql})", arrayOf(accountKey)) != 0L
+    }
+
+    /**
+     * @return `position_key` of [limit]-th newest row of account, or `null` if there're fewer rows
+     */
+    private fun positionThreshold(table: String, accountKey: String, limit: Int): Long? {
+        if (limit <= 0) return null
+        return querySingleLong("SELECT ${Statuses.POSITION_KEY} FROM $table " +
+                "WHERE ${Statuses.ACCOUNT_KEY} = ? ORDER BY ${Statuses.POSITION_KEY} DESC " +
+                "LIMIT 1 OFFSET ${limit - 1}", arrayOf(accountKey))
+    }
+
+    private fun idThreshold(table: String, limit: Int): Long? {
+        if (limit <= 0) return null
+        return querySingleLong("SELECT ${BaseColumns._ID} FROM $table " +
+                "ORDER BY ${BaseColumns._ID} DESC LIMIT 1 OFFSET ${limit - 1}", null)
+    }
+
+    private fun querySingleLong(sql: String, args: Array<String>?): Long? {
+        val cur = db.rawQuery(sql, args)
+        try {
+            if (!cur.moveToFirst()) return null
+            return cur.getLong(0)
+        } finally {
+            cur.close()
+        }
+    }
+
+    /**
+     * @param deletedRows Rows deleted in each table, tables without deletion are absent
+     * @param duration Time spent in milliseconds
+     */
+    data class Result(val deletedRows: Map<String, Int>, val duration: Long) {
+        val total: Int get() = deletedRows.values.sum()
+    }
+
+    companion object {
+        const val DEFAULT_BATCH_SIZE = 200
+        const val DEFAULT_YIELD_DELAY = 5L
+        private const val CACHE_LIMIT_MULTIPLIER = 20
+        private const val KEY_ITEM_LIMIT = "item_limit"
+
+        val TIMELINE_TABLES = arrayOf(Statuses.TABLE_NAME, Activities.AboutMe.TABLE_NAME)
+        val CACHE_TABLES = arrayOf(CachedUsers.TABLE_NAME, CachedStatuses.TABLE_NAME,
+                CachedHashtags.TABLE_NAME, CachedTrends.Local.TABLE_NAME)
+    }
+}
@@ -95,7 +95,9 @@ object SuggestionsCursorCreator {
             Suggestions.VALUE to Columns.Column(CachedHashtags.NAME, Suggestions.VALUE).sql
     )
 
-    fun forSearch(db: SQLiteDatabaseWrapper, manager: UserColorNameManager,
+    private const val AUTO_COMPLETE_LIMIT = 100
+
+    fun forSearch(db: SQLiteDatabaseWrapper, manager: UserColorNameManager, index: AutoCompleteIndex,
             uri: Uri, projection: Array<String>?): Cursor? {
         val nonNullProjection = projection ?: Suggestions.COLUMNS
         val query = uri.getQueryParameter(QUERY_PARAM_QUERY) ?: return null
@@ -110,8 +112,14 @@ object SuggestionsCursorCreator {
         } else {
             val queryTrimmed = query.replace("_", "^_").substringAfter("@")
 
-            val usersCursor = getUsersCursor(db, manager, nonNullProjection, accountKey, filterHost,
-                    filterType, query, queryTrimmed, 10)
+            val usersCursor = if (index.isReady) {
+                val users = index.queryUsers(query.substringAfter("@"), accountKey.toString(),
+                        filterHost, filterType, AutoCompleteIndex.searchOrder, 10)
+                getUsersCursor(nonNullProjection, Suggestions.Search.TYPE_USER, users)
+            } else {
+                getUsersCursor(db, manager, nonNullProjection, accountKey, filterHost,
+                        filterType, query, queryTrimmed, 10)
+            }
             if (!usersCursor.hasName(queryTrimmed)) {
                 val m = PATTERN_SCREEN_NAME.matcher(query)
                 if (m.matches()) {
@@ -126,7 +134,7 @@ object SuggestionsCursorCreator {
 
 
     fun forAutoComplete(db: SQLiteDatabaseWrapper, manager: UserColorNameManager,
-            uri: Uri, projection: Array<String>?): Cursor? {
+            index: AutoCompleteIndex, uri: Uri, projection: Array<String>?): Cursor? {
         val nonNullProjection = projection ?: Suggestions.COLUMNS
         val query = uri.getQueryParameter(QUERY_PARAM_QUERY) ?: return null
         val type = uri.getQueryParameter(QUERY_PARAM_TYPE) ?: return null
@@ -137,6 +145,11 @@ object SuggestionsCursorCreator {
         val queryEscaped = query.replace("_", "^_")
         when (type) {
             Suggestions.AutoComplete.TYPE_USERS -> {
+                if (index.isReady) {
+                    val users = index.queryUsers(query, accountKey.toString(), accountHost,
+                            accountType, AutoCompleteIndex.autoCompleteOrder, AUTO_COMPLETE_LIMIT)
+                    return getUsersCursor(nonNullProjection, Suggestions.AutoComplete.TYPE_USERS, users)
+                }
                 val nicknameKeys = Utils.getMatchedNicknameKeys(query, manager)
                 val where = Expression.or(Expression.inArgs(Columns.Column(CachedUsers.USER_KEY), nicknameKeys.size),
                         Expression.likeRaw(Columns.Column(CachedUsers.SCREEN_NAME), "?||'%'", "^"),
@@ -151,6 +164,21 @@ object SuggestionsCursorCreator {
                 return db.rawQuery(sql.sql, bindingArgs)
             }
             Suggestions.AutoComplete.TYPE_HASHTAGS -> {
+                if (index.isReady) {
+                    val cursor = MatrixCursor(nonNullProjection)
+                    index.queryHashtags(query, AUTO_COMPLETE_LIMIT).forEach { hashtag ->
+                        cursor.addRow(nonNullProjection.map { column ->
+                            when (column) {
+                                Suggestions._ID -> hashtag.id
+                                Suggestions.TYPE -> Suggestions.AutoComplete.TYPE_HASHTAGS
+                                Suggestions.TITLE, Suggestions.VALUE -> hashtag.name
+                                Suggestions.EXTRA_ID -> 0
+                                else -> null
+                            }
+                        })
+                    }
+                    return cursor
+                }
                 val where = Expression.likeRaw(Columns.Column(CachedHashtags.NAME), "?||'%'", "^")
                 val whereArgs = arrayOf(queryEscaped)
                 val mappedProjection = nonNullProjection.mapToArray { hashtagsProjectionMap[it] }
@@ -181,6 +209,28 @@ object SuggestionsCursorCreator {
         return db.rawQuery(usersQuery.first.sql, usersQuery.second)
     }
 
+    /**
+     * Users from [AutoCompleteIndex], same columns as [suggestionUsersProjectionMap]
+     */
+    private fun getUsersCursor(projection: Array<String>, type: String,
+            users: List<AutoCompleteIndex.ScoredUser>): Cursor {
+        val cursor = MatrixCursor(projection)
+        users.forEach { (user) ->
+            cursor.addRow(projection.map { column ->
+                when (column) {
+                    Suggestions._ID -> user.id
+                    Suggestions.TYPE -> type
+                    Suggestions.TITLE -> user.name
+                    Suggestions.SUMMARY, Suggestions.VALUE -> user.screenName
+                    Suggestions.ICON -> user.profileImageUrl
+                    Suggestions.EXTRA_ID -> user.userKey
+                    else -> null
+                }
+            })
+        }
+        return cursor
+    }
+
     private fun getSavedSearchCursor(db: SQLiteDatabaseWrapper, projection: Array<String>, accountKey: UserKey): Cursor {
         val savedSearchesWhere = Expression.equalsArgs(SavedSearches.ACCOUNT_KEY)
         val whereArgs = arrayOf(accountKey.toString())
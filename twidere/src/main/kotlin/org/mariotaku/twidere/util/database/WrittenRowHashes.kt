@@ -0,0 +1,117 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.database
+
+import android.content.ContentValues
+import java.util.*
+
+/**
+ * Content hashes of rows last written by bulk insert, keyed by table and row key, so rows
+ * unchanged since can be skipped.
+ *
+ * Hashes only stand for database content while every other write to the table calls
+ * [invalidate]. Hashes are recorded only if table wasn't invalidated since [generation] taken.
+ */
+class WrittenRowHashes(private val maxRowsPerTable: Int = 2000) {
+
+    private val tables = HashMap<String, Table>()
+
+    @Synchronized
+    fun generation(table: String): Int {
+        return tables[table]?.generation ?: 0
+    }
+
+    /**
+     * @return Values changed since last [put], or without all of [keyColumns]
+     */
+    @Synchronized
+    fun filterChanged(table: String, valuesArray: Array<ContentValues>,
+            keyColumns: Array<String>): Array<ContentValues> {
+        val hashes = tables[table]?.hashes ?: return valuesArray
+        return valuesArray.filter { values ->
+            val key = rowKey(values, keyColumns) ?: return@filter true
+            return@filter hashes[key] != hash(values)
+        }.toTypedArray()
+    }
+
+    @Synchronized
+    fun put(table: String, generation: Int, valuesArray: Array<ContentValues>,
+            keyColumns: Array<String>) {
+        val entry = tables.getOrPut(table) { Table(maxRowsPerTable) }
+        if (entry.generation != generation) return
+        valuesArray.forEach { values ->
+            val key = rowKey(values, keyColumns) ?: return@forEach
+            entry.hashes[key] = hash(values)
+        }
+    }
+
+    @Synchronized
+    fun invalidate(table: String) {
+        val entry = tables.getOrPut(table) { Table(maxRowsPerTable) }
+        entry.hashes.clear()
+        entry.generation++
+    }
+
+    @Synchronized
+    fun clear() {
+        tables.keys.toList().forEach { invalidate(it) }
+    }
+
+    private class Table(maxRows: Int) {
+        var generation: Int = 0
+        val hashes = object : LinkedHashMap<String, Long>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Long>?): Boolean {
+                return size > maxRows
+            }
+        }
+    }
+
+    companion object {
+        private const val FNV_OFFSET_BASIS = -0x340d631b7bdddcdbL
+        private const val FNV_PRIME = 0x100000001b3L
+
+        private fun rowKey(values: ContentValues, keyColumns: Array<String>): String? {
+            val keys = keyColumns.map { values.getAsString(it) ?: return null }
+            return keys.joinToString("\u0000")
+        }
+
+        /**
+         * 64-bit FNV-1a of columns and values, independent of column order
+         */
+        internal fun hash(values: ContentValues): Long {
+            var hash = FNV_OFFSET_BASIS
+            fun update(c: Int) {
+                hash = (hash xor c.toLong()) * FNV_PRIME
+            }
+            values.keySet().sorted().forEach { column ->
+                column.forEach { update(it.toInt()) }
+                update(0)
+                val value = values.get(column)
+                when (value) {
+                    null -> update(1)
+                    is ByteArray -> value.forEach { update(it.toInt() and 0xFF) }
+                    else -> value.toString().forEach { update(it.toInt()) }
+                }
+                update(0)
+            }
+            return hash
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.filter
+
+import java.util.*
+
+/**
+ * Case-insensitive multi-pattern substring matcher.
+ *
+ * Every pattern carries an int payload, [match] returns bitwise OR of payloads of all patterns
+ * found in text, so a single pass over text is enough regardless of pattern count.
+ */
+class AhoCorasickMatcher private constructor(private val root: Node) {
+
+    val isEmpty: Boolean get() = root.children.isEmpty()
+
+    fun match(text: CharSequence?): Int {
+        if (text == null || isEmpty) return 0
+        var result = 0
+        var node = root
+        for (i in 0 until text.length) {
+            val ch = Character.toLowerCase(text[i])
+            while (node !== root && ch !in node.children) {
+                node = node.fail!!
+            }
+            node = node.children[ch] ?: root
+            result = result or node.output
+        }
+        return result
+    }
+
+    private class Node {
+        val children = HashMap<Char, Node>(4)
+        var fail: Node? = null
+        var output: Int = 0
+    }
+
+    class Builder {
+        private val root = Node()
+
+        fun add(pattern: String, payload: Int): Builder {
+            if (pattern.isEmpty() || payload == 0) return this
+            var node = root
+            for (ch in pattern) {
+                node = node.children.getOrPut(Character.toLowerCase(ch)) { Node() }
+            }
+            node.output = node.output or payload
+            return this
+        }
+
+        fun build(): AhoCorasickMatcher {
+            val queue = ArrayDeque<Node>()
+            root.fail = root
+            for (child in root.children.values) {
+                child.fail = root
+                queue.add(child)
+            }
+            while (queue.isNotEmpty()) {
+                val node = queue.poll()
+                for ((ch, child) in node.children) {
+                    var fail = node.fail!!
+                    while (fail !== root && ch !in fail.children) {
+                        fail = fail.fail!!
+                    }
+                    child.fail = fail.children[ch]?.takeIf { it !== child } ?: root
+                    child.output = child.output or child.fail!!.output
+                    queue.add(child)
+                }
+            }
+            return AhoCorasickMatcher(root)
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.filter
+
+import android.content.ContentValues
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import org.mariotaku.ktextension.queryReference
+import org.mariotaku.sqliteqb.library.Expression
+import org.mariotaku.twidere.annotation.FilterScope
+import org.mariotaku.twidere.provider.TwidereDataStore.Filters
+import org.mariotaku.twidere.provider.TwidereDataStore.Statuses
+import java.util.*
+
+/**
+ * Filter rules compiled from `filtered_*` tables.
+ *
+ * Keywords and links are matched with [AhoCorasickMatcher], users, sources and names are hashed,
+ * so evaluating a status costs O(text length) instead of O(rules). Result is a bitmask of
+ * [FilterScope] in which the status is filtered, stored in [Statuses.FILTERED_SCOPES].
+ */
+class ContentFilterEngine private constructor(
+        private val userScopes: Map<String, Int>,
+        private val sourceScopes: Map<String, Int>,
+        private val nameScopes: Map<String, Int>,
+        private val linksMatcher: AhoCorasickMatcher,
+        private val textsMatcher: AhoCorasickMatcher,
+        private val descriptionsMatcher: AhoCorasickMatcher
+) {
+
+    fun getFilteredScopes(users: String?, sources: String?, links: String?, names: String?,
+            texts: String?, descriptions: String?): Int {
+        return lineScopes(users, userScopes) or lineScopes(sources, sourceScopes) or
+                lineScopes(names, nameScopes) or linksMatcher.match(links) or
+                textsMatcher.match(texts) or descriptionsMatcher.match(descriptions)
+    }
+
+    /**
+     * Computes [Statuses.FILTERED_SCOPES] for status/activity values about to be inserted
+     */
+    fun applyTo(values: ContentValues) {
+        values.put(Statuses.FILTERED_SCOPES, getFilteredScopes(
+                values.getAsString(Statuses.FILTER_USERS),
+                values.getAsString(Statuses.FILTER_SOURCES),
+                values.getAsString(Statuses.FILTER_LINKS),
+                values.getAsString(Statuses.FILTER_NAMES),
+                values.getAsString(Statuses.FILTER_TEXTS),
+                values.getAsString(Statuses.FILTER_DESCRIPTIONS)))
+    }
+
+    /**
+     * Re-evaluates rows in [table] matching [selection], or every row if `null`. Only rows with
+     * changed result will be written.
+     *
+     * @return Number of rows updated
+     */
+    fun applyTo(db: SQLiteDatabase, table: String, selection: String? = null,
+            selectionArgs: Array<String>? = null): Int {
+        val projection = arrayOf(Statuses._ID, Statuses.FILTERED_SCOPES, Statuses.FILTER_USERS,
+                Statuses.FILTER_SOURCES, Statuses.FILTER_LINKS, Statuses.FILTER_NAMES,
+                Statuses.FILTER_TEXTS, Statuses.FILTER_DESCRIPTIONS)
+        var updated = 0
+        db.beginTransaction()
+        try {
+            val statement = db.compileStatement("UPDATE $table SET ${Statuses.FILTERED_SCOPES} = ? " +
+                    "WHERE ${Expression.equalsArgs(Statuses._ID).sql}")
+            db.queryReference(table, projection, selection, selectionArgs)?.use { (cur) ->
+                cur.moveToFirst()
+                while (!cur.isAfterLast) {
+                    val scopes = getFilteredScopes(cur.getString(2), cur.getString(3),
+                            cur.getString(4), cur.getString(5), cur.getString(6), cur.getString(7))
+                    if (scopes != cur.getInt(1)) {
+                        statement.bindLong(1, scopes.toLong())
+                        statement.bindLong(2, cur.getLong(0))
+                        updated += statement.executeUpdateDelete()
+                    }
+                    cur.moveToNext()
+                }
+            }
+            statement.close()
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        return updated
+    }
+
+    private fun lineScopes(lines: String?, scopes: Map<String, Int>): Int {
+        if (lines == null || scopes.isEmpty()) return 0
+        var result = 0
+        var start = 0
+        while (start <= lines.length) {
+            var end = lines.indexOf('\n', start)
+            if (end < 0) end = lines.length
+            result = result or (scopes[lines.unescapeLine(start, end)] ?: 0)
+            start = end + 1
+        }
+        return result
+    }
+
+    companion object {
+
+        /**
+         * Columns [Statuses.FILTERED_SCOPES] computed from
+         */
+        val FILTER_COLUMNS = arrayOf(Statuses.FILTER_USERS, Statuses.FILTER_SOURCES,
+                Statuses.FILTER_LINKS, Statuses.FILTER_NAMES, Statuses.FILTER_TEXTS,
+                Statuses.FILTER_DESCRIPTIONS)
+
+        val EMPTY = ContentFilterEngine(emptyMap(), emptyMap(), emptyMap(),
+                AhoCorasickMatcher.Builder().build(), AhoCorasickMatcher.Builder().build(),
+                AhoCorasickMatcher.Builder().build())
+
+        fun compile(db: SQLiteDatabase): ContentFilterEngine {
+            val userScopes = HashMap<String, Int>()
+            val sourceScopes = HashMap<String, Int>()
+            val nameScopes = HashMap<String, Int>()
+            val links = AhoCorasickMatcher.Builder()
+            val texts = AhoCorasickMatcher.Builder()
+            val descriptions = AhoCorasickMatcher.Builder()
+            db.forEachRule(Filters.Users.TABLE_NAME, Filters.Users.USER_KEY, Filters.Users.SCOPE) { value, scope ->
+                userScopes.addScope(value.toLowerCase(Locale.US), scope.scopeBits)
+            }
+            db.forEachRule(Filters.Sources.TABLE_NAME, Filters.Sources.VALUE, Filters.Sources.SCOPE) { value, scope ->
+                sourceScopes.addScope(value.toLowerCase(Locale.US), scope.scopeBits)
+            }
+            db.forEachRule(Filters.Links.TABLE_NAME, Filters.Links.VALUE, Filters.Links.SCOPE) { value, scope ->
+                links.add(value, scope.scopeBits)
+            }
+            db.forEachRule(Filters.Keywords.TABLE_NAME, Filters.Keywords.VALUE, Filters.Keywords.SCOPE) { value, scope ->
+                if (scope and FilterScope.MASK_TARGET == 0 || scope and FilterScope.TARGET_TEXT != 0) {
+                    texts.add(value, scope.scopeBits)
+                }
+                if (scope and FilterScope.TARGET_NAME != 0) {
+                    nameScopes.addScope(value.toLowerCase(Locale.US), scope.scopeBits)
+                }
+                if (scope and FilterScope.TARGET_DESCRIPTION != 0) {
+                    descriptions.add(value, scope.scopeBits)
+                }
+            }
+            return ContentFilterEngine(userScopes, sourceScopes, nameScopes, links.build(),
+                    texts.build(), descriptions.build())
+        }
+
+        /**
+         * Rules without any scope bit apply to all scopes
+         */
+        private val Int.scopeBits: Int
+            get() = (this and FilterScope.MASK_SCOPE).takeIf { it != 0 } ?: FilterScope.MASK_SCOPE
+
+        private fun MutableMap<String, Int>.addScope(key: String, scope: Int) {
+            put(key, (get(key) ?: 0) or scope)
+        }
+
+        private inline fun SQLiteDatabase.forEachRule(table: String, valueField: String,
+                scopeField: String, action: (value: String, scope: Int) -> Unit) {
+            queryReference(table, arrayOf(valueField, scopeField))?.use { (cur: Cursor) ->
+                cur.moveToFirst()
+                while (!cur.isAfterLast) {
+                    val value = cur.getString(0)
+                    if (!value.isNullOrEmpty()) {
+                        action(value, cur.getInt(1))
+                    }
+                    cur.moveToNext()
+                }
+            }
+        }
+
+        /**
+         * Filter columns stores one `\value\` item per line, see `FilterStringsFieldConverter`
+         */
+        private fun String.unescapeLine(start: Int, end: Int): String {
+            var s = start
+            var e = end
+            if (e - s >= 2 && this[s] == '\\' && this[e - 1] == '\\') {
+                s++
+                e--
+            }
+            return substring(s, e).toLowerCase(Locale.US)
+        }
+    }
+}
@@ -10,6 +10,20 @@ import java.io.IOException
  */
 
 abstract class LocalFiltersSubscriptionProvider(val context: Context) : FiltersSubscriptionProvider {
+
+    /**
+     * `true` if last [fetchFilters] succeeded but source didn't change since previous fetch,
+     * filters are not loaded and stored rules are up to date
+     */
+    var isNotModified: Boolean = false
+        protected set
+
+    /**
+     * Forget validators of previous fetch, so next [fetchFilters] loads full content
+     */
+    open fun dropValidators() {
+    }
+
     companion object {
         fun forName(context: Context, name: String, arguments: String?): FiltersSubscriptionProvider? {
             when (name) {
@@ -2,6 +2,7 @@ package org.mariotaku.twidere.util.filter
 
 import android.content.Context
 import android.net.Uri
+import okhttp3.HttpUrl
 import org.mariotaku.restfu.annotation.method.GET
 import org.mariotaku.restfu.http.HttpRequest
 import org.mariotaku.restfu.http.MultiValueMap
@@ -11,9 +12,10 @@ import org.mariotaku.twidere.extension.model.parse
 import org.mariotaku.twidere.extension.newPullParser
 import org.mariotaku.twidere.model.FiltersData
 import org.mariotaku.twidere.model.filter.UrlFiltersSubscriptionProviderArguments
-import org.mariotaku.twidere.util.ETagCache
 import org.mariotaku.twidere.util.JsonSerializer
+import org.mariotaku.twidere.util.cache.ConditionalRequestCache
 import org.mariotaku.twidere.util.dagger.GeneralComponent
+import org.mariotaku.twidere.util.okhttp.ConditionalRequestInterceptor
 import java.io.IOException
 import javax.inject.Inject
 
@@ -28,9 +30,16 @@ class UrlFiltersSubscriptionProvider(
     @Inject
     internal lateinit var restHttpClient: RestHttpClient
     @Inject
-    internal lateinit var etagCache: ETagCache
+    internal lateinit var conditionalRequestCache: ConditionalRequestCache
     private var filters: FiltersData? = null
 
+    /**
+     * Same key as used by [ConditionalRequestInterceptor]
+     */
+    private val cacheKey: String
+        get() = ConditionalRequestInterceptor.cacheKey(ConditionalRequestInterceptor.SCOPE_ANONYMOUS,
+                HttpUrl.parse(arguments.url)?.toString() ?: arguments.url)
+
     init {
         GeneralComponent.get(context).inject(this)
     }
@@ -41,48 +50,45 @@ class UrlFiltersSubscriptionProvider(
         builder.method(GET.METHOD)
         builder.url(arguments.url)
         val headers = MultiValueMap<String>()
-        etagCache[arguments.url]?.let { etag ->
-            headers.add("If-None-Match", etag)
-        }
-
+        // Validators are sent and recorded by ConditionalRequestInterceptor
+        headers.add(ConditionalRequestInterceptor.HEADER_CONDITIONAL,
+                ConditionalRequestInterceptor.SCOPE_ANONYMOUS)
         builder.headers(headers)
         val request = builder.build()
+        isNotModified = false
         restHttpClient.newCall(request).execute().use { response ->
+            if (response.status == 304) {
+                isNotModified = true
+                return true
+            }
             if (response.status != 200) {
                 return false
             }
-            val etag = response.getHeader("ETag")
-            this.filters = response.body?.let { body ->
-                when (response.body.contentType()?.contentType) {
-                    "application/json" -> {
-                        return@let body.toJsonFilters()
-                    }
-                    "application/xml", "text/xml" -> {
-                        return@let body.toXmlFilters()
-                    }
-                    else -> {
-                        // Infer from extension
-                        val uri = Uri.parse(arguments.url)
-                        when (uri.lastPathSegment?.substringAfterLast('.')) {
-                            "xml" -> return@let body.toXmlFilters()
-                            "json" -> return@let body.toJsonFilters()
-                        }
-                        return@let null
-                    }
-                }
+            this.filters = try {
+                response.body?.parseFilters()
+            } catch (e: IOException) {
+                conditionalRequestCache.remove(cacheKey)
+                throw e
+            }
+            if (this.filters == null) {
+                // Don't get 304 for unusable content next time
+                conditionalRequestCache.remove(cacheKey)
             }
-            etagCache[arguments.url] = etag
             return true
         }
     }
 
+    override fun dropValidators() {
+        conditionalRequestCache.remove(cacheKey)
+    }
+
     override fun firstAdded(): Boolean {
-        etagCache[arguments.url] = null
+        dropValidators()
         return true
     }
 
     override fun deleteLocalData(): Boolean {
-        etagCache[arguments.url] = null
+        dropValidators()
         return true
     }
 
@@ -102,6 +108,26 @@ class UrlFiltersSubscriptionProvider(
         return filters?.links
     }
 
+    private fun Body.parseFilters(): FiltersData? {
+        when (contentType()?.contentType) {
+            "application/json" -> {
+                return toJsonFilters()
+            }
+            "application/xml", "text/xml" -> {
+                return toXmlFilters()
+            }
+            else -> {
+                // Infer from extension
+                val uri = Uri.parse(arguments.url)
+                when (uri.lastPathSegment?.substringAfterLast('.')) {
+                    "xml" -> return toXmlFilters()
+                    "json" -> return toJsonFilters()
+                }
+                return null
+            }
+        }
+    }
+
     private fun Body.toJsonFilters(): FiltersData? {
         return JsonSerializer.parse(stream(), FiltersData::class.java)
     }
@@ -36,6 +36,8 @@ import org.mariotaku.twidere.util.dagger.DependencyHolder
 import org.mariotaku.twidere.util.glide.NoThumborUrlLoader.Companion.HEADER_NO_THUMBOR
 import org.mariotaku.twidere.util.media.ThumborWrapper
 import org.mariotaku.twidere.util.okhttp.ModifyRequestInterceptor
+import org.mariotaku.twidere.util.okhttp.PerformanceInterceptor
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
 import java.io.InputStream
 
 class TwidereGlideModule : GlideModule {
@@ -55,6 +57,7 @@ class TwidereGlideModule : GlideModule {
             null
         }
         builder.addInterceptor(ModifyRequestInterceptor(ThumborModifier(thumbor), UserAgentModifier(userAgent)))
+        builder.addInterceptor(PerformanceInterceptor(PerformanceMonitor.IMAGE))
         val client = builder.build()
         glide.register(GlideUrl::class.java, InputStream::class.java, OkHttpUrlLoader.Factory(client))
         glide.register(AuthenticatedUri::class.java, InputStream::class.java, AuthenticatedUriLoader.Factory(client))
@@ -22,36 +22,87 @@ package org.mariotaku.twidere.util.media
 import android.content.Context
 import android.content.SharedPreferences
 import com.bumptech.glide.Glide
+import com.bumptech.glide.request.FutureTarget
 import com.bumptech.glide.request.target.Target
 import org.mariotaku.kpreferences.get
 import org.mariotaku.twidere.constant.mediaPreloadKey
 import org.mariotaku.twidere.constant.mediaPreloadOnWifiOnlyKey
-import org.mariotaku.twidere.extension.loadProfileImage
+import org.mariotaku.twidere.extension.model.activityStatus
 import org.mariotaku.twidere.model.ParcelableActivity
 import org.mariotaku.twidere.model.ParcelableMedia
 import org.mariotaku.twidere.model.ParcelableStatus
-import org.mariotaku.twidere.extension.model.activityStatus
+import java.io.File
+import java.util.*
 
+/**
+ * Preloads profile images and media previews of refreshed timelines.
+ *
+ * Each refresh is limited by a byte budget depending on network type, profile images are
+ * preloaded before media, newest items first. URLs already requested won't be loaded again.
+ *
+ * Images are only downloaded into cache, no decoded bitmap is kept in memory.
+ */
 class MediaPreloader(val context: Context) {
 
     var isNetworkMetered: Boolean = true
+        set(value) {
+            field = value
+            // e.g. switched from Wi-Fi to mobile data
+            if (!shouldPreload) cancelAll()
+        }
 
     private var preloadEnabled: Boolean = false
     private var preloadOnWifiOnly: Boolean = true
 
     private val shouldPreload: Boolean get() = preloadEnabled && (!preloadOnWifiOnly || !isNetworkMetered)
 
+    private val requestedUrls = object : LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Boolean>?): Boolean {
+            return size > MAX_REQUESTED_URLS
+        }
+    }
 
-    fun preloadStatus(status: ParcelableStatus) {
-        if (!shouldPreload) return
-        preLoadProfileImage(status)
-        preloadMedia(status.media)
-        preloadMedia(status.quoted_media)
+    /**
+     * Preloads in progress of each timeline, cancelled once timeline refreshed again
+     */
+    private val pendingTargets = HashMap<String, List<Pair<String, FutureTarget<File>>>>()
+
+    /**
+     * @param timeline Key of refreshed timeline, previous preloads of the same key will be
+     * cancelled
+     */
+    @Synchronized
+    fun preloadStatuses(timeline: String, statuses: List<ParcelableStatus>) {
+        cancel(timeline)
+        if (!shouldPreload || statuses.isEmpty()) return
+        val budget = if (isNetworkMetered) METERED_BUDGET else UNMETERED_BUDGET
+        val requests = plan(statuses, budget) { it in requestedUrls }
+        pendingTargets[timeline] = requests.map { request ->
+            requestedUrls[request.url] = true
+            return@map Pair(request.url, preload(request))
+        }
+    }
+
+    fun preloadActivities(timeline: String, activities: List<ParcelableActivity>) {
+        preloadStatuses(timeline, activities.mapNotNull { it.activityStatus })
+    }
+
+    /**
+     * Cancels unfinished preloads of [timeline] and releases finished ones
+     */
+    @Synchronized
+    fun cancel(timeline: String) {
+        pendingTargets.remove(timeline)?.forEach { (url, target) ->
+            if (!target.isDone) {
+                requestedUrls.remove(url)
+            }
+            Glide.clear(target)
+        }
     }
 
-    fun preloadActivity(activity: ParcelableActivity) {
-        if (!shouldPreload) return
-        activity.activityStatus?.let { preloadStatus(it) }
+    @Synchronized
+    fun cancelAll() {
+        pendingTargets.keys.toList().forEach { cancel(it) }
     }
 
     fun reloadOptions(preferences: SharedPreferences) {
@@ -59,24 +110,74 @@ class MediaPreloader(val context: Context) {
         preloadOnWifiOnly = preferences[mediaPreloadOnWifiOnlyKey]
     }
 
-    private fun preloadMedia(media: Array<ParcelableMedia>?) {
-        media?.forEach { item ->
-            val url = item.preview_url ?: run {
-                if (item.type != ParcelableMedia.Type.IMAGE) return@run null
-                return@run item.media_url
-            } ?: return@forEach
-            preloadPreviewImage(url)
-        }
-    }
-
-    private fun preLoadProfileImage(status: ParcelableStatus) {
-        Glide.with(context).loadProfileImage(context, status, 0).into(Target.SIZE_ORIGINAL,
+    private fun preload(request: PreloadRequest): FutureTarget<File> {
+        // Profile image URL is the same one loadProfileImage(status) loads
+        return Glide.with(context).load(request.url).downloadOnly(Target.SIZE_ORIGINAL,
                 Target.SIZE_ORIGINAL)
     }
 
-    private fun preloadPreviewImage(url: String?) {
-        Glide.with(context).load(url).into(Target.SIZE_ORIGINAL,
-                Target.SIZE_ORIGINAL)
+    internal class PreloadRequest(
+            val url: String,
+            val status: ParcelableStatus,
+            val isProfileImage: Boolean,
+            val estimatedBytes: Long
+    )
+
+    companion object {
+
+        private const val MAX_REQUESTED_URLS = 2048
+
+        /**
+         * Bytes preloaded for each refresh on metered network
+         */
+        const val METERED_BUDGET = 2L * 1024 * 1024
+        const val UNMETERED_BUDGET = 16L * 1024 * 1024
+
+        private const val PROFILE_IMAGE_BYTES = 4L * 1024
+        private const val UNKNOWN_MEDIA_BYTES = 80L * 1024
+        // Previews are resized to at most 680px by server
+        private const val PREVIEW_MAX_PIXELS = 680L * 680
+        private const val BYTES_PER_PIXEL = 0.25
+
+        /**
+         * Chooses images to preload within [budget], newest statuses first and profile images
+         * before media. URLs [isRequested] or appearing more than once are skipped.
+         */
+        internal fun plan(statuses: List<ParcelableStatus>, budget: Long,
+                isRequested: (String) -> Boolean): List<PreloadRequest> {
+            val sorted = statuses.sortedByDescending { it.timestamp }
+            val candidates = ArrayList<PreloadRequest>()
+            sorted.forEach { status ->
+                val url = status.user_profile_image_url ?: return@forEach
+                candidates.add(PreloadRequest(url, status, true, PROFILE_IMAGE_BYTES))
+            }
+            sorted.forEach { status ->
+                status.media?.forEach { candidates.addMedia(status, it) }
+                status.quoted_media?.forEach { candidates.addMedia(status, it) }
+            }
+            val urls = HashSet<String>()
+            var remaining = budget
+            return candidates.filter { request ->
+                if (request.estimatedBytes > remaining) return@filter false
+                if (isRequested(request.url) || !urls.add(request.url)) return@filter false
+                remaining -= request.estimatedBytes
+                return@filter true
+            }
+        }
+
+        private fun MutableList<PreloadRequest>.addMedia(status: ParcelableStatus, media: ParcelableMedia) {
+            val url = media.preview_url ?: run {
+                if (media.type != ParcelableMedia.Type.IMAGE) return@run null
+                return@run media.media_url
+            } ?: return
+            add(PreloadRequest(url, status, false, estimateBytes(media)))
+        }
+
+        private fun estimateBytes(media: ParcelableMedia): Long {
+            if (media.width <= 0 || media.height <= 0) return UNKNOWN_MEDIA_BYTES
+            val pixels = Math.min(media.width.toLong() * media.height, PREVIEW_MAX_PIXELS)
+            return (pixels * BYTES_PER_PIXEL).toLong()
+        }
     }
 
 }
@@ -0,0 +1,98 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.net
+
+import java.net.InetAddress
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * LRU cache of resolved hosts, TTL clamped into [[minTtlMillis], [maxTtlMillis]].
+ *
+ * Failed lookups are cached as negative entries (with `null` addresses). Timestamps are passed
+ * in by caller, use a monotonic clock like `SystemClock.elapsedRealtime()`.
+ */
+class DnsCache(
+        private val maxSize: Int = 128,
+        private val minTtlMillis: Long = TimeUnit.SECONDS.toMillis(30),
+        private val maxTtlMillis: Long = TimeUnit.HOURS.toMillis(1)
+) {
+
+    private val entries = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?): Boolean {
+            return size > maxSize
+        }
+    }
+
+    /**
+     * @return Entry not expired yet, or null
+     */
+    @Synchronized
+    operator fun get(host: String, now: Long): Entry? {
+        val key = host.toLowerCase(Locale.US)
+        val entry = entries[key] ?: return null
+        if (now >= entry.expiresAt) {
+            entries.remove(key)
+            return null
+        }
+        entry.hits.incrementAndGet()
+        return entry
+    }
+
+    @Synchronized
+    fun put(host: String, addresses: List<InetAddress>, ttlMillis: Long, now: Long) {
+        val ttl = ttlMillis.coerceIn(minTtlMillis, maxTtlMillis)
+        entries[host.toLowerCase(Locale.US)] = Entry(addresses, now + ttl, ttl)
+    }
+
+    @Synchronized
+    fun putNegative(host: String, now: Long) {
+        entries[host.toLowerCase(Locale.US)] = Entry(null, now + minTtlMillis, minTtlMillis)
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    /**
+     * Claims refresh of a hot entry close to expiry, only one caller gets true for each entry
+     */
+    fun claimRefresh(entry: Entry, now: Long): Boolean {
+        if (entry.addresses == null || entry.hits.get() < HOT_ENTRY_HITS) return false
+        if (entry.expiresAt - now > entry.ttlMillis / 4) return false
+        return entry.refreshing.compareAndSet(false, true)
+    }
+
+    class Entry internal constructor(
+            val addresses: List<InetAddress>?,
+            val expiresAt: Long,
+            val ttlMillis: Long
+    ) {
+        internal val hits = AtomicInteger()
+        internal val refreshing = AtomicBoolean()
+    }
+
+    companion object {
+        private const val HOT_ENTRY_HITS = 3
+    }
+}
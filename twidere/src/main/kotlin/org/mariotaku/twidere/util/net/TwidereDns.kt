@@ -21,6 +21,7 @@ package org.mariotaku.twidere.util.net
 
 import android.content.Context
 import android.content.SharedPreferences
+import android.os.SystemClock
 import android.util.Log
 import android.util.TimingLogger
 import okhttp3.Dns
@@ -28,11 +29,14 @@ import org.mariotaku.ktextension.toIntOr
 import org.mariotaku.twidere.BuildConfig
 import org.mariotaku.twidere.TwidereConstants.HOST_MAPPING_PREFERENCES_NAME
 import org.mariotaku.twidere.constant.SharedPreferenceConstants.*
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
 import org.xbill.DNS.*
 import java.io.IOException
 import java.net.InetAddress
 import java.net.UnknownHostException
 import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import javax.inject.Singleton
 
 @Singleton
@@ -41,18 +45,35 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
     private val hostMapping = context.getSharedPreferences(HOST_MAPPING_PREFERENCES_NAME,
             Context.MODE_PRIVATE)
     private val systemHosts = SystemHosts()
+    private val cache = DnsCache()
+
+    private val refreshExecutor by lazy {
+        Executors.newSingleThreadExecutor { runnable ->
+            val thread = Thread(runnable, "twidere-dns-refresh")
+            thread.priority = Thread.MIN_PRIORITY
+            return@newSingleThreadExecutor thread
+        }
+    }
+
+    @Volatile
+    private var mappingMatcher: HostMappingMatcher? = null
+    // SharedPreferences holds listeners weakly
+    private val mappingChangeListener = SharedPreferences.OnSharedPreferenceChangeListener { _, _ ->
+        mappingMatcher = null
+    }
 
     private var resolver: Resolver? = null
     private var useResolver: Boolean = false
 
     init {
         reloadDnsSettings()
+        hostMapping.registerOnSharedPreferenceChangeListener(mappingChangeListener)
     }
 
     @Throws(UnknownHostException::class)
     override fun lookup(hostname: String): List<InetAddress> {
         try {
-            return resolveInternal(hostname, hostname, 0, useResolver)
+            return resolveInternal(hostname, hostname, 0, useResolver, true)
         } catch (e: IOException) {
             if (e is UnknownHostException) throw e
             throw UnknownHostException("Unable to resolve address " + e.message)
@@ -65,7 +86,7 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
     @Throws(UnknownHostException::class)
     fun lookupResolver(hostname: String): List<InetAddress> {
         try {
-            return resolveInternal(hostname, hostname, 0, true)
+            return resolveInternal(hostname, hostname, 0, true, false)
         } catch (e: IOException) {
             if (e is UnknownHostException) throw e
             throw UnknownHostException("Unable to resolve address " + e.message)
@@ -78,6 +99,7 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
     fun reloadDnsSettings() {
         this.resolver = null
         useResolver = preferences.getBoolean(KEY_BUILTIN_DNS_RESOLVER, false)
+        cache.clear()
     }
 
     fun putMapping(host: String, address: String) {
@@ -92,7 +114,7 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
 
     @Throws(IOException::class, SecurityException::class)
     private fun resolveInternal(originalHost: String, host: String, depth: Int,
-            useResolver: Boolean): List<InetAddress> {
+            useResolver: Boolean, useCache: Boolean): List<InetAddress> {
         val logger = TimingLogger(RESOLVER_LOGTAG, "resolve")
         // Return if host is an address
         val fromAddressString = fromAddressString(originalHost, host)
@@ -109,6 +131,47 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
             dumpLog(logger, fromMapping)
             return fromMapping
         }
+        if (!useCache) {
+            return resolveUncached(originalHost, host, depth, useResolver, logger).addresses
+        }
+        val now = SystemClock.elapsedRealtime()
+        val cached = cache[host, now]
+        if (cached != null) {
+            addLogSplit(logger, host, "cache hit", depth)
+            if (cache.claimRefresh(cached, now)) {
+                refreshExecutor.execute { refreshCache(originalHost, host, useResolver) }
+            }
+            val addresses = cached.addresses ?: throw UnknownHostException("unknown host (cached)")
+            dumpLog(logger, addresses)
+            return addresses
+        }
+        try {
+            val resolution = PerformanceMonitor.trace(PerformanceMonitor.DNS, host) {
+                resolveUncached(originalHost, host, depth, useResolver, logger)
+            }
+            cache.put(host, resolution.addresses, resolution.ttlMillis, SystemClock.elapsedRealtime())
+            return resolution.addresses
+        } catch (e: NameNotFoundException) {
+            cache.putNegative(host, SystemClock.elapsedRealtime())
+            throw e
+        }
+    }
+
+    private fun refreshCache(originalHost: String, host: String, useResolver: Boolean) {
+        val logger = TimingLogger(RESOLVER_LOGTAG, "refresh")
+        try {
+            val resolution = resolveUncached(originalHost, host, 0, useResolver, logger)
+            cache.put(host, resolution.addresses, resolution.ttlMillis, SystemClock.elapsedRealtime())
+        } catch (e: IOException) {
+            // Keep current entry until it expires
+        } catch (e: SecurityException) {
+            // Ignore
+        }
+    }
+
+    @Throws(IOException::class, SecurityException::class)
+    private fun resolveUncached(originalHost: String, host: String, depth: Int, useResolver: Boolean,
+            logger: TimingLogger): Resolution {
         if (useResolver) {
             // Load from /etc/hosts, since Dnsjava doesn't support hosts entry lookup
             addLogSplit(logger, host, "start /etc/hosts resolve", depth)
@@ -116,7 +179,7 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
             addLogSplit(logger, host, "end /etc/hosts resolve", depth)
             if (fromSystemHosts != null) {
                 dumpLog(logger, fromSystemHosts)
-                return fromSystemHosts
+                return Resolution(fromSystemHosts, DEFAULT_TTL_MILLIS)
             }
 
             // Use DNS resolver
@@ -124,7 +187,7 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
             val fromResolver = fromResolver(originalHost, host)
             addLogSplit(logger, host, "end resolver resolve", depth)
             if (fromResolver != null) {
-                dumpLog(logger, fromResolver)
+                dumpLog(logger, fromResolver.addresses)
                 return fromResolver
             }
         }
@@ -132,7 +195,7 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
         val fromDefault = Arrays.asList(*InetAddress.getAllByName(host))
         addLogSplit(logger, host, "end system default resolve", depth)
         dumpLog(logger, fromDefault)
-        return fromDefault
+        return Resolution(fromDefault, DEFAULT_TTL_MILLIS)
     }
 
     private fun dumpLog(logger: TimingLogger, addresses: List<InetAddress>) {
@@ -164,15 +227,17 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
     }
 
     @Throws(IOException::class)
-    private fun fromResolver(originalHost: String, host: String): List<InetAddress>? {
+    private fun fromResolver(originalHost: String, host: String): Resolution? {
         val resolver = this.getResolver()
         val records = lookupHostName(resolver, host, true)
         val addrs = ArrayList<InetAddress>(records.size)
+        var ttl = Long.MAX_VALUE
         for (record in records) {
             addrs.add(addrFromRecord(originalHost, record))
+            ttl = Math.min(ttl, record.ttl)
         }
         if (addrs.isEmpty()) return null
-        return addrs
+        return Resolution(addrs, TimeUnit.SECONDS.toMillis(ttl))
     }
 
     @Throws(UnknownHostException::class)
@@ -181,20 +246,19 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
     }
 
     @Throws(UnknownHostException::class)
-    private fun getFromMappingInternal(host: String, origHost: String, checkRecursive: Boolean): List<InetAddress>? {
-        if (checkRecursive && hostMatches(host, origHost)) {
+    private fun getFromMappingInternal(host: String, origHost: String, checkRecursive: Boolean,
+            depth: Int = 0): List<InetAddress>? {
+        if (checkRecursive && hostMatches(host, origHost) || depth > MAX_MAPPING_DEPTH) {
             // Recursive resolution, stop this call
             return null
         }
-        for ((key, value1) in hostMapping.all) {
-            if (hostMatches(host, key)) {
-                val value = value1 as String
-                val resolved = getResolvedIPAddress(origHost, value) ?: // Maybe another hostname
-                        return getFromMappingInternal(value, origHost, true)
-                return listOf(resolved)
-            }
+        val matcher = mappingMatcher ?: HostMappingMatcher(hostMapping.all).also {
+            mappingMatcher = it
         }
-        return null
+        val value = matcher.match(host) ?: return null
+        val resolved = getResolvedIPAddress(origHost, value) ?: // Maybe another hostname
+                return getFromMappingInternal(value, origHost, true, depth + 1)
+        return listOf(resolved)
     }
 
     private fun getResolver(): Resolver {
@@ -238,6 +302,11 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
 
         private val RESOLVER_LOGTAG = "TwidereDns"
 
+        /**
+         * Used when TTL is unknown (system resolver and hosts file)
+         */
+        private val DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1)
+        private val MAX_MAPPING_DEPTH = 8
 
         private fun hostMatches(host: String?, rule: String?): Boolean {
             if (rule == null || host == null) return false
@@ -281,6 +350,11 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
 //                        val aaaa = newLookup(resolver, name, Type.AAAA).run()
 //                        if (aaaa != null) return aaaa
                     }
+                    when (lookup.result) {
+                        Lookup.HOST_NOT_FOUND, Lookup.TYPE_NOT_FOUND -> {
+                            throw NameNotFoundException("unknown host")
+                        }
+                    }
                     throw UnknownHostException("unknown host")
                 }
                 if (!all)
@@ -313,6 +387,47 @@ class TwidereDns(val context: Context, private val preferences: SharedPreference
         }
     }
 
+    private class Resolution(val addresses: List<InetAddress>, val ttlMillis: Long)
+
+    /**
+     * Authoritative "no such host" answer, safe for negative caching
+     */
+    private class NameNotFoundException(message: String) : UnknownHostException(message)
+
+    /**
+     * Host mapping rules indexed by host, rules starting with `.` match host suffix.
+     * Exact rule wins, then the longest suffix.
+     */
+    private class HostMappingMatcher(mapping: Map<String, *>) {
+
+        private val exact = HashMap<String, String>()
+        private val suffixes = HashMap<String, String>()
+
+        init {
+            for ((key, value) in mapping) {
+                if (value !is String) continue
+                val rule = key.toLowerCase(Locale.US)
+                if (rule.startsWith(".")) {
+                    suffixes[rule] = value
+                } else {
+                    exact[rule] = value
+                }
+            }
+        }
+
+        fun match(host: String): String? {
+            val lowerHost = host.toLowerCase(Locale.US)
+            exact[lowerHost]?.let { return it }
+            if (suffixes.isEmpty()) return null
+            var index = lowerHost.indexOf('.')
+            while (index >= 0) {
+                suffixes[lowerHost.substring(index)]?.let { return it }
+                index = lowerHost.indexOf('.', index + 1)
+            }
+            return null
+        }
+    }
+
     class MappingTransaction(private val editor: SharedPreferences.Editor) {
         operator fun set(host: String, address: String) {
             editor.putString(host, address)
@@ -63,6 +63,7 @@ import org.mariotaku.twidere.service.LengthyOperationsService
 import org.mariotaku.twidere.util.*
 import org.mariotaku.twidere.util.Utils
 import org.mariotaku.twidere.util.database.ContentFiltersUtils
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
 import org.oshkimaadziig.george.androidutils.SpanFormatter
 
 class ContentNotificationManager(
@@ -81,6 +82,12 @@ class ContentNotificationManager(
     }
 
     fun showTimeline(pref: AccountPreferences, minPositionKey: Long) {
+        PerformanceMonitor.trace(PerformanceMonitor.NOTIFICATION, "timeline") {
+            buildTimelineNotification(pref, minPositionKey)
+        }
+    }
+
+    private fun buildTimelineNotification(pref: AccountPreferences, minPositionKey: Long) {
         val accountKey = pref.accountKey
         val resources = context.resources
         val selection = Expression.and(Expression.equalsArgs(Statuses.ACCOUNT_KEY),
@@ -166,6 +173,12 @@ class ContentNotificationManager(
     }
 
     fun showInteractions(pref: AccountPreferences, position: Long) {
+        PerformanceMonitor.trace(PerformanceMonitor.NOTIFICATION, "interactions") {
+            buildInteractionsNotification(pref, position)
+        }
+    }
+
+    private fun buildInteractionsNotification(pref: AccountPreferences, position: Long) {
         val am = AccountManager.get(context)
         val cr = context.contentResolver
         val accountKey = pref.accountKey
@@ -272,6 +285,10 @@ class ContentNotificationManager(
     }
 
     fun showMessages(pref: AccountPreferences) {
+        PerformanceMonitor.trace(PerformanceMonitor.NOTIFICATION, "messages") { buildMessagesNotification(pref) }
+    }
+
+    private fun buildMessagesNotification(pref: AccountPreferences) {
         val resources = context.resources
         val accountKey = pref.accountKey
         val cr = context.contentResolver
@@ -0,0 +1,72 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.okhttp
+
+import okhttp3.Interceptor
+import okhttp3.Response
+import org.mariotaku.twidere.util.cache.ConditionalRequestCache
+
+/**
+ * Sends requests marked with [HEADER_CONDITIONAL] as conditional requests, using validators
+ * recorded from previous responses. Header value is the credentials scope, so validators recorded
+ * for one account are never sent for another.
+ *
+ * `304 Not Modified` is passed to caller as is, callers should treat it as "nothing changed".
+ */
+class ConditionalRequestInterceptor(private val cache: ConditionalRequestCache) : Interceptor {
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val scope = request.header(HEADER_CONDITIONAL) ?: return chain.proceed(request)
+        val key = cacheKey(scope, request.url().toString())
+        val builder = request.newBuilder().removeHeader(HEADER_CONDITIONAL)
+        // Don't override validators sent by caller
+        if (request.header(IF_NONE_MATCH) == null && request.header(IF_MODIFIED_SINCE) == null) {
+            cache.getForRequest(key)?.let { (etag, lastModified) ->
+                etag?.let { builder.header(IF_NONE_MATCH, it) }
+                lastModified?.let { builder.header(IF_MODIFIED_SINCE, it) }
+            }
+        }
+        val response = chain.proceed(builder.build())
+        when {
+            response.code() == 304 -> cache.onNotModified(key)
+            response.isSuccessful -> cache.put(key, response.header("ETag"),
+                    response.header("Last-Modified"))
+        }
+        return response
+    }
+
+    companion object {
+        /**
+         * Marks request as conditional, removed before sending
+         */
+        const val HEADER_CONDITIONAL = "X-Twidere-Conditional"
+
+        /**
+         * Scope of requests sent without credentials
+         */
+        const val SCOPE_ANONYMOUS = "anonymous"
+
+        private const val IF_NONE_MATCH = "If-None-Match"
+        private const val IF_MODIFIED_SINCE = "If-Modified-Since"
+
+        fun cacheKey(scope: String, url: String) = "$scope|$url"
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.okhttp
+
+import okhttp3.HttpUrl
+import okhttp3.Interceptor
+import okhttp3.Response
+import org.mariotaku.twidere.util.perf.PerformanceMonitor
+
+/**
+ * Records request latency (until response headers received) to [PerformanceMonitor]
+ *
+ * @param category [PerformanceMonitor.HTTP] for API calls, grouped by endpoint;
+ * [PerformanceMonitor.IMAGE] for media, grouped by host
+ */
+class PerformanceInterceptor(private val category: String) : Interceptor {
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (!PerformanceMonitor.isEnabled) return chain.proceed(request)
+        val name = if (category == PerformanceMonitor.HTTP) {
+            endpoint(request.method(), request.url())
+        } else {
+            request.url().host()
+        }
+        return PerformanceMonitor.trace(category, name) { chain.proceed(request) }
+    }
+
+    companion object {
+
+        private val idSegmentRegex = Regex("^\\d+(\\.[a-z]+)?$")
+
+        /**
+         * IDs in path (`statuses/show/123.json`) are replaced, so same endpoint falls into one group
+         */
+        fun endpoint(method: String, url: HttpUrl): String {
+            val path = url.pathSegments().joinToString("/") { segment ->
+                idSegmentRegex.find(segment)?.let { ":id${it.groupValues[1]}" } ?: segment
+            }
+            return "$method ${url.host()}/$path"
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.okhttp
+
+import okhttp3.*
+import org.mariotaku.twidere.util.refresh.RateLimitTracker
+
+/**
+ * Records rate limit headers from responses, and fails requests known to be rate limited locally
+ * with `429 Too Many Requests` until limit resets, instead of sending them to server.
+ */
+class RateLimitInterceptor(private val tracker: RateLimitTracker) : Interceptor {
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val key = RateLimitTracker.key(request.url(), request.header("Authorization"))
+        if (tracker.isLimited(key)) {
+            return Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(429)
+                    .message("Rate limit exceeded")
+                    .body(ResponseBody.create(null, ""))
+                    .build()
+        }
+        val response = chain.proceed(request)
+        tracker.update(key, response.header("x-rate-limit-remaining"),
+                response.header("x-rate-limit-reset"))
+        return response
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.perf
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock free latency histogram with log scale buckets in microseconds, four buckets per power of
+ * two, so percentiles are accurate to about 12%. Recording is a few atomic increments and takes
+ * fixed memory no matter how many values are recorded.
+ */
+class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+    private val countValue = AtomicLong()
+    private val sumValue = AtomicLong()
+    private val maxValue = AtomicLong()
+
+    val count: Long get() = countValue.get()
+
+    /**
+     * Maximum recorded value in microseconds
+     */
+    val max: Long get() = maxValue.get()
+
+    /**
+     * Average in microseconds
+     */
+    val mean: Long
+        get() {
+            val count = countValue.get()
+            if (count == 0L) return 0
+            return sumValue.get() / count
+        }
+
+    fun recordNanos(nanos: Long) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos))
+    }
+
+    fun record(micros: Long) {
+        val value = if (micros < 0) 0 else micros
+        buckets.incrementAndGet(bucketIndex(value))
+        countValue.incrementAndGet()
+        sumValue.addAndGet(value)
+        while (true) {
+            val max = maxValue.get()
+            if (value <= max || maxValue.compareAndSet(max, value)) break
+        }
+    }
+
+    /**
+     * @param p Percentile in range `0..1`
+     * @return Estimated value in microseconds, 0 if nothing recorded
+     */
+    fun percentile(p: Double): Long {
+        val count = countValue.get()
+        if (count == 0L) return 0
+        val rank = Math.max(1, Math.ceil(p * count).toLong())
+        var seen = 0L
+        for (i in 0 until BUCKET_COUNT) {
+            seen += buckets.get(i)
+            if (seen >= rank) {
+                // Middle of bucket, never more than what actually recorded
+                val mid = (lowerBound(i) + lowerBound(i + 1) - 1) / 2
+                return Math.min(mid, maxValue.get())
+            }
+        }
+        return maxValue.get()
+    }
+
+    fun reset() {
+        for (i in 0 until BUCKET_COUNT) {
+            buckets.set(i, 0)
+        }
+        countValue.set(0)
+        sumValue.set(0)
+        maxValue.set(0)
+    }
+
+    companion object {
+        private const val SUB_BUCKETS = 4
+        // Up to 2^40 µs, about 12 days
+        private const val MAX_OCTAVE = 40
+        private const val BUCKET_COUNT = (MAX_OCTAVE - 1) * SUB_BUCKETS
+
+        internal fun bucketIndex(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val octave = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val sub = (value ushr (octave - 2)).toInt() and (SUB_BUCKETS - 1)
+            return Math.min(SUB_BUCKETS * (octave - 1) + sub, BUCKET_COUNT - 1)
+        }
+
+        internal fun lowerBound(index: Int): Long {
+            if (index < SUB_BUCKETS) return index.toLong()
+            val octave = index / SUB_BUCKETS + 1
+            val sub = index % SUB_BUCKETS
+            return (SUB_BUCKETS + sub).toLong() shl (octave - 2)
+        }
+    }
+}
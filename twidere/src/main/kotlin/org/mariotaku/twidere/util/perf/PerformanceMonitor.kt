@@ -0,0 +1,124 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.perf
+
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Collects latency histograms of hot paths like HTTP calls, JSON decoding and provider
+ * operations, grouped by category and name (endpoint, table, etc.).
+ *
+ * Disabled by default, a disabled [trace] costs one volatile read.
+ */
+object PerformanceMonitor {
+
+    const val HTTP = "http"
+    const val IMAGE = "image"
+    const val DNS = "dns"
+    const val JSON = "json"
+    const val STATUS_CONVERSION = "status_conversion"
+    const val PROVIDER_INSERT = "provider_insert"
+    const val PROVIDER_QUERY = "provider_query"
+    const val NOTIFICATION = "notification"
+
+    /**
+     * Names like endpoints come from outside, keep memory bounded
+     */
+    private const val MAX_NAMES_PER_CATEGORY = 128
+    private const val OTHER_NAME = "(other)"
+
+    @Volatile
+    var isEnabled: Boolean = false
+
+    private val histograms = ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>>()
+
+    inline fun <T> trace(category: String, name: String, block: () -> T): T {
+        if (!isEnabled) return block()
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(category, name, System.nanoTime() - start)
+        }
+    }
+
+    fun record(category: String, name: String, nanos: Long) {
+        if (!isEnabled) return
+        val names = histograms.getOrPut(category) { ConcurrentHashMap() }
+        val histogram = names[name] ?: if (names.size < MAX_NAMES_PER_CATEGORY) {
+            names.getOrPut(name) { LatencyHistogram() }
+        } else {
+            names.getOrPut(OTHER_NAME) { LatencyHistogram() }
+        }
+        histogram.recordNanos(nanos)
+    }
+
+    fun snapshot(): List<Entry> {
+        val result = ArrayList<Entry>()
+        histograms.forEach { (category, names) ->
+            names.forEach { (name, histogram) ->
+                val count = histogram.count
+                if (count == 0L) return@forEach
+                result.add(Entry(category, name, count, histogram.percentile(0.5),
+                        histogram.percentile(0.95), histogram.max))
+            }
+        }
+        result.sortWith(compareBy<Entry> { it.category }.thenByDescending { it.count })
+        return result
+    }
+
+    fun reset() {
+        histograms.clear()
+    }
+
+    /**
+     * Plain text table of all entries, for sharing
+     */
+    fun dump(): String {
+        val sb = StringBuilder()
+        var lastCategory: String? = null
+        snapshot().forEach { entry ->
+            if (entry.category != lastCategory) {
+                if (lastCategory != null) sb.append('\n')
+                sb.append(entry.category).append('\n')
+                sb.append(String.format(Locale.US, "  %-40s %7s %9s %9s %9s\n", "name", "count",
+                        "p50", "p95", "max"))
+                lastCategory = entry.category
+            }
+            sb.append(String.format(Locale.US, "  %-40s %7d %9s %9s %9s\n", entry.name, entry.count,
+                    formatMicros(entry.p50), formatMicros(entry.p95), formatMicros(entry.max)))
+        }
+        return sb.toString()
+    }
+
+    fun formatMicros(micros: Long): String = when {
+        micros < 1000 -> "${micros}µs"
+        micros < 1000000 -> String.format(Locale.US, "%.1fms", micros / 1000.0)
+        else -> String.format(Locale.US, "%.2fs", micros / 1000000.0)
+    }
+
+    /**
+     * Latencies in microseconds
+     */
+    data class Entry(val category: String, val name: String, val count: Long, val p50: Long,
+            val p95: Long, val max: Long)
+}
@@ -0,0 +1,230 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.refresh
+
+import android.content.Context
+import android.content.SharedPreferences
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import org.mariotaku.twidere.TwidereConstants.ADAPTIVE_REFRESH_PREFERENCES_NAME
+import org.mariotaku.twidere.annotation.AutoRefreshType
+import org.mariotaku.twidere.model.UserKey
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Chooses auto refresh intervals from observed arrival rate of each timeline.
+ *
+ * Arrival rate is tracked per timeline and account, as exponentially weighted average of new
+ * items per minute, separately for each part of day, so quiet nights won't slow down refresh
+ * in busy evenings. Interval is chosen to fetch about [TARGET_ITEMS] items per refresh, within
+ * given bounds.
+ */
+class AdaptiveRefreshPlanner(
+        private val preferences: SharedPreferences?,
+        private val clock: () -> Long = System::currentTimeMillis,
+        private val timeZone: TimeZone = TimeZone.getDefault()
+) {
+
+    constructor(context: Context) : this(context.getSharedPreferences(ADAPTIVE_REFRESH_PREFERENCES_NAME,
+            Context.MODE_PRIVATE))
+
+    private val stats = HashMap<String, Stats>()
+    private val dueTimes = HashMap<String, Long>()
+
+    /**
+     * Records result of a refresh fetching [newItems] items newer than the previous one
+     */
+    @Synchronized
+    fun recordRefresh(@AutoRefreshType type: String, accountKey: UserKey, newItems: Int,
+            now: Long = clock()) {
+        val key = statsKey(type, accountKey)
+        val item = getStats(key) ?: Stats()
+        val elapsed = now - item.lastRefresh
+        if (item.lastRefresh > 0 && elapsed > 0) {
+            val minutes = elapsed.toDouble() / TimeUnit.MINUTES.toMillis(1)
+            // Items arrived during long gaps (e.g. device was off) were most likely truncated
+            // by page size, so gap is capped to one part of day
+            val sample = newItems / minutes.coerceAtMost(DAY_PART_MINUTES.toDouble())
+            val part = dayPart(now)
+            val previous = item.rates[part]
+            item.rates[part] = if (previous.isNaN()) sample else {
+                previous * (1 - RATE_WEIGHT) + sample * RATE_WEIGHT
+            }
+        }
+        item.lastRefresh = now
+        putStats(key, item)
+    }
+
+    /**
+     * Expected new items per minute, `NaN` if unknown
+     */
+    @Synchronized
+    fun arrivalRate(@AutoRefreshType type: String, accountKey: UserKey, now: Long = clock()): Double {
+        val item = getStats(statsKey(type, accountKey)) ?: return Double.NaN
+        if (now - item.lastRefresh > STATS_TTL) return Double.NaN
+        return item.rateAt(dayPart(now))
+    }
+
+    /**
+     * @param accountKeys Accounts to refresh, accounts covered by streaming should be excluded
+     * @return Delay before next refresh of [type], timeline without accounts will be refreshed
+     * with [maxMillis]
+     */
+    @Synchronized
+    fun interval(@AutoRefreshType type: String, accountKeys: Collection<UserKey>, minMillis: Long,
+            maxMillis: Long, now: Long = clock()): Long {
+        val max = maxMillis.coerceAtLeast(minMillis)
+        if (accountKeys.isEmpty()) return max
+        val part = dayPart(now)
+        val nextPart = (part + 1) % DAY_PARTS
+        val untilNextPart = timeUntilNextDayPart(now)
+        return accountKeys.map { accountKey ->
+            val item = getStats(statsKey(type, accountKey))
+            if (item == null || now - item.lastRefresh > STATS_TTL) return@map minMillis
+            // Don't sleep through beginning of next part of day if it's busier
+            val current = intervalForRate(item.rateAt(part), minMillis, max)
+            val next = untilNextPart + intervalForRate(item.rateAt(nextPart), minMillis, max)
+            return@map Math.min(current, next)
+        }.min()!!.coerceIn(minMillis, max)
+    }
+
+    @Synchronized
+    fun setDueTime(@AutoRefreshType type: String, time: Long) {
+        dueTimes[type] = time
+        preferences?.edit()?.putLong(DUE_PREFIX + type, time)?.apply()
+    }
+
+    /**
+     * @return Timelines other than [type] scheduled to refresh before [now] + [window]
+     */
+    @Synchronized
+    fun dueWithin(@AutoRefreshType type: String, window: Long, now: Long = clock()): List<String> {
+        return AutoRefreshType.ALL.filter { other ->
+            if (other == type) return@filter false
+            val due = dueTimes[other] ?: preferences?.getLong(DUE_PREFIX + other, 0) ?: 0
+            return@filter due > 0 && due <= now + window
+        }
+    }
+
+    internal fun dayPart(time: Long): Int {
+        val calendar = Calendar.getInstance(timeZone)
+        calendar.timeInMillis = time
+        return calendar.get(Calendar.HOUR_OF_DAY) * DAY_PARTS / 24
+    }
+
+    private fun timeUntilNextDayPart(time: Long): Long {
+        val calendar = Calendar.getInstance(timeZone)
+        calendar.timeInMillis = time
+        val hour = calendar.get(Calendar.HOUR_OF_DAY)
+        calendar.set(Calendar.HOUR_OF_DAY, (hour / DAY_PART_HOURS + 1) * DAY_PART_HOURS % 24)
+        calendar.set(Calendar.MINUTE, 0)
+        calendar.set(Calendar.SECOND, 0)
+        calendar.set(Calendar.MILLISECOND, 0)
+        if (calendar.timeInMillis <= time) {
+            calendar.add(Calendar.DAY_OF_MONTH, 1)
+        }
+        return calendar.timeInMillis - time
+    }
+
+    private fun getStats(key: String): Stats? {
+        stats[key]?.let { return it }
+        val json = preferences?.getString(STATS_PREFIX + key, null) ?: return null
+        val item = try {
+            Stats.parse(json)
+        } catch (e: JSONException) {
+            return null
+        }
+        stats[key] = item
+        return item
+    }
+
+    private fun putStats(key: String, item: Stats) {
+        stats[key] = item
+        preferences?.edit()?.putString(STATS_PREFIX + key, item.toJson())?.apply()
+    }
+
+    internal class Stats(
+            val rates: DoubleArray = DoubleArray(DAY_PARTS) { Double.NaN },
+            var lastRefresh: Long = 0
+    ) {
+
+        /**
+         * Rate of [part], falls back to average of other parts of day if not measured yet
+         */
+        fun rateAt(part: Int): Double {
+            val rate = rates[part]
+            if (!rate.isNaN()) return rate
+            val known = rates.filterNot(Double::isNaN)
+            if (known.isEmpty()) return Double.NaN
+            return known.average()
+        }
+
+        fun toJson(): String {
+            val array = JSONArray()
+            // NaN is not valid JSON number
+            rates.forEach { array.put(if (it.isNaN()) -1.0 else it) }
+            return JSONObject().put("rates", array).put("last_refresh", lastRefresh).toString()
+        }
+
+        companion object {
+            @Throws(JSONException::class)
+            fun parse(json: String): Stats {
+                val obj = JSONObject(json)
+                val array = obj.getJSONArray("rates")
+                val rates = DoubleArray(DAY_PARTS) { i ->
+                    val rate = array.optDouble(i, -1.0)
+                    if (rate < 0) Double.NaN else rate
+                }
+                return Stats(rates, obj.optLong("last_refresh"))
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Expected number of new items fetched by each refresh
+         */
+        const val TARGET_ITEMS = 5.0
+        const val DAY_PARTS = 4
+        private const val DAY_PART_HOURS = 24 / DAY_PARTS
+        private const val DAY_PART_MINUTES = DAY_PART_HOURS * 60
+        private const val RATE_WEIGHT = 0.3
+        private val STATS_TTL = TimeUnit.DAYS.toMillis(2)
+
+        private const val STATS_PREFIX = "stats_"
+        private const val DUE_PREFIX = "due_"
+
+        private fun statsKey(type: String, accountKey: UserKey) = "$type|$accountKey"
+
+        /**
+         * Unknown rate refreshes as often as allowed, no arrivals at all as rarely as allowed
+         */
+        internal fun intervalForRate(rate: Double, minMillis: Long, maxMillis: Long): Long {
+            if (rate.isNaN()) return minMillis
+            if (rate <= 0) return maxMillis
+            val millis = TARGET_ITEMS / rate * TimeUnit.MINUTES.toMillis(1)
+            if (millis >= maxMillis) return maxMillis
+            return millis.toLong().coerceIn(minMillis, maxMillis)
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.refresh
+
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs refresh requests of multiple accounts (or endpoints) concurrently on a shared bounded
+ * pool, so a refresh takes as long as the slowest request instead of all of them.
+ *
+ * Items of the same group (usually API host) run at most [maxPerGroup] at a time. Calling thread
+ * runs items not picked up by the pool yet, so nested calls won't starve the pool.
+ */
+class ConcurrentRefresher(
+        private val executor: Executor = sharedExecutor,
+        private val maxPerGroup: Int = 2
+) {
+
+    /**
+     * @param group Group of item, items with same group are throttled together
+     * @param action Runs on arbitrary thread as soon as possible, should store its result itself
+     * @return Results in same order as [items]
+     */
+    fun <T, R> map(items: List<T>, group: (T) -> Any?, action: (index: Int, item: T) -> R): List<R> {
+        if (items.size <= 1) return items.mapIndexed(action)
+        val results = arrayOfNulls<Any?>(items.size)
+        val lanes = items.indices.groupBy { group(items[it]) }.values.flatMap { indices ->
+            val queue = ConcurrentLinkedQueue(indices)
+            return@flatMap (0 until Math.min(maxPerGroup, indices.size)).map {
+                FutureTask<Unit> {
+                    while (true) {
+                        val index = queue.poll() ?: break
+                        results[index] = action(index, items[index])
+                    }
+                }
+            }
+        }
+        lanes.drop(1).forEach {
+            try {
+                executor.execute(it)
+            } catch (e: RejectedExecutionException) {
+                // Will run on calling thread
+            }
+        }
+        // FutureTask.run() returns immediately if it's started already
+        lanes.forEach(FutureTask<Unit>::run)
+        var error: Throwable? = null
+        lanes.forEach {
+            try {
+                it.get()
+            } catch (e: ExecutionException) {
+                if (error == null) error = e.cause ?: e
+            }
+        }
+        error?.let { throw it }
+        @Suppress("UNCHECKED_CAST")
+        return results.asList() as List<R>
+    }
+
+    companion object {
+
+        private const val MAX_THREADS = 4
+
+        private val sharedExecutor: ExecutorService by lazy {
+            val count = AtomicInteger()
+            ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS, LinkedBlockingQueue()) { r ->
+                Thread(r, "Refresh-${count.incrementAndGet()}").apply { isDaemon = true }
+            }.apply { allowCoreThreadTimeOut(true) }
+        }
+    }
+}
@@ -5,33 +5,54 @@ import android.app.job.JobInfo
 import android.app.job.JobScheduler
 import android.content.ComponentName
 import android.content.Context
+import android.content.SharedPreferences
 import android.os.Build
 import org.mariotaku.kpreferences.KPreferences
 import org.mariotaku.twidere.annotation.AutoRefreshType
+import org.mariotaku.twidere.constant.adaptiveRefreshKey
+import org.mariotaku.twidere.constant.maxRefreshIntervalKey
 import org.mariotaku.twidere.constant.refreshIntervalKey
 import org.mariotaku.twidere.service.JobTaskService
 import org.mariotaku.twidere.service.JobTaskService.Companion.JOB_ID_REFRESH_FILTERS_SUBSCRIPTIONS
 import org.mariotaku.twidere.service.JobTaskService.Companion.JOB_ID_REFRESH_LAUNCH_PRESENTATIONS
+import org.mariotaku.twidere.util.TaskServiceRunner
 import java.util.concurrent.TimeUnit
 import android.Manifest.permission as AndroidPermissions
 
 /**
  * Created by mariotaku on 2016/12/17.
+ *
+ * With adaptive refresh enabled, each timeline is scheduled as one-shot job with interval chosen
+ * by [AdaptiveRefreshPlanner], and rescheduled after refreshed.
  */
 
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 class JobSchedulerAutoRefreshController(
         context: Context,
-        kPreferences: KPreferences
+        kPreferences: KPreferences,
+        val preferences: SharedPreferences,
+        val planner: AdaptiveRefreshPlanner,
+        val streamingCoverage: StreamingCoverage
 ) : AutoRefreshController(context, kPreferences) {
     private val scheduler = context.getSystemService(Context.JOB_SCHEDULER_SERVICE) as JobScheduler
 
+    val isAdaptive: Boolean
+        get() = kPreferences[adaptiveRefreshKey]
+
+    init {
+        // Timelines skipped while streamed may have been scheduled with a long interval
+        streamingCoverage.onCoverageLost = { _, types ->
+            if (isAdaptive) types.forEach { schedule(it) }
+        }
+    }
+
     override fun appStarted() {
         val allJobs = scheduler.allPendingJobs
         AutoRefreshType.ALL.forEach { type ->
             val jobId = JobTaskService.getRefreshJobId(type)
-            if (allJobs.none { job -> job.id == jobId }) {
-                // Start non existing job
+            val job = allJobs.firstOrNull { job -> job.id == jobId }
+            // Start non existing job, or job scheduled before adaptive refresh toggled
+            if (job == null || job.isPeriodic == isAdaptive) {
                 schedule(type)
             }
         }
@@ -46,12 +67,30 @@ class JobSchedulerAutoRefreshController(
     override fun schedule(@AutoRefreshType type: String) {
         val jobId = JobTaskService.getRefreshJobId(type)
         scheduler.cancel(jobId)
-        scheduleJob(jobId)
+        if (isAdaptive) {
+            scheduleAdaptiveJob(type)
+        } else {
+            scheduleJob(jobId)
+        }
     }
 
     override fun unschedule(type: String) {
         val jobId = JobTaskService.getRefreshJobId(type)
         scheduler.cancel(jobId)
+        planner.setDueTime(type, 0)
+    }
+
+    /**
+     * Takes timelines due soon, so they can be refreshed together with [type] in one wakeup
+     *
+     * @return Timelines to refresh with [type], their jobs are cancelled and should be
+     * rescheduled with [schedule] after refreshed
+     */
+    fun takeBatch(@AutoRefreshType type: String): List<String> {
+        if (!isAdaptive) return emptyList()
+        val batch = planner.dueWithin(type, BATCH_WINDOW)
+        batch.forEach { scheduler.cancel(JobTaskService.getRefreshJobId(it)) }
+        return batch
     }
 
     fun scheduleJob(jobId: Int, periodMillis: Long = TimeUnit.MINUTES.toMillis(kPreferences[refreshIntervalKey]), persisted: Boolean = true) {
@@ -67,5 +106,34 @@ class JobSchedulerAutoRefreshController(
         }
     }
 
+    private fun scheduleAdaptiveJob(@AutoRefreshType type: String) {
+        val minInterval = TimeUnit.MINUTES.toMillis(kPreferences[refreshIntervalKey])
+        val maxInterval = TimeUnit.MINUTES.toMillis(kPreferences[maxRefreshIntervalKey])
+        val accountKeys = TaskServiceRunner.getRefreshableAccountKeys(context, preferences, type,
+                streamingCoverage)
+        val interval = planner.interval(type, accountKeys.asList(), minInterval, maxInterval)
+        planner.setDueTime(type, System.currentTimeMillis() + interval)
+        scheduleOneShotJob(JobTaskService.getRefreshJobId(type), interval, true)
+    }
+
+    private fun scheduleOneShotJob(jobId: Int, delayMillis: Long, persisted: Boolean) {
+        val builder = JobInfo.Builder(jobId, ComponentName(context, JobTaskService::class.java))
+        builder.setMinimumLatency(delayMillis)
+        // Allow system to align wakeup with other jobs
+        builder.setOverrideDeadline(delayMillis + delayMillis / 4)
+        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+        builder.setPersisted(persisted)
+        try {
+            scheduler.schedule(builder.build())
+        } catch (e: IllegalArgumentException) {
+            if (persisted) {
+                scheduleOneShotJob(jobId, delayMillis, false)
+            }
+        }
+    }
+
+    companion object {
+        private val BATCH_WINDOW = TimeUnit.MINUTES.toMillis(5)
+    }
 
 }
@@ -0,0 +1,74 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.refresh
+
+import okhttp3.HttpUrl
+import java.util.*
+
+/**
+ * Remembers rate limit state reported by `x-rate-limit-remaining` and `x-rate-limit-reset`
+ * headers, keyed by endpoint and credentials, so exhausted endpoints won't be requested again
+ * before limit resets.
+ */
+class RateLimitTracker(private val maxEntries: Int = 256) {
+
+    private val resetTimes = object : LinkedHashMap<String, Long>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Long>?): Boolean {
+            return size > maxEntries
+        }
+    }
+
+    @Synchronized
+    fun isLimited(key: String, now: Long = System.currentTimeMillis()): Boolean {
+        val resetTime = resetTimes[key] ?: return false
+        if (now < resetTime) return true
+        resetTimes.remove(key)
+        return false
+    }
+
+    /**
+     * @param remaining Value of `x-rate-limit-remaining` header
+     * @param reset Value of `x-rate-limit-reset` header, in epoch seconds
+     */
+    @Synchronized
+    fun update(key: String, remaining: String?, reset: String?) {
+        val remainingCount = remaining?.toIntOrNull() ?: return
+        if (remainingCount > 0) {
+            resetTimes.remove(key)
+            return
+        }
+        val resetTime = reset?.toLongOrNull() ?: return
+        resetTimes[key] = resetTime * 1000
+    }
+
+    companion object {
+
+        private val oauthTokenRegex = Regex("oauth_token=\"([^\"]*)\"")
+
+        /**
+         * Limits are counted per endpoint per user, OAuth signature changes in every request,
+         * so only token is taken into account
+         */
+        fun key(url: HttpUrl, authorization: String?): String {
+            val identity = authorization?.let { oauthTokenRegex.find(it)?.groupValues?.get(1) ?: it }
+            return "${url.host()}${url.encodedPath()}#${identity?.hashCode() ?: 0}"
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.refresh
+
+import org.mariotaku.twidere.annotation.AutoRefreshType
+import org.mariotaku.twidere.model.UserKey
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Tracks which timelines are currently delivered by a connected stream, so auto refresh
+ * can skip them.
+ */
+class StreamingCoverage {
+
+    private val covered = ConcurrentHashMap<UserKey, Set<String>>()
+
+    /**
+     * Called with timelines of an account no longer streamed, auto refresh skipping them should
+     * be scheduled again
+     */
+    var onCoverageLost: ((accountKey: UserKey, types: Set<String>) -> Unit)? = null
+
+    fun setCovered(accountKey: UserKey, @AutoRefreshType types: Set<String>) {
+        val previous = if (types.isEmpty()) {
+            covered.remove(accountKey)
+        } else {
+            covered.put(accountKey, types)
+        }
+        notifyLost(accountKey, previous.orEmpty() - types)
+    }
+
+    fun clear(accountKey: UserKey) {
+        notifyLost(accountKey, covered.remove(accountKey).orEmpty())
+    }
+
+    fun isCovered(@AutoRefreshType type: String, accountKey: UserKey): Boolean {
+        return covered[accountKey]?.contains(type) ?: false
+    }
+
+    private fun notifyLost(accountKey: UserKey, types: Set<String>) {
+        if (types.isEmpty()) return
+        onCoverageLost?.invoke(accountKey, types)
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.streaming
+
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Reconnect delays with ceiling doubling from [baseDelayMillis] up to [maxDelayMillis]. Actual
+ * delay is randomized below the ceiling, so connections dropped together don't come back together.
+ */
+class ExponentialBackoff(
+        private val baseDelayMillis: Long = TimeUnit.SECONDS.toMillis(5),
+        private val maxDelayMillis: Long = TimeUnit.MINUTES.toMillis(5),
+        private val random: Random = Random()
+) {
+
+    var attempts: Int = 0
+        private set
+
+    /**
+     * @return Delay in milliseconds before next attempt, at least half of [baseDelayMillis]
+     */
+    fun nextDelayMillis(): Long {
+        val ceiling = (baseDelayMillis shl attempts.coerceAtMost(MAX_SHIFT)).coerceAtMost(maxDelayMillis)
+        attempts++
+        val floor = baseDelayMillis / 2
+        return floor + (random.nextDouble() * (ceiling - floor)).toLong()
+    }
+
+    fun reset() {
+        attempts = 0
+    }
+
+    companion object {
+        private const val MAX_SHIFT = 20
+    }
+}
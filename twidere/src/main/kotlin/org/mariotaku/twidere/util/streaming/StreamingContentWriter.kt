@@ -0,0 +1,103 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.streaming
+
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.net.Uri
+import org.mariotaku.twidere.util.content.ContentResolverUtils
+import java.util.*
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Buffers streamed items and writes them with one `bulkInsert` per content uri, so a flush
+ * costs one transaction, one change notification and one notification refresh.
+ *
+ * Pending items are flushed when [maxPendingCount] reached, or [flushDelayMillis] after first
+ * item buffered.
+ */
+class StreamingContentWriter(
+        private val resolver: ContentResolver,
+        private val scheduler: ScheduledExecutorService,
+        private val maxPendingCount: Int = 20,
+        private val flushDelayMillis: Long = TimeUnit.SECONDS.toMillis(2)
+) {
+
+    private val pending = LinkedHashMap<Uri, MutableList<ContentValues>>()
+    private var pendingCount = 0
+    private var scheduledFlush: ScheduledFuture<*>? = null
+
+    private val flushLock = Any()
+    private val flushRunnable = Runnable { flush() }
+
+    fun insert(uri: Uri, values: ContentValues) {
+        val shouldFlush = synchronized(this) {
+            pending.getOrPut(uri) { ArrayList() }.add(values)
+            pendingCount++
+            if (pendingCount < maxPendingCount && scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(flushRunnable, flushDelayMillis,
+                        TimeUnit.MILLISECONDS)
+            }
+            return@synchronized pendingCount >= maxPendingCount
+        }
+        if (shouldFlush) {
+            flush()
+        }
+    }
+
+    /**
+     * Replaces a buffered item with [newValues]
+     *
+     * @return False if [oldValues] is not buffered (already written)
+     */
+    @Synchronized
+    fun replace(uri: Uri, oldValues: ContentValues, newValues: ContentValues): Boolean {
+        val list = pending[uri] ?: return false
+        val index = list.indexOfFirst { it === oldValues }
+        if (index < 0) return false
+        list[index] = newValues
+        return true
+    }
+
+    /**
+     * Writes all buffered items, blocks until ongoing flush finished.
+     *
+     * @return Number of rows inserted
+     */
+    fun flush(): Int = synchronized(flushLock) {
+        val batch = synchronized(this) {
+            scheduledFlush?.cancel(false)
+            scheduledFlush = null
+            if (pendingCount == 0) return@synchronized null
+            val copy = LinkedHashMap(pending)
+            pending.clear()
+            pendingCount = 0
+            return@synchronized copy
+        } ?: return@synchronized 0
+        var inserted = 0
+        for ((uri, values) in batch) {
+            inserted += ContentResolverUtils.bulkInsert(resolver, uri, values)
+        }
+        return@synchronized inserted
+    }
+
+}
@@ -1,17 +1,16 @@
 package org.mariotaku.twidere.util.sync
 
 import android.content.Context
-import android.support.v4.util.LongSparseArray
-import org.mariotaku.ktextension.map
-import org.mariotaku.ktextension.set
 import org.mariotaku.library.objectcursor.ObjectCursor
 import org.mariotaku.sqliteqb.library.Expression
 import org.mariotaku.twidere.extension.model.filename
 import org.mariotaku.twidere.extension.model.unique_id_non_null
+import org.mariotaku.twidere.extension.queryAll
 import org.mariotaku.twidere.model.Draft
 import org.mariotaku.twidere.provider.TwidereDataStore.Drafts
 import org.mariotaku.twidere.util.DebugLog
 import org.mariotaku.twidere.util.content.ContentResolverUtils
+import org.mariotaku.twidere.util.refresh.ConcurrentRefresher
 import java.io.File
 import java.io.FileNotFoundException
 import java.io.IOException
@@ -19,10 +18,19 @@ import java.util.*
 
 /**
  * Created by mariotaku on 2016/12/31.
+ *
+ * Drafts are merged against state of last sync (base snapshot), so a draft changed on one side
+ * only is copied to the other side, and deletions won't be undone by the other side. When
+ * both sides changed, newer draft wins.
  */
 
 abstract class FileBasedDraftsSyncAction<RemoteFileInfo>(val context: Context) : ISyncAction {
 
+    /**
+     * Transfers run concurrently, override to `1` if storage client isn't thread safe
+     */
+    open val maxParallelTransfers: Int = 4
+
     @Throws(IOException::class)
     override fun execute(): Boolean {
         DebugLog.d(LOGTAG_SYNC, "Begin syncing drafts")
@@ -34,139 +42,85 @@ abstract class FileBasedDraftsSyncAction<RemoteFileInfo>(val context: Context) :
         val syncDataDir: File = context.syncDataDir.mkdirIfNotExists() ?: return false
         val snapshotsListFile = File(syncDataDir, "draft_ids.list")
 
-        // Read last synced id
-        val snapshotIds: List<String> = try {
-            snapshotsListFile.readLines()
+        // Read last synced state
+        val snapshot: Map<String, SyncState> = try {
+            parseSnapshot(snapshotsListFile.readLines())
         } catch (e: FileNotFoundException) {
-            emptyList<String>()
-        }
-
-        val localDrafts = run {
-            val cur = context.contentResolver.query(Drafts.CONTENT_URI, Drafts.COLUMNS, null, null, null)!!
-            @Suppress("ConvertTryFinallyToUseCall")
-            try {
-                val indices = ObjectCursor.indicesFrom(cur, Draft::class.java)
-                return@run cur.map(indices)
-            } finally {
-                cur.close()
-            }
+            emptyMap()
         }
 
-        // Ids of draft removed locally, we will delete these from remote storage
-        val localRemovedIds = snapshotIds.filter { id -> localDrafts.none { draft -> draft.unique_id_non_null == id } }
-
-
+        val localDrafts = context.contentResolver.queryAll(Drafts.CONTENT_URI, Drafts.COLUMNS,
+                null, null, cls = Draft::class.java)
         val remoteDrafts = listRemoteDrafts()
-        // Download remote items
-        val downloadRemoteInfoList = ArrayList<RemoteFileInfo>()
-        // Remote remote items: snapshot has but database doesn't have
-        val removeRemoteInfoList = ArrayList<RemoteFileInfo>()
-        // Update local items using remote
-        val updateLocalInfoList = LongSparseArray<RemoteFileInfo>()
-        // Remove local items: snapshot has but remote doesn't have
-        val removeLocalIdsList = snapshotIds.filter { snapshotId ->
-            remoteDrafts.none { it.draftFileName == "$snapshotId.eml" }
-        }
-
-        val uploadLocalList = ArrayList<Draft>()
-
-        remoteDrafts.forEach { remoteDraft ->
-            val localDraft = localDrafts.find { it.filename == remoteDraft.draftFileName }
-            if (remoteDraft.draftFileName.substringBefore(".eml") in localRemovedIds) {
-                // Local removed, remove remote
-                removeRemoteInfoList.add(remoteDraft)
-            } else if (localDraft == null) {
-                // Local doesn't exist, download remote
-                downloadRemoteInfoList.add(remoteDraft)
-            } else if (remoteDraft.draftTimestamp - localDraft.timestamp > 1000) {
-                // Local is older, update from remote
-                localDraft.remote_extras = remoteDraft.draftRemoteExtras
-                updateLocalInfoList[localDraft._id] = remoteDraft
-            } else if (localDraft.timestamp - remoteDraft.draftTimestamp > 1000) {
-                // Local is newer, upload local
-                localDraft.remote_extras = remoteDraft.draftRemoteExtras
-                uploadLocalList.add(localDraft)
-            }
-        }
-
-        // Deal with local drafts that remote doesn't have
-        localDrafts.filterTo(uploadLocalList) { localDraft ->
-            if (remoteDrafts.any { it.draftFileName == localDraft.filename }) {
-                return@filterTo false
-            }
-            if (downloadRemoteInfoList.any { it.draftFileName == localDraft.filename }) {
-                return@filterTo false
-            }
-            if (removeRemoteInfoList.any { it.draftFileName == localDraft.filename }) {
-                return@filterTo false
-            }
-            if (localDraft.unique_id_non_null in removeLocalIdsList) {
-                return@filterTo false
-            }
-            if ((0 until updateLocalInfoList.size()).any { updateLocalInfoList.valueAt(it).draftFileName == localDraft.filename }) {
-                return@filterTo false
-            }
-            return@filterTo true
-        }
 
+        val changes = computeChanges(localDrafts, remoteDrafts, snapshot)
+        // State after sync, drafts failed to transfer keep their previous state
+        val newSnapshot = HashMap(changes.unchanged)
 
         // Upload local items
-        if (uploadLocalList.isNotEmpty()) {
-            val fileList = uploadLocalList.joinToString(",") { it.filename }
+        if (changes.upload.isNotEmpty()) {
+            val fileList = changes.upload.joinToString(",") { it.filename }
             DebugLog.d(LOGTAG_SYNC, "Uploading local drafts $fileList")
-            uploadDrafts(uploadLocalList)
+            uploadDrafts(changes.upload).forEachIndexed { index, info ->
+                val draft = changes.upload[index]
+                if (info != null) {
+                    newSnapshot[draft.unique_id_non_null] = SyncState(draft.timestamp, info.draftTimestamp)
+                } else {
+                    snapshot[draft.unique_id_non_null]?.let { newSnapshot[draft.unique_id_non_null] = it }
+                }
+            }
         }
 
         // Download remote items
-        if (downloadRemoteInfoList.isNotEmpty()) {
-            val fileList = downloadRemoteInfoList.joinToString(",") { it.draftFileName }
+        if (changes.download.isNotEmpty()) {
+            val fileList = changes.download.joinToString(",") { it.draftFileName }
             DebugLog.d(LOGTAG_SYNC, "Downloading remote drafts $fileList")
-            ContentResolverUtils.bulkInsert(context.contentResolver, Drafts.CONTENT_URI,
-                    downloadDrafts(downloadRemoteInfoList).map { ObjectCursor.valuesCreatorFrom(Draft::class.java).create(it) })
+            val creator = ObjectCursor.valuesCreatorFrom(Draft::class.java)
+            val downloaded = downloadDrafts(changes.download).mapIndexedNotNull { index, draft ->
+                if (draft == null) return@mapIndexedNotNull null
+                val info = changes.download[index]
+                newSnapshot[info.draftUniqueId] = SyncState(draft.timestamp, info.draftTimestamp)
+                return@mapIndexedNotNull creator.create(draft)
+            }
+            ContentResolverUtils.bulkInsert(context.contentResolver, Drafts.CONTENT_URI, downloaded)
         }
 
         // Update local items
-        if (updateLocalInfoList.size() > 0) {
-            val fileList = (0 until updateLocalInfoList.size()).joinToString(",") { updateLocalInfoList.valueAt(it).draftFileName }
+        if (changes.updateLocal.isNotEmpty()) {
+            val fileList = changes.updateLocal.joinToString(",") { it.second.draftFileName }
             DebugLog.d(LOGTAG_SYNC, "Updating local drafts $fileList")
             val creator = ObjectCursor.valuesCreatorFrom(Draft::class.java)
-            for (index in 0 until updateLocalInfoList.size()) {
-                val draft = Draft()
-                if (draft.loadFromRemote(updateLocalInfoList.valueAt(index))) {
-                    val _id = updateLocalInfoList.keyAt(index)
-                    val where = Expression.equals(Drafts._ID, _id).sql
-                    context.contentResolver.update(Drafts.CONTENT_URI, creator.create(draft), where,
-                            null)
+            downloadDrafts(changes.updateLocal.map { it.second }).forEachIndexed { index, draft ->
+                val (localDraft, info) = changes.updateLocal[index]
+                if (draft == null) {
+                    snapshot[info.draftUniqueId]?.let { newSnapshot[info.draftUniqueId] = it }
+                    return@forEachIndexed
                 }
+                draft.remote_extras = info.draftRemoteExtras
+                val where = Expression.equals(Drafts._ID, localDraft._id).sql
+                context.contentResolver.update(Drafts.CONTENT_URI, creator.create(draft), where, null)
+                newSnapshot[info.draftUniqueId] = SyncState(draft.timestamp, info.draftTimestamp)
             }
         }
 
         // Remove local items
-        if (removeLocalIdsList.isNotEmpty()) {
-            val fileList = removeLocalIdsList.joinToString(",") { "$it.eml" }
+        if (changes.removeLocal.isNotEmpty()) {
+            val fileList = changes.removeLocal.joinToString(",") { it.filename }
             DebugLog.d(LOGTAG_SYNC, "Removing local drafts $fileList")
             ContentResolverUtils.bulkDelete(context.contentResolver, Drafts.CONTENT_URI,
-                    Drafts.UNIQUE_ID, false, removeLocalIdsList, null, null)
+                    Drafts.UNIQUE_ID, false, changes.removeLocal.map { it.unique_id_non_null }, null, null)
         }
 
         // Remove remote items
-        if (removeRemoteInfoList.isNotEmpty()) {
-            val fileList = removeRemoteInfoList.joinToString(",") { it.draftFileName }
+        if (changes.removeRemote.isNotEmpty()) {
+            val fileList = changes.removeRemote.joinToString(",") { it.draftFileName }
             DebugLog.d(LOGTAG_SYNC, "Removing remote drafts $fileList")
-            removeDrafts(removeRemoteInfoList)
+            removeDrafts(changes.removeRemote)
         }
 
         snapshotsListFile.writer().use { writer ->
-            val cur = context.contentResolver.query(Drafts.CONTENT_URI, Drafts.COLUMNS, null, null, null)!!
-            @Suppress("ConvertTryFinallyToUseCall")
-            try {
-                val indices = ObjectCursor.indicesFrom(cur, Draft::class.java)
-                cur.map(indices).map { it.unique_id_non_null }.forEach { line ->
-                    writer.write(line)
-                    writer.write("\n")
-                }
-            } finally {
-                cur.close()
+            newSnapshot.forEach { (id, state) ->
+                writer.write("$id\t${state.localTimestamp}\t${state.remoteTimestamp}\n")
             }
         }
 
@@ -174,37 +128,90 @@ abstract class FileBasedDraftsSyncAction<RemoteFileInfo>(val context: Context) :
         return true
     }
 
+    /**
+     * Compares local and remote drafts with [snapshot] of last sync in a single pass
+     */
+    internal fun computeChanges(localDrafts: List<Draft>, remoteDrafts: List<RemoteFileInfo>,
+            snapshot: Map<String, SyncState>): Changes {
+        val localMap = localDrafts.associateBy { it.unique_id_non_null }
+        val remoteMap = remoteDrafts.associateBy { it.draftUniqueId }
+        val changes = Changes()
+        (localMap.keys + remoteMap.keys + snapshot.keys).forEach { id ->
+            val local = localMap[id]
+            val remote = remoteMap[id]
+            val base = snapshot[id]
+            if (local != null && remote != null) {
+                local.remote_extras = remote.draftRemoteExtras
+                val localChanged = base == null || base.localTimestamp < 0
+                        || local.timestamp != base.localTimestamp
+                val remoteChanged = base == null || base.remoteTimestamp < 0
+                        || remote.draftTimestamp != base.remoteTimestamp
+                when {
+                    !localChanged && !remoteChanged -> {
+                        changes.unchanged[id] = base!!
+                    }
+                    localChanged && remoteChanged -> {
+                        // Changed on both sides (or never synced), newer wins
+                        if (remote.draftTimestamp - local.timestamp > TIMESTAMP_TOLERANCE) {
+                            changes.updateLocal.add(Pair(local, remote))
+                        } else if (local.timestamp - remote.draftTimestamp > TIMESTAMP_TOLERANCE) {
+                            changes.upload.add(local)
+                        } else {
+                            changes.unchanged[id] = SyncState(local.timestamp, remote.draftTimestamp)
+                        }
+                    }
+                    localChanged -> changes.upload.add(local)
+                    else -> changes.updateLocal.add(Pair(local, remote))
+                }
+            } else if (local != null) {
+                if (base == null || local.timestamp != base.localTimestamp && base.localTimestamp >= 0) {
+                    // New draft, or edited after remote removed it
+                    changes.upload.add(local)
+                } else {
+                    changes.removeLocal.add(local)
+                }
+            } else if (remote != null) {
+                if (base == null || remote.draftTimestamp != base.remoteTimestamp && base.remoteTimestamp >= 0) {
+                    // New draft, or edited after local removed it
+                    changes.download.add(remote)
+                } else {
+                    changes.removeRemote.add(remote)
+                }
+            }
+            // Removed on both sides otherwise, forget it
+        }
+        return changes
+    }
+
     @Throws(IOException::class)
     abstract fun listRemoteDrafts(): List<RemoteFileInfo>
 
+    /**
+     * @return Drafts in same order as [list], `null` if failed to load
+     */
     @Throws(IOException::class)
-    open fun downloadDrafts(list: List<RemoteFileInfo>): List<Draft> {
-        val result = ArrayList<Draft>()
-        list.forEach {
+    open fun downloadDrafts(list: List<RemoteFileInfo>): List<Draft?> {
+        return ConcurrentRefresher(maxPerGroup = maxParallelTransfers).map(list, { null }) { _, info ->
             val draft = Draft()
-            if (draft.loadFromRemote(it)) {
-                result.add(draft)
-            }
+            return@map if (draft.loadFromRemote(info)) draft else null
         }
-        return result
     }
 
     @Throws(IOException::class)
     open fun removeDrafts(list: List<RemoteFileInfo>): Boolean {
-        var result = false
-        list.forEach { item ->
-            result = result or removeDraft(item)
-        }
-        return result
+        return ConcurrentRefresher(maxPerGroup = maxParallelTransfers).map(list, { null }) { _, item ->
+            removeDraft(item)
+        }.any { it }
     }
 
+    /**
+     * @return Uploaded remote files in same order as [list], `null` if failed to upload
+     */
     @Throws(IOException::class)
-    open fun uploadDrafts(list: List<Draft>): Boolean {
-        var result = false
-        list.forEach { item ->
-            result = result or (item.saveToRemote() != null)
+    open fun uploadDrafts(list: List<Draft>): List<RemoteFileInfo?> {
+        return ConcurrentRefresher(maxPerGroup = maxParallelTransfers).map(list, { null }) { _, item ->
+            item.saveToRemote()
         }
-        return result
     }
 
     @Throws(IOException::class)
@@ -220,6 +227,46 @@ abstract class FileBasedDraftsSyncAction<RemoteFileInfo>(val context: Context) :
     abstract val RemoteFileInfo.draftTimestamp: Long
     open val RemoteFileInfo.draftRemoteExtras: String? get() = null
 
+    private val RemoteFileInfo.draftUniqueId: String
+        get() = draftFileName.substringBefore(".eml")
+
     @Throws(IOException::class)
     open fun setup(): Boolean = true
+
+    internal inner class Changes {
+        val upload = ArrayList<Draft>()
+        val download = ArrayList<RemoteFileInfo>()
+        val updateLocal = ArrayList<Pair<Draft, RemoteFileInfo>>()
+        val removeLocal = ArrayList<Draft>()
+        val removeRemote = ArrayList<RemoteFileInfo>()
+        /**
+         * Drafts same on both sides, keyed by unique id
+         */
+        val unchanged = HashMap<String, SyncState>()
+    }
+
+    /**
+     * Timestamps of a draft when last synced, `-1` if unknown
+     */
+    data class SyncState(val localTimestamp: Long, val remoteTimestamp: Long)
+
+    companion object {
+
+        private const val TIMESTAMP_TOLERANCE = 1000
+
+        /**
+         * Parses lines of `id<TAB>local timestamp<TAB>remote timestamp`, snapshots written by
+         * older versions have ids only
+         */
+        internal fun parseSnapshot(lines: List<String>): Map<String, SyncState> {
+            val snapshot = HashMap<String, SyncState>()
+            lines.forEach { line ->
+                if (line.isBlank()) return@forEach
+                val segments = line.split('\t')
+                snapshot[segments[0]] = SyncState(segments.getOrNull(1)?.toLongOrNull() ?: -1,
+                        segments.getOrNull(2)?.toLongOrNull() ?: -1)
+            }
+            return snapshot
+        }
+    }
 }
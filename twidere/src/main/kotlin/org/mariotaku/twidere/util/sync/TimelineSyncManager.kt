@@ -21,50 +21,67 @@ package org.mariotaku.twidere.util.sync
 
 import android.content.Context
 import android.net.Uri
-import android.support.v4.util.ArrayMap
 import nl.komponents.kovenant.Promise
 import nl.komponents.kovenant.then
-import okio.ByteString
-import org.mariotaku.twidere.TwidereConstants.TIMELINE_SYNC_CACHE_PREFERENCES_NAME
 import org.mariotaku.twidere.annotation.ReadPositionTag
 import org.mariotaku.twidere.util.DebugLog
+import org.mariotaku.twidere.util.ReadPositionStore
+import org.mariotaku.twidere.util.dagger.DependencyHolder
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 /**
+ * Staged commits and fetched positions live in [ReadPositionStore] next to read positions, so
+ * staged positions survive process death and are written with them in one batch.
+ *
  * Created by mariotaku on 2017/4/13.
  */
 
 abstract class TimelineSyncManager(val context: Context) {
 
-    private val stagedCommits = ArrayMap<TimelineKey, Long>()
-    private val cachedPositions = context.getSharedPreferences(TIMELINE_SYNC_CACHE_PREFERENCES_NAME,
-            Context.MODE_PRIVATE)
+    private val store: ReadPositionStore by lazy {
+        val store = DependencyHolder.get(context).readStateManager.positionStore
+        store.addListener(STAGED_PREFIX) { key, position ->
+            if (position < 0) {
+                stagedKeys.remove(key)
+            } else {
+                stagedKeys.add(key)
+            }
+        }
+        stagedKeys.addAll(store.keys(STAGED_PREFIX))
+        return@lazy store
+    }
+    private val stagedKeys: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap())
 
     fun setPosition(@ReadPositionTag positionTag: String, currentTag: String?, positionKey: Long) {
-        stagedCommits[TimelineKey(positionTag, currentTag)] = positionKey
+        store[STAGED_PREFIX + timelineKey(positionTag, currentTag)] = positionKey
     }
 
     fun commit() {
-        val data = stagedCommits.map { (key, value) ->
-            PositionData(key.positionTag, key.currentTag, value)
+        val store = this.store
+        val data = stagedKeys.toList().mapNotNull { key ->
+            val position = store[key]
+            store.remove(key)
+            if (position < 0) return@mapNotNull null
+            val timelineKey = parseTimelineKey(key.substring(STAGED_PREFIX.length))
+            return@mapNotNull PositionData(timelineKey.positionTag, timelineKey.currentTag, position)
         }.toTypedArray()
-        stagedCommits.clear()
         if (data.isEmpty()) return
         putAllPosition(data)
     }
 
     fun fetchSingle(@ReadPositionTag positionTag: String, currentTag: String?) {
         getSinglePosition(positionTag, currentTag).then { position ->
-            cachedPositions.edit().putLong(cacheKey(positionTag, currentTag), position).apply()
+            store[CACHE_PREFIX + timelineKey(positionTag, currentTag)] = position
         }.fail {
             DebugLog.w(tr = it)
         }
     }
 
     fun peekPosition(@ReadPositionTag positionTag: String, currentTag: String?): Long {
-        val cacheKey = cacheKey(positionTag, currentTag)
-        val position = cachedPositions.getLong(cacheKey, -1)
-        cachedPositions.edit().remove(cacheKey).apply()
+        val cacheKey = CACHE_PREFIX + timelineKey(positionTag, currentTag)
+        val position = store[cacheKey]
+        store.remove(cacheKey)
         return position
     }
 
@@ -96,9 +113,18 @@ abstract class TimelineSyncManager(val context: Context) {
     companion object {
         fun newFactory(): Factory = ServiceLoader.load(Factory::class.java).firstOrNull() ?: DummyFactory
 
-        private fun cacheKey(@ReadPositionTag positionTag: String, currentTag: String?): String {
+        private const val STAGED_PREFIX = "sync_staged:"
+        private const val CACHE_PREFIX = "sync_cache:"
+
+        private fun timelineKey(@ReadPositionTag positionTag: String, currentTag: String?): String {
             if (currentTag == null) return positionTag
-            return ByteString.encodeUtf8("$positionTag:${Uri.encode(currentTag)}").sha1().hex()
+            return "$positionTag:${Uri.encode(currentTag)}"
+        }
+
+        private fun parseTimelineKey(key: String): TimelineKey {
+            val separator = key.indexOf(':')
+            if (separator < 0) return TimelineKey(key, null)
+            return TimelineKey(key.substring(0, separator), Uri.decode(key.substring(separator + 1)))
         }
     }
 
@@ -0,0 +1,230 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.upload
+
+import org.mariotaku.microblog.library.MicroBlogException
+import org.mariotaku.microblog.library.twitter.TwitterUpload
+import org.mariotaku.microblog.library.twitter.model.MediaUploadResponse
+import org.mariotaku.microblog.library.twitter.model.MediaUploadResponse.ProcessingInfo
+import org.mariotaku.restfu.http.ContentType
+import org.mariotaku.restfu.http.mime.Body
+import org.mariotaku.restfu.http.mime.SimpleBody
+import org.mariotaku.twidere.util.DebugLog
+import java.io.ByteArrayInputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.util.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.CRC32
+
+/**
+ * Chunked (INIT/APPEND/FINALIZE) media uploader.
+ *
+ * Segments are read in order and up to [parallelism] of them are sent at the same time. When
+ * [sessionStore] is set, acknowledged segments are recorded so calling [upload] again with same
+ * session key only sends segments server hasn't received yet.
+ */
+class ChunkedMediaUploader(
+        private val upload: TwitterUpload,
+        private val sessionStore: UploadSessionStore? = null,
+        private val parallelism: Int = 3,
+        private val executor: Executor = sharedExecutor
+) {
+
+    /**
+     * @param sessionKey Identifies content of [body], `null` to disable resuming
+     */
+    @Throws(IOException::class, MicroBlogException::class)
+    fun upload(sessionKey: String?, body: Body, mediaCategory: String? = null,
+            ownerIds: Array<String>? = null): MediaUploadResponse {
+        val length = body.length()
+        val session = obtainSession(sessionKey, body, mediaCategory, ownerIds)
+        try {
+            appendSegments(sessionKey, session, body.stream(), length)
+        } catch (e: MicroBlogException) {
+            // Server doesn't know this upload anymore, start over next time
+            if (e.statusCode in 400..499 && !e.isRateLimitExceeded) {
+                sessionKey?.let { sessionStore?.remove(it) }
+            }
+            throw e
+        }
+        val response = try {
+            upload.finalizeUploadMedia(session.mediaId)
+        } finally {
+            // FINALIZE can't be retried on the same media
+            sessionKey?.let { sessionStore?.remove(it) }
+        }
+        return waitForProcessing(response)
+    }
+
+    private fun obtainSession(sessionKey: String?, body: Body, mediaCategory: String?,
+            ownerIds: Array<String>?): UploadSessionStore.Session {
+        if (sessionKey != null) {
+            sessionStore?.get(sessionKey)?.let {
+                DebugLog.d(msg = "Resuming upload ${it.mediaId}, " +
+                        "${it.acknowledged.size} segments acknowledged")
+                return it
+            }
+        }
+        val response = upload.initUploadMedia(body.contentType().contentType, body.length(),
+                mediaCategory, ownerIds)
+        val session = UploadSessionStore.Session(response.id, segmentSize(sessionStore?.throughput ?: 0),
+                System.currentTimeMillis())
+        if (sessionKey != null) {
+            sessionStore?.put(sessionKey, session)
+        }
+        return session
+    }
+
+    private fun appendSegments(sessionKey: String?, session: UploadSessionStore.Session,
+            stream: InputStream, length: Long) {
+        val segmentSize = session.segmentSize
+        val segments = ((length + segmentSize - 1) / segmentSize).toInt()
+        val inFlight = ArrayDeque<FutureTask<Unit>>()
+        try {
+            for (index in 0 until segments) {
+                val size = Math.min(segmentSize.toLong(), length - index.toLong() * segmentSize).toInt()
+                val data = ByteArray(size)
+                stream.readFully(data)
+                val crc = CRC32().apply { update(data) }.value
+                if (session.acknowledged[index] == crc) continue
+                if (inFlight.size >= parallelism) {
+                    inFlight.poll().await()
+                }
+                val task = FutureTask<Unit> {
+                    val start = System.nanoTime()
+                    upload.appendUploadMedia(session.mediaId, index, SimpleBody(ContentType.OCTET_STREAM,
+                            null, size.toLong(), ByteArrayInputStream(data)))
+                    sessionStore?.recordThroughput(size.toLong(), System.nanoTime() - start)
+                    if (sessionKey != null) {
+                        sessionStore?.acknowledge(sessionKey, index, crc)
+                    }
+                }
+                try {
+                    executor.execute(task)
+                } catch (e: RejectedExecutionException) {
+                    // Will run on calling thread
+                }
+                inFlight.add(task)
+            }
+            while (inFlight.isNotEmpty()) {
+                inFlight.poll().await()
+            }
+        } finally {
+            // Don't leave segments running after failure, they would race with a retry
+            inFlight.forEach { it.cancel(true) }
+        }
+    }
+
+    @Throws(MicroBlogException::class)
+    private fun waitForProcessing(finalized: MediaUploadResponse): MediaUploadResponse {
+        var response = finalized
+        var info: ProcessingInfo? = response.processingInfo
+        val deadline = System.currentTimeMillis() + MAX_PROCESSING_WAIT
+        while (info != null && info.shouldWait) {
+            val remaining = deadline - System.currentTimeMillis()
+            if (remaining <= 0) break
+            val checkAfter = TimeUnit.SECONDS.toMillis(Math.max(info.checkAfterSecs, 1))
+            try {
+                Thread.sleep(Math.min(checkAfter, remaining))
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                break
+            }
+            response = upload.getUploadMediaStatus(response.id)
+            info = response.processingInfo
+        }
+        if (info != null && ProcessingInfo.State.FAILED == info.state) {
+            val exception = MicroBlogException()
+            info.error?.let { exception.errors = arrayOf(it) }
+            throw exception
+        }
+        return response
+    }
+
+    private val ProcessingInfo.shouldWait: Boolean
+        get() = when (state) {
+            ProcessingInfo.State.PENDING, ProcessingInfo.State.IN_PROGRESS -> true
+            else -> false
+        }
+
+    companion object {
+
+        const val MIN_SEGMENT_SIZE = 256 * 1024
+        const val MAX_SEGMENT_SIZE = 4 * 1024 * 1024
+        const val DEFAULT_SEGMENT_SIZE = 512 * 1024
+
+        /**
+         * Segments taking about this long are small enough to retry cheaply and large enough to
+         * keep request overhead low
+         */
+        private const val TARGET_SEGMENT_SECONDS = 4
+
+        private val MAX_PROCESSING_WAIT = TimeUnit.MINUTES.toMillis(5)
+
+        private const val MAX_THREADS = 4
+
+        private val sharedExecutor: ExecutorService by lazy {
+            val count = AtomicInteger()
+            ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS, LinkedBlockingQueue()) { r ->
+                Thread(r, "Upload-${count.incrementAndGet()}").apply { isDaemon = true }
+            }.apply { allowCoreThreadTimeOut(true) }
+        }
+
+        /**
+         * @param throughput Measured throughput in bytes per second
+         */
+        fun segmentSize(throughput: Long): Int {
+            if (throughput <= 0) return DEFAULT_SEGMENT_SIZE
+            val size = Math.min(throughput * TARGET_SEGMENT_SECONDS, MAX_SEGMENT_SIZE.toLong()).toInt()
+            // Round down to 64 KiB
+            return Math.max(size and 0xFFFF.inv(), MIN_SEGMENT_SIZE)
+        }
+
+        @Throws(IOException::class)
+        private fun InputStream.readFully(buffer: ByteArray) {
+            var offset = 0
+            while (offset < buffer.size) {
+                val read = read(buffer, offset, buffer.size - offset)
+                if (read < 0) throw EOFException()
+                offset += read
+            }
+        }
+
+        @Throws(IOException::class, MicroBlogException::class)
+        private fun FutureTask<Unit>.await() {
+            // FutureTask.run() returns immediately if it's started already
+            run()
+            try {
+                get()
+            } catch (e: ExecutionException) {
+                when (val cause = e.cause) {
+                    is IOException -> throw cause
+                    is MicroBlogException -> throw cause
+                    is RuntimeException -> throw cause
+                    else -> throw IOException(cause)
+                }
+            }
+        }
+    }
+}
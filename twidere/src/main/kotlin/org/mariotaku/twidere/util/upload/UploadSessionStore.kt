@@ -0,0 +1,156 @@
+/*
+ *             Twidere - Twitter client for Android
+ *
+ *  Copyright (C) 2012-2017 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mariotaku.twidere.util.upload
+
+import android.content.Context
+import android.content.SharedPreferences
+import org.json.JSONException
+import org.json.JSONObject
+import org.mariotaku.twidere.TwidereConstants.UPLOAD_SESSIONS_PREFERENCES_NAME
+import java.util.concurrent.TimeUnit
+
+/**
+ * Persists chunked upload sessions, so a failed upload can be resumed from segments already
+ * acknowledged by server, instead of starting over.
+ *
+ * Also remembers measured upload throughput, used to choose segment size for new sessions.
+ */
+class UploadSessionStore(private val preferences: SharedPreferences) {
+
+    constructor(context: Context) : this(context.getSharedPreferences(UPLOAD_SESSIONS_PREFERENCES_NAME,
+            Context.MODE_PRIVATE))
+
+    /**
+     * Average upload throughput in bytes per second, `0` if never measured
+     */
+    val throughput: Long
+        @Synchronized get() = preferences.getLong(KEY_THROUGHPUT, 0)
+
+    @Synchronized
+    operator fun get(key: String): Session? {
+        val json = preferences.getString(SESSION_PREFIX + key, null) ?: return null
+        val session = try {
+            Session.parse(json)
+        } catch (e: JSONException) {
+            null
+        }
+        if (session == null || System.currentTimeMillis() - session.createdAt > SESSION_TTL) {
+            remove(key)
+            return null
+        }
+        return session
+    }
+
+    @Synchronized
+    fun put(key: String, session: Session) {
+        preferences.edit().putString(SESSION_PREFIX + key, session.toJson()).apply()
+    }
+
+    @Synchronized
+    fun remove(key: String) {
+        preferences.edit().remove(SESSION_PREFIX + key).apply()
+    }
+
+    /**
+     * Records segment [index] with checksum [crc] as acknowledged by server
+     */
+    @Synchronized
+    fun acknowledge(key: String, index: Int, crc: Long) {
+        val session = get(key) ?: return
+        session.acknowledged[index] = crc
+        put(key, session)
+    }
+
+    @Synchronized
+    fun recordThroughput(bytes: Long, nanos: Long) {
+        if (bytes <= 0 || nanos <= 0) return
+        val measured = bytes * TimeUnit.SECONDS.toNanos(1) / nanos
+        val previous = preferences.getLong(KEY_THROUGHPUT, 0)
+        val average = if (previous <= 0) measured else {
+            (previous * (1 - THROUGHPUT_WEIGHT) + measured * THROUGHPUT_WEIGHT).toLong()
+        }
+        preferences.edit().putLong(KEY_THROUGHPUT, average).apply()
+    }
+
+    /**
+     * Removes expired sessions
+     */
+    @Synchronized
+    fun trim() {
+        val editor = preferences.edit()
+        val now = System.currentTimeMillis()
+        preferences.all.forEach { (key, value) ->
+            if (!key.startsWith(SESSION_PREFIX)) return@forEach
+            val session = try {
+                (value as? String)?.let { Session.parse(it) }
+            } catch (e: JSONException) {
+                null
+            }
+            if (session == null || now - session.createdAt > SESSION_TTL) {
+                editor.remove(key)
+            }
+        }
+        editor.apply()
+    }
+
+    class Session(
+            val mediaId: String,
+            val segmentSize: Int,
+            val createdAt: Long,
+            /**
+             * Segment index to CRC32 of segment content
+             */
+            val acknowledged: MutableMap<Int, Long> = HashMap()
+    ) {
+
+        internal fun toJson(): String {
+            val segments = JSONObject()
+            acknowledged.forEach { (index, crc) -> segments.put(index.toString(), crc) }
+            return JSONObject().put("media_id", mediaId).put("segment_size", segmentSize)
+                    .put("created_at", createdAt).put("acknowledged", segments).toString()
+        }
+
+        companion object {
+
+            @Throws(JSONException::class)
+            internal fun parse(json: String): Session {
+                val obj = JSONObject(json)
+                val session = Session(obj.getString("media_id"), obj.getInt("segment_size"),
+                        obj.getLong("created_at"))
+                val segments = obj.optJSONObject("acknowledged")
+                segments?.keys()?.forEach { index ->
+                    session.acknowledged[index.toInt()] = segments.getLong(index)
+                }
+                return session
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Twitter keeps uploaded but not finalized media for 24 hours, be conservative
+         */
+        private val SESSION_TTL = TimeUnit.HOURS.toMillis(12)
+        private const val THROUGHPUT_WEIGHT = 0.3
+        private const val SESSION_PREFIX = "session_"
+        private const val KEY_THROUGHPUT = "throughput"
+    }
+}